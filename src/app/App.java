@@ -8,10 +8,15 @@ import org.lwjgl.opengl.*;
 import org.lwjgl.system.MemoryStack;
 
 import geometry.Rect2D;
+import geometry.SamplingAlgorithm;
+import geometry.TriangulationAlgorithm;
 import map.Map;
 import map.MapGenerator;
 import map.MapGeometryGenerator;
+import map.MapStorageMode;
 import map.PerlinTopography;
+import map.StageCache;
+import math.PerlinGradients;
 import math.RandomGenerator;
 import types.Pair;
 import view.color.GrayscaleColorTheme;
@@ -29,6 +34,7 @@ import view.scene.Camera;
 import view.scene.MapGenerationTask;
 import view.scene.MapItem;
 import view.scene.MapMeshBuilder;
+import view.scene.MapPregenerationQueue;
 import view.scene.MapScene;
 import view.scene.Material;
 import view.scene.Mesh;
@@ -45,7 +51,9 @@ import static org.lwjgl.opengl.GL11.glViewport;
 import static org.lwjgl.system.MemoryStack.stackPush;
 
 import java.nio.IntBuffer;
+import java.nio.file.Path;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 // Main application.
 public class App implements UI.UIEventHandler {
@@ -76,6 +84,16 @@ public class App implements UI.UIEventHandler {
 		public double minSampleDistance = 1;
 		// More candidates => more evenly spaced sample points but slower generation.
 		public int numSampleCandidates = 20;
+		// Algorithm used to triangulate the tile seeds.
+		public TriangulationAlgorithm triangulation = TriangulationAlgorithm.SweepHull;
+		// Construct the map tiles on multiple threads. Does not change the result.
+		// Only used with the sweep-hull triangulations.
+		public boolean isTesselationParallel = false;
+		// Algorithm used to generate the tile seeds.
+		public SamplingAlgorithm sampling = SamplingAlgorithm.Bridson;
+		// Where the map's nodes and tiles are kept. Storing them off the heap
+		// or in mapped files allows maps that are larger than the heap.
+		public MapStorageMode mapStorage = MapStorageMode.Heap;
 		// More octaves => Wider and wider areas are affected by values of
 		// individual noise values of higher octave passes. Leads to zoomed in
 		// appearance on features of the map.
@@ -83,16 +101,52 @@ public class App implements UI.UIEventHandler {
 		// Larger persistence => Larger and smoother features.
 		// Smaller persistence => Smaller and choppier features.
 		public double persistence = 2;
+		// How the gradients of the Perlin noise grid are provided.
+		public PerlinGradients perlinGradients = PerlinGradients.Grid;
+		// Calculate elevations on multiple threads. Does not change the result.
+		public boolean isTopographyParallel = true;
+		// Resetting keeps the tiles of the current map and only generates new
+		// elevations for them, as long as the geometry specs are unchanged.
+		public boolean isResetKeepingGeometry = false;
+		// Memory for results of generation stages that are reused when a map
+		// is generated again from the same inputs. 0 => No caching.
+		public int stageCacheMegabytes = 512;
+		// Write results that do not fit into memory anymore to disk.
+		public boolean isStageCacheSpilling = false;
+		public int stageCacheSpillMegabytes = 2048;
+		// Directory that generated maps are saved to and loaded from when the
+		// same map is requested again. Loading maps the file into memory
+		// instead of reading it. null => No snapshots.
+		public Path mapSnapshotDir = null;
+		// Number of maps that are generated ahead of time, so that resetting
+		// shows a new map right away. 0 => No pregeneration. Not used when
+		// resetting keeps the geometry.
+		public int numPregeneratedMaps = 0;
+		// Memory that the pregenerated maps and their meshes may take up.
+		public int pregenerationMegabytes = 1024;
+		// Coarse previews are shown while a map is generated. Each preview's
+		// min sample distance is larger by one of the factors, coarsest first,
+		// e.g. {8, 3}. Empty => No previews.
+		public double[] previewSampleDistanceFactors = {};
 	}
 	
 	// Creates a model spec from an app-wide spec.
 	private static Map.Spec makeModelSpec(Spec appSpec) {
+		return makeModelSpec(appSpec, ForkJoinPool.commonPool());
+	}
+	
+	// Creates a model spec from an app-wide spec whose parallel stages run in
+	// a given pool.
+	private static Map.Spec makeModelSpec(Spec appSpec, ForkJoinPool pool) {
 		Rect2D bounds = new Rect2D(0, 0, appSpec.mapWidth, appSpec.mapHeight);
 		return new Map.Spec(
 				new MapGeometryGenerator.Spec(bounds, appSpec.minSampleDistance,
-						appSpec.numSampleCandidates),
+						appSpec.numSampleCandidates, appSpec.triangulation,
+						appSpec.sampling, appSpec.mapStorage,
+						appSpec.isTesselationParallel, pool),
 				new PerlinTopography.Spec(bounds, appSpec.numOctaves,
-						appSpec.persistence));
+						appSpec.persistence, appSpec.perlinGradients,
+						appSpec.isTopographyParallel, false, pool));
 	}
 	
 	private static MapMeshBuilder.Spec makeMeshBuilderSpec(Spec spec, Random rand) {
@@ -144,6 +198,14 @@ public class App implements UI.UIEventHandler {
 	private Skybox skybox;
 	private UI ui;
 	private MapGenerationTask mapGen = new MapGenerationTask();
+	// Status of the running map generation that is shown in the UI.
+	private String shownGenerationStatus = "";
+	// Most recently generated map.
+	private Map map;
+	// Results of map generation stages or null.
+	private StageCache stageCache;
+	// Maps that are generated ahead of time or null.
+	private MapPregenerationQueue pregenQueue;
 	private MapItem placeholderItem;
 
 	public void run() {
@@ -160,6 +222,8 @@ public class App implements UI.UIEventHandler {
 	private void setup() throws Exception {
 		setupSpec();
 		setupRandomization();
+		setupStageCache();
+		setupPregeneration();
 		startMapGeneration();
 		setupGlfw();
 		setupWindow();
@@ -193,49 +257,165 @@ public class App implements UI.UIEventHandler {
 		else
 			randGen = new RandomGenerator();
 	}
-	
+
+	private void setupStageCache() {
+		if (spec.stageCacheMegabytes <= 0)
+			return;
+
+		final long megabyte = 1024 * 1024;
+		if (spec.isStageCacheSpilling)
+			stageCache = new StageCache(new StageCache.Spec(
+					spec.stageCacheMegabytes * megabyte,
+					StageCache.defaultSpillDir(),
+					spec.stageCacheSpillMegabytes * megabyte));
+		else
+			stageCache = new StageCache(new StageCache.Spec(
+					spec.stageCacheMegabytes * megabyte));
+	}
+
+	private void setupPregeneration() {
+		if (spec.numPregeneratedMaps <= 0 || spec.isResetKeepingGeometry)
+			return;
+
+		final long megabyte = 1024 * 1024;
+		// Pregenerated maps run their parallel stages on low priority threads.
+		pregenQueue = new MapPregenerationQueue(new MapPregenerationQueue.Spec(
+				makeModelSpec(spec, MapPregenerationQueue.pool()),
+				rand -> makeMeshBuilderSpec(spec, rand),
+				spec.numPregeneratedMaps,
+				spec.pregenerationMegabytes * megabyte,
+				spec.mapSnapshotDir));
+	}
+
 	private void startMapGeneration() {
 		if (ui != null) {
 			ui.setSeedInfo(makeSeedInfo(randGen.seed()));
 			ui.setStatusText("Generating map...");
-			ui.enable(false);
 		}
+		shownGenerationStatus = "";
 		
 		if (mapScene != null) {
-			mapScene.clear();
+			clearMapScene();
 			mapScene.addItem(placeholderItem);
 		}		
 		
-		mapGen.start(makeModelSpec(spec), randGen.rand());
+		// Pregenerating would compete with the generation for the CPU.
+		if (pregenQueue != null)
+			pregenQueue.pause();
+		// Previews take their colors from their own generator, because the
+		// app-wide one is in use by the generation.
+		final long previewSeed = randGen.seed();
+		mapGen.start(makeModelSpec(spec), randGen.rand(), stageCache,
+				spec.mapSnapshotDir, randGen.seed(),
+				spec.previewSampleDistanceFactors,
+				coarse -> new MapMeshBuilder(
+						coarse,
+						makeMeshBuilderSpec(spec, new Random(previewSeed))
+						).buildData());
+	}
+	
+	// Starts generating new elevations for the current map.
+	private void startTopographyGeneration() {
+		if (ui != null) {
+			ui.setSeedInfo(makeSeedInfo(randGen.seed()));
+			ui.setStatusText("Generating elevations...");
+		}
+		shownGenerationStatus = "";
+		
+		clearMapScene();
+		mapScene.addItem(placeholderItem);
+		
+		mapGen.startRetopograph(map, makeModelSpec(spec).topo, randGen.rand());
+	}
+	
+	// Checks whether the current map's geometry can be kept when generating
+	// a new map.
+	private boolean canKeepGeometry() {
+		return spec.isResetKeepingGeometry && map != null &&
+				map.spec().geom.equals(makeModelSpec(spec).geom);
 	}
 	
 	private void finishMapGeneration() {
-		mapScene.removeItem(placeholderItem);
+		clearMapScene();
 
-		createMapItem();
+		Map generated = mapGen.map();
 		mapGen.clean();
+		shownGenerationStatus = "";
+		if (generated != null) {
+			// Generating new elevations keeps the map.
+			if (map != null && map != generated)
+				mapGen.closeWhenIdle(map);
+			map = generated;
+			createMapItem();
+		}
 
+		if (ui != null)
+			ui.setStatusText(generated != null ? "" : "Generating map failed.");
+		if (pregenQueue != null)
+			pregenQueue.resume();
+	}
+	
+	// Shows a map that was generated ahead of time instead of generating one.
+	// Stops the running map generation.
+	private void showPregeneratedMap(MapPregenerationQueue.Entry pregenerated) {
+		mapGen.cancel();
+		shownGenerationStatus = "";
+		randGen = pregenerated.randGen;
+		if (map != null)
+			mapGen.closeWhenIdle(map);
+		map = pregenerated.map;
+		
+		clearMapScene();
+		createMapItem(pregenerated.meshData.makeMesh());
+		
 		if (ui != null) {
+			ui.setSeedInfo(makeSeedInfo(randGen.seed()));
 			ui.setStatusText("");
-			ui.enable(true);
 		}
+		pregenQueue.resume();
 	}
 	
 	private void checkMapGeneration() {
 		if (!mapGen.hasStarted())
 			return;
 		
-		if (mapGen.hasFinished())
+		if (mapGen.hasFinished()) {
 			finishMapGeneration();
-		else
+		} else {
+			showGenerationPreview();
+			showGenerationStatus();
 			animatePlaceholderMap();
+		}
+	}
+	
+	// Shows the latest coarse preview of the running map generation in place
+	// of the placeholder or the previous preview.
+	private void showGenerationPreview() {
+		MapGenerationTask.Preview preview = mapGen.takePreview();
+		if (preview == null)
+			return;
+		clearMapScene();
+		createMapItem(preview.meshData.makeMesh());
+	}
+	
+	// Shows the stage and progress of the running map generation. Only updates
+	// the UI when the status changes.
+	private void showGenerationStatus() {
+		String status = mapGen.statusText();
+		if (ui == null || status.isEmpty() || status.equals(shownGenerationStatus))
+			return;
+		ui.setStatusText(status);
+		shownGenerationStatus = status;
 	}
 	
 	private void createMapItem() {
-		Mesh mapMesh = new MapMeshBuilder(
-				mapGen.map(),
+		createMapItem(new MapMeshBuilder(
+				map,
 				makeMeshBuilderSpec(spec, randGen.rand())
-				).build();
+				).build());
+	}
+	
+	private void createMapItem(Mesh mapMesh) {
 		Vector4f mapColor = new Vector4f(0.4f, 0.2f, 0.8f, 1.0f);
 		float mapReflectance = 0.3f;
         MapItem mapItem = new MapItem(mapMesh, new Material(mapColor, mapReflectance));
@@ -245,6 +425,13 @@ public class App implements UI.UIEventHandler {
 		mapScene.addItem(mapItem);
 	}
 	
+	// Removes all items from the map scene. The placeholder item is reused
+	// and therefore not cleaned up.
+	private void clearMapScene() {
+		mapScene.removeItem(placeholderItem);
+		mapScene.clear();
+	}
+	
 	private void setupPlaceholderItem() {
 		placeholderItem = createPlaceholderItem();
 		mapScene.addItem(placeholderItem);
@@ -395,7 +582,6 @@ public class App implements UI.UIEventHandler {
 	
 	private void setupUI() throws Exception {
 		ui = new UI(makeSeedInfo(randGen.seed()), this);
-		ui.enable(!mapGen.hasStarted());
 		ui.setStatusText(mapGen.hasStarted() ? "Generating map..." : "");
 	}
 	
@@ -474,8 +660,18 @@ public class App implements UI.UIEventHandler {
 	
     public void onReset()
     {
+    	MapPregenerationQueue.Entry pregenerated =
+    			(pregenQueue != null) ? pregenQueue.poll() : null;
+    	if (pregenerated != null) {
+    		showPregeneratedMap(pregenerated);
+    		return;
+    	}
+    	
     	randGen.reset();
-    	startMapGeneration();
+    	if (canKeepGeometry())
+    		startTopographyGeneration();
+    	else
+    		startMapGeneration();
     }
     
 	public static void main(String[] args) {
@@ -1,7 +1,5 @@
 package geometry;
 
-import math.FpUtil;
-
 // Algorithm to intersect convex polygons.
 public class ConvexPolygonIntersection2D {
 
@@ -56,12 +54,11 @@ public class ConvexPolygonIntersection2D {
 		// towards the inside of the (ccw) polygon. Being on the edge is also
 		// considered 'inside'. 
 		public boolean isPointOnInside(Point2D pt) {
-			Vector2D v = new Vector2D(curEdge.startPoint(), pt);
-			return FpUtil.fpLessEqual(curEdge.direction().perpDot(v), 0.0);
+			return Predicates2D.orient(curEdge.startPoint(), curEdge.endPoint(), pt) >= 0;
 		}
 		
 		public boolean isEdgeCcwOrCollinear(LineSegment2D e) {
-			return FpUtil.fpLessEqual(curEdge.direction().perpDot(e.direction()), 0);
+			return Predicates2D.orient(curEdge.direction(), e.direction()) >= 0;
 		}
 		
 		// Returns the index of the edge that the algorithm associates with a
@@ -206,7 +203,7 @@ public class ConvexPolygonIntersection2D {
 	private static boolean isCcw(Polygon2D poly) {
 		// Since we know it's a convex polygon we only have to check the
 		// orientation of the first two edges.
-		return poly.edge(0).direction().isCcw(poly.edge(1).direction());
+		return Predicates2D.orient(poly.vertex(0), poly.vertex(1), poly.vertex(2)) > 0;
 	}
 	
 	// Adds a given point to a given polygon if the polygon does not contain it already.
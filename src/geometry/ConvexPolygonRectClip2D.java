@@ -0,0 +1,354 @@
+package geometry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import math.FpUtil;
+
+
+// Algorithm to clip convex polygons at an axis-aligned rectangle.
+// Faster than intersecting with the rectangle as a general polygon:
+// - Polygons that are completely inside the rectangle are not clipped at all.
+// - Other polygons are clipped at one side of the rectangle after the other.
+// Also clips unbounded convex polygons, e.g. Voronoi tiles at the hull of the
+// sample points, that are given as a chain of vertices with rays at both ends.
+// The rays are cut at a box around the rectangle and the chain is closed along
+// the box.
+// Reuses its buffers for multiple polygons, so an instance should not be used
+// by multiple threads.
+// Source:
+// https://en.wikipedia.org/wiki/Sutherland%E2%80%93Hodgman_algorithm
+public class ConvexPolygonRectClip2D {
+
+	private final double left;
+	private final double top;
+	private final double right;
+	private final double bottom;
+	// Vertices of the polygon that is being clipped.
+	private double[] xs = new double[16];
+	private double[] ys = new double[16];
+	private int numVertices = 0;
+	// Buffer for the output of each clipping step.
+	private double[] outXs = new double[16];
+	private double[] outYs = new double[16];
+	private int numOutVertices = 0;
+	// Result of the last ray exit calculation.
+	private double rayExitX;
+	private double rayExitY;
+
+	public ConvexPolygonRectClip2D(Rect2D rect) {
+		this.left = rect.left();
+		this.top = rect.top();
+		this.right = rect.right();
+		this.bottom = rect.bottom();
+	}
+
+	// Clips a given convex polygon at a given rectangle.
+	public static Polygon2D clip(Polygon2D poly, Rect2D rect) {
+		return new ConvexPolygonRectClip2D(rect).clip(poly);
+	}
+
+	// Clips a given convex polygon. The result is ccw.
+	public Polygon2D clip(Polygon2D poly) {
+		clear();
+		for (int i = 0; i < poly.countVertices(); ++i)
+			addVertex(poly.vertex(i).x, poly.vertex(i).y);
+		return clipPolygon();
+	}
+
+	// Clips an unbounded convex polygon that is given by a ccw chain of vertices
+	// and the directions of rays that lead from the first and last vertices to
+	// infinity. The result is ccw.
+	public Polygon2D clipUnbounded(List<Point2D> chain, Vector2D firstRay,
+			Vector2D lastRay) {
+		clear();
+		for (Point2D pt : chain)
+			addVertex(pt.x, pt.y);
+		return clipUnboundedPolygon(firstRay.x, firstRay.y, lastRay.x, lastRay.y);
+	}
+
+	// Interface to provide the polygon vertex by vertex without creating point
+	// objects. Call clear(), then addVertex() for each vertex, then one of the
+	// clip functions.
+
+	void clear() {
+		numVertices = 0;
+	}
+
+	// Adds a vertex to the polygon that will be clipped. Vertices that are equal
+	// to the previous vertex are skipped.
+	void addVertex(double x, double y) {
+		if (numVertices > 0 && FpUtil.fpEqual(x, xs[numVertices - 1]) &&
+				FpUtil.fpEqual(y, ys[numVertices - 1]))
+			return;
+		appendVertex(x, y);
+	}
+
+	// Clips the added vertices as closed polygon.
+	Polygon2D clipPolygon() {
+		if (numVertices == 0)
+			return new Polygon2D();
+		if (isCw())
+			reverse();
+
+		if (!isInside()) {
+			clipAtSide(true, left, true);
+			clipAtSide(false, top, true);
+			clipAtSide(true, right, false);
+			clipAtSide(false, bottom, false);
+		}
+
+		return makePolygon();
+	}
+
+	// Clips the added vertices as ccw chain of an unbounded polygon with rays
+	// with given directions at both ends.
+	Polygon2D clipUnboundedPolygon(double firstRayX, double firstRayY,
+			double lastRayX, double lastRayY) {
+		if (numVertices == 0)
+			return new Polygon2D();
+
+		// Find a box that contains the rectangle and all vertices with a
+		// margin, so that the rays start inside of it.
+		double boxLeft = left;
+		double boxTop = top;
+		double boxRight = right;
+		double boxBottom = bottom;
+		for (int i = 0; i < numVertices; ++i) {
+			boxLeft = Math.min(boxLeft, xs[i]);
+			boxTop = Math.min(boxTop, ys[i]);
+			boxRight = Math.max(boxRight, xs[i]);
+			boxBottom = Math.max(boxBottom, ys[i]);
+		}
+		double margin = 0.25 * Math.max(boxRight - boxLeft, boxBottom - boxTop);
+		if (margin <= 0)
+			margin = 1;
+		Rect2D box = new Rect2D(boxLeft - margin, boxTop - margin,
+				boxRight + margin, boxBottom + margin);
+
+		if (closeAtRayIntersection(firstRayX, firstRayY, lastRayX, lastRayY))
+			return clipPolygon();
+
+		// Close the polygon by following the last ray to the box, then the box
+		// ccw to the point where the first ray leaves it and back along the first
+		// ray.
+		double firstParam = calcRayExit(box, xs[0], ys[0], firstRayX, firstRayY);
+		double firstExitX = rayExitX;
+		double firstExitY = rayExitY;
+		double lastParam = calcRayExit(box, xs[numVertices - 1], ys[numVertices - 1],
+				lastRayX, lastRayY);
+		addVertex(rayExitX, rayExitY);
+
+		double dist = firstParam - lastParam;
+		if (dist < 0)
+			dist += 4;
+		for (int corner = (int) Math.floor(lastParam) + 1; corner < lastParam + dist;
+				++corner) {
+			appendBoxCorner(box, corner % 4);
+		}
+		addVertex(firstExitX, firstExitY);
+
+		clipAtSide(true, left, true);
+		clipAtSide(false, top, true);
+		clipAtSide(true, right, false);
+		clipAtSide(false, bottom, false);
+
+		return makePolygon();
+	}
+
+	// Closes the polygon at the intersection of the rays if they intersect.
+	// This can happen for almost degenerate polygons due to floating point
+	// inaccuracies. Returns whether the polygon was closed.
+	private boolean closeAtRayIntersection(double firstRayX, double firstRayY,
+			double lastRayX, double lastRayY) {
+		final double denom = lastRayX * firstRayY - lastRayY * firstRayX;
+		if (denom == 0)
+			return false;
+
+		final double lastX = xs[numVertices - 1];
+		final double lastY = ys[numVertices - 1];
+		final double dx = xs[0] - lastX;
+		final double dy = ys[0] - lastY;
+		// Parameters of the intersection along the last and first rays.
+		final double s = (dx * firstRayY - dy * firstRayX) / denom;
+		final double t = (dx * lastRayY - dy * lastRayX) / denom;
+		if (s <= 0 || t <= 0)
+			return false;
+
+		addVertex(lastX + s * lastRayX, lastY + s * lastRayY);
+		return true;
+	}
+
+	// Calculates the point where a ray from a given point in a given direction
+	// leaves a given box. The point is stored in rayExitX and rayExitY. Returns
+	// the position of the point along the box's outline. The outline is
+	// parameterized ccw in the range [0, 4) starting at the left-top corner.
+	// Each side covers a range of length 1.
+	private double calcRayExit(Rect2D box, double x, double y, double dirX,
+			double dirY) {
+		double tx = Double.POSITIVE_INFINITY;
+		if (dirX > 0)
+			tx = (box.right() - x) / dirX;
+		else if (dirX < 0)
+			tx = (box.left() - x) / dirX;
+		double ty = Double.POSITIVE_INFINITY;
+		if (dirY > 0)
+			ty = (box.bottom() - y) / dirY;
+		else if (dirY < 0)
+			ty = (box.top() - y) / dirY;
+
+		double param;
+		if (tx <= ty) {
+			rayExitX = (dirX > 0) ? box.right() : box.left();
+			rayExitY = clamp(y + tx * dirY, box.top(), box.bottom());
+			double frac = (rayExitY - box.top()) / box.height();
+			param = (dirX > 0) ? 2 + (1 - frac) : frac;
+		} else {
+			rayExitY = (dirY > 0) ? box.bottom() : box.top();
+			rayExitX = clamp(x + ty * dirX, box.left(), box.right());
+			double frac = (rayExitX - box.left()) / box.width();
+			param = (dirY > 0) ? 1 + frac : 3 + (1 - frac);
+		}
+		return (param >= 4) ? param - 4 : param;
+	}
+
+	// Appends a corner of a given box. The corners are indexed ccw starting at
+	// the left-top corner.
+	private void appendBoxCorner(Rect2D box, int corner) {
+		switch (corner) {
+		case 0:
+			addVertex(box.left(), box.top());
+			break;
+		case 1:
+			addVertex(box.left(), box.bottom());
+			break;
+		case 2:
+			addVertex(box.right(), box.bottom());
+			break;
+		default:
+			addVertex(box.right(), box.top());
+			break;
+		}
+	}
+
+	// Checks if all vertices are inside the rectangle.
+	private boolean isInside() {
+		for (int i = 0; i < numVertices; ++i) {
+			if (xs[i] < left || xs[i] > right || ys[i] < top || ys[i] > bottom)
+				return false;
+		}
+		return true;
+	}
+
+	// Checks if the polygon is oriented cw.
+	private boolean isCw() {
+		// Twice the signed area. Negative values are ccw in the screen
+		// coordinate system.
+		double area = 0;
+		for (int i = 0, prev = numVertices - 1; i < numVertices; prev = i++)
+			area += xs[prev] * ys[i] - xs[i] * ys[prev];
+		return area > 0;
+	}
+
+	private void reverse() {
+		for (int i = 0, j = numVertices - 1; i < j; ++i, --j) {
+			double tmpX = xs[i];
+			double tmpY = ys[i];
+			xs[i] = xs[j];
+			ys[i] = ys[j];
+			xs[j] = tmpX;
+			ys[j] = tmpY;
+		}
+	}
+
+	// Clips the polygon at one side of the rectangle.
+	// The side is given by whether it is a vertical line (at an x-coordinate)
+	// and by its position. Depending on a given flag, either the part of the
+	// polygon with larger or with smaller coordinates is kept.
+	private void clipAtSide(boolean isVertical, double pos, boolean keepLarger) {
+		ensureOutputCapacity(2 * numVertices);
+		numOutVertices = 0;
+
+		for (int i = 0, prev = numVertices - 1; i < numVertices; prev = i++) {
+			double cur = isVertical ? xs[i] : ys[i];
+			double prv = isVertical ? xs[prev] : ys[prev];
+			boolean isCurInside = keepLarger ? cur >= pos : cur <= pos;
+			boolean isPrevInside = keepLarger ? prv >= pos : prv <= pos;
+
+			if (isCurInside != isPrevInside)
+				appendIntersection(prev, i, isVertical, pos);
+			if (isCurInside)
+				appendOutput(xs[i], ys[i]);
+		}
+
+		// Swap buffers.
+		double[] tmpXs = xs;
+		double[] tmpYs = ys;
+		xs = outXs;
+		ys = outYs;
+		numVertices = numOutVertices;
+		outXs = tmpXs;
+		outYs = tmpYs;
+	}
+
+	// Appends the intersection of the edge between two given vertices with the
+	// given side of the rectangle to the output.
+	private void appendIntersection(int a, int b, boolean isVertical, double pos) {
+		if (isVertical) {
+			double t = (pos - xs[a]) / (xs[b] - xs[a]);
+			appendOutput(pos, ys[a] + t * (ys[b] - ys[a]));
+		} else {
+			double t = (pos - ys[a]) / (ys[b] - ys[a]);
+			appendOutput(xs[a] + t * (xs[b] - xs[a]), pos);
+		}
+	}
+
+	// Creates a polygon from the current vertices. Skips duplicate vertices
+	// that clipping can produce.
+	private Polygon2D makePolygon() {
+		List<Point2D> vertices = new ArrayList<Point2D>(numVertices);
+		for (int i = 0; i < numVertices; ++i) {
+			Point2D pt = new Point2D(xs[i], ys[i]);
+			if (vertices.isEmpty() || !pt.equals(vertices.get(vertices.size() - 1)))
+				vertices.add(pt);
+		}
+
+		int last = vertices.size() - 1;
+		if (last > 0 && vertices.get(last).equals(vertices.get(0)))
+			vertices.remove(last);
+		return new Polygon2D(vertices);
+	}
+
+	private void appendVertex(double x, double y) {
+		if (numVertices == xs.length) {
+			xs = grow(xs);
+			ys = grow(ys);
+		}
+		xs[numVertices] = x;
+		ys[numVertices] = y;
+		++numVertices;
+	}
+
+	private void appendOutput(double x, double y) {
+		outXs[numOutVertices] = x;
+		outYs[numOutVertices] = y;
+		++numOutVertices;
+	}
+
+	private void ensureOutputCapacity(int capacity) {
+		if (outXs.length < capacity) {
+			outXs = new double[Math.max(capacity, 2 * outXs.length)];
+			outYs = new double[outXs.length];
+		}
+	}
+
+	private static double[] grow(double[] arr) {
+		double[] grown = new double[2 * arr.length];
+		System.arraycopy(arr, 0, grown, 0, arr.length);
+		return grown;
+	}
+
+	private static double clamp(double val, double min, double max) {
+		return Math.max(min, Math.min(max, val));
+	}
+}
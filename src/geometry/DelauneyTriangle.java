@@ -2,8 +2,6 @@ package geometry;
 
 import java.util.Objects;
 
-import math.FpUtil;
-
 
 //Triangle extended with additional information and an interface
 //customized for operations needed for Delauney triangulation. 
@@ -16,12 +14,23 @@ public class DelauneyTriangle extends Object {
 	// Optimization: Cache squared radius of circumcircle to speed checks
 	// for point in circumcircle. 
 	private final double radiusSquared;
+	// Optimization: Cache the sign of the triangle's orientation to interpret
+	// in-circle tests without recalculating it.
+	private final double orientationSign;
 	
-	public DelauneyTriangle(Triangle2D t) throws GeometryException {
+	// The given triangle must not be degenerate. Its circumcircle and
+	// orientation would be undefined.
+	public DelauneyTriangle(Triangle2D t) {
+		if (t.isDegenerate())
+			throw new IllegalArgumentException("Degenerate triangle " +
+					t.vertex(0) + ", " + t.vertex(1) + ", " + t.vertex(2) +
+					" has no circumcircle.");
 		triangle = t;
 		circumcircle = t.calcCircumcircle();
 		bounds = GeometryUtil.calcBoundingBox(t.vertexArray());
 		radiusSquared = circumcircle.radius * circumcircle.radius;
+		orientationSign = Math.signum(
+				Predicates2D.orient(t.vertex(0), t.vertex(1), t.vertex(2)));
 	}
 	
 	@Override
@@ -43,11 +52,7 @@ public class DelauneyTriangle extends Object {
 	}
 	
 	public DelauneyTriangle copy() {
-		try {
-			return new DelauneyTriangle(triangle.copy());
-		} catch (GeometryException e) {
-			return null;
-		}
+		return new DelauneyTriangle(triangle.copy());
 	}
 	
 	public Triangle2D triangle() {
@@ -71,9 +76,10 @@ public class DelauneyTriangle extends Object {
 		return triangle.edge(idx);
 	}
 	
+	// Checks if a given point is inside or on the circumcircle.
 	public boolean isPointInCircumcircle(Point2D pt) {
-		return FpUtil.fpLessEqual(
-				Point2D.distanceSquared(pt, circumcircle.center), radiusSquared);
+		return orientationSign * Predicates2D.inCircle(triangle.vertex(0),
+				triangle.vertex(1), triangle.vertex(2), pt) <= 0;
 	}
 	
 	public Point2D circumcenter() {
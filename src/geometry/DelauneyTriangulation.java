@@ -7,6 +7,8 @@ import java.util.List;
 import java.util.Set;
 
 import math.FpUtil;
+import math.MathUtil;
+import types.TaskControl;
 
 
 // Implementation of Bowyer-Watson algorithm to perform a Delauney triangulation
@@ -18,32 +20,42 @@ import math.FpUtil;
 // http://paulbourke.net/papers/triangulate/
 public class DelauneyTriangulation {
 	
-	// Data structure to hold individual edges of triangles. 
+	// Data structure to hold individual edges of triangles.
+	// Keeps the original vertices of the edges instead of line segments, so that
+	// new triangles are built from the exact sample points.
 	private static class EdgeBuffer {
-		private List<LineSegment2D> edges = new ArrayList<LineSegment2D>();
+		private List<Point2D> starts = new ArrayList<Point2D>();
+		private List<Point2D> ends = new ArrayList<Point2D>();
 
 		void addEdges(DelauneyTriangle t) {
-			for (int j = 0; j <= 2; ++j)
-				edges.add(t.edge(j));
+			for (int j = 0; j <= 2; ++j) {
+				starts.add(t.vertex(j));
+				ends.add(t.vertex(MathUtil.cyclicNext(j, 3)));
+			}
 		}
 		
 		int size() {
-			return edges.size();
+			return starts.size();
+		}
+		
+		Point2D start(int idx) {
+			return starts.get(idx);
 		}
 		
-		LineSegment2D get(int idx) {
-			return edges.get(idx);
+		Point2D end(int idx) {
+			return ends.get(idx);
 		}
 		
 		void clear() {
-			edges.clear();
+			starts.clear();
+			ends.clear();
 		}
 		
 		void removeDuplicates() {
 			Set<Integer> duplicates = new HashSet<Integer>();
-			for (int i = 0; i < edges.size(); ++i) {
-				for (int j = i + 1; j < edges.size(); ++j) {
-					if (isDuplicateEdge(edges.get(i), edges.get(j))) {
+			for (int i = 0; i < size(); ++i) {
+				for (int j = i + 1; j < size(); ++j) {
+					if (isDuplicateEdge(i, j)) {
 						// Remove both duplicates!
 						duplicates.add(i);
 						duplicates.add(j);
@@ -54,20 +66,25 @@ public class DelauneyTriangulation {
 			List<Integer> sorted = new ArrayList<Integer>(duplicates); 
 	        Collections.sort(sorted);
 	        
-	        for (int i = sorted.size() - 1; i >= 0; --i)
-	        	edges.remove((int)sorted.get(i));
+	        for (int i = sorted.size() - 1; i >= 0; --i) {
+	        	starts.remove((int)sorted.get(i));
+	        	ends.remove((int)sorted.get(i));
+	        }
 	    }
 		
-		private boolean isDuplicateEdge(LineSegment2D a, LineSegment2D b) {
-			Point2D sa = a.startPoint(); 
-			Point2D ea = a.endPoint();
-			Point2D sb = b.startPoint();
-			Point2D eb = b.endPoint();
+		private boolean isDuplicateEdge(int a, int b) {
+			Point2D sa = starts.get(a); 
+			Point2D ea = ends.get(a);
+			Point2D sb = starts.get(b);
+			Point2D eb = ends.get(b);
 			return (sa.equals(sb) && ea.equals(eb)) ||
 					(sa.equals(eb) && ea.equals(sb));
 		}
 	}
 	
+	// Mask of the sample counter that selects the samples at which progress is
+	// reported and cancellation is checked, i.e. every 4096th sample.
+	private static final int PROGRESS_MASK = 0xFFF;
 	// List of points that define the triangulation.
 	private final List<Point2D> samples;
 	// Triangle that bounds all input points.
@@ -98,30 +115,33 @@ public class DelauneyTriangulation {
 		Collections.sort(samples, Point2D.makeXComparator());
 	}
 	
+	// Caller is responsible that sample points does not contain duplicates.
+	public DelauneyTriangulation(PointSet samplePoints) {
+		this(samplePoints.toPoints());
+	}
+	
 	// Starts the Delauney triangulation.
 	public List<Triangle2D> triangulate() {
 		if (boundingTriangle.isDegenerate())
 			return new ArrayList<Triangle2D>();
 		
-		try {
-			triangulation.add(new DelauneyTriangle(boundingTriangle));
-			EdgeBuffer edges = new EdgeBuffer();
-			
-			for (Point2D sample : samples) {
-				edges.clear();
-				findEnclosingPolygonEdges(sample, edges);
-				edges.removeDuplicates();
-				generateNewTriangles(sample, edges);
-			}
-			
-			settleRemainingTriangles();
-			removeTrianglesSharingVertices(boundingTriangle);
-		} catch (GeometryException e) {
-			// Abort the triangulation.
-			triangulation.clear();
-			settledTriangles.clear();
+		triangulation.add(new DelauneyTriangle(boundingTriangle));
+		EdgeBuffer edges = new EdgeBuffer();
+		TaskControl control = TaskControl.current();
+		
+		for (int i = 0; i < samples.size(); ++i) {
+			if ((i & PROGRESS_MASK) == 0)
+				control.setProgress(i, samples.size());
+			Point2D sample = samples.get(i);
+			edges.clear();
+			findEnclosingPolygonEdges(sample, edges);
+			edges.removeDuplicates();
+			generateNewTriangles(sample, edges);
 		}
 		
+		settleRemainingTriangles();
+		removeTrianglesSharingVertices(boundingTriangle);
+		
 		return prepareResult(settledTriangles);
 	}
 	
@@ -159,15 +179,10 @@ public class DelauneyTriangulation {
 	// For each given edge generate a new triangle with a given sample point.
 	private void generateNewTriangles(Point2D sample, EdgeBuffer edges) {
 		for (int i = 0; i < edges.size(); ++i) {
-			LineSegment2D e = edges.get(i);
-			try {
-				Triangle2D t = new Triangle2D(sample, e.startPoint(), e.endPoint());
-				// Skip triangles that are lines or points.
-				if (!t.isDegenerate())
-					triangulation.add(new DelauneyTriangle(t));
-			} catch (GeometryException ex) {
-				// Skip this triangle.
-			}
+			Triangle2D t = new Triangle2D(sample, edges.start(i), edges.end(i));
+			// Skip triangles that are lines or points.
+			if (!t.isDegenerate())
+				triangulation.add(new DelauneyTriangle(t));
 		}
 	}
 	
@@ -245,14 +260,12 @@ public class DelauneyTriangulation {
 	public static boolean isDelauneyConditionSatisfied(List<Triangle2D> triangles) {
 		Set<Point2D> vertices = collectPoints(triangles);
 		for (Triangle2D t : triangles) {
-			try {
-				Circle2D ccircle = t.calcCircumcircle();
-				for (Point2D p : vertices) {
-					if (ccircle.isPointInsideCircle(p))
-						return false;
-				}
-			} catch (GeometryException e) {
-				// Skip triangle.
+			// Skip degenerate triangles.
+			if (t.isDegenerate())
+				continue;
+			for (Point2D p : vertices) {
+				if (Predicates2D.inCircle(t.vertex(0), t.vertex(1), t.vertex(2), p) < 0)
+					return false;
 			}
 		}
 		
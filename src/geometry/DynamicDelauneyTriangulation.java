@@ -0,0 +1,1096 @@
+package geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import math.FpUtil;
+
+
+// Delauney triangulation that can be changed by inserting and removing sample
+// points after it was created.
+// Each change only repairs the part of the triangulation that is affected by
+// it and reports which triangles were removed and added, so that data derived
+// from the triangulation, e.g. Voronoi tiles, can be updated locally instead of
+// being rebuilt.
+// - Inserting a point removes all triangles whose circumcircles contain the
+//   point (its cavity) and connects the point to the cavity's outline. Points
+//   outside the hull also connect to all hull edges that they can see.
+// - Removing a point removes all triangles around it and triangulates the
+//   resulting hole by repeatedly cutting off ears whose circumcircles do not
+//   contain any other outline point. Edges are flipped afterwards if
+//   necessary.
+// - Time: O(k) for k affected triangles plus the time to walk to the point.
+// The data is stored in the same format as by SweepHullTriangulation. Removed
+// triangles leave gaps in the triangle array that are reused by later
+// insertions. Removed samples keep their index.
+public class DynamicDelauneyTriangulation {
+
+	///////////////
+
+	// Changes that an insertion or removal made to the triangulation.
+	public static class Change {
+		// Index of the sample that was inserted or removed.
+		public final int sample;
+		// Sample indices of the triangles that were removed, as triples.
+		public final int[] removedTriangles;
+		// Indices of the triangles that were added. Triangles whose vertices
+		// changed are reported as removed and added.
+		public final int[] addedTriangles;
+		// Indices of the samples that are vertices of removed or added
+		// triangles. Their Voronoi tiles and neighbors might have changed.
+		public final int[] affectedSamples;
+
+		private Change(int sample, int[] removedTriangles, int[] addedTriangles,
+				int[] affectedSamples) {
+			this.sample = sample;
+			this.removedTriangles = removedTriangles;
+			this.addedTriangles = addedTriangles;
+			this.affectedSamples = affectedSamples;
+		}
+
+		public boolean isEmpty() {
+			return removedTriangles.length == 0 && addedTriangles.length == 0;
+		}
+	}
+
+	///////////////
+
+	// Growable list of ints.
+	private static class IntList {
+		private int[] data = new int[16];
+		private int size = 0;
+
+		public void add(int val) {
+			if (size == data.length)
+				data = Arrays.copyOf(data, 2 * size);
+			data[size++] = val;
+		}
+
+		public int get(int idx) {
+			return data[idx];
+		}
+
+		public void set(int idx, int val) {
+			data[idx] = val;
+		}
+
+		public void remove(int idx) {
+			System.arraycopy(data, idx + 1, data, idx, size - idx - 1);
+			--size;
+		}
+
+		public int pop() {
+			return data[--size];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public boolean isEmpty() {
+			return size == 0;
+		}
+
+		public void clear() {
+			size = 0;
+		}
+
+		public int[] toArray() {
+			return Arrays.copyOf(data, size);
+		}
+	}
+
+	///////////////
+
+	// Marker for half-edges without opposite half-edge.
+	public static final int NO_EDGE = SweepHullTriangulation.NO_EDGE;
+	// Marker for samples that are not a vertex of any triangle.
+	private static final int NO_VERTEX_EDGE = -1;
+	private static final int MIN_SAMPLE_CAPACITY = 16;
+
+	// Coordinates of the samples in x, y order.
+	private double[] coords;
+	private int numSamples;
+	private boolean[] isRemoved;
+	// For each sample, a half-edge that starts at it.
+	private int[] vertexEdges;
+	// Lookup of sample indices by location.
+	private final PointIndex<Integer> sampleLookup;
+	// Triangles as triples of sample indices. Removed triangles are marked by
+	// a negative first vertex.
+	private int[] triangles;
+	// Opposite half-edge for each half-edge.
+	private int[] halfedges;
+	// Number of used entries in the triangle and half-edge arrays including
+	// removed triangles.
+	private int trianglesLen;
+	// Removed triangles whose entries can be reused.
+	private final IntList freeTriangles = new IntList();
+	// Triangle to start searching for points from.
+	private int lastTriangle = 0;
+	// State of the pseudo-random sequence used to pick triangles to start
+	// searching from. Fixed, so that the triangulation is deterministic.
+	private long walkSeed = 1;
+
+	// Temporary data used while changing the triangulation.
+	// Marks are compared to a stamp that changes for each step, so that they
+	// never have to be cleared.
+	private int[] triangleMarks = new int[0];
+	private int[] sampleMarks = new int[0];
+	private int markStamp = 0;
+	// Marks of triangles that were added or modified by the current change.
+	private int[] changeMarks = new int[0];
+	private int changeStamp = 0;
+	private final IntList cavity = new IntList();
+	private final IntList outlineStarts = new IntList();
+	private final IntList outlineEnds = new IntList();
+	private final IntList outlineTwins = new IntList();
+	private final IntList removed = new IntList();
+	private final IntList added = new IntList();
+	private final IntList edgeStack = new IntList();
+	// Temporary data used while finding Voronoi tiles.
+	private final IntList cellTriangles = new IntList();
+	private final double[] centers = new double[4];
+
+	// Caller is responsible that sample points does not contain duplicates.
+	public DynamicDelauneyTriangulation(List<Point2D> samplePoints) {
+		this(PointSet.fromPoints(samplePoints));
+	}
+
+	// Caller is responsible that sample points does not contain duplicates.
+	public DynamicDelauneyTriangulation(PointSet samplePoints) {
+		this.numSamples = samplePoints.size();
+		final int capacity = Math.max(numSamples, MIN_SAMPLE_CAPACITY);
+		this.coords = Arrays.copyOf(samplePoints.toCoords(), 2 * capacity);
+		this.isRemoved = new boolean[capacity];
+		this.sampleLookup = new PointIndex<Integer>(numSamples);
+		for (int i = 0; i < numSamples; ++i)
+			if (sampleLookup.get(samplePoints.x(i), samplePoints.y(i)) == null)
+				sampleLookup.put(samplePoints.x(i), samplePoints.y(i), i);
+
+		SweepHullTriangulation initial =
+				new SweepHullTriangulation(samplePoints.coords());
+		initial.run();
+		this.trianglesLen = 3 * initial.countTriangles();
+		this.triangles = Arrays.copyOf(initial.triangles(), Math.max(trianglesLen, 3));
+		this.halfedges = Arrays.copyOf(initial.halfedges(), triangles.length);
+
+		this.vertexEdges = new int[isRemoved.length];
+		Arrays.fill(vertexEdges, NO_VERTEX_EDGE);
+		for (int e = 0; e < trianglesLen; ++e)
+			vertexEdges[triangles[e]] = e;
+	}
+
+	public int countSamples() {
+		return numSamples;
+	}
+
+	public double sampleX(int sample) {
+		return coords[2 * sample];
+	}
+
+	public double sampleY(int sample) {
+		return coords[2 * sample + 1];
+	}
+
+	public Point2D sample(int sample) {
+		return new Point2D(sampleX(sample), sampleY(sample));
+	}
+
+	public boolean isSampleRemoved(int sample) {
+		return isRemoved[sample];
+	}
+
+	// Returns the index of the sample at a given location or -1.
+	public int findSample(Point2D pt) {
+		Integer sample = sampleLookup.get(pt);
+		if (sample == null || isRemoved[sample])
+			return -1;
+		return sample;
+	}
+
+	// Returns the number of triangle entries including removed triangles.
+	// Valid triangle indices are smaller than this number.
+	public int countTriangleEntries() {
+		return trianglesLen / 3;
+	}
+
+	public boolean isTriangleRemoved(int t) {
+		return triangles[3 * t] < 0;
+	}
+
+	// Returns the sample index of a given vertex of a given triangle.
+	public int triangleVertex(int t, int vertex) {
+		return triangles[3 * t + vertex];
+	}
+
+	// Returns the triangle that shares the edge starting at a given vertex of a
+	// given triangle or -1 if the edge is on the hull.
+	public int adjacentTriangle(int t, int vertex) {
+		int opposite = halfedges[3 * t + vertex];
+		return (opposite != NO_EDGE) ? opposite / 3 : -1;
+	}
+
+	// Creates a triangle object for the triangle at a given index.
+	public Triangle2D triangle(int t) {
+		return new Triangle2D(sample(triangles[3 * t]), sample(triangles[3 * t + 1]),
+				sample(triangles[3 * t + 2]));
+	}
+
+	// Returns all triangles that are currently part of the triangulation.
+	public List<Triangle2D> triangles() {
+		List<Triangle2D> result = new ArrayList<Triangle2D>();
+		for (int t = 0; t < countTriangleEntries(); ++t)
+			if (!isTriangleRemoved(t))
+				result.add(triangle(t));
+		return result;
+	}
+
+	// Returns the samples that share an edge with a given sample in cw order.
+	// Empty if the sample is not a vertex of the triangulation.
+	public int[] sampleNeighbors(int sample) {
+		IntList neighbors = new IntList();
+		final int e0 = findInedge(sample);
+		if (e0 == NO_VERTEX_EDGE)
+			return neighbors.toArray();
+
+		// Each half-edge that ends at the sample starts at a neighbor. A walk
+		// around a hull sample stops at the hull half-edge that starts at the
+		// sample, whose end is the last neighbor.
+		int e = e0;
+		int last;
+		do {
+			neighbors.add(triangles[e]);
+			last = e;
+			e = halfedges[nextHalfedge(e)];
+		} while (e != NO_EDGE && e != e0);
+		if (e == NO_EDGE)
+			neighbors.add(triangles[prevHalfedge(last)]);
+		return neighbors.toArray();
+	}
+
+	// Returns the Voronoi tile of a given sample clipped by a given border or
+	// an empty polygon if the sample is not a vertex of the triangulation.
+	// Makes the tile like VoronoiTesselation makes the tiles of triangulations
+	// with adjacency (see VoronoiDualGraph), so that the tiles of changed
+	// samples match the tiles of a tesselation of all samples.
+	public Polygon2D voronoiTile(int sample, Rect2D border) {
+		final int e0 = findInedge(sample);
+		if (e0 == NO_VERTEX_EDGE)
+			return new Polygon2D();
+
+		// Walk through the triangles around the sample in cw order. Triangles
+		// whose circumcenters are at the same position make one vertex.
+		cellTriangles.clear();
+		int e = e0;
+		do {
+			final int t = e / 3;
+			if (!cellTriangles.isEmpty() && isSameCircumcenter(
+					cellTriangles.get(cellTriangles.size() - 1), t))
+				cellTriangles.set(cellTriangles.size() - 1, t);
+			else
+				cellTriangles.add(t);
+			e = halfedges[nextHalfedge(e)];
+		} while (e != NO_EDGE && e != e0);
+		final int numVertices = cellTriangles.size();
+		// The walk around a bounded tile ends next to where it started.
+		final boolean isOpen = e == NO_EDGE;
+		final int end = (!isOpen && numVertices > 1 && isSameCircumcenter(
+				cellTriangles.get(0), cellTriangles.get(numVertices - 1))) ?
+				numVertices - 1 : numVertices;
+
+		ConvexPolygonRectClip2D clipper = new ConvexPolygonRectClip2D(border);
+		for (int i = end - 1; i >= 0; --i) {
+			calcCircumcenter(cellTriangles.get(i), centers, 0);
+			clipper.addVertex(centers[0], centers[1]);
+		}
+		if (!isOpen)
+			return clipper.clipPolygon();
+
+		// The rays are perpendicular to the hull edges at the sample and point
+		// away from the triangles. The first vertex in ccw order belongs to
+		// the hull half-edge that starts at the sample, the last one to the
+		// hull half-edge that ends at it.
+		final int firstTo = triangles[prevHalfedge(findEdgeEndingAt(
+				cellTriangles.get(end - 1), sample))];
+		final int lastFrom = triangles[e0];
+		return clipper.clipUnboundedPolygon(
+				sampleY(sample) - sampleY(firstTo), sampleX(firstTo) - sampleX(sample),
+				sampleY(lastFrom) - sampleY(sample), sampleX(sample) - sampleX(lastFrom));
+	}
+
+	// Inserts a given point into the triangulation. If a sample exists at the
+	// location already, nothing changes and the existing sample is reported.
+	public Change insert(Point2D pt) {
+		int existing = findSample(pt);
+		if (existing != -1)
+			return makeChange(existing);
+
+		int sample = addSample(pt.x, pt.y);
+		beginChange();
+		if (countLiveTriangles() == 0)
+			rebuild();
+		else
+			insertIntoTriangulation(sample);
+		return makeChange(sample);
+	}
+
+	// Removes the sample at a given location from the triangulation. Returns
+	// null if no sample exists at the location.
+	public Change remove(Point2D pt) {
+		int sample = findSample(pt);
+		if (sample == -1)
+			return null;
+		return remove(sample);
+	}
+
+	// Removes the sample at a given index from the triangulation.
+	public Change remove(int sample) {
+		beginChange();
+		if (!isRemoved[sample]) {
+			isRemoved[sample] = true;
+			if (vertexEdges[sample] != NO_VERTEX_EDGE)
+				removeFromTriangulation(sample);
+			vertexEdges[sample] = NO_VERTEX_EDGE;
+		}
+		return makeChange(sample);
+	}
+
+	// Inserts a given sample that lies within the area of the triangulation
+	// or outside of its hull.
+	private void insertIntoTriangulation(int sample) {
+		final double x = sampleX(sample);
+		final double y = sampleY(sample);
+
+		int located = locate(x, y);
+		nextMarkStamp();
+		cavity.clear();
+		outlineStarts.clear();
+		outlineEnds.clear();
+		outlineTwins.clear();
+
+		if (located >= 0) {
+			// The triangle containing the point is always part of the cavity.
+			markTriangle(located);
+			cavity.add(located);
+		} else {
+			// The point is outside of the hull. The hull edges that are visible
+			// from it become part of the cavity's outline, and the triangles
+			// behind them are part of the cavity if their circumcircles contain
+			// the point.
+			collectVisibleHullEdges(-located - 1, x, y);
+		}
+
+		collectCavity(x, y);
+		collectCavityOutline(x, y);
+
+		for (int i = 0; i < cavity.size(); ++i)
+			removeTriangle(cavity.get(i));
+		connectOutline(sample);
+	}
+
+	// Finds the hull edges that are visible from a point outside the hull
+	// starting at a given visible hull edge. Stores the hull edges as outline
+	// of the cavity. Adds triangles behind the edges whose circumcircles
+	// contain the point to the cavity.
+	private void collectVisibleHullEdges(int hullEdge, double x, double y) {
+		// Go back to the first visible edge.
+		int first = hullEdge;
+		for (int prev = prevHullEdge(first); prev != hullEdge &&
+				isHullEdgeVisible(prev, x, y); prev = prevHullEdge(prev)) {
+			first = prev;
+		}
+
+		int e = first;
+		do {
+			// Seen from outside of the hull the edge runs in the opposite
+			// direction.
+			outlineStarts.add(triangles[nextHalfedge(e)]);
+			outlineEnds.add(triangles[e]);
+			outlineTwins.add(e);
+
+			int t = e / 3;
+			if (!isTriangleMarked(t) && isInCircumcircle(t, x, y)) {
+				markTriangle(t);
+				cavity.add(t);
+			}
+			e = nextHullEdge(e);
+		} while (e != first && isHullEdgeVisible(e, x, y));
+	}
+
+	// Extends the cavity to all triangles whose circumcircles contain a given
+	// point and that are connected to the triangles already in the cavity.
+	private void collectCavity(double x, double y) {
+		for (int i = 0; i < cavity.size(); ++i) {
+			int t = cavity.get(i);
+			for (int e = 3 * t; e < 3 * t + 3; ++e) {
+				int opposite = halfedges[e];
+				if (opposite == NO_EDGE)
+					continue;
+				int neighbor = opposite / 3;
+				if (!isTriangleMarked(neighbor) && isInCircumcircle(neighbor, x, y)) {
+					markTriangle(neighbor);
+					cavity.add(neighbor);
+				}
+			}
+		}
+	}
+
+	// Adds the edges of the cavity that are not shared by two cavity triangles
+	// to the outline. Hull edges that are visible from the point were added
+	// already and are shared with the area outside of the hull.
+	private void collectCavityOutline(double x, double y) {
+		for (int i = 0; i < cavity.size(); ++i) {
+			int t = cavity.get(i);
+			for (int e = 3 * t; e < 3 * t + 3; ++e) {
+				int opposite = halfedges[e];
+				if (opposite == NO_EDGE) {
+					if (isHullEdgeVisible(e, x, y)) {
+						// Shared with the area outside of the hull. Remove the edge
+						// from the outline.
+						int idx = findOutlineTwin(e);
+						if (idx != -1) {
+							outlineStarts.remove(idx);
+							outlineEnds.remove(idx);
+							outlineTwins.remove(idx);
+						}
+						continue;
+					}
+				} else if (isTriangleMarked(opposite / 3)) {
+					continue;
+				}
+
+				outlineStarts.add(triangles[e]);
+				outlineEnds.add(triangles[nextHalfedge(e)]);
+				outlineTwins.add(opposite);
+			}
+		}
+	}
+
+	private int findOutlineTwin(int e) {
+		for (int i = 0; i < outlineTwins.size(); ++i)
+			if (outlineTwins.get(i) == e)
+				return i;
+		return -1;
+	}
+
+	// Connects a given sample to all edges of the cavity outline.
+	private void connectOutline(int sample) {
+		final double x = sampleX(sample);
+		final double y = sampleY(sample);
+
+		// New triangle for each outline edge. To find the triangle that follows
+		// a triangle, the vertex edges of the outline edges' start points
+		// temporarily store the triangles and the start points are marked.
+		nextMarkStamp();
+		ensureSampleMarkCapacity();
+		int[] fan = new int[outlineStarts.size()];
+		for (int i = 0; i < outlineStarts.size(); ++i) {
+			final int start = outlineStarts.get(i);
+			final int end = outlineEnds.get(i);
+			// Hull edges that are collinear with the point remain hull edges.
+			if (Predicates2D.orient(sampleX(start), sampleY(start), sampleX(end),
+					sampleY(end), x, y) <= 0) {
+				fan[i] = -1;
+				continue;
+			}
+			fan[i] = addTriangle(start, end, sample, outlineTwins.get(i),
+					NO_EDGE, NO_EDGE);
+			sampleMarks[start] = markStamp;
+			vertexEdges[start] = fan[i];
+		}
+
+		// Link the triangles with each other.
+		for (int i = 0; i < outlineStarts.size(); ++i) {
+			if (fan[i] == -1)
+				continue;
+			final int end = outlineEnds.get(i);
+			if (sampleMarks[end] != markStamp)
+				continue;
+			final int next = vertexEdges[end];
+			link(fan[i] + 1, next + 2);
+		}
+
+		for (int i = 0; i < outlineStarts.size(); ++i)
+			if (fan[i] != -1)
+				updateVertexEdges(fan[i] / 3);
+	}
+
+	// Removes a given sample from the triangulation and fills the hole with
+	// new triangles.
+	private void removeFromTriangulation(int sample) {
+		// Rotate back to the first triangle around the sample or to any
+		// triangle if the sample is surrounded by triangles.
+		int start = vertexEdges[sample];
+		int e = start;
+		boolean isClosed = true;
+		while (true) {
+			int opposite = halfedges[e];
+			if (opposite == NO_EDGE) {
+				isClosed = false;
+				break;
+			}
+			e = nextHalfedge(opposite);
+			if (e == start)
+				break;
+		}
+
+		// Collect the outline of the hole in ccw order. Each edge is the edge
+		// of a triangle around the sample that is opposite to it.
+		outlineStarts.clear();
+		outlineEnds.clear();
+		outlineTwins.clear();
+		cavity.clear();
+		start = e;
+		do {
+			int edge = nextHalfedge(e);
+			outlineStarts.add(triangles[edge]);
+			outlineEnds.add(triangles[nextHalfedge(edge)]);
+			outlineTwins.add(halfedges[edge]);
+			cavity.add(e / 3);
+			e = halfedges[prevHalfedge(e)];
+		} while (e != NO_EDGE && e != start);
+
+		// Keep the outline vertices connected to the triangles outside of the
+		// hole.
+		for (int i = 0; i < outlineStarts.size(); ++i) {
+			vertexEdges[outlineStarts.get(i)] = NO_VERTEX_EDGE;
+			vertexEdges[outlineEnds.get(i)] = NO_VERTEX_EDGE;
+		}
+		for (int i = 0; i < outlineStarts.size(); ++i) {
+			int twin = outlineTwins.get(i);
+			if (twin != NO_EDGE) {
+				vertexEdges[outlineEnds.get(i)] = twin;
+				vertexEdges[outlineStarts.get(i)] = nextHalfedge(twin);
+			}
+		}
+
+		for (int i = 0; i < cavity.size(); ++i)
+			removeTriangle(cavity.get(i));
+
+		fillHole(isClosed);
+	}
+
+	// Triangulates the hole that is given by the outline. A closed outline is
+	// triangulated completely. For an open outline at the hull only the parts
+	// that are inside the new hull are triangulated.
+	private void fillHole(boolean isClosed) {
+		// Polygon of the hole's vertices. For each vertex the twin of the
+		// outgoing edge is stored.
+		IntList vertices = new IntList();
+		IntList twins = new IntList();
+		for (int i = 0; i < outlineStarts.size(); ++i) {
+			vertices.add(outlineStarts.get(i));
+			twins.add(outlineTwins.get(i));
+		}
+		if (!isClosed) {
+			vertices.add(outlineEnds.get(outlineEnds.size() - 1));
+			// There is no edge from the last back to the first vertex.
+			twins.add(NO_EDGE);
+		}
+
+		edgeStack.clear();
+		final int minVertices = isClosed ? 3 : 2;
+		while (vertices.size() > minVertices) {
+			int ear = findEar(vertices, isClosed);
+			if (ear == -1)
+				break;
+
+			final int n = vertices.size();
+			final int prev = (ear + n - 1) % n;
+			final int next = (ear + 1) % n;
+			final int t = addTriangle(vertices.get(prev), vertices.get(ear),
+					vertices.get(next), twins.get(prev), twins.get(ear), NO_EDGE);
+			updateVertexEdges(t / 3);
+			for (int edge = t; edge < t + 2; ++edge)
+				if (halfedges[edge] != NO_EDGE)
+					edgeStack.add(edge);
+
+			// The new diagonal replaces the two outline edges of the ear.
+			twins.set(prev, t + 2);
+			vertices.remove(ear);
+			twins.remove(ear);
+		}
+
+		if (isClosed && vertices.size() == 3) {
+			final int t = addTriangle(vertices.get(0), vertices.get(1),
+					vertices.get(2), twins.get(0), twins.get(1), twins.get(2));
+			updateVertexEdges(t / 3);
+			for (int edge = t; edge < t + 3; ++edge)
+				if (halfedges[edge] != NO_EDGE)
+					edgeStack.add(edge);
+		} else {
+			// Outline edges that were not used by new triangles are on the hull
+			// now. Their opposite half-edges were removed.
+			for (int i = 0; i < twins.size(); ++i)
+				if (twins.get(i) != NO_EDGE)
+					halfedges[twins.get(i)] = NO_EDGE;
+		}
+
+		legalize();
+	}
+
+	// Finds a vertex of a given polygon whose triangle with its neighboring
+	// vertices is convex and whose circumcircle does not contain any other
+	// vertex. Falls back to any convex vertex. Returns -1 if none exists.
+	private int findEar(IntList vertices, boolean isClosed) {
+		final int n = vertices.size();
+		final int first = isClosed ? 0 : 1;
+		final int last = isClosed ? n - 1 : n - 2;
+		int convex = -1;
+
+		for (int i = first; i <= last; ++i) {
+			final int a = vertices.get((i + n - 1) % n);
+			final int b = vertices.get(i);
+			final int c = vertices.get((i + 1) % n);
+			if (orient(a, b, c) <= 0)
+				continue;
+			if (convex == -1)
+				convex = i;
+
+			boolean isEmpty = true;
+			for (int j = 0; j < n && isEmpty; ++j) {
+				final int v = vertices.get(j);
+				if (v != a && v != b && v != c && inCircle(a, b, c, v) < 0)
+					isEmpty = false;
+			}
+			if (isEmpty)
+				return i;
+		}
+		return isClosed ? convex : -1;
+	}
+
+	// Flips the edges on the edge stack and recursively their neighbors until
+	// all affected triangles satisfy the Delauney condition.
+	private void legalize() {
+		while (!edgeStack.isEmpty()) {
+			final int a = edgeStack.pop();
+			final int b = halfedges[a];
+			if (b == NO_EDGE)
+				continue;
+
+			// Same naming as in SweepHullTriangulation.legalize.
+			final int a0 = a - a % 3;
+			final int b0 = b - b % 3;
+			final int ar = a0 + (a + 2) % 3;
+			final int al = a0 + (a + 1) % 3;
+			final int bl = b0 + (b + 2) % 3;
+			final int br = b0 + (b + 1) % 3;
+
+			final int p0 = triangles[ar];
+			final int pr = triangles[a];
+			final int pl = triangles[al];
+			final int p1 = triangles[bl];
+			if (inCircle(p0, pr, pl, p1) >= 0)
+				continue;
+
+			recordModified(a0 / 3);
+			recordModified(b0 / 3);
+			triangles[a] = p1;
+			triangles[b] = p0;
+			final int hbl = halfedges[bl];
+			link(a, hbl);
+			link(b, halfedges[ar]);
+			link(ar, bl);
+			updateVertexEdges(a0 / 3);
+			updateVertexEdges(b0 / 3);
+
+			edgeStack.add(a);
+			edgeStack.add(br);
+		}
+	}
+
+	// Rebuilds the triangulation from all samples.
+	private void rebuild() {
+		for (int t = 0; t < countTriangleEntries(); ++t)
+			if (!isTriangleRemoved(t))
+				removeTriangle(t);
+
+		PointSet live = new PointSet();
+		IntList liveSamples = new IntList();
+		for (int i = 0; i < numSamples; ++i) {
+			vertexEdges[i] = NO_VERTEX_EDGE;
+			if (!isRemoved[i]) {
+				live.add(sampleX(i), sampleY(i));
+				liveSamples.add(i);
+			}
+		}
+
+		SweepHullTriangulation all = new SweepHullTriangulation(live.coords());
+		all.run();
+		final int[] allTriangles = all.triangles();
+		final int[] allHalfedges = all.halfedges();
+		int[] firstEdges = new int[all.countTriangles()];
+		for (int t = 0; t < all.countTriangles(); ++t) {
+			firstEdges[t] = addTriangle(liveSamples.get(allTriangles[3 * t]),
+					liveSamples.get(allTriangles[3 * t + 1]),
+					liveSamples.get(allTriangles[3 * t + 2]),
+					NO_EDGE, NO_EDGE, NO_EDGE);
+		}
+		for (int e = 0; e < 3 * all.countTriangles(); ++e) {
+			final int opposite = allHalfedges[e];
+			if (opposite != NO_EDGE)
+				halfedges[firstEdges[e / 3] + e % 3] =
+						firstEdges[opposite / 3] + opposite % 3;
+		}
+		for (int t = 0; t < all.countTriangles(); ++t)
+			updateVertexEdges(firstEdges[t] / 3);
+	}
+
+	// Finds the triangle that contains a point with given coordinates by
+	// walking towards it. If the point is outside of the hull, returns -(e + 1)
+	// for a hull half-edge e that is visible from the point.
+	private int locate(double x, double y) {
+		int t = findWalkStart(x, y);
+		final int maxSteps = countTriangleEntries();
+
+		for (int step = 0; step <= maxSteps; ++step) {
+			int exit = -1;
+			for (int e = 3 * t; e < 3 * t + 3; ++e) {
+				if (orient(triangles[e], triangles[nextHalfedge(e)], x, y) < 0) {
+					exit = e;
+					break;
+				}
+			}
+			if (exit == -1)
+				return t;
+			if (halfedges[exit] == NO_EDGE)
+				return -(exit + 1);
+			t = halfedges[exit] / 3;
+		}
+
+		// The walk did not terminate. Only possible for degenerate data. Check
+		// all triangles.
+		return locateByScan(x, y);
+	}
+
+	// Finds a triangle close to a point with given coordinates to start the
+	// walk to the point from. Picks the closest of the last changed triangle
+	// and a number of random triangles, which keeps walks short when changes
+	// are spread out.
+	// Source:
+	// Muecke, Saias, Zhu, Fast randomized point location without
+	// preprocessing in two- and three-dimensional Delaunay triangulations.
+	private int findWalkStart(double x, double y) {
+		int best = findLiveTriangle(lastTriangle);
+		double bestDist = distToTriangle(best, x, y);
+
+		final int numEntries = countTriangleEntries();
+		final int numCandidates = (int) Math.cbrt(numEntries);
+		for (int i = 0; i < numCandidates; ++i) {
+			walkSeed = walkSeed * 6364136223846793005L + 1442695040888963407L;
+			int t = (int) ((walkSeed >>> 33) % numEntries);
+			if (isTriangleRemoved(t))
+				continue;
+			double dist = distToTriangle(t, x, y);
+			if (dist < bestDist) {
+				best = t;
+				bestDist = dist;
+			}
+		}
+		return best;
+	}
+
+	// Returns the squared distance from the first vertex of a given triangle to
+	// a point with given coordinates.
+	private double distToTriangle(int t, double x, double y) {
+		final int v = triangles[3 * t];
+		final double dx = sampleX(v) - x;
+		final double dy = sampleY(v) - y;
+		return dx * dx + dy * dy;
+	}
+
+	// Finds the triangle that contains a point with given coordinates by
+	// checking all triangles. Same result format as locate().
+	private int locateByScan(double x, double y) {
+		int visibleHullEdge = -1;
+		for (int t = 0; t < countTriangleEntries(); ++t) {
+			if (isTriangleRemoved(t))
+				continue;
+			boolean isInside = true;
+			for (int e = 3 * t; e < 3 * t + 3; ++e) {
+				if (orient(triangles[e], triangles[nextHalfedge(e)], x, y) < 0) {
+					isInside = false;
+					if (halfedges[e] == NO_EDGE)
+						visibleHullEdge = e;
+				}
+			}
+			if (isInside)
+				return t;
+		}
+		return -(visibleHullEdge + 1);
+	}
+
+	// Returns the hull half-edge that follows a given hull half-edge.
+	private int nextHullEdge(int e) {
+		int next = nextHalfedge(e);
+		while (halfedges[next] != NO_EDGE)
+			next = nextHalfedge(halfedges[next]);
+		return next;
+	}
+
+	// Returns the hull half-edge that precedes a given hull half-edge.
+	private int prevHullEdge(int e) {
+		int prev = prevHalfedge(e);
+		while (halfedges[prev] != NO_EDGE)
+			prev = prevHalfedge(halfedges[prev]);
+		return prev;
+	}
+
+	// Checks if a hull half-edge can be seen from a point with given
+	// coordinates outside of the hull.
+	private boolean isHullEdgeVisible(int e, double x, double y) {
+		return orient(triangles[e], triangles[nextHalfedge(e)], x, y) < 0;
+	}
+
+	private boolean isInCircumcircle(int t, double x, double y) {
+		final int a = triangles[3 * t];
+		final int b = triangles[3 * t + 1];
+		final int c = triangles[3 * t + 2];
+		return Predicates2D.inCircle(sampleX(a), sampleY(a), sampleX(b), sampleY(b),
+				sampleX(c), sampleY(c), x, y) < 0;
+	}
+
+	private double orient(int a, int b, double x, double y) {
+		return Predicates2D.orient(sampleX(a), sampleY(a), sampleX(b), sampleY(b),
+				x, y);
+	}
+
+	private double orient(int a, int b, int c) {
+		return orient(a, b, sampleX(c), sampleY(c));
+	}
+
+	private double inCircle(int a, int b, int c, int p) {
+		return Predicates2D.inCircle(sampleX(a), sampleY(a), sampleX(b), sampleY(b),
+				sampleX(c), sampleY(c), sampleX(p), sampleY(p));
+	}
+
+	// Adds a sample with given coordinates. Returns its index.
+	private int addSample(double x, double y) {
+		if (numSamples == isRemoved.length) {
+			int capacity = Math.max(2 * numSamples, MIN_SAMPLE_CAPACITY);
+			coords = Arrays.copyOf(coords, 2 * capacity);
+			isRemoved = Arrays.copyOf(isRemoved, capacity);
+			vertexEdges = Arrays.copyOf(vertexEdges, capacity);
+		}
+		final int sample = numSamples++;
+		coords[2 * sample] = x;
+		coords[2 * sample + 1] = y;
+		isRemoved[sample] = false;
+		vertexEdges[sample] = NO_VERTEX_EDGE;
+		sampleLookup.put(x, y, sample);
+		return sample;
+	}
+
+	// Adds a triangle and links its half-edges to given opposite half-edges.
+	// Reuses the entries of removed triangles if possible.
+	// Returns the index of the triangle's first half-edge.
+	private int addTriangle(int i0, int i1, int i2, int a, int b, int c) {
+		int t;
+		if (!freeTriangles.isEmpty()) {
+			t = 3 * freeTriangles.pop();
+		} else {
+			if (trianglesLen == triangles.length) {
+				triangles = Arrays.copyOf(triangles, 2 * triangles.length);
+				halfedges = Arrays.copyOf(halfedges, triangles.length);
+			}
+			t = trianglesLen;
+			trianglesLen += 3;
+		}
+
+		triangles[t] = i0;
+		triangles[t + 1] = i1;
+		triangles[t + 2] = i2;
+		link(t, a);
+		link(t + 1, b);
+		link(t + 2, c);
+
+		ensureTriangleMarkCapacity();
+		changeMarks[t / 3] = changeStamp;
+		added.add(t / 3);
+		lastTriangle = t / 3;
+		return t;
+	}
+
+	// Removes a given triangle. Its neighbors keep their links to it until
+	// they are relinked.
+	private void removeTriangle(int t) {
+		for (int i = 0; i < 3; ++i)
+			removed.add(triangles[3 * t + i]);
+		triangles[3 * t] = -1;
+		freeTriangles.add(t);
+	}
+
+	// Records that the vertices of a given triangle are about to change.
+	private void recordModified(int t) {
+		if (changeMarks[t] == changeStamp)
+			return;
+		changeMarks[t] = changeStamp;
+		for (int i = 0; i < 3; ++i)
+			removed.add(triangles[3 * t + i]);
+		added.add(t);
+	}
+
+	private void updateVertexEdges(int t) {
+		for (int e = 3 * t; e < 3 * t + 3; ++e)
+			vertexEdges[triangles[e]] = e;
+	}
+
+	// Links two given half-edges as opposites of each other.
+	private void link(int a, int b) {
+		halfedges[a] = b;
+		if (b != NO_EDGE)
+			halfedges[b] = a;
+	}
+
+	private int countLiveTriangles() {
+		return countTriangleEntries() - freeTriangles.size();
+	}
+
+	// Returns a given triangle if it is part of the triangulation or any other
+	// triangle that is.
+	private int findLiveTriangle(int t) {
+		if (t < countTriangleEntries() && !isTriangleRemoved(t))
+			return t;
+		for (int i = 0; i < countTriangleEntries(); ++i)
+			if (!isTriangleRemoved(i))
+				return i;
+		return -1;
+	}
+
+	private void beginChange() {
+		removed.clear();
+		added.clear();
+		++changeStamp;
+	}
+
+	private Change makeChange(int sample) {
+		// Triangles that were added and removed again within the same change
+		// are not reported.
+		IntList addedLive = new IntList();
+		for (int i = 0; i < added.size(); ++i) {
+			int t = added.get(i);
+			if (!isTriangleRemoved(t) && !contains(addedLive, t))
+				addedLive.add(t);
+		}
+
+		nextMarkStamp();
+		ensureSampleMarkCapacity();
+		IntList affected = new IntList();
+		for (int i = 0; i < removed.size(); ++i)
+			markAffected(removed.get(i), affected);
+		for (int i = 0; i < addedLive.size(); ++i)
+			for (int v = 0; v < 3; ++v)
+				markAffected(triangleVertex(addedLive.get(i), v), affected);
+
+		Change change = new Change(sample, removed.toArray(), addedLive.toArray(),
+				affected.toArray());
+		removed.clear();
+		added.clear();
+		return change;
+	}
+
+	private void markAffected(int sample, IntList affected) {
+		if (sampleMarks[sample] != markStamp) {
+			sampleMarks[sample] = markStamp;
+			affected.add(sample);
+		}
+	}
+
+	private static boolean contains(IntList list, int val) {
+		for (int i = 0; i < list.size(); ++i)
+			if (list.get(i) == val)
+				return true;
+		return false;
+	}
+
+	private int nextMarkStamp() {
+		return ++markStamp;
+	}
+
+	private void markTriangle(int t) {
+		ensureTriangleMarkCapacity();
+		triangleMarks[t] = markStamp;
+	}
+
+	private boolean isTriangleMarked(int t) {
+		return t < triangleMarks.length && triangleMarks[t] == markStamp;
+	}
+
+	private void ensureTriangleMarkCapacity() {
+		if (triangleMarks.length < countTriangleEntries()) {
+			final int capacity =
+					Math.max(countTriangleEntries(), 2 * triangleMarks.length);
+			triangleMarks = Arrays.copyOf(triangleMarks, capacity);
+			changeMarks = Arrays.copyOf(changeMarks, capacity);
+		}
+	}
+
+	private void ensureSampleMarkCapacity() {
+		if (sampleMarks.length < numSamples)
+			sampleMarks = Arrays.copyOf(sampleMarks,
+					Math.max(numSamples, 2 * sampleMarks.length));
+	}
+
+	// Returns a half-edge that ends at a given sample or NO_VERTEX_EDGE if the
+	// sample is not a vertex of the triangulation. Prefers the hull
+	// half-edge, so that walks around hull samples start at the hull.
+	private int findInedge(int sample) {
+		if (isRemoved[sample] || vertexEdges[sample] == NO_VERTEX_EDGE)
+			return NO_VERTEX_EDGE;
+		final int e0 = prevHalfedge(vertexEdges[sample]);
+		int e = e0;
+		while (halfedges[e] != NO_EDGE) {
+			e = prevHalfedge(halfedges[e]);
+			if (e == e0)
+				break;
+		}
+		return e;
+	}
+
+	// Returns the half-edge of a given triangle that ends at a given sample.
+	private int findEdgeEndingAt(int t, int sample) {
+		for (int e = 3 * t; e < 3 * t + 3; ++e)
+			if (triangles[nextHalfedge(e)] == sample)
+				return e;
+		return NO_VERTEX_EDGE;
+	}
+
+	// Checks if the circumcenters of given triangles are at the same position.
+	private boolean isSameCircumcenter(int t, int u) {
+		calcCircumcenter(t, centers, 0);
+		calcCircumcenter(u, centers, 2);
+		return FpUtil.fpEqual(centers[0], centers[2]) &&
+				FpUtil.fpEqual(centers[1], centers[3]);
+	}
+
+	// Calculates the circumcenter of a given triangle and stores it at a given
+	// offset in a given array. Uses the same calculation as VoronoiDualGraph.
+	private void calcCircumcenter(int t, double[] out, int offset) {
+		final int a = triangles[3 * t];
+		final int b = triangles[3 * t + 1];
+		final int c = triangles[3 * t + 2];
+		final double ax = sampleX(a);
+		final double ay = sampleY(a);
+
+		final double bx = sampleX(b) - ax;
+		final double by = sampleY(b) - ay;
+		final double cx = sampleX(c) - ax;
+		final double cy = sampleY(c) - ay;
+		final double bl = bx * bx + by * by;
+		final double cl = cx * cx + cy * cy;
+		final double d = -2.0 * orient(a, b, c);
+
+		out[offset] = ax + (cy * bl - by * cl) / d;
+		out[offset + 1] = ay + (bx * cl - cx * bl) / d;
+	}
+
+	private static int nextHalfedge(int e) {
+		return SweepHullTriangulation.nextHalfedge(e);
+	}
+
+	private static int prevHalfedge(int e) {
+		return SweepHullTriangulation.prevHalfedge(e);
+	}
+}
@@ -0,0 +1,216 @@
+package geometry;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import types.TaskControl;
+
+
+// Algorithm for generating evenly distributed points that avoids allocating
+// objects per sample or candidate.
+// Implements Bridson's Algorithm like PoissonDiscSampling but
+// - keeps the active samples in a primitive array and removes them by
+//   replacing them with the last active sample,
+// - uses a flat array as background grid,
+// - picks candidates directly in polar coordinates instead of rejection
+//   sampling the annulus' bounding box,
+// - writes the samples into a coordinate buffer.
+// The conservative test whether a candidate is too close to other samples is
+// the same as for PoissonDiscSampling, so that the samples have the same
+// density. The samples themselves differ because the random numbers are used
+// differently.
+// - Time: O(n)
+// https://www.cs.ubc.ca/~rbridson/docs/bridson-siggraph07-poissondisk.pdf
+public class FastPoissonDiscSampling {
+
+	private static final double SQRT_TWO = 1.414213562373;
+	private static final int EMPTY_CELL = -1;
+	// Expected number of samples per area of a square with min distance sides.
+	// Used to size the buffers.
+	private static final double EXPECTED_DENSITY = 0.35;
+	// Mask of the step counter that selects the steps at which is checked
+	// whether generating was cancelled, i.e. every 1024th step.
+	private static final int CANCEL_CHECK_MASK = 0x3FF;
+	private final Rect2D domain;
+	// Min distance that samples are allowed to be from each other.
+	private final double minDist;
+	private final double minDistSquared;
+	private final int numCandidates;
+	// Max distance from seed sample that candidate samples are looked for.
+	private final double maxCandidateDistSquared;
+	// Random generator seeded from the caller's generator. Unlike Random it
+	// does not synchronize, which matters for the amount of random numbers
+	// used.
+	private final SplittableRandom rand;
+	// Sample coordinates in x, y order.
+	private double[] coords;
+	private int numSamples = 0;
+	// Indices of the samples that are used to generate candidates from.
+	private int[] active;
+	private int numActive = 0;
+	// Background grid with the index of the sample in each cell or an empty
+	// marker. Stored row by row. See PoissonDiscSampling for the cell size.
+	private final double cellSize;
+	private final int numRows;
+	private final int numCols;
+	private final int[] grid;
+
+	public FastPoissonDiscSampling(Rect2D domain, double minDist,
+			int numCandidatePoints, Random rand) {
+		this.domain = domain;
+		this.minDist = minDist;
+		this.minDistSquared = minDist * minDist;
+		this.numCandidates = numCandidatePoints;
+		this.maxCandidateDistSquared = 4 * minDistSquared;
+		this.rand = new SplittableRandom(rand.nextLong());
+
+		this.cellSize = minDist / SQRT_TWO;
+		this.numRows = (int) Math.ceil(domain.height() / cellSize);
+		this.numCols = (int) Math.ceil(domain.width() / cellSize);
+		this.grid = new int[numRows * numCols];
+		Arrays.fill(grid, EMPTY_CELL);
+
+		int expectedSamples = (int) Math.min(
+				EXPECTED_DENSITY * domain.width() * domain.height() / minDistSquared,
+				Integer.MAX_VALUE / 4);
+		this.coords = new double[2 * Math.max(expectedSamples, 16)];
+		this.active = new int[Math.max(expectedSamples / 8, 16)];
+	}
+
+	// Generates samples by picking a random initial sample. Returns the sample
+	// coordinates in x, y order.
+	public double[] generateCoords() {
+		double x = domain.left() + rand.nextDouble() * domain.width();
+		double y = domain.top() + rand.nextDouble() * domain.height();
+		return generateCoords(x, y);
+	}
+
+	// Generates samples with a given initial sample. Returns the sample
+	// coordinates in x, y order.
+	public double[] generateCoords(double initialX, double initialY) {
+		run(initialX, initialY);
+		return Arrays.copyOf(coords, 2 * numSamples);
+	}
+
+	// Generates samples into a point set by picking a random initial sample.
+	public PointSet generatePointSet() {
+		double x = domain.left() + rand.nextDouble() * domain.width();
+		double y = domain.top() + rand.nextDouble() * domain.height();
+		run(x, y);
+		return PointSet.fromCoords(coords, numSamples);
+	}
+
+	private void run(double initialX, double initialY) {
+		if (grid.length == 0)
+			return;
+		TaskControl control = TaskControl.current();
+		storeSample(initialX, initialY);
+
+		int numSteps = 0;
+		while (numActive > 0) {
+			if ((++numSteps & CANCEL_CHECK_MASK) == 0)
+				control.checkCancelled();
+			int activeIdx = rand.nextInt(numActive);
+			if (!findNewSample(active[activeIdx]))
+				deactivateSample(activeIdx);
+		}
+	}
+
+	// Tries to find a new sample around the sample at a given index. Returns
+	// whether a sample was found.
+	private boolean findNewSample(int seedIdx) {
+		final double seedX = coords[2 * seedIdx];
+		final double seedY = coords[2 * seedIdx + 1];
+
+		for (int i = 0; i < numCandidates; ++i) {
+			// Pick a point in the annulus around the seed sample. Taking the
+			// square root of a uniformly distributed value makes the points
+			// uniformly distributed over the annulus' area.
+			final double angle = rand.nextDouble() * 2 * Math.PI;
+			final double dist = Math.sqrt(minDistSquared +
+					rand.nextDouble() * (maxCandidateDistSquared - minDistSquared));
+			final double x = seedX + dist * Math.cos(angle);
+			final double y = seedY + dist * Math.sin(angle);
+
+			if (isInDomain(x, y) && !haveSampleWithinMinDistance(x, y)) {
+				storeSample(x, y);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isInDomain(double x, double y) {
+		return x >= domain.left() && x < domain.right() && y >= domain.top() &&
+				y < domain.bottom();
+	}
+
+	// Stores a sample with given coordinates and makes it active.
+	private void storeSample(double x, double y) {
+		if (2 * numSamples == coords.length)
+			coords = Arrays.copyOf(coords, 2 * coords.length);
+		coords[2 * numSamples] = x;
+		coords[2 * numSamples + 1] = y;
+
+		grid[cellIndex(calcRow(y), calcCol(x))] = numSamples;
+
+		if (numActive == active.length)
+			active = Arrays.copyOf(active, 2 * active.length);
+		active[numActive++] = numSamples;
+
+		++numSamples;
+	}
+
+	// Marks the active sample at a given position of the active list as not
+	// active anymore by replacing it with the last active sample.
+	private void deactivateSample(int activeIdx) {
+		active[activeIdx] = active[--numActive];
+	}
+
+	// Checks whether another sample is within the minimal distance of a given
+	// point. See PoissonDiscSampling for which cells need to be checked.
+	private boolean haveSampleWithinMinDistance(double x, double y) {
+		final int row = calcRow(y);
+		final int col = calcCol(x);
+		final int topMostRow = calcRow(y - minDist);
+		final int bottomMostRow = calcRow(y + minDist);
+		final int leftMostCol = calcCol(x - minDist);
+		final int rightMostCol = calcCol(x + minDist);
+
+		if (topMostRow < row - 1) {
+			for (int c = col - 1; c <= col + 1; ++c)
+				if (isCellOccupied(topMostRow, c))
+					return true;
+		}
+		for (int r = row - 1; r <= row + 1; ++r) {
+			for (int c = leftMostCol; c <= rightMostCol; ++c)
+				if (isCellOccupied(r, c))
+					return true;
+		}
+		if (bottomMostRow > row + 1) {
+			for (int c = col - 1; c <= col + 1; ++c)
+				if (isCellOccupied(bottomMostRow, c))
+					return true;
+		}
+		return false;
+	}
+
+	private boolean isCellOccupied(int r, int c) {
+		if (r < 0 || r >= numRows || c < 0 || c >= numCols)
+			return false;
+		return grid[cellIndex(r, c)] != EMPTY_CELL;
+	}
+
+	private int cellIndex(int r, int c) {
+		return r * numCols + c;
+	}
+
+	private int calcRow(double y) {
+		return (int) Math.floor((y - domain.top()) / cellSize);
+	}
+
+	private int calcCol(double x) {
+		return (int) Math.floor((x - domain.left()) / cellSize);
+	}
+}
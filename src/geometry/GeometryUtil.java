@@ -37,6 +37,38 @@ public class GeometryUtil {
 		return calcBoundingBox(points.toArray(new Point2D[points.size()]));
 	}
 
+	// Overload for point sets. Works on the coordinates directly.
+	public static Rect2D calcBoundingBox(PointSet points) {
+		return calcBoundingBox(points.coords(), points.size());
+	}
+
+	// Overload for a given number of points whose coordinates are stored in
+	// x, y order.
+	public static Rect2D calcBoundingBox(double[] coords, int numPoints) {
+		if (numPoints == 0)
+			return new Rect2D();
+		
+		double left = coords[0];
+		double top = coords[1];
+		double right = left;
+		double bottom = top;
+		
+		for (int i = 1; i < numPoints; ++i) {
+			double x = coords[2 * i];
+			double y = coords[2 * i + 1];
+			if (x < left)
+				left = x;
+			if (y < top)
+				top = y;
+			if (x > right)
+				right = x;
+			if (y > bottom)
+				bottom = y;
+		}
+		
+		return new Rect2D(left, top, right, bottom);
+	}
+
 	// Checks if given points form a convex path.
 	// Convex path - All edges bend in the same direction and don't cross.
 	public static boolean isConvexPath(List<Point2D> path) {
@@ -0,0 +1,315 @@
+package geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import types.TaskControl;
+
+
+// Algorithm for generating evenly distributed points on multiple threads.
+// Divides the domain into square blocks and runs Bridson's algorithm in each
+// block. Blocks are processed in four phases, one for each combination of even
+// and odd block rows and columns. Blocks of the same phase are at least one
+// block apart, and blocks are large enough that a block only reads samples
+// from its direct neighbors, so the blocks of a phase can be processed
+// concurrently without affecting each other.
+// Each block is processed with its own random generator that is derived from
+// the seed and the block's position, and each phase only sees the results of
+// the previous phases. Therefore the generated samples only depend on the seed
+// and not on the number of threads or the order in which the blocks of a phase
+// are processed.
+// Sources:
+// https://www.cs.ubc.ca/~rbridson/docs/bridson-siggraph07-poissondisk.pdf
+// Li-Yi Wei, Parallel Poisson Disk Sampling.
+public class ParallelPoissonDiscSampling {
+
+	///////////////
+
+	// Generates samples within one block.
+	private class BlockSampler {
+		private final Random rand;
+		// Range of grid cells covered by the block.
+		private final int firstRow;
+		private final int firstCol;
+		private final int endRow;
+		private final int endCol;
+		// Samples found in this block.
+		private final PointSet samples = new PointSet();
+		// Samples that are used to generate candidates from.
+		private double[] activeXs = new double[64];
+		private double[] activeYs = new double[64];
+		private int numActive = 0;
+
+		public BlockSampler(int blockRow, int blockCol) {
+			this.rand = new Random(mixSeed(seed, blockRow, blockCol));
+			this.firstRow = blockRow * cellsPerBlock;
+			this.firstCol = blockCol * cellsPerBlock;
+			this.endRow = Math.min(firstRow + cellsPerBlock, numRows);
+			this.endCol = Math.min(firstCol + cellsPerBlock, numCols);
+		}
+
+		// Generates the samples of the block.
+		public void run() {
+			control.checkCancelled();
+			activateNeighborSamples();
+			if (numActive == 0)
+				storeSample(randomCoordinate(firstCol, endCol, domain.left(),
+						domain.right()), randomCoordinate(firstRow, endRow,
+								domain.top(), domain.bottom()));
+
+			while (numActive > 0) {
+				int idx = rand.nextInt(numActive);
+				if (!findNewSample(activeXs[idx], activeYs[idx]))
+					deactivate(idx);
+			}
+		}
+
+		// Uses the samples of neighboring blocks that are close enough to
+		// generate candidates in this block as initial active samples.
+		private void activateNeighborSamples() {
+			final int margin = (int) Math.ceil(maxCandidateDist / cellSize);
+			final int rowFrom = Math.max(firstRow - margin, 0);
+			final int rowTo = Math.min(endRow + margin, numRows);
+			final int colFrom = Math.max(firstCol - margin, 0);
+			final int colTo = Math.min(endCol + margin, numCols);
+
+			for (int r = rowFrom; r < rowTo; ++r) {
+				for (int c = colFrom; c < colTo; ++c) {
+					final int cell = r * numCols + c;
+					if (!Double.isNaN(cellXs[cell]))
+						activate(cellXs[cell], cellYs[cell]);
+				}
+			}
+		}
+
+		// Generates a random coordinate within a range of grid cells that is
+		// also inside of a range of the domain.
+		private double randomCoordinate(int fromCell, int toCell, double min,
+				double max) {
+			final double from = Math.max(min + fromCell * cellSize, min);
+			final double to = Math.min(min + toCell * cellSize, max);
+			return from + rand.nextDouble() * (to - from);
+		}
+
+		// Tries to find a new sample around a given sample. Returns whether a
+		// sample was found.
+		private boolean findNewSample(double seedX, double seedY) {
+			for (int i = 0; i < numCandidates; ++i) {
+				// Pick a point in the annulus around the seed sample. Taking the
+				// square root of a uniformly distributed value makes the points
+				// uniformly distributed over the annulus' area.
+				final double angle = rand.nextDouble() * 2 * Math.PI;
+				final double dist = Math.sqrt(minDistSquared +
+						rand.nextDouble() * (maxCandidateDistSquared - minDistSquared));
+				final double x = seedX + dist * Math.cos(angle);
+				final double y = seedY + dist * Math.sin(angle);
+
+				if (isInBlock(x, y) && !haveSampleWithinMinDistance(x, y)) {
+					storeSample(x, y);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean isInBlock(double x, double y) {
+			if (x < domain.left() || x >= domain.right() || y < domain.top() ||
+					y >= domain.bottom())
+				return false;
+			final int r = calcRow(y);
+			final int c = calcCol(x);
+			return r >= firstRow && r < endRow && c >= firstCol && c < endCol;
+		}
+
+		private void storeSample(double x, double y) {
+			samples.add(x, y);
+			final int cell = calcRow(y) * numCols + calcCol(x);
+			cellXs[cell] = x;
+			cellYs[cell] = y;
+			activate(x, y);
+		}
+
+		private void activate(double x, double y) {
+			if (numActive == activeXs.length) {
+				activeXs = Arrays.copyOf(activeXs, 2 * numActive);
+				activeYs = Arrays.copyOf(activeYs, 2 * numActive);
+			}
+			activeXs[numActive] = x;
+			activeYs[numActive] = y;
+			++numActive;
+		}
+
+		// Removes the active sample at a given index by replacing it with the
+		// last one.
+		private void deactivate(int idx) {
+			--numActive;
+			activeXs[idx] = activeXs[numActive];
+			activeYs[idx] = activeYs[numActive];
+		}
+	}
+
+	///////////////
+
+	// Size of the blocks in multiples of the min distance. Blocks have to be at
+	// least two min distances large, so that the neighborhood that a block
+	// reads from does not reach into other blocks of the same phase.
+	private static final double BLOCK_SIZE_IN_MIN_DISTANCES = 16;
+	private static final double SQRT_TWO = 1.414213562373;
+	private final Rect2D domain;
+	// Min distance that samples are allowed to be from each other.
+	private final double minDist;
+	private final double minDistSquared;
+	private final int numCandidates;
+	// Max distance from seed sample that candidate samples are looked for.
+	private final double maxCandidateDist;
+	private final double maxCandidateDistSquared;
+	// Seed that the random generators of the blocks are derived from.
+	private final long seed;
+	// Pool to process blocks in or null to process them sequentially.
+	private final ForkJoinPool pool;
+	// Background grid that stores the coordinates of at most one sample per
+	// cell. The cell size is chosen like for PoissonDiscSampling. Empty cells
+	// contain NaN.
+	private final double cellSize;
+	private final int numRows;
+	private final int numCols;
+	private final double[] cellXs;
+	private final double[] cellYs;
+	// Layout of the blocks in cells.
+	private final int cellsPerBlock;
+	private final int numBlockRows;
+	private final int numBlockCols;
+	// Control of the task that generates the samples and the number of blocks
+	// that are done.
+	private TaskControl control = TaskControl.NONE;
+	private int numBlocksDone = 0;
+
+	// Constructs a sampler that processes blocks in a given pool or
+	// sequentially if the pool is null. The generated samples are the same in
+	// both cases.
+	public ParallelPoissonDiscSampling(Rect2D domain, double minDist,
+			int numCandidatePoints, Random rand, ForkJoinPool pool) {
+		this.domain = domain;
+		this.minDist = minDist;
+		this.minDistSquared = minDist * minDist;
+		this.numCandidates = numCandidatePoints;
+		this.maxCandidateDist = 2 * minDist;
+		this.maxCandidateDistSquared = maxCandidateDist * maxCandidateDist;
+		this.seed = rand.nextLong();
+		this.pool = pool;
+
+		this.cellSize = minDist / SQRT_TWO;
+		this.numRows = Math.max((int) Math.ceil(domain.height() / cellSize), 1);
+		this.numCols = Math.max((int) Math.ceil(domain.width() / cellSize), 1);
+		this.cellXs = new double[numRows * numCols];
+		this.cellYs = new double[numRows * numCols];
+		Arrays.fill(cellXs, Double.NaN);
+
+		this.cellsPerBlock =
+				(int) Math.ceil(BLOCK_SIZE_IN_MIN_DISTANCES * minDist / cellSize);
+		this.numBlockRows = (numRows + cellsPerBlock - 1) / cellsPerBlock;
+		this.numBlockCols = (numCols + cellsPerBlock - 1) / cellsPerBlock;
+	}
+
+	// Generates samples. The samples are ordered by the blocks that they are in.
+	public PointSet generate() {
+		control = TaskControl.current();
+		numBlocksDone = 0;
+		BlockSampler[] blocks = new BlockSampler[numBlockRows * numBlockCols];
+		for (int phase = 0; phase < 4; ++phase)
+			runPhase(phase / 2, phase % 2, blocks);
+
+		int numSamples = 0;
+		for (BlockSampler block : blocks)
+			numSamples += block.samples.size();
+		PointSet samples = new PointSet(numSamples);
+		for (BlockSampler block : blocks)
+			for (int i = 0; i < block.samples.size(); ++i)
+				samples.add(block.samples.x(i), block.samples.y(i));
+		return samples;
+	}
+
+	// Processes the blocks in rows and columns with given parities.
+	private void runPhase(int rowParity, int colParity, BlockSampler[] blocks) {
+		List<BlockSampler> phaseBlocks = new ArrayList<BlockSampler>();
+		for (int r = rowParity; r < numBlockRows; r += 2) {
+			for (int c = colParity; c < numBlockCols; c += 2) {
+				BlockSampler block = new BlockSampler(r, c);
+				blocks[r * numBlockCols + c] = block;
+				phaseBlocks.add(block);
+			}
+		}
+
+		if (pool != null && phaseBlocks.size() > 1) {
+			List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+			for (BlockSampler block : phaseBlocks)
+				tasks.add(pool.submit(block::run));
+			for (ForkJoinTask<?> task : tasks) {
+				task.join();
+				control.setProgress(++numBlocksDone, blocks.length);
+			}
+		} else {
+			for (BlockSampler block : phaseBlocks) {
+				block.run();
+				control.setProgress(++numBlocksDone, blocks.length);
+			}
+		}
+	}
+
+	// Checks whether another sample is within the minimal distance of a given
+	// point. Uses the same conservative test as PoissonDiscSampling, i.e. any
+	// occupied cell that could contain a sample within the min distance counts,
+	// so that both algorithms produce samples of the same density.
+	private boolean haveSampleWithinMinDistance(double x, double y) {
+		final int row = calcRow(y);
+		final int col = calcCol(x);
+		final int topMostRow = calcRow(y - minDist);
+		final int bottomMostRow = calcRow(y + minDist);
+		final int leftMostCol = calcCol(x - minDist);
+		final int rightMostCol = calcCol(x + minDist);
+
+		if (topMostRow < row - 1) {
+			for (int c = col - 1; c <= col + 1; ++c)
+				if (isCellOccupied(topMostRow, c))
+					return true;
+		}
+		for (int r = row - 1; r <= row + 1; ++r) {
+			for (int c = leftMostCol; c <= rightMostCol; ++c)
+				if (isCellOccupied(r, c))
+					return true;
+		}
+		if (bottomMostRow > row + 1) {
+			for (int c = col - 1; c <= col + 1; ++c)
+				if (isCellOccupied(bottomMostRow, c))
+					return true;
+		}
+		return false;
+	}
+
+	private boolean isCellOccupied(int r, int c) {
+		if (r < 0 || r >= numRows || c < 0 || c >= numCols)
+			return false;
+		return !Double.isNaN(cellXs[r * numCols + c]);
+	}
+
+	private int calcRow(double y) {
+		return (int) Math.floor((y - domain.top()) / cellSize);
+	}
+
+	private int calcCol(double x) {
+		return (int) Math.floor((x - domain.left()) / cellSize);
+	}
+
+	// Combines a given seed with the position of a block into a seed for the
+	// block's random generator.
+	private static long mixSeed(long seed, int blockRow, int blockCol) {
+		long h = seed ^ (((long) blockRow << 32) | (blockCol & 0xffffffffL));
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+}
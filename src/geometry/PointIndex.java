@@ -0,0 +1,206 @@
+package geometry;
+
+import java.util.Arrays;
+
+import math.FpUtil;
+
+
+// Hash-based lookup of values by their location.
+// Points that compare equal (see Point2D.equals) are treated as the same key.
+// Simply hashing the coordinates does not work for that because two points
+// within the equality threshold can always fall into separate buckets. Instead
+// the plane is divided into cells twice as large as the threshold, and each
+// entry is stored under the key of the cell that contains it. A point that is
+// equal to a given point must lie in the point's cell or in one of the three
+// neighboring cells towards the corner that the point is closest to, so a
+// lookup checks these four cells.
+// Entries are kept in insertion order and can be accessed by index.
+// - Time: O(1) expected for lookups and insertions
+public class PointIndex<V> {
+
+	private static final int EMPTY_SLOT = -1;
+	private static final int DEFAULT_CAPACITY = 16;
+	// Equality threshold for coordinates.
+	private final double thres;
+	// Size of the cells that the points are quantized to.
+	private final double cellSize;
+	// Entries in insertion order.
+	private double[] xs;
+	private double[] ys;
+	private long[] cellKeys;
+	private Object[] values;
+	private int size = 0;
+	// Open-addressing hash table that stores entry indices. Uses linear probing.
+	private int[] slots;
+	private long[] slotKeys;
+	private int slotMask;
+
+	public PointIndex() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	// Constructs an index that can hold a given number of entries without
+	// growing.
+	public PointIndex(int capacity) {
+		this.thres = FpUtil.globalFpThreshold();
+		this.cellSize = 2 * thres;
+		int cap = Math.max(capacity, 1);
+		this.xs = new double[cap];
+		this.ys = new double[cap];
+		this.cellKeys = new long[cap];
+		this.values = new Object[cap];
+		allocateSlots(2 * cap);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	// Returns the location of the entry at a given index.
+	public Point2D key(int idx) {
+		return new Point2D(xs[idx], ys[idx]);
+	}
+
+	// Returns the x coordinate of the entry at a given index.
+	public double x(int idx) {
+		return xs[idx];
+	}
+
+	// Returns the y coordinate of the entry at a given index.
+	public double y(int idx) {
+		return ys[idx];
+	}
+
+	// Returns the value of the entry at a given index.
+	@SuppressWarnings("unchecked")
+	public V value(int idx) {
+		return (V) values[idx];
+	}
+
+	// Returns the value stored at a location equal to a given point or null.
+	public V get(Point2D pt) {
+		return get(pt.x, pt.y);
+	}
+
+	// Overload for coordinates.
+	public V get(double x, double y) {
+		int idx = find(x, y);
+		return (idx != -1) ? value(idx) : null;
+	}
+
+	// Stores a value at a given location. Replaces the value of an existing
+	// entry at an equal location.
+	public void put(Point2D pt, V value) {
+		put(pt.x, pt.y, value);
+	}
+
+	// Overload for coordinates.
+	public void put(double x, double y, V value) {
+		int idx = find(x, y);
+		if (idx != -1) {
+			values[idx] = value;
+			return;
+		}
+
+		if (size == xs.length)
+			growEntries();
+		xs[size] = x;
+		ys[size] = y;
+		cellKeys[size] = cellKey(cellCoord(x), cellCoord(y));
+		values[size] = value;
+		insertSlot(size);
+		++size;
+	}
+
+	// Returns the index of the entry at a location equal to a given point or -1.
+	public int indexOf(Point2D pt) {
+		return indexOf(pt.x, pt.y);
+	}
+
+	// Overload for coordinates.
+	public int indexOf(double x, double y) {
+		return find(x, y);
+	}
+
+	// Returns the index of the entry at a location equal to given coordinates
+	// or -1.
+	private int find(double x, double y) {
+		final double qx = x / cellSize;
+		final double qy = y / cellSize;
+		final long cx = (long) Math.floor(qx);
+		final long cy = (long) Math.floor(qy);
+		// Neighboring cells towards the closest corner of the cell.
+		final long nx = (qx - cx < 0.5) ? cx - 1 : cx + 1;
+		final long ny = (qy - cy < 0.5) ? cy - 1 : cy + 1;
+
+		int idx = findInCell(cellKey(cx, cy), x, y);
+		if (idx == -1)
+			idx = findInCell(cellKey(nx, cy), x, y);
+		if (idx == -1)
+			idx = findInCell(cellKey(cx, ny), x, y);
+		if (idx == -1)
+			idx = findInCell(cellKey(nx, ny), x, y);
+		return idx;
+	}
+
+	// Returns the index of an entry with a given cell key that is at a location
+	// equal to given coordinates or -1.
+	private int findInCell(long key, double x, double y) {
+		for (int s = slotOf(key); slots[s] != EMPTY_SLOT; s = (s + 1) & slotMask) {
+			int idx = slots[s];
+			if (slotKeys[s] == key && FpUtil.fpEqual(xs[idx], x, thres) &&
+					FpUtil.fpEqual(ys[idx], y, thres)) {
+				return idx;
+			}
+		}
+		return -1;
+	}
+
+	private long cellCoord(double v) {
+		return (long) Math.floor(v / cellSize);
+	}
+
+	// Combines given cell coordinates into a key. Different cells can have the
+	// same key, which only costs additional comparisons.
+	private static long cellKey(long cx, long cy) {
+		return cx * 0x9E3779B97F4A7C15L + cy;
+	}
+
+	private int slotOf(long key) {
+		long h = key ^ (key >>> 31);
+		h *= 0xBF58476D1CE4E5B9L;
+		h ^= h >>> 29;
+		return (int) h & slotMask;
+	}
+
+	private void insertSlot(int idx) {
+		int s = slotOf(cellKeys[idx]);
+		while (slots[s] != EMPTY_SLOT)
+			s = (s + 1) & slotMask;
+		slots[s] = idx;
+		slotKeys[s] = cellKeys[idx];
+	}
+
+	// Allocates a hash table with at least a given number of slots.
+	private void allocateSlots(int minSlots) {
+		int numSlots = Integer.highestOneBit(Math.max(minSlots, 2) - 1) << 1;
+		slots = new int[numSlots];
+		slotKeys = new long[numSlots];
+		slotMask = numSlots - 1;
+		Arrays.fill(slots, EMPTY_SLOT);
+	}
+
+	// Doubles the capacity for entries and rebuilds the hash table, so that it
+	// stays at most half full.
+	private void growEntries() {
+		int cap = 2 * xs.length;
+		xs = Arrays.copyOf(xs, cap);
+		ys = Arrays.copyOf(ys, cap);
+		cellKeys = Arrays.copyOf(cellKeys, cap);
+		values = Arrays.copyOf(values, cap);
+
+		allocateSlots(2 * cap);
+		for (int idx = 0; idx < size; ++idx)
+			insertSlot(idx);
+	}
+}
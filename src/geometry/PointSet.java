@@ -0,0 +1,176 @@
+package geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+// Set of points that stores its coordinates in a primitive array instead of as
+// point objects. Points are identified by their index.
+// Avoids allocating an object per point for large numbers of points and allows
+// algorithms to work on the coordinates directly. The coordinates are stored
+// in x, y order, which is the layout that the triangulations work on, so that
+// the array can be passed between them without copying, see wrap() and
+// coords().
+// The geometric calculations that algorithms need most often are provided as
+// static kernels that operate on point indices into such coordinate arrays.
+// See GeometryUtil.calcBoundingBox for the bounding box of a set.
+// Like for lists of points, the caller is responsible for keeping the points
+// unique if an algorithm requires it.
+public class PointSet {
+
+	private static final int DEFAULT_CAPACITY = 16;
+	// Coordinates in x, y order. Can be larger than the number of points.
+	private double[] coords;
+	private int size = 0;
+
+	public PointSet() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public PointSet(int capacity) {
+		this.coords = new double[2 * Math.max(capacity, 1)];
+	}
+
+	private PointSet(double[] coords, int size) {
+		this.coords = coords;
+		this.size = size;
+	}
+
+	// Creates a point set from given points.
+	public static PointSet fromPoints(List<Point2D> points) {
+		PointSet set = new PointSet(points.size());
+		for (Point2D pt : points)
+			set.add(pt.x, pt.y);
+		return set;
+	}
+
+	// Creates a point set from a given number of points whose coordinates are
+	// stored in x, y order. Copies the coordinates.
+	public static PointSet fromCoords(double[] coords, int numPoints) {
+		return new PointSet(Arrays.copyOf(coords, 2 * numPoints), numPoints);
+	}
+
+	// Creates a point set that uses a given array with the coordinates of a
+	// given number of points in x, y order as its storage. Does not copy the
+	// coordinates, so changes to the set write through to the array until the
+	// set outgrows it.
+	public static PointSet wrap(double[] coords, int numPoints) {
+		if (coords.length < 2 * numPoints)
+			throw new IllegalArgumentException(
+					"Coordinate array is too small for the number of points.");
+		return new PointSet(coords, numPoints);
+	}
+
+	// Creates point objects for all points of the set.
+	public List<Point2D> toPoints() {
+		List<Point2D> points = new ArrayList<Point2D>(size);
+		for (int i = 0; i < size; ++i)
+			points.add(point(i));
+		return points;
+	}
+
+	// Returns a copy of the coordinates of all points in x, y order.
+	public double[] toCoords() {
+		return Arrays.copyOf(coords, 2 * size);
+	}
+
+	// Returns the coordinates of all points in x, y order without copying
+	// them. The array is the set's storage, so callers must not modify it. If
+	// the storage is larger than needed for the points, it is trimmed first,
+	// which copies the coordinates once.
+	public double[] coords() {
+		if (coords.length != 2 * size)
+			coords = Arrays.copyOf(coords, 2 * size);
+		return coords;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public double x(int i) {
+		return coords[2 * i];
+	}
+
+	public double y(int i) {
+		return coords[2 * i + 1];
+	}
+
+	// Creates a point object for the point at a given index.
+	public Point2D point(int i) {
+		return new Point2D(coords[2 * i], coords[2 * i + 1]);
+	}
+
+	// Adds a point with given coordinates. Returns the index of the point.
+	public int add(double x, double y) {
+		if (2 * size == coords.length)
+			grow(2 * Math.max(size, 1));
+		coords[2 * size] = x;
+		coords[2 * size + 1] = y;
+		return size++;
+	}
+
+	// Adds a given point. Returns the index of the point.
+	public int add(Point2D pt) {
+		return add(pt.x, pt.y);
+	}
+
+	// Changes the coordinates of the point at a given index.
+	public void set(int i, double x, double y) {
+		coords[2 * i] = x;
+		coords[2 * i + 1] = y;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	// Makes sure that a given number of points can be stored without
+	// reallocating.
+	public void reserve(int capacity) {
+		if (2 * capacity > coords.length)
+			grow(capacity);
+	}
+
+	// Geometric kernels that operate on point indices into arrays of
+	// coordinates in x, y order.
+
+	// Calculates the squared distance between the points at two given indices.
+	public static double distanceSquared(double[] coords, int a, int b) {
+		return distanceSquared(coords, a, coords[2 * b], coords[2 * b + 1]);
+	}
+
+	// Calculates the squared distance between the point at a given index and a
+	// point with given coordinates.
+	public static double distanceSquared(double[] coords, int a, double x,
+			double y) {
+		final double dx = coords[2 * a] - x;
+		final double dy = coords[2 * a + 1] - y;
+		return dx * dx + dy * dy;
+	}
+
+	// Calculates the orientation of the points at three given indices. See
+	// Predicates2D.orient.
+	public static double orient(double[] coords, int a, int b, int c) {
+		return Predicates2D.orient(coords[2 * a], coords[2 * a + 1],
+				coords[2 * b], coords[2 * b + 1], coords[2 * c], coords[2 * c + 1]);
+	}
+
+	// Checks where the point at a given index p is located relative to the
+	// circumcircle of the triangle formed by the points at given indices a, b, c.
+	// See Predicates2D.inCircle.
+	public static double inCircle(double[] coords, int a, int b, int c, int p) {
+		return Predicates2D.inCircle(coords[2 * a], coords[2 * a + 1],
+				coords[2 * b], coords[2 * b + 1], coords[2 * c], coords[2 * c + 1],
+				coords[2 * p], coords[2 * p + 1]);
+	}
+
+	private void grow(int capacity) {
+		coords = Arrays.copyOf(coords, 2 * capacity);
+	}
+}
@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
+import types.TaskControl;
+
 // Algorithm for generating evenly distributed points.
 // Implements Bridson's Algorithm:
 // - Time: O(n)
@@ -44,10 +46,10 @@ public class PoissonDiscSampling {
 			this.grid = initGrid(makeGrid(domain, minDist, cellSize));
 		}
 		
-		// Inserts the given index of a given sample into the grid.
-		public void insert(Point2D sample, int sampleIdx) {
-			int r = calcRow(sample.y);
-			int c = calcCol(sample.x);
+		// Inserts the given index of a sample at given coordinates into the grid.
+		public void insert(double x, double y, int sampleIdx) {
+			int r = calcRow(y);
+			int c = calcCol(x);
 			grid[r][c] = sampleIdx;
 		}
 		
@@ -179,7 +181,7 @@ public class PoissonDiscSampling {
 	// Max distance from seed sample that candidate samples are looked for. 
 	private final double maxCandidateDist;
 	private final Random rand;
-	private List<Point2D> samples = new ArrayList<Point2D>();
+	private PointSet samples = new PointSet();
 	private List<Integer> active = new ArrayList<Integer>();
 	private BackgroundGrid grid;
 	
@@ -195,16 +197,28 @@ public class PoissonDiscSampling {
 	
 	// Generates samples by picking a random initial samples.
 	public List<Point2D> generate() {
-		return generate(generateSample());
+		return generatePointSet().toPoints();
 	}
 	
 	// Generates samples with given initial sample.
 	public List<Point2D> generate(Point2D initialSample) {
+		return generatePointSet(initialSample).toPoints();
+	}
+	
+	// Generates samples into a point set by picking a random initial sample.
+	public PointSet generatePointSet() {
+		return generatePointSet(generateSample());
+	}
+	
+	// Generates samples into a point set with given initial sample.
+	public PointSet generatePointSet(Point2D initialSample) {
+		TaskControl control = TaskControl.current();
 		storeSample(initialSample);
 
 		while (!active.isEmpty()) {
+			control.checkCancelled();
 			int seedIdx = chooseSeed();
-			Point2D seedSample = samples.get(seedIdx);
+			Point2D seedSample = samples.point(seedIdx);
 			Point2D newSample = findNewSample(seedSample);
 			if (newSample == null)
 				deactivateSample(seedIdx);
@@ -230,10 +244,9 @@ public class PoissonDiscSampling {
 	
 	// Stores a given sample in the internal data structures.
 	private void storeSample(Point2D sample) {
-		samples.add(sample);
-		int sampleIdx = samples.size() - 1;
+		int sampleIdx = samples.add(sample);
 		active.add(sampleIdx);
-		grid.insert(sample, sampleIdx);
+		grid.insert(sample.x, sample.y, sampleIdx);
 	}
 	
 	// Marks a given sample as not active anymore
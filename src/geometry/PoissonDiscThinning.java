@@ -0,0 +1,106 @@
+package geometry;
+
+import java.util.Arrays;
+
+import types.TaskControl;
+
+// Selects a subset of given points whose points are at least a min distance
+// apart. Thinning the samples of a Poisson disc sampling with a larger min
+// distance gives a coarser Poisson disc sampling of the same area.
+// The points are visited in order and a point is kept if no kept point is
+// within the min distance, so the result is deterministic.
+// Uses a flat background grid like FastPoissonDiscSampling.
+// - Time: O(n)
+public class PoissonDiscThinning {
+
+	private static final double SQRT_TWO = 1.414213562373;
+	private static final int EMPTY_CELL = -1;
+	// Number of cells in each direction around a point's cell that can contain
+	// points within the min distance. The cell diagonal is the min distance.
+	private static final int CELL_REACH = 2;
+	// Mask of the point counter that selects the points at which is checked
+	// whether thinning was cancelled, i.e. every 4096th point.
+	private static final int CANCEL_CHECK_MASK = 0xFFF;
+	private final Rect2D domain;
+	private final double minDistSquared;
+	// Background grid with the index of the kept point in each cell or an
+	// empty marker. Stored row by row. Each cell holds at most one kept point.
+	private final double cellSize;
+	private final int numRows;
+	private final int numCols;
+	private final int[] grid;
+	private double[] coords;
+	private int numKept = 0;
+
+	public PoissonDiscThinning(Rect2D domain, double minDist) {
+		this.domain = domain;
+		this.minDistSquared = minDist * minDist;
+		this.cellSize = minDist / SQRT_TWO;
+		this.numRows = Math.max((int) Math.ceil(domain.height() / cellSize), 1);
+		this.numCols = Math.max((int) Math.ceil(domain.width() / cellSize), 1);
+		this.grid = new int[numRows * numCols];
+		Arrays.fill(grid, EMPTY_CELL);
+		this.coords = new double[32];
+	}
+
+	// Returns the kept points of a given point set. Points outside the domain
+	// are dropped.
+	public PointSet thin(PointSet points) {
+		TaskControl control = TaskControl.current();
+		final int numPoints = points.size();
+		for (int i = 0; i < numPoints; ++i) {
+			if ((i & CANCEL_CHECK_MASK) == 0)
+				control.checkCancelled();
+			final double x = points.x(i);
+			final double y = points.y(i);
+			if (isInDomain(x, y) && !havePointWithinMinDistance(x, y))
+				keepPoint(x, y);
+		}
+		return PointSet.fromCoords(coords, numKept);
+	}
+
+	private boolean isInDomain(double x, double y) {
+		return x >= domain.left() && x <= domain.right() &&
+				y >= domain.top() && y <= domain.bottom();
+	}
+
+	private boolean havePointWithinMinDistance(double x, double y) {
+		final int row = calcRow(y);
+		final int col = calcCol(x);
+		final int firstRow = Math.max(row - CELL_REACH, 0);
+		final int lastRow = Math.min(row + CELL_REACH, numRows - 1);
+		final int firstCol = Math.max(col - CELL_REACH, 0);
+		final int lastCol = Math.min(col + CELL_REACH, numCols - 1);
+
+		for (int r = firstRow; r <= lastRow; ++r) {
+			for (int c = firstCol; c <= lastCol; ++c) {
+				final int idx = grid[r * numCols + c];
+				if (idx == EMPTY_CELL)
+					continue;
+				final double dx = coords[2 * idx] - x;
+				final double dy = coords[2 * idx + 1] - y;
+				if (dx * dx + dy * dy < minDistSquared)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private void keepPoint(double x, double y) {
+		if (2 * numKept == coords.length)
+			coords = Arrays.copyOf(coords, 2 * coords.length);
+		coords[2 * numKept] = x;
+		coords[2 * numKept + 1] = y;
+		grid[calcRow(y) * numCols + calcCol(x)] = numKept;
+		++numKept;
+	}
+
+	// Points on the right or bottom edge of the domain go into the last cell.
+	private int calcRow(double y) {
+		return Math.min((int) ((y - domain.top()) / cellSize), numRows - 1);
+	}
+
+	private int calcCol(double x) {
+		return Math.min((int) ((x - domain.left()) / cellSize), numCols - 1);
+	}
+}
@@ -0,0 +1,198 @@
+package geometry;
+
+import java.math.BigDecimal;
+
+
+// Geometric predicates that decide how points are arranged relative to each
+// other, e.g. whether three points are arranged ccw or whether a point is
+// inside a circle.
+// The predicates evaluate a determinant in double precision and compare it to
+// an upper bound of the rounding error. Only if the determinant is too close to
+// zero to trust its sign, it is evaluated again with exact arithmetic. This
+// way the signs of the results are always correct, which is what algorithms
+// like triangulations need to make consistent decisions.
+// Uses the screen coordinate system to define ccw, like Vector2D does.
+// Source:
+// Jonathan Richard Shewchuk, Adaptive Precision Floating-Point Arithmetic and
+// Fast Robust Geometric Predicates.
+// https://www.cs.cmu.edu/~quake/robust.html
+public class Predicates2D {
+
+	// Relative rounding error of double arithmetic.
+	private static final double EPSILON = Math.ulp(1.0) / 2;
+	// Relative error bounds of the double precision determinants.
+	private static final double ORIENT_ERROR_BOUND = (3.0 + 16.0 * EPSILON) * EPSILON;
+	private static final double IN_CIRCLE_ERROR_BOUND = (10.0 + 96.0 * EPSILON) * EPSILON;
+
+	// Calculates the orientation of three given points.
+	// Returns a positive value if the points are arranged ccw, a negative value
+	// if they are arranged cw, and zero if they are collinear. The magnitude of
+	// the result is twice the area of the triangle formed by the points.
+	public static double orient(double ax, double ay, double bx, double by,
+			double cx, double cy) {
+		final double detLeft = (ay - cy) * (bx - cx);
+		final double detRight = (ax - cx) * (by - cy);
+		final double det = detLeft - detRight;
+
+		final double errorBound =
+				ORIENT_ERROR_BOUND * (Math.abs(detLeft) + Math.abs(detRight));
+		if (det > errorBound || -det > errorBound)
+			return det;
+		return orientExact(ax, ay, bx, by, cx, cy);
+	}
+
+	// Overload for points.
+	public static double orient(Point2D a, Point2D b, Point2D c) {
+		return orient(a.x, a.y, b.x, b.y, c.x, c.y);
+	}
+
+	// Calculates the orientation of a given vector w relative to a given vector v.
+	// Returns a positive value if w is ccw of v when facing into the direction
+	// of v, a negative value if it is cw, and zero if the vectors are parallel.
+	public static double orient(Vector2D v, Vector2D w) {
+		return orient(0.0, 0.0, v.x, v.y, w.x, w.y);
+	}
+
+	// Checks where a given point p is located relative to the circumcircle of a
+	// given ccw triangle (a, b, c).
+	// Returns a negative value if the point is inside the circumcircle, a
+	// positive value if it is outside, and zero if it is on the circle. For a cw
+	// triangle the signs are reversed.
+	public static double inCircle(double ax, double ay, double bx, double by,
+			double cx, double cy, double px, double py) {
+		final double adx = ax - px;
+		final double ady = ay - py;
+		final double bdx = bx - px;
+		final double bdy = by - py;
+		final double cdx = cx - px;
+		final double cdy = cy - py;
+
+		final double bdxcdy = bdx * cdy;
+		final double cdxbdy = cdx * bdy;
+		final double aLift = adx * adx + ady * ady;
+
+		final double cdxady = cdx * ady;
+		final double adxcdy = adx * cdy;
+		final double bLift = bdx * bdx + bdy * bdy;
+
+		final double adxbdy = adx * bdy;
+		final double bdxady = bdx * ady;
+		final double cLift = cdx * cdx + cdy * cdy;
+
+		final double det = aLift * (bdxcdy - cdxbdy) +
+				bLift * (cdxady - adxcdy) +
+				cLift * (adxbdy - bdxady);
+
+		final double permanent =
+				(Math.abs(bdxcdy) + Math.abs(cdxbdy)) * aLift +
+				(Math.abs(cdxady) + Math.abs(adxcdy)) * bLift +
+				(Math.abs(adxbdy) + Math.abs(bdxady)) * cLift;
+		final double errorBound = IN_CIRCLE_ERROR_BOUND * permanent;
+		if (det > errorBound || -det > errorBound)
+			return det;
+		return inCircleExact(ax, ay, bx, by, cx, cy, px, py);
+	}
+
+	// Overload for points.
+	public static double inCircle(Point2D a, Point2D b, Point2D c, Point2D p) {
+		return inCircle(a.x, a.y, b.x, b.y, c.x, c.y, p.x, p.y);
+	}
+
+	// Like inCircle() but decides for points on the circle whether they are
+	// inside or outside, as if each point's lifted coordinate x^2 + y^2 had
+	// been raised by a different infinitesimal amount. Points that come first
+	// in x, y order are raised more. Only returns zero if all points are
+	// collinear.
+	// Triangulations that use this test are unique even if more than three
+	// points are on a circle, e.g. for points on a grid, because the decision
+	// only depends on the points and not on the order of the tests.
+	// Source:
+	// Herbert Edelsbrunner, Ernst Peter Muecke, Simulation of Simplicity.
+	public static double inCirclePerturbed(double ax, double ay, double bx,
+			double by, double cx, double cy, double px, double py) {
+		final double det = inCircle(ax, ay, bx, by, cx, cy, px, py);
+		if (det != 0)
+			return det;
+
+		// The determinant is linear in each lifted coordinate. The factor of a
+		// point's lifted coordinate is the orientation of the other points. The
+		// point with the largest raise whose factor is not zero decides.
+		double[] xs = { ax, bx, cx, px };
+		double[] ys = { ay, by, cy, py };
+		boolean[] isUsed = new boolean[4];
+		for (int round = 0; round < 4; ++round) {
+			int first = -1;
+			for (int i = 0; i < 4; ++i) {
+				if (!isUsed[i] && (first == -1 || xs[i] < xs[first] ||
+						(xs[i] == xs[first] && ys[i] < ys[first])))
+					first = i;
+			}
+			isUsed[first] = true;
+
+			final double factor = liftFactor(first, xs, ys);
+			if (factor != 0)
+				return Math.signum(factor) * Double.MIN_VALUE;
+		}
+		return 0;
+	}
+
+	// Returns the factor of the lifted coordinate of the point at a given index
+	// in the in-circle determinant of points (a, b, c, p).
+	private static double liftFactor(int idx, double[] xs, double[] ys) {
+		switch (idx) {
+		case 0:
+			return -orient(xs[1], ys[1], xs[2], ys[2], xs[3], ys[3]);
+		case 1:
+			return -orient(xs[2], ys[2], xs[0], ys[0], xs[3], ys[3]);
+		case 2:
+			return -orient(xs[0], ys[0], xs[1], ys[1], xs[3], ys[3]);
+		default:
+			return orient(xs[0], ys[0], xs[1], ys[1], xs[2], ys[2]);
+		}
+	}
+
+	// Calculates the orientation determinant with exact arithmetic.
+	private static double orientExact(double ax, double ay, double bx, double by,
+			double cx, double cy) {
+		BigDecimal cxExact = new BigDecimal(cx);
+		BigDecimal cyExact = new BigDecimal(cy);
+		BigDecimal acx = new BigDecimal(ax).subtract(cxExact);
+		BigDecimal acy = new BigDecimal(ay).subtract(cyExact);
+		BigDecimal bcx = new BigDecimal(bx).subtract(cxExact);
+		BigDecimal bcy = new BigDecimal(by).subtract(cyExact);
+
+		BigDecimal det = acy.multiply(bcx).subtract(acx.multiply(bcy));
+		return toDouble(det);
+	}
+
+	// Calculates the in-circle determinant with exact arithmetic.
+	private static double inCircleExact(double ax, double ay, double bx, double by,
+			double cx, double cy, double px, double py) {
+		BigDecimal pxExact = new BigDecimal(px);
+		BigDecimal pyExact = new BigDecimal(py);
+		BigDecimal adx = new BigDecimal(ax).subtract(pxExact);
+		BigDecimal ady = new BigDecimal(ay).subtract(pyExact);
+		BigDecimal bdx = new BigDecimal(bx).subtract(pxExact);
+		BigDecimal bdy = new BigDecimal(by).subtract(pyExact);
+		BigDecimal cdx = new BigDecimal(cx).subtract(pxExact);
+		BigDecimal cdy = new BigDecimal(cy).subtract(pyExact);
+
+		BigDecimal aLift = adx.multiply(adx).add(ady.multiply(ady));
+		BigDecimal bLift = bdx.multiply(bdx).add(bdy.multiply(bdy));
+		BigDecimal cLift = cdx.multiply(cdx).add(cdy.multiply(cdy));
+
+		BigDecimal det = aLift.multiply(bdx.multiply(cdy).subtract(cdx.multiply(bdy)))
+				.add(bLift.multiply(cdx.multiply(ady).subtract(adx.multiply(cdy))))
+				.add(cLift.multiply(adx.multiply(bdy).subtract(bdx.multiply(ady))));
+		return toDouble(det);
+	}
+
+	// Converts a given exact value to double while preserving its sign even if
+	// the value is too small to be represented.
+	private static double toDouble(BigDecimal exact) {
+		double val = exact.doubleValue();
+		if (val == 0.0 && exact.signum() != 0)
+			return exact.signum() * Double.MIN_VALUE;
+		return val;
+	}
+}
@@ -0,0 +1,18 @@
+package geometry;
+
+
+// Algorithms available to generate evenly distributed sample points.
+public enum SamplingAlgorithm {
+	// Bridson's algorithm on a single thread. See PoissonDiscSampling.
+	Bridson,
+	// Bridson's algorithm on a single thread using primitive data structures
+	// that do not allocate per sample. See FastPoissonDiscSampling.
+	FastBridson,
+	// Bridson's algorithm applied to blocks of the domain that are processed in
+	// parallel. Produces the same points for a seed regardless of the number of
+	// threads. See ParallelPoissonDiscSampling.
+	ParallelBridson,
+	// Covers the domain with precomputed Poisson disc tiles. Does not search
+	// for sample positions. See WangTileSampling.
+	WangTiles
+}
@@ -0,0 +1,621 @@
+package geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+import types.TaskControl;
+
+
+// Parallel Delauney triangulation that splits the points into vertical strips,
+// triangulates the strips concurrently and merges neighboring strips pairwise
+// until a single block of points is left.
+// - Points are split into strips by their x-coordinates. Each strip is a block
+//   with x-limits that separate it from its neighbors.
+// - A triangle of a block whose circumcircle lies strictly between the x-limits
+//   of the block and contains no point is part of the final triangulation.
+//   Points whose triangles are all final are resolved.
+// - Two neighboring blocks are merged by triangulating their unresolved points
+//   again. Triangles whose circumcircle lies within the x-limits of the merged
+//   block and contains no point are final. Those that are not final in either
+//   of the two blocks already are added. Merges at the same level run
+//   concurrently.
+// - The outermost block has no x-limits, so all remaining triangles are
+//   decided there.
+// Each final triangle is added by the smallest block whose limits contain its
+// circumcircle, so no triangle is added twice. Points on a common circle are
+// decided by Predicates2D.inCirclePerturbed() like in SweepHullTriangulation.
+// The triangles are sorted into the same canonical order, see
+// SweepHullTriangulation.sortTriangles(), so the result is identical to a
+// sequential triangulation of the points. The number of strips only depends on
+// the number of points, so the result is also the same regardless of how many
+// threads the pool uses.
+class StripTriangulation {
+
+	///////////////
+
+	// Points between two x-limits whose triangles are known except near the
+	// limits.
+	private static class Block {
+		// Lower and upper limit of x-coordinates of the block's points. Points
+		// of other blocks are outside of the limits.
+		double minX;
+		double maxX;
+		// Global indices of the points that are not resolved yet.
+		int[] openPoints;
+		// Final triangles that the block adds to the triangulation as triples
+		// of global point indices.
+		int[] triangles;
+		int numTriangles;
+		// Hull of the block's points in global indices.
+		int[] hull;
+	}
+
+	///////////////
+
+	// Grid of points that allows to quickly find points within a given area.
+	private static class PointGrid {
+		private final double[] coords;
+		private final double left;
+		private final double top;
+		private final double cellSize;
+		private final int numCols;
+		private final int numRows;
+		// Start index of each cell's points in the point array. Has an extra
+		// entry at the end.
+		private final int[] cellStart;
+		private final int[] cellPoints;
+
+		public PointGrid(double[] coords, int[] points) {
+			this.coords = coords;
+
+			double minX = Double.POSITIVE_INFINITY;
+			double minY = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY;
+			double maxY = Double.NEGATIVE_INFINITY;
+			for (int p : points) {
+				minX = Math.min(minX, coords[2 * p]);
+				minY = Math.min(minY, coords[2 * p + 1]);
+				maxX = Math.max(maxX, coords[2 * p]);
+				maxY = Math.max(maxY, coords[2 * p + 1]);
+			}
+			if (points.length == 0) {
+				minX = minY = maxX = maxY = 0;
+			}
+
+			// Aim for about two points per cell.
+			double area = Math.max((maxX - minX) * (maxY - minY), Double.MIN_NORMAL);
+			double size = Math.sqrt(2 * area / Math.max(points.length, 1));
+			if (size <= 0 || Double.isNaN(size))
+				size = 1;
+
+			this.left = minX;
+			this.top = minY;
+			this.cellSize = size;
+			this.numCols = (int) ((maxX - minX) / size) + 1;
+			this.numRows = (int) ((maxY - minY) / size) + 1;
+
+			// Counting sort of the points into the cells.
+			this.cellStart = new int[numCols * numRows + 1];
+			for (int p : points)
+				++cellStart[cellOf(p) + 1];
+			for (int i = 1; i < cellStart.length; ++i)
+				cellStart[i] += cellStart[i - 1];
+			this.cellPoints = new int[points.length];
+			int[] fill = Arrays.copyOf(cellStart, cellStart.length - 1);
+			for (int p : points)
+				cellPoints[fill[cellOf(p)]++] = p;
+		}
+
+		// Checks if any grid point other than the triangle's points is inside
+		// the circumcircle of a given ccw triangle. Points on the circle are
+		// decided by Predicates2D.inCirclePerturbed().
+		public boolean isAnyPointInCircumcircle(int a, int b, int c) {
+			double ax = coords[2 * a];
+			double ay = coords[2 * a + 1];
+			double bx = coords[2 * b];
+			double by = coords[2 * b + 1];
+			double cx = coords[2 * c];
+			double cy = coords[2 * c + 1];
+
+			double ccx = SweepHullTriangulation.circumcenterX(ax, ay, bx, by, cx, cy);
+			double ccy = SweepHullTriangulation.circumcenterY(ax, ay, bx, by, cx, cy);
+			// Points on the circle are tested too, so the range of cells is
+			// slightly larger than the circle.
+			double r = Math.sqrt(
+					SweepHullTriangulation.circumradius(ax, ay, bx, by, cx, cy)) *
+					(1 + STRIP_MARGIN);
+			if (Double.isInfinite(r) || Double.isNaN(r))
+				return true;
+
+			int centerCol = col(ccx);
+			int centerRow = row(ccy);
+			// Large circles are most likely not empty. Check the cell at the center
+			// first to find out quickly.
+			if (isInGrid(centerCol, centerRow) &&
+					isAnyPointInCell(centerCol, centerRow, a, b, c))
+				return true;
+
+			return isAnyPointInCells(ccx - r, ccy - r, ccx + r, ccy + r,
+					centerCol, centerRow, a, b, c);
+		}
+
+		// Checks if any grid point other than the triangle's points is inside
+		// the circumcircle of a given ccw triangle that has an edge between two
+		// given of its points on the convex hull of all grid points. All points
+		// are on the triangle's side of the edge, so only the cells of the
+		// circle's segment on that side are scanned. The circumcircles of hull
+		// triangles can be huge, but then the segment is thin.
+		public boolean isAnyPointInHullCircumcircle(int a, int b, int c,
+				int edgeStart, int edgeEnd) {
+			double ax = coords[2 * a];
+			double ay = coords[2 * a + 1];
+			double bx = coords[2 * b];
+			double by = coords[2 * b + 1];
+			double cx = coords[2 * c];
+			double cy = coords[2 * c + 1];
+
+			double ccx = SweepHullTriangulation.circumcenterX(ax, ay, bx, by, cx, cy);
+			double ccy = SweepHullTriangulation.circumcenterY(ax, ay, bx, by, cx, cy);
+			double r = Math.sqrt(
+					SweepHullTriangulation.circumradius(ax, ay, bx, by, cx, cy));
+			if (Double.isInfinite(r) || Double.isNaN(r))
+				return isAnyPointInCircumcircle(a, b, c);
+
+			// The segment is bounded by the edge and the arc through the third
+			// point. Its bounding box is spanned by the edge's points and those
+			// extreme points of the circle that are on the same side of the edge
+			// as the third point.
+			final int opposite = a + b + c - edgeStart - edgeEnd;
+			final double sx = coords[2 * edgeStart];
+			final double sy = coords[2 * edgeStart + 1];
+			final double ex = coords[2 * edgeEnd];
+			final double ey = coords[2 * edgeEnd + 1];
+			double minX = Math.min(sx, ex);
+			double minY = Math.min(sy, ey);
+			double maxX = Math.max(sx, ex);
+			double maxY = Math.max(sy, ey);
+			final double side = Math.signum(orient(sx, sy, ex, ey,
+					coords[2 * opposite], coords[2 * opposite + 1]));
+			// If the center is inside the hull, the segment is most of the circle.
+			if (Math.signum(orient(sx, sy, ex, ey, ccx, ccy)) == side)
+				return isAnyPointInCircumcircle(a, b, c);
+			final double[] extremes = { ccx - r, ccy, ccx + r, ccy, ccx, ccy - r,
+					ccx, ccy + r };
+			for (int i = 0; i < extremes.length; i += 2) {
+				final double x = extremes[i];
+				final double y = extremes[i + 1];
+				if (Math.signum(orient(sx, sy, ex, ey, x, y)) != -side) {
+					minX = Math.min(minX, x);
+					minY = Math.min(minY, y);
+					maxX = Math.max(maxX, x);
+					maxY = Math.max(maxY, y);
+				}
+			}
+			// Points on the circle are tested too, so the range of cells is
+			// slightly larger than the segment.
+			final double margin = STRIP_MARGIN * (r + Math.abs(ccx) + Math.abs(ccy));
+			return isAnyPointInCells(minX - margin, minY - margin, maxX + margin,
+					maxY + margin, -1, -1, a, b, c);
+		}
+
+		// Checks if any grid point in the cells that overlap a given area,
+		// except a given cell, is inside the circumcircle of a given ccw
+		// triangle.
+		private boolean isAnyPointInCells(double minX, double minY, double maxX,
+				double maxY, int skipCol, int skipRow, int a, int b, int c) {
+			int firstCol = Math.max(col(minX), 0);
+			int lastCol = Math.min(col(maxX), numCols - 1);
+			int firstRow = Math.max(row(minY), 0);
+			int lastRow = Math.min(row(maxY), numRows - 1);
+			for (int rowIdx = firstRow; rowIdx <= lastRow; ++rowIdx) {
+				for (int colIdx = firstCol; colIdx <= lastCol; ++colIdx) {
+					if (colIdx == skipCol && rowIdx == skipRow)
+						continue;
+					if (isAnyPointInCell(colIdx, rowIdx, a, b, c))
+						return true;
+				}
+			}
+			return false;
+		}
+
+		// Non-robust orientation of three points. Only used to bound the cells
+		// that are scanned.
+		private static double orient(double ax, double ay, double bx, double by,
+				double cx, double cy) {
+			return (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+		}
+
+		private boolean isAnyPointInCell(int colIdx, int rowIdx, int a, int b, int c) {
+			int cell = rowIdx * numCols + colIdx;
+			for (int i = cellStart[cell]; i < cellStart[cell + 1]; ++i) {
+				int p = cellPoints[i];
+				if (p == a || p == b || p == c)
+					continue;
+				if (Predicates2D.inCirclePerturbed(coords[2 * a], coords[2 * a + 1],
+						coords[2 * b], coords[2 * b + 1], coords[2 * c], coords[2 * c + 1],
+						coords[2 * p], coords[2 * p + 1]) < 0)
+					return true;
+			}
+			return false;
+		}
+
+		private int cellOf(int p) {
+			return row(coords[2 * p + 1]) * numCols + col(coords[2 * p]);
+		}
+
+		private int col(double x) {
+			return (int) Math.floor((x - left) / cellSize);
+		}
+
+		private int row(double y) {
+			return (int) Math.floor((y - top) / cellSize);
+		}
+
+		private boolean isInGrid(int colIdx, int rowIdx) {
+			return colIdx >= 0 && colIdx < numCols && rowIdx >= 0 && rowIdx < numRows;
+		}
+	}
+
+	///////////////
+
+	// Strips are only used for larger point sets. The number of strips grows
+	// with the square root of the number of points to keep the seams a small
+	// fraction of the work.
+	private static final int STRIP_POINTS_SQRT = 80;
+	private static final int MAX_STRIPS = 64;
+	// Number of triangles of a merge that are classified together in one task.
+	private static final int MERGE_BATCH_SIZE = 4096;
+	// Relative safety margin when checking whether a circumcircle stays within
+	// the limits of a block.
+	private static final double STRIP_MARGIN = 1e-9;
+
+	// Coordinates of all points in x, y order.
+	private final double[] coords;
+	private final ForkJoinPool pool;
+	// Control of the task that runs the triangulation. Checked by each block.
+	private final TaskControl control;
+	// Grid of all points for checking whether circumcircles are empty.
+	private PointGrid grid;
+	// Merged triangulation.
+	private int[] triangles;
+	private int[] halfedges;
+	private int numTriangles;
+	private int[] hull;
+
+	StripTriangulation(double[] coords, ForkJoinPool pool) {
+		this.coords = coords;
+		this.pool = pool;
+		this.control = TaskControl.current();
+	}
+
+	// Runs the triangulation.
+	void run() {
+		final int n = coords.length / 2;
+		int numStrips = Math.min((int) (Math.sqrt(n) / STRIP_POINTS_SQRT), MAX_STRIPS);
+		if (numStrips < 2) {
+			runSequential();
+			return;
+		}
+
+		int[] allPoints = new int[n];
+		for (int i = 0; i < n; ++i)
+			allPoints[i] = i;
+		grid = new PointGrid(coords, allPoints);
+
+		// Triangulate the strips.
+		Block[] blocks = makeStrips(numStrips);
+		List<Block> allBlocks = new ArrayList<Block>();
+		final int numSteps = 2 * numStrips - 1;
+		int numStepsDone = 0;
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		for (Block strip : blocks)
+			tasks.add(pool.submit(() -> resolve(strip, strip.openPoints, null, null)));
+		for (int i = 0; i < tasks.size(); ++i) {
+			tasks.get(i).join();
+			control.setProgress(++numStepsDone, numSteps);
+		}
+		allBlocks.addAll(Arrays.asList(blocks));
+
+		// Merge neighboring blocks until a single block is left. The outermost
+		// block has no limits.
+		while (blocks.length > 1) {
+			Block[] merged = new Block[(blocks.length + 1) / 2];
+			tasks.clear();
+			for (int i = 0; i < merged.length; ++i) {
+				if (2 * i + 1 == blocks.length) {
+					merged[i] = blocks[2 * i];
+					continue;
+				}
+				Block left = blocks[2 * i];
+				Block right = blocks[2 * i + 1];
+				Block block = new Block();
+				block.minX = (merged.length > 1) ? left.minX : Double.NEGATIVE_INFINITY;
+				block.maxX = (merged.length > 1) ? right.maxX : Double.POSITIVE_INFINITY;
+				merged[i] = block;
+				allBlocks.add(block);
+				int[] openPoints = concat(left.openPoints, right.openPoints);
+				tasks.add(pool.submit(() -> resolve(block, openPoints, left, right)));
+			}
+			for (ForkJoinTask<?> task : tasks) {
+				task.join();
+				control.setProgress(++numStepsDone, numSteps);
+			}
+			blocks = merged;
+		}
+
+		collect(allBlocks, blocks[0]);
+	}
+
+	public int[] triangles() {
+		return triangles;
+	}
+
+	public int[] halfedges() {
+		return halfedges;
+	}
+
+	public int countTriangles() {
+		return numTriangles;
+	}
+
+	public int[] hull() {
+		return hull;
+	}
+
+	// Triangulates all points as a single strip.
+	private void runSequential() {
+		SweepHullTriangulation all = new SweepHullTriangulation(coords);
+		all.run();
+		triangles = all.triangles();
+		halfedges = all.halfedges();
+		numTriangles = all.countTriangles();
+		hull = all.hull();
+	}
+
+	// Splits the points into a given number of strips of similar sizes.
+	private Block[] makeStrips(int numStrips) {
+		final int n = coords.length / 2;
+
+		// Use x-coordinates of a regular subset of the points to find the limits
+		// between the strips.
+		int step = Math.max(n / (numStrips * 1024), 1);
+		double[] subset = new double[(n + step - 1) / step];
+		for (int i = 0, j = 0; i < n; i += step, ++j)
+			subset[j] = coords[2 * i];
+		Arrays.sort(subset);
+		double[] limits = new double[numStrips - 1];
+		for (int s = 1; s < numStrips; ++s)
+			limits[s - 1] = subset[(int) ((long) s * subset.length / numStrips)];
+
+		// Assign the points to strips. Points keep their relative order within
+		// each strip.
+		int[] stripOfPoint = new int[n];
+		int[] stripSize = new int[numStrips];
+		for (int i = 0; i < n; ++i) {
+			int s = findStrip(coords[2 * i], limits);
+			stripOfPoint[i] = s;
+			++stripSize[s];
+		}
+
+		Block[] strips = new Block[numStrips];
+		for (int s = 0; s < numStrips; ++s) {
+			strips[s] = new Block();
+			strips[s].openPoints = new int[stripSize[s]];
+			strips[s].minX = (s > 0) ? limits[s - 1] : Double.NEGATIVE_INFINITY;
+			strips[s].maxX = (s < numStrips - 1) ? limits[s] : Double.POSITIVE_INFINITY;
+			stripSize[s] = 0;
+		}
+		for (int i = 0; i < n; ++i) {
+			Block strip = strips[stripOfPoint[i]];
+			strip.openPoints[stripSize[stripOfPoint[i]]++] = i;
+		}
+
+		return strips;
+	}
+
+	// Returns the strip that a given x-coordinate falls into. Strip s contains
+	// coordinates in [limits[s-1], limits[s]).
+	private static int findStrip(double x, double[] limits) {
+		int lo = 0;
+		int hi = limits.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (x < limits[mid])
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return lo;
+	}
+
+	// Triangulates given points of a block and determines the block's final
+	// triangles and unresolved points. For a strip the blocks that it is
+	// merged from are null. The points are all points of the strip or the
+	// unresolved points of the merged blocks.
+	private void resolve(Block block, int[] points, Block left, Block right) {
+		control.checkCancelled();
+		SweepHullTriangulation triang = new SweepHullTriangulation(extractCoords(points));
+		triang.runUnsorted();
+		final int[] blockTriangles = triang.triangles();
+		final int[] blockHalfedges = triang.halfedges();
+		final int numBlockTriangles = triang.countTriangles();
+
+		// Classify the triangles. The triangles of a strip are Delauney with
+		// respect to all points if their circumcircle stays within the strip.
+		// Merged blocks can be missing resolved points, so their triangles are
+		// checked against all points. The outermost block keeps all points of
+		// the convex hull open, so the hull edges of its triangulation are on
+		// the hull of all points.
+		final boolean isStrip = left == null;
+		final boolean isOutermost = block.minX == Double.NEGATIVE_INFINITY &&
+				block.maxX == Double.POSITIVE_INFINITY;
+		boolean[] isFinal = new boolean[numBlockTriangles];
+		boolean[] isAdded = new boolean[numBlockTriangles];
+		IntConsumer classifyRange = first -> {
+			final int last = Math.min(first + MERGE_BATCH_SIZE, numBlockTriangles);
+			for (int t = first; t < last; ++t) {
+				int a = points[blockTriangles[3 * t]];
+				int b = points[blockTriangles[3 * t + 1]];
+				int c = points[blockTriangles[3 * t + 2]];
+				isFinal[t] = isCircumcircleWithin(a, b, c, block.minX, block.maxX) &&
+						(isStrip || !isAnyPointInCircumcircle(t, points,
+								blockTriangles, blockHalfedges, isOutermost));
+				isAdded[t] = isFinal[t] && (isStrip ||
+						(!isCircumcircleWithin(a, b, c, left.minX, left.maxX) &&
+						!isCircumcircleWithin(a, b, c, right.minX, right.maxX)));
+			}
+		};
+		if (isStrip) {
+			for (int first = 0; first < numBlockTriangles; first += MERGE_BATCH_SIZE)
+				classifyRange.accept(first);
+		} else {
+			List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+			for (int first = 0; first < numBlockTriangles; first += MERGE_BATCH_SIZE) {
+				final int batch = first;
+				tasks.add(pool.submit(() -> classifyRange.accept(batch)));
+			}
+			joinAll(tasks);
+		}
+
+		// A point is resolved if all of its triangles are final and they
+		// surround it. Points on the hull of the block might connect to points
+		// of other blocks.
+		final int numPoints = points.length;
+		boolean[] isOpen = new boolean[numPoints];
+		boolean[] hasTriangle = new boolean[numPoints];
+		for (int e = 0; e < 3 * numBlockTriangles; ++e) {
+			int p = blockTriangles[e];
+			hasTriangle[p] = true;
+			if (!isFinal[e / 3] || blockHalfedges[e] == SweepHullTriangulation.NO_EDGE) {
+				isOpen[p] = true;
+				isOpen[blockTriangles[SweepHullTriangulation.nextHalfedge(e)]] = true;
+			}
+		}
+		int numOpen = 0;
+		for (int p = 0; p < numPoints; ++p) {
+			isOpen[p] |= !hasTriangle[p];
+			if (isOpen[p])
+				++numOpen;
+		}
+		block.openPoints = new int[numOpen];
+		for (int p = 0, i = 0; p < numPoints; ++p)
+			if (isOpen[p])
+				block.openPoints[i++] = points[p];
+
+		int numAdded = 0;
+		for (boolean added : isAdded)
+			if (added)
+				++numAdded;
+		block.numTriangles = numAdded;
+		block.triangles = new int[3 * numAdded];
+		for (int t = 0, i = 0; t < numBlockTriangles; ++t) {
+			if (!isAdded[t])
+				continue;
+			for (int v = 0; v < 3; ++v)
+				block.triangles[i++] = points[blockTriangles[3 * t + v]];
+		}
+
+		int[] blockHull = triang.hull();
+		block.hull = new int[blockHull.length];
+		for (int i = 0; i < blockHull.length; ++i)
+			block.hull[i] = points[blockHull[i]];
+	}
+
+	// Checks if any point other than the triangle's points is inside the
+	// circumcircle of a given triangle of a block's triangulation. If the
+	// block's hull is the hull of all points, only the part of the circles of
+	// hull triangles inside the hull is checked.
+	private boolean isAnyPointInCircumcircle(int t, int[] points,
+			int[] blockTriangles, int[] blockHalfedges, boolean isOnAllPointsHull) {
+		final int a = points[blockTriangles[3 * t]];
+		final int b = points[blockTriangles[3 * t + 1]];
+		final int c = points[blockTriangles[3 * t + 2]];
+		for (int e = 3 * t; e < 3 * t + 3 && isOnAllPointsHull; ++e) {
+			if (blockHalfedges[e] == SweepHullTriangulation.NO_EDGE)
+				return grid.isAnyPointInHullCircumcircle(a, b, c,
+						points[blockTriangles[e]],
+						points[blockTriangles[SweepHullTriangulation.nextHalfedge(e)]]);
+		}
+		return grid.isAnyPointInCircumcircle(a, b, c);
+	}
+
+	// Checks if the circumcircle of a given triangle lies strictly between
+	// given x-limits. The circumcircle is calculated from the points in
+	// the same order regardless of how the triangle is rotated, so a triangle
+	// gets the same result in every block.
+	private boolean isCircumcircleWithin(int a, int b, int c, double minX,
+			double maxX) {
+		if (b < a && b < c) {
+			int first = b;
+			b = c;
+			c = a;
+			a = first;
+		} else if (c < a && c < b) {
+			int first = c;
+			c = b;
+			b = a;
+			a = first;
+		}
+		double ax = coords[2 * a];
+		double ay = coords[2 * a + 1];
+		double bx = coords[2 * b];
+		double by = coords[2 * b + 1];
+		double cx = coords[2 * c];
+		double cy = coords[2 * c + 1];
+
+		double ccx = SweepHullTriangulation.circumcenterX(ax, ay, bx, by, cx, cy);
+		double r = Math.sqrt(SweepHullTriangulation.circumradius(ax, ay, bx, by, cx, cy));
+		if (Double.isNaN(ccx) || Double.isInfinite(r) || Double.isNaN(r))
+			return false;
+
+		double margin = STRIP_MARGIN * (Math.abs(ccx) + r);
+		return ccx - r > minX + margin && ccx + r < maxX - margin;
+	}
+
+	// Collects the triangles that the blocks added into a single triangulation
+	// in canonical order. The hull is the hull of the outermost block.
+	private void collect(List<Block> blocks, Block outermost) {
+		control.checkCancelled();
+		numTriangles = 0;
+		for (Block block : blocks)
+			numTriangles += block.numTriangles;
+		int[] collected = new int[3 * numTriangles];
+		int pos = 0;
+		for (Block block : blocks) {
+			System.arraycopy(block.triangles, 0, collected, pos, 3 * block.numTriangles);
+			pos += 3 * block.numTriangles;
+		}
+
+		triangles = SweepHullTriangulation.sortTriangles(collected, numTriangles);
+		halfedges = SweepHullTriangulation.linkHalfedges(triangles, numTriangles,
+				coords.length / 2, pool);
+		hull = SweepHullTriangulation.rotateHull(outermost.hull);
+	}
+
+	// Returns the given arrays one after the other in a single array.
+	private static int[] concat(int[] first, int[] second) {
+		int[] joined = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, joined, first.length, second.length);
+		return joined;
+	}
+
+	// Returns the coordinates of the points at given indices.
+	private double[] extractCoords(int[] points) {
+		double[] extracted = new double[2 * points.length];
+		for (int i = 0; i < points.length; ++i) {
+			extracted[2 * i] = coords[2 * points[i]];
+			extracted[2 * i + 1] = coords[2 * points[i] + 1];
+		}
+		return extracted;
+	}
+
+	// Waits for given tasks to finish.
+	private static void joinAll(List<ForkJoinTask<?>> tasks) {
+		for (ForkJoinTask<?> task : tasks)
+			task.join();
+	}
+}
@@ -0,0 +1,856 @@
+package geometry;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+import types.TaskControl;
+
+
+// Implementation of a sweep-hull algorithm to perform a Delauney triangulation
+// in 2D.
+// Sorts the points by their distance from a seed triangle and adds them one
+// after the other to the outside of a growing convex hull. Each new triangle
+// is made Delauney by recursively flipping its edges.
+// All data is kept in flat arrays without per-triangle objects:
+// - Coordinates are stored in x, y order.
+// - Triangles are stored as triples of point indices. Vertices are arranged
+//   in ccw order.
+// - Half-edges are identified by the index of their start point in the triangle
+//   array. The half-edge of triangle t that starts at vertex i has index
+//   3 * t + i. For each half-edge the index of the opposite half-edge in the
+//   neighboring triangle is stored, or -1 if the half-edge is on the hull.
+// - Time: O(n log n)
+// Orientation and in-circle tests use Predicates2D, so that flips and hull
+// updates are decided consistently even for nearly degenerate input. Points
+// on a common circle are decided by Predicates2D.inCirclePerturbed(), which
+// makes the triangulation unique. The triangles are returned in a canonical
+// order, see sortTriangles(), so that the result only depends on the points.
+// Optionally, the triangulation can be performed in parallel by splitting the
+// points into strips that are triangulated concurrently. See
+// StripTriangulation.
+// Source:
+// https://github.com/mapbox/delaunator
+public class SweepHullTriangulation {
+
+	// Threshold for detecting (nearly) duplicate points.
+	private static final double EPSILON = Math.pow(2, -52);
+	// Marker for half-edges without opposite half-edge.
+	public static final int NO_EDGE = -1;
+	// Mask of the point counter that selects the points at which progress is
+	// reported and cancellation is checked, i.e. every 4096th point.
+	private static final int PROGRESS_MASK = 0xFFF;
+	// Number of half-edges that are linked together in one task.
+	private static final int LINK_BATCH_SIZE = 16384;
+
+	// Points that define the triangulation.
+	private final PointSet samples;
+	// Pool to run a parallel triangulation in or null to run it sequentially.
+	private final ForkJoinPool pool;
+	// Coordinates of the sample points in x, y order.
+	private final double[] coords;
+	// Triangles as triples of sample indices.
+	private int[] triangles;
+	// Opposite half-edge for each half-edge.
+	private int[] halfedges;
+	// Number of used entries in the triangle and half-edge arrays.
+	private int trianglesLen;
+	// Sample indices of the convex hull in ccw order.
+	private int[] hull;
+	// Control of the task that runs the triangulation.
+	private TaskControl control = TaskControl.NONE;
+
+	// Temporary data used while triangulating.
+	private int[] hullPrev;
+	private int[] hullNext;
+	private int[] hullTri;
+	private int[] hullHash;
+	private int hullStart;
+	private double centerX;
+	private double centerY;
+	private final int[] edgeStack = new int[512];
+
+	// Caller is responsible that sample points does not contain duplicates.
+	public SweepHullTriangulation(List<Point2D> samplePoints) {
+		this(samplePoints, null);
+	}
+
+	// Constructs a triangulation that runs in parallel in a given pool.
+	// Caller is responsible that sample points does not contain duplicates.
+	public SweepHullTriangulation(List<Point2D> samplePoints, ForkJoinPool pool) {
+		this(PointSet.fromPoints(samplePoints), pool);
+	}
+
+	// Constructs a triangulation for a given point set that runs in parallel in
+	// a given pool or sequentially if the pool is null.
+	// Caller is responsible that sample points does not contain duplicates.
+	public SweepHullTriangulation(PointSet samplePoints, ForkJoinPool pool) {
+		this.samples = samplePoints;
+		this.pool = pool;
+		this.coords = samples.coords();
+	}
+
+	// Constructs a sequential triangulation for given coordinates in x, y
+	// order. Only the index-based data will be available.
+	SweepHullTriangulation(double[] coords) {
+		this.samples = null;
+		this.pool = null;
+		this.coords = coords;
+	}
+
+	// Starts the Delauney triangulation and returns its triangles as objects.
+	// Compatibility path for callers of DelauneyTriangulation's API. Makes a
+	// triangle and three points per triangle, so callers that can work with
+	// indices should use triangulateIndexed() instead.
+	public List<Triangle2D> triangulate() {
+		triangulateIndexed();
+
+		List<Triangle2D> result = new ArrayList<Triangle2D>(countTriangles());
+		for (int t = 0; t < countTriangles(); ++t)
+			result.add(makeTriangle(t));
+		return result;
+	}
+
+	// Performs the Delauney triangulation without making triangle objects. The
+	// result is available through triangles(), halfedges() and hull() or as
+	// triangleView().
+	public void triangulateIndexed() {
+		control = TaskControl.current();
+		if (pool != null)
+			runParallel();
+		else
+			run();
+	}
+
+	// Returns a list view of the triangles that makes the triangle objects
+	// only when they are accessed.
+	// Has to be called after the triangulation was performed.
+	public List<Triangle2D> triangleView() {
+		return new AbstractList<Triangle2D>() {
+			@Override
+			public Triangle2D get(int idx) {
+				return makeTriangle(idx);
+			}
+
+			@Override
+			public int size() {
+				return countTriangles();
+			}
+		};
+	}
+
+	// Returns the triangulation extended with information that is useful to
+	// callers, e.g. a triangle's circumcircle.
+	// Has to be called after the triangulation was performed.
+	public List<DelauneyTriangle> delauneyTriangles() {
+		List<DelauneyTriangle> result =
+				new ArrayList<DelauneyTriangle>(countTriangles());
+		for (int t = 0; t < countTriangles(); ++t)
+			result.add(new DelauneyTriangle(makeTriangle(t)));
+		return result;
+	}
+
+	public int countTriangles() {
+		return trianglesLen / 3;
+	}
+
+	// Returns the sample points of the triangulation.
+	public PointSet samples() {
+		return samples;
+	}
+
+	// Direct access to the triangulation's data as optimization for callers
+	// that can work with the raw data. Callers must not modify the arrays.
+	// The triangle and half-edge arrays can be larger than the number of
+	// used entries.
+
+	public double[] coords() {
+		return coords;
+	}
+
+	public int[] triangles() {
+		return triangles;
+	}
+
+	public int[] halfedges() {
+		return halfedges;
+	}
+
+	public int[] hull() {
+		return hull;
+	}
+
+	// Returns the index of the next half-edge in the same triangle.
+	public static int nextHalfedge(int e) {
+		return (e % 3 == 2) ? e - 2 : e + 1;
+	}
+
+	// Returns the index of the previous half-edge in the same triangle.
+	public static int prevHalfedge(int e) {
+		return (e % 3 == 0) ? e + 2 : e - 1;
+	}
+
+	// Creates a triangle object for the triangle at a given index.
+	private Triangle2D makeTriangle(int t) {
+		return new Triangle2D(
+				samples.point(triangles[3 * t]),
+				samples.point(triangles[3 * t + 1]),
+				samples.point(triangles[3 * t + 2]));
+	}
+
+	// Performs the triangulation in parallel.
+	private void runParallel() {
+		StripTriangulation strips = new StripTriangulation(coords, pool);
+		strips.run();
+		triangles = strips.triangles();
+		halfedges = strips.halfedges();
+		trianglesLen = strips.countTriangles() * 3;
+		hull = strips.hull();
+	}
+
+	// Performs the triangulation sequentially.
+	void run() {
+		runUnsorted();
+		triangles = sortTriangles(triangles, countTriangles());
+		halfedges = linkHalfedges(triangles, countTriangles(), coords.length / 2,
+				null);
+		hull = rotateHull(hull);
+	}
+
+	// Performs the triangulation sequentially without bringing the triangles
+	// into canonical order. For callers that only use parts of the result.
+	void runUnsorted() {
+		final int n = coords.length / 2;
+		int maxTriangles = Math.max(2 * n - 5, 0);
+		triangles = new int[maxTriangles * 3];
+		halfedges = new int[maxTriangles * 3];
+		trianglesLen = 0;
+		hull = new int[0];
+		if (n < 3)
+			return;
+
+		int hashSize = (int) Math.ceil(Math.sqrt(n));
+		hullPrev = new int[n];
+		hullNext = new int[n];
+		hullTri = new int[n];
+		hullHash = new int[hashSize];
+		int[] ids = new int[n];
+		double[] dists = new double[n];
+
+		// Find center of bounds.
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; ++i) {
+			double x = coords[2 * i];
+			double y = coords[2 * i + 1];
+			if (x < minX)
+				minX = x;
+			if (y < minY)
+				minY = y;
+			if (x > maxX)
+				maxX = x;
+			if (y > maxY)
+				maxY = y;
+			ids[i] = i;
+		}
+		double cx = (minX + maxX) / 2;
+		double cy = (minY + maxY) / 2;
+
+		// Pick a seed point close to the center.
+		int i0 = 0;
+		double minDist = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < n; ++i) {
+			double d = dist(cx, cy, coords[2 * i], coords[2 * i + 1]);
+			if (d < minDist) {
+				i0 = i;
+				minDist = d;
+			}
+		}
+		double i0x = coords[2 * i0];
+		double i0y = coords[2 * i0 + 1];
+
+		// Find the point closest to the seed.
+		int i1 = 0;
+		minDist = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < n; ++i) {
+			if (i == i0)
+				continue;
+			double d = dist(i0x, i0y, coords[2 * i], coords[2 * i + 1]);
+			if (d < minDist && d > 0) {
+				i1 = i;
+				minDist = d;
+			}
+		}
+		double i1x = coords[2 * i1];
+		double i1y = coords[2 * i1 + 1];
+
+		// Find the third point which forms the smallest circumcircle with the
+		// first two.
+		int i2 = 0;
+		double minRadius = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < n; ++i) {
+			if (i == i0 || i == i1)
+				continue;
+			double r = circumradius(i0x, i0y, i1x, i1y, coords[2 * i],
+					coords[2 * i + 1]);
+			if (r < minRadius) {
+				i2 = i;
+				minRadius = r;
+			}
+		}
+		double i2x = coords[2 * i2];
+		double i2y = coords[2 * i2 + 1];
+
+		if (minRadius == Double.POSITIVE_INFINITY) {
+			// All points are collinear. There are no triangles. The hull is the
+			// list of points ordered along the line.
+			runCollinear(ids, dists);
+			return;
+		}
+
+		// Orient the seed triangle ccw.
+		if (Predicates2D.orient(i0x, i0y, i1x, i1y, i2x, i2y) < 0) {
+			int i = i1;
+			double x = i1x;
+			double y = i1y;
+			i1 = i2;
+			i1x = i2x;
+			i1y = i2y;
+			i2 = i;
+			i2x = x;
+			i2y = y;
+		}
+
+		centerX = circumcenterX(i0x, i0y, i1x, i1y, i2x, i2y);
+		centerY = circumcenterY(i0x, i0y, i1x, i1y, i2x, i2y);
+
+		// Sort the points by distance from the seed triangle's circumcenter.
+		for (int i = 0; i < n; ++i)
+			dists[i] = dist(coords[2 * i], coords[2 * i + 1], centerX, centerY);
+		quicksort(ids, dists, 0, n - 1);
+
+		// Set up the seed triangle as the starting hull.
+		hullStart = i0;
+		int hullSize = 3;
+
+		hullNext[i0] = hullPrev[i2] = i1;
+		hullNext[i1] = hullPrev[i0] = i2;
+		hullNext[i2] = hullPrev[i1] = i0;
+
+		hullTri[i0] = 0;
+		hullTri[i1] = 1;
+		hullTri[i2] = 2;
+
+		for (int i = 0; i < hashSize; ++i)
+			hullHash[i] = -1;
+		hullHash[hashKey(i0x, i0y)] = i0;
+		hullHash[hashKey(i1x, i1y)] = i1;
+		hullHash[hashKey(i2x, i2y)] = i2;
+
+		addTriangle(i0, i1, i2, NO_EDGE, NO_EDGE, NO_EDGE);
+
+		double xp = 0;
+		double yp = 0;
+		for (int k = 0; k < n; ++k) {
+			if ((k & PROGRESS_MASK) == 0)
+				control.setProgress(k, n);
+			final int i = ids[k];
+			final double x = coords[2 * i];
+			final double y = coords[2 * i + 1];
+
+			// Skip near-duplicate points.
+			if (k > 0 && Math.abs(x - xp) <= EPSILON && Math.abs(y - yp) <= EPSILON)
+				continue;
+			xp = x;
+			yp = y;
+
+			// Skip seed triangle points.
+			if (i == i0 || i == i1 || i == i2)
+				continue;
+
+			// Find a visible edge on the convex hull using the edge hash.
+			int start = 0;
+			for (int j = 0, key = hashKey(x, y); j < hashSize; ++j) {
+				start = hullHash[(key + j) % hashSize];
+				if (start != -1 && start != hullNext[start])
+					break;
+			}
+
+			start = hullPrev[start];
+			int e = start;
+			int q = hullNext[e];
+			while (Predicates2D.orient(x, y, coords[2 * e], coords[2 * e + 1],
+					coords[2 * q], coords[2 * q + 1]) >= 0) {
+				e = q;
+				if (e == start) {
+					e = -1;
+					break;
+				}
+				q = hullNext[e];
+			}
+			// Likely a near-duplicate point. Skip it.
+			if (e == -1)
+				continue;
+
+			// Add the first triangle from the point.
+			int t = addTriangle(e, i, hullNext[e], NO_EDGE, NO_EDGE, hullTri[e]);
+
+			// Recursively flip triangles from the point until they satisfy the
+			// Delauney condition.
+			hullTri[i] = legalize(t + 2);
+			// Keep track of boundary triangles on the hull.
+			hullTri[e] = t;
+			++hullSize;
+
+			// Walk forward through the hull, adding more triangles and flipping
+			// recursively.
+			int next = hullNext[e];
+			q = hullNext[next];
+			while (Predicates2D.orient(x, y, coords[2 * next], coords[2 * next + 1],
+					coords[2 * q], coords[2 * q + 1]) < 0) {
+				t = addTriangle(next, i, q, hullTri[i], NO_EDGE, hullTri[next]);
+				hullTri[i] = legalize(t + 2);
+				// Mark as removed.
+				hullNext[next] = next;
+				--hullSize;
+				next = q;
+				q = hullNext[next];
+			}
+
+			// Walk backward from the other side, adding more triangles and
+			// flipping.
+			if (e == start) {
+				q = hullPrev[e];
+				while (Predicates2D.orient(x, y, coords[2 * q], coords[2 * q + 1],
+						coords[2 * e], coords[2 * e + 1]) < 0) {
+					t = addTriangle(q, i, e, NO_EDGE, hullTri[e], hullTri[q]);
+					legalize(t + 2);
+					hullTri[q] = t;
+					// Mark as removed.
+					hullNext[e] = e;
+					--hullSize;
+					e = q;
+					q = hullPrev[e];
+				}
+			}
+
+			// Update the hull indices.
+			hullStart = hullPrev[i] = e;
+			hullNext[e] = hullPrev[next] = i;
+			hullNext[i] = next;
+
+			// Save the two new edges in the hash table.
+			hullHash[hashKey(x, y)] = i;
+			hullHash[hashKey(coords[2 * e], coords[2 * e + 1])] = e;
+		}
+
+		hull = new int[hullSize];
+		for (int i = 0, e = hullStart; i < hullSize; ++i) {
+			hull[i] = e;
+			e = hullNext[e];
+		}
+
+		// Release temporary data.
+		hullPrev = null;
+		hullNext = null;
+		hullTri = null;
+		hullHash = null;
+	}
+
+	// Handles the degenerate case of all points being collinear.
+	private void runCollinear(int[] ids, double[] dists) {
+		final int n = ids.length;
+		for (int i = 0; i < n; ++i) {
+			double dx = coords[2 * i] - coords[0];
+			dists[i] = (dx != 0) ? dx : coords[2 * i + 1] - coords[1];
+		}
+		quicksort(ids, dists, 0, n - 1);
+
+		int[] collinearHull = new int[n];
+		int j = 0;
+		double d0 = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; ++i) {
+			int id = ids[i];
+			if (dists[id] > d0) {
+				collinearHull[j++] = id;
+				d0 = dists[id];
+			}
+		}
+
+		hull = new int[j];
+		System.arraycopy(collinearHull, 0, hull, 0, j);
+	}
+
+	// Flips the edge at a given half-edge and recursively its neighbors until
+	// all affected triangles satisfy the Delauney condition.
+	// Returns the half-edge that ends up in the position of the given edge's
+	// previous half-edge.
+	private int legalize(int a) {
+		int i = 0;
+		int ar = 0;
+
+		// Recursion eliminated with a fixed-size stack.
+		while (true) {
+			final int b = halfedges[a];
+
+			// If the pair of triangles doesn't satisfy the Delauney condition
+			// (p1 is inside the circumcircle of [p0, pl, pr]), flip them,
+			// then do the same check/flip recursively for the new pair of
+			// triangles.
+			//
+			//           pl                    pl
+			//          /||\                  /  \
+			//       al/ || \bl            al/    \a
+			//        /  ||  \              /      \
+			//       /  a||b  \    flip    /___ar___\
+			//     p0\   ||   /p1   =>   p0\---bl---/p1
+			//        \  ||  /              \      /
+			//       ar\ || /br             b\    /br
+			//          \||/                  \  /
+			//           pr                    pr
+			//
+			final int a0 = a - a % 3;
+			ar = a0 + (a + 2) % 3;
+
+			if (b == NO_EDGE) {
+				// Convex hull edge.
+				if (i == 0)
+					break;
+				a = edgeStack[--i];
+				continue;
+			}
+
+			final int b0 = b - b % 3;
+			final int al = a0 + (a + 1) % 3;
+			final int bl = b0 + (b + 2) % 3;
+
+			final int p0 = triangles[ar];
+			final int pr = triangles[a];
+			final int pl = triangles[al];
+			final int p1 = triangles[bl];
+
+			final boolean illegal = Predicates2D.inCirclePerturbed(
+					coords[2 * p0], coords[2 * p0 + 1],
+					coords[2 * pr], coords[2 * pr + 1],
+					coords[2 * pl], coords[2 * pl + 1],
+					coords[2 * p1], coords[2 * p1 + 1]) < 0;
+
+			if (illegal) {
+				triangles[a] = p1;
+				triangles[b] = p0;
+
+				final int hbl = halfedges[bl];
+
+				// Edge swapped on the other side of the hull (rare). Fix the
+				// half-edge reference.
+				if (hbl == NO_EDGE) {
+					int e = hullStart;
+					do {
+						if (hullTri[e] == bl) {
+							hullTri[e] = a;
+							break;
+						}
+						e = hullPrev[e];
+					} while (e != hullStart);
+				}
+				link(a, hbl);
+				link(b, halfedges[ar]);
+				link(ar, bl);
+
+				final int br = b0 + (b + 1) % 3;
+
+				// Don't worry about hitting the cap. It can only happen on
+				// extremely degenerate input.
+				if (i < edgeStack.length)
+					edgeStack[i++] = br;
+			} else {
+				if (i == 0)
+					break;
+				a = edgeStack[--i];
+			}
+		}
+
+		return ar;
+	}
+
+	// Links two given half-edges as opposites of each other.
+	private void link(int a, int b) {
+		halfedges[a] = b;
+		if (b != NO_EDGE)
+			halfedges[b] = a;
+	}
+
+	// Adds a triangle and links its half-edges to given opposite half-edges.
+	// Returns the index of the triangle's first half-edge.
+	private int addTriangle(int i0, int i1, int i2, int a, int b, int c) {
+		final int t = trianglesLen;
+		triangles[t] = i0;
+		triangles[t + 1] = i1;
+		triangles[t + 2] = i2;
+		link(t, a);
+		link(t + 1, b);
+		link(t + 2, c);
+		trianglesLen += 3;
+		return t;
+	}
+
+	// Brings given triangles into canonical order. Each triangle starts with
+	// its smallest point index, keeping the ccw order, and the triangles are
+	// sorted by their first and second point. Since a directed edge belongs to
+	// at most one triangle, the order is unique. Returns the sorted triangles.
+	// - Time: O(n)
+	static int[] sortTriangles(int[] triangles, int numTriangles) {
+		int maxPoint = -1;
+		for (int e = 0; e < 3 * numTriangles; ++e)
+			maxPoint = Math.max(maxPoint, triangles[e]);
+
+		// Counting sort by the smallest point.
+		int[] bucketStart = new int[maxPoint + 2];
+		for (int t = 0; t < numTriangles; ++t)
+			++bucketStart[smallestPoint(triangles, t) + 1];
+		for (int i = 1; i < bucketStart.length; ++i)
+			bucketStart[i] += bucketStart[i - 1];
+
+		int[] fill = new int[maxPoint + 1];
+		System.arraycopy(bucketStart, 0, fill, 0, maxPoint + 1);
+		int[] sorted = new int[3 * numTriangles];
+		for (int t = 0; t < numTriangles; ++t) {
+			final int first = firstVertexOfSmallest(triangles, t);
+			final int pos = 3 * fill[triangles[3 * t + first]]++;
+			for (int i = 0; i < 3; ++i)
+				sorted[pos + i] = triangles[3 * t + (first + i) % 3];
+		}
+
+		// Insertion sort by the second point within each bucket. Buckets hold
+		// the few triangles around a single point.
+		for (int b = 0; b <= maxPoint; ++b) {
+			for (int i = bucketStart[b] + 1; i < bucketStart[b + 1]; ++i) {
+				final int v1 = sorted[3 * i + 1];
+				final int v2 = sorted[3 * i + 2];
+				int j = i - 1;
+				while (j >= bucketStart[b] && sorted[3 * j + 1] > v1) {
+					sorted[3 * (j + 1) + 1] = sorted[3 * j + 1];
+					sorted[3 * (j + 1) + 2] = sorted[3 * j + 2];
+					--j;
+				}
+				sorted[3 * (j + 1) + 1] = v1;
+				sorted[3 * (j + 1) + 2] = v2;
+			}
+		}
+		return sorted;
+	}
+
+	// Returns the smallest point index of the triangle at a given index.
+	private static int smallestPoint(int[] triangles, int t) {
+		return triangles[3 * t + firstVertexOfSmallest(triangles, t)];
+	}
+
+	// Returns the position of the smallest point index within the triangle at
+	// a given index.
+	private static int firstVertexOfSmallest(int[] triangles, int t) {
+		final int a = triangles[3 * t];
+		final int b = triangles[3 * t + 1];
+		final int c = triangles[3 * t + 2];
+		if (a < b && a < c)
+			return 0;
+		return (b < c) ? 1 : 2;
+	}
+
+	// Calculates the opposite half-edge of each half-edge of given triangles.
+	// Runs the lookups in a given pool or sequentially if the pool is null.
+	// - Time: O(n)
+	static int[] linkHalfedges(int[] triangles, int numTriangles, int numPoints,
+			ForkJoinPool pool) {
+		final int numEdges = 3 * numTriangles;
+
+		// Group the half-edges by their start point.
+		int[] groupStart = new int[numPoints + 1];
+		for (int e = 0; e < numEdges; ++e)
+			++groupStart[triangles[e] + 1];
+		for (int i = 1; i <= numPoints; ++i)
+			groupStart[i] += groupStart[i - 1];
+		int[] fill = Arrays.copyOf(groupStart, numPoints);
+		int[] edgesFrom = new int[numEdges];
+		for (int e = 0; e < numEdges; ++e)
+			edgesFrom[fill[triangles[e]]++] = e;
+
+		// The opposite of the half-edge from a to b is the half-edge from b to
+		// a, if there is one.
+		int[] linked = new int[numEdges];
+		IntConsumer linkRange = batch -> {
+			final int last = Math.min(batch + LINK_BATCH_SIZE, numEdges);
+			for (int e = batch; e < last; ++e) {
+				final int a = triangles[e];
+				final int b = triangles[nextHalfedge(e)];
+				linked[e] = NO_EDGE;
+				for (int i = groupStart[b]; i < groupStart[b + 1]; ++i) {
+					final int f = edgesFrom[i];
+					if (triangles[nextHalfedge(f)] == a) {
+						linked[e] = f;
+						break;
+					}
+				}
+			}
+		};
+		if (pool != null && numEdges > LINK_BATCH_SIZE) {
+			List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+			for (int batch = 0; batch < numEdges; batch += LINK_BATCH_SIZE) {
+				final int first = batch;
+				tasks.add(pool.submit(() -> linkRange.accept(first)));
+			}
+			for (ForkJoinTask<?> task : tasks)
+				task.join();
+		} else {
+			for (int batch = 0; batch < numEdges; batch += LINK_BATCH_SIZE)
+				linkRange.accept(batch);
+		}
+		return linked;
+	}
+
+	// Rotates a given hull, so that it starts with its smallest point index.
+	static int[] rotateHull(int[] hull) {
+		int first = 0;
+		for (int i = 1; i < hull.length; ++i)
+			if (hull[i] < hull[first])
+				first = i;
+		int[] rotated = new int[hull.length];
+		for (int i = 0; i < hull.length; ++i)
+			rotated[i] = hull[(first + i) % hull.length];
+		return rotated;
+	}
+
+	// Returns the hash table key for the angle of a given point around the
+	// center.
+	private int hashKey(double x, double y) {
+		return (int) Math.floor(pseudoAngle(x - centerX, y - centerY) *
+				hullHash.length) % hullHash.length;
+	}
+
+	// Monotonically increases with the real angle of a given vector but
+	// doesn't need expensive trigonometry. Result is in range [0, 1].
+	private static double pseudoAngle(double dx, double dy) {
+		final double p = dx / (Math.abs(dx) + Math.abs(dy));
+		// [0..1]
+		return (dy > 0 ? 3 - p : 1 + p) / 4;
+	}
+
+	// Returns the squared distance between given points.
+	private static double dist(double ax, double ay, double bx, double by) {
+		final double dx = ax - bx;
+		final double dy = ay - by;
+		return dx * dx + dy * dy;
+	}
+
+	// Returns the squared radius of the circumcircle of a given triangle.
+	static double circumradius(double ax, double ay, double bx, double by,
+			double cx, double cy) {
+		final double dx = bx - ax;
+		final double dy = by - ay;
+		final double ex = cx - ax;
+		final double ey = cy - ay;
+
+		final double bl = dx * dx + dy * dy;
+		final double cl = ex * ex + ey * ey;
+		final double d = 0.5 / (dx * ey - dy * ex);
+
+		final double x = (ey * bl - dy * cl) * d;
+		final double y = (dx * cl - ex * bl) * d;
+
+		// NaN for collinear points.
+		final double r = x * x + y * y;
+		return Double.isNaN(r) ? Double.POSITIVE_INFINITY : r;
+	}
+
+	// Returns the x-coordinate of the circumcenter of a given triangle.
+	static double circumcenterX(double ax, double ay, double bx, double by,
+			double cx, double cy) {
+		final double dx = bx - ax;
+		final double dy = by - ay;
+		final double ex = cx - ax;
+		final double ey = cy - ay;
+
+		final double bl = dx * dx + dy * dy;
+		final double cl = ex * ex + ey * ey;
+		final double d = 0.5 / (dx * ey - dy * ex);
+
+		return ax + (ey * bl - dy * cl) * d;
+	}
+
+	// Returns the y-coordinate of the circumcenter of a given triangle.
+	static double circumcenterY(double ax, double ay, double bx, double by,
+			double cx, double cy) {
+		final double dx = bx - ax;
+		final double dy = by - ay;
+		final double ex = cx - ax;
+		final double ey = cy - ay;
+
+		final double bl = dx * dx + dy * dy;
+		final double cl = ex * ex + ey * ey;
+		final double d = 0.5 / (dx * ey - dy * ex);
+
+		return ay + (dx * cl - ex * bl) * d;
+	}
+
+	// Sorts a given range of ids by their associated distances.
+	private static void quicksort(int[] ids, double[] dists, int left, int right) {
+		if (right - left <= 20) {
+			// Insertion sort for small ranges.
+			for (int i = left + 1; i <= right; ++i) {
+				final int temp = ids[i];
+				final double tempDist = dists[temp];
+				int j = i - 1;
+				while (j >= left && dists[ids[j]] > tempDist)
+					ids[j + 1] = ids[j--];
+				ids[j + 1] = temp;
+			}
+			return;
+		}
+
+		final int median = (left + right) >> 1;
+		int i = left + 1;
+		int j = right;
+		swap(ids, median, i);
+		if (dists[ids[left]] > dists[ids[right]])
+			swap(ids, left, right);
+		if (dists[ids[i]] > dists[ids[right]])
+			swap(ids, i, right);
+		if (dists[ids[left]] > dists[ids[i]])
+			swap(ids, left, i);
+
+		final int temp = ids[i];
+		final double tempDist = dists[temp];
+		while (true) {
+			do {
+				++i;
+			} while (dists[ids[i]] < tempDist);
+			do {
+				--j;
+			} while (dists[ids[j]] > tempDist);
+			if (j < i)
+				break;
+			swap(ids, i, j);
+		}
+		ids[left + 1] = ids[j];
+		ids[j] = temp;
+
+		if (right - i + 1 >= j - left) {
+			quicksort(ids, dists, i, right);
+			quicksort(ids, dists, left, j - 1);
+		} else {
+			quicksort(ids, dists, left, j - 1);
+			quicksort(ids, dists, i, right);
+		}
+	}
+
+	private static void swap(int[] arr, int i, int j) {
+		final int tmp = arr[i];
+		arr[i] = arr[j];
+		arr[j] = tmp;
+	}
+}
@@ -16,7 +16,7 @@ public class Triangle2D extends Object {
 	}
 	
 	public Triangle2D(Point2D a, Point2D b, Point2D c) {
-		boolean isCcw = new Vector2D(a, b).isCcw(new Vector2D(b, c));
+		boolean isCcw = Predicates2D.orient(a, b, c) > 0;
 		vertices[0] = a;
 		vertices[1] = isCcw ? b : c;
 		vertices[2] = isCcw ? c : b;
@@ -69,8 +69,8 @@ public class Triangle2D extends Object {
 	public boolean isLine() {
 		if (isPoint())
 			return false;
-		LineSegment2D side01 = new LineSegment2D(vertices[0], vertices[1]);
-		return vertices[0].equals(vertices[1]) || side01.isPointOnInfiniteLine(vertices[2]).isOnLine;
+		return vertices[0].equals(vertices[1]) ||
+				Predicates2D.orient(vertices[0], vertices[1], vertices[2]) == 0;
 	}
 	
 	public boolean isDegenerate() {
@@ -90,7 +90,8 @@ public class Triangle2D extends Object {
 	
 	// Calculates the circumcircle of the triangle. The circumcircle is the circle
 	// that goes through all three points of the triangle.
-	public Circle2D calcCircumcircle() throws GeometryException {
+	// Returns null if the triangle is a line.
+	public Circle2D calcCircumcircle() {
 		if (isPoint())
 			return new Circle2D(vertices[0], 0.0);
 		if (isLine())
@@ -103,25 +104,24 @@ public class Triangle2D extends Object {
 	
 	// Calculates the circumcenter of the triangle. The circumcenter is the center
 	// of the triangle's circumcircle.
+	// Requires that the triangle is not degenerate.
 	// Source:
-	// https://www.geeksforgeeks.org/program-find-circumcenter-triangle-2
-	private Point2D calcCircumcenter() throws GeometryException {
-		// The circumcenter of the triangle is point where all the perpendicular
-		// bisectors of the sides of the triangle intersect.
-		// It is enough to intersect two of the three bisectors.
-		
-		LineSegment2D side01 = new LineSegment2D(vertices[0], vertices[1]);
-		InfiniteLine2D bisector01 = new InfiniteLine2D(side01.midPoint(),
-				side01.direction().ccwNormal());
-		LineSegment2D side12 = new LineSegment2D(vertices[1], vertices[2]);
-		InfiniteLine2D bisector12 = new InfiniteLine2D(side12.midPoint(),
-				side12.direction().ccwNormal());
+	// https://en.wikipedia.org/wiki/Circumscribed_circle#Cartesian_coordinates_2
+	private Point2D calcCircumcenter() {
+		// Calculate relative to the first vertex to reduce rounding errors.
+		final double bx = vertices[1].x - vertices[0].x;
+		final double by = vertices[1].y - vertices[0].y;
+		final double cx = vertices[2].x - vertices[0].x;
+		final double cy = vertices[2].y - vertices[0].y;
+		final double bl = bx * bx + by * by;
+		final double cl = cx * cx + cy * cy;
 
-		LineIntersection2D.Result isect = bisector01.intersect(bisector12);
-		if (isect.type != LineIntersection2D.IntersectionType.POINT)
-			throw new GeometryException(
-					"Triangle circumcircle - Failed to calculate circumcenter.");
+		// The denominator is twice the signed area of the triangle. Take it from
+		// the orientation predicate, so that it is accurate even for very thin
+		// triangles.
+		final double d = -2.0 * Predicates2D.orient(vertices[0], vertices[1], vertices[2]);
 		
-		return (Point2D) isect.intersection;
+		return new Point2D(vertices[0].x + (cy * bl - by * cl) / d,
+				vertices[0].y + (bx * cl - cx * bl) / d);
 	}
 }
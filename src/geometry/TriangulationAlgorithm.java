@@ -0,0 +1,13 @@
+package geometry;
+
+
+// Algorithms available to perform a Delauney triangulation.
+public enum TriangulationAlgorithm {
+	// Object-based Bowyer-Watson algorithm. See DelauneyTriangulation.
+	BowyerWatson,
+	// Array-based sweep-hull algorithm. See SweepHullTriangulation.
+	SweepHull,
+	// Sweep-hull algorithm that triangulates vertical strips of the points in
+	// parallel and merges them. See StripTriangulation.
+	ParallelSweepHull
+}
@@ -0,0 +1,224 @@
+package geometry;
+
+import java.util.Arrays;
+
+import math.FpUtil;
+
+
+// Voronoi diagram as the dual graph of a Delauney triangulation that is given
+// as half-edge arrays (see SweepHullTriangulation).
+// Each triangle's circumcenter is a Voronoi vertex. The Voronoi cell of a sample
+// point is formed by the circumcenters of the triangles around the point, so
+// the cells can be found by walking the half-edges around each point instead
+// of searching and chaining Voronoi edges. Voronoi vertices are identified by
+// the index of their triangle.
+class VoronoiDualGraph {
+
+	///////////////
+
+	// Voronoi cell of a sample point. Reused for multiple sample points to avoid
+	// allocations.
+	static class Cell {
+		// Index of the sample point that the cell belongs to.
+		int site = -1;
+		// Indices of the triangles whose circumcenters are the vertices of the
+		// cell in ccw order.
+		int[] triangles = new int[16];
+		int numTriangles = 0;
+		// Whether the cell is unbounded. For unbounded cells the first and last
+		// vertices are the start points of rays that lead away from the hull of
+		// the triangulation.
+		boolean isOpen = false;
+		// Directions of the rays that lead from the first and last vertices of
+		// unbounded cells to infinity.
+		double firstRayX;
+		double firstRayY;
+		double lastRayX;
+		double lastRayY;
+
+		private void clear(int site) {
+			this.site = site;
+			numTriangles = 0;
+			isOpen = false;
+		}
+
+		private void add(int t) {
+			if (numTriangles == triangles.length) {
+				int[] grown = new int[2 * triangles.length];
+				System.arraycopy(triangles, 0, grown, 0, numTriangles);
+				triangles = grown;
+			}
+			triangles[numTriangles++] = t;
+		}
+
+		// Reverses the order of the cell's vertices.
+		private void reverse() {
+			for (int i = 0, j = numTriangles - 1; i < j; ++i, --j) {
+				int tmp = triangles[i];
+				triangles[i] = triangles[j];
+				triangles[j] = tmp;
+			}
+		}
+	}
+
+	///////////////
+
+	private final double[] coords;
+	private final int[] triangles;
+	private final int[] halfedges;
+	private final int numTriangles;
+	// For each sample point, the index of a half-edge that ends at the point or
+	// -1 if the point is not part of the triangulation. For points on the hull
+	// it is the hull half-edge that ends at the point.
+	private final int[] inedges;
+	// Circumcenters of the triangles in x, y order.
+	private final double[] circumcenters;
+
+	// The given triangulation has to be performed already.
+	VoronoiDualGraph(SweepHullTriangulation triangulation) {
+		this.coords = triangulation.coords();
+		this.triangles = triangulation.triangles();
+		this.halfedges = triangulation.halfedges();
+		this.numTriangles = triangulation.countTriangles();
+		this.inedges = findInedges();
+		this.circumcenters = calcCircumcenters();
+	}
+
+	int countSites() {
+		return coords.length / 2;
+	}
+
+	// Returns the x-coordinate of the Voronoi vertex of a given triangle.
+	double vertexX(int t) {
+		return circumcenters[2 * t];
+	}
+
+	// Returns the y-coordinate of the Voronoi vertex of a given triangle.
+	double vertexY(int t) {
+		return circumcenters[2 * t + 1];
+	}
+
+	// Finds the Voronoi cell of a given sample point and stores it in a given
+	// cell object. Returns false if the point is not part of the triangulation.
+	boolean findCell(int site, Cell cell) {
+		cell.clear(site);
+
+		final int e0 = inedges[site];
+		if (e0 == -1)
+			return false;
+
+		// Walk through the triangles around the point. Each step goes from the
+		// half-edge that ends at the point to the opposite of the next half-edge
+		// which ends at the point again. Since the triangles are ccw, this walks
+		// around the point in cw order.
+		int e = e0;
+		do {
+			addMerged(cell, e / 3);
+			e = halfedges[SweepHullTriangulation.nextHalfedge(e)];
+		} while (e != -1 && e != e0);
+
+		// The walk around a bounded cell ends next to where it started.
+		if (e != -1 && cell.numTriangles > 1 &&
+				isSameVertex(cell.triangles[0], cell.triangles[cell.numTriangles - 1]))
+			--cell.numTriangles;
+
+		cell.reverse();
+
+		if (e == -1) {
+			// The walk started at the hull half-edge that ends at the point and
+			// stopped at the hull half-edge that starts at it.
+			cell.isOpen = true;
+			setRays(cell, e0);
+		}
+		return true;
+	}
+
+	// Adds the Voronoi vertex of a given triangle to a given cell. Triangles
+	// whose points are on a common circle, e.g. the two halves of a square of
+	// grid points, have the same circumcenter. Such a vertex replaces the
+	// previous one instead of being added again. The replacement keeps the
+	// most recent triangle, so that the walk still ends at the triangle of the
+	// hull half-edge that starts at the point.
+	private void addMerged(Cell cell, int t) {
+		if (cell.numTriangles > 0 &&
+				isSameVertex(cell.triangles[cell.numTriangles - 1], t))
+			cell.triangles[cell.numTriangles - 1] = t;
+		else
+			cell.add(t);
+	}
+
+	// Checks if the Voronoi vertices of given triangles are at the same
+	// position.
+	private boolean isSameVertex(int t, int u) {
+		return FpUtil.fpEqual(vertexX(t), vertexX(u)) &&
+				FpUtil.fpEqual(vertexY(t), vertexY(u));
+	}
+
+	// Sets the rays of a given unbounded cell. The walk around the cell started
+	// at a given hull half-edge.
+	private void setRays(Cell cell, int walkStartEdge) {
+		// The rays are perpendicular to the hull edges and point away from the
+		// triangles. Since the triangles are ccw, a cw normal to an edge points
+		// away from the triangle.
+		// After reversing the walk, the last vertex belongs to the triangle of
+		// the hull half-edge that the walk started at. The first vertex belongs
+		// to the triangle of the hull half-edge that starts at the point.
+		int lastFrom = triangles[walkStartEdge];
+		int lastTo = triangles[SweepHullTriangulation.nextHalfedge(walkStartEdge)];
+		cell.lastRayX = coords[2 * lastFrom + 1] - coords[2 * lastTo + 1];
+		cell.lastRayY = coords[2 * lastTo] - coords[2 * lastFrom];
+
+		int firstEdge = findEdgeStartingAt(cell.triangles[0], cell.site);
+		int firstFrom = cell.site;
+		int firstTo = triangles[SweepHullTriangulation.nextHalfedge(firstEdge)];
+		cell.firstRayX = coords[2 * firstFrom + 1] - coords[2 * firstTo + 1];
+		cell.firstRayY = coords[2 * firstTo] - coords[2 * firstFrom];
+	}
+
+	// Returns the half-edge of a given triangle that starts at a given point.
+	private int findEdgeStartingAt(int t, int pt) {
+		for (int e = 3 * t; e < 3 * t + 3; ++e)
+			if (triangles[e] == pt)
+				return e;
+		return -1;
+	}
+
+	// Finds a half-edge that ends at each sample point. Prefers hull
+	// half-edges, so that walks around hull points start at the hull.
+	private int[] findInedges() {
+		int[] result = new int[coords.length / 2];
+		Arrays.fill(result, -1);
+		for (int e = 0; e < 3 * numTriangles; ++e) {
+			int endPt = triangles[SweepHullTriangulation.nextHalfedge(e)];
+			if (halfedges[e] == SweepHullTriangulation.NO_EDGE || result[endPt] == -1)
+				result[endPt] = e;
+		}
+		return result;
+	}
+
+	// Calculates the circumcenters of all triangles. Uses the same calculation
+	// as Triangle2D.
+	private double[] calcCircumcenters() {
+		double[] result = new double[2 * numTriangles];
+		for (int t = 0; t < numTriangles; ++t) {
+			final int a = triangles[3 * t];
+			final int b = triangles[3 * t + 1];
+			final int c = triangles[3 * t + 2];
+			final double ax = coords[2 * a];
+			final double ay = coords[2 * a + 1];
+
+			final double bx = coords[2 * b] - ax;
+			final double by = coords[2 * b + 1] - ay;
+			final double cx = coords[2 * c] - ax;
+			final double cy = coords[2 * c + 1] - ay;
+			final double bl = bx * bx + by * by;
+			final double cl = cx * cx + cy * cy;
+			final double d = -2.0 * Predicates2D.orient(ax, ay, coords[2 * b],
+					coords[2 * b + 1], coords[2 * c], coords[2 * c + 1]);
+
+			result[2 * t] = ax + (cy * bl - by * cl) / d;
+			result[2 * t + 1] = ay + (bx * cl - cx * bl) / d;
+		}
+		return result;
+	}
+}
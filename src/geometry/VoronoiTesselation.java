@@ -1,9 +1,12 @@
 package geometry;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import types.TaskControl;
 
 
 
@@ -108,42 +111,49 @@ public class VoronoiTesselation {
 
 	///////////////
 	
-	// Builds a polygon from an unordered list of edges. Clips polygon at given bounds.
+	// Builds a polygon from an unordered list of edges. Clips polygon with a given
+	// clipper.
 	private static class PolygonBuilder {
 		private List<Line2D> edges;
-		private final Polygon2D clip;
+		private final ConvexPolygonRectClip2D clipper;
 		
-		public PolygonBuilder(List<Line2D> edges, Rect2D clipBounds) {
+		public PolygonBuilder(List<Line2D> edges, ConvexPolygonRectClip2D clipper) {
 			this.edges = copyEdges(edges);
-			this.clip = makePolygon(clipBounds);
+			this.clipper = clipper;
 		}
 		
 		// Builds the polygon.
 		public Polygon2D build() {
-			Polygon2D unclipped = new Polygon2D(createVertexSequence());
-			return ConvexPolygonIntersection2D.intersect(unclipped, clip);
+			if (edges.isEmpty())
+				return new Polygon2D();
+			
+			List<Line2D> endEdges = findEndEdges();
+			List<Point2D> vertices = orderEdges(endEdges);
+			// There should be either zero or two end edges.
+			if (endEdges.size() != 2)
+				return clipper.clip(new Polygon2D(vertices));
+			
+			// Unbounded polygon. Clip its end edges directly instead of closing it
+			// far away.
+			Vector2D firstRay = endEdges.get(0).direction();
+			Vector2D lastRay = endEdges.get(1).direction();
+			if (!isCcw(vertices, firstRay, lastRay)) {
+				Collections.reverse(vertices);
+				Vector2D tmp = firstRay;
+				firstRay = lastRay;
+				lastRay = tmp;
+			}
+			return clipper.clipUnbounded(vertices, firstRay, lastRay);
 		}
 		
 		// Creates a deep copy of a given list of edges.
 		private static List<Line2D> copyEdges(List<Line2D> src) {
 			List<Line2D> copy = new ArrayList<Line2D>();
 			for (Line2D e : src)
-				copy.add((Line2D) e.copy());
+				copy.add(e.copy());
 			return copy;
 		}
 		
-		// Returns an order list of vertices that results from connecting the
-		// available edges.
-		private List<Point2D> createVertexSequence() {
-			if (edges.isEmpty())
-				return new ArrayList<Point2D>();
-			
-			List<Line2D> endEdges = findEndEdges();
-			List<Point2D> vertices = orderEdges(endEdges);
-			
-			return vertices;
-		}
-		
 		// Returns those edges from a given list that do not connect to an other
 		// edge at one of their endpoints.
 		private List<Line2D> findEndEdges() {
@@ -174,7 +184,9 @@ public class VoronoiTesselation {
 			return res;
 		}
 		
-		// Orders the available edges. Uses given edges at start and end.
+		// Orders the available edges. Uses given edges at start and end. For an
+		// open path the start points of the end edges are the first and last
+		// vertices.
 		private List<Point2D> orderEdges(List<Line2D> endEdges) {
 			// There should be either zero or two end edges.
 			boolean isOpenPath = endEdges.size() == 2;
@@ -185,7 +197,6 @@ public class VoronoiTesselation {
 			if (isOpenPath) {
 				// Process the given start edge first.
 				Line2D startEdge = endEdges.get(0);
-				vertices.add(calcDistantPoint(startEdge));
 				nextEdge = findNextEdge(startEdge.startPoint());
 			} else {
 				// We can start with any edges. Use the first one.
@@ -199,22 +210,22 @@ public class VoronoiTesselation {
 				nextEdge = findNextEdge(nextEdge.endPoint());
 			}
 
-			// Append the end points of the given end edge.
-			if (isOpenPath) {
+			// Append the start point of the given end edge.
+			if (isOpenPath)
 				vertices.add(endEdges.get(1).startPoint());
-				vertices.add(calcDistantPoint(endEdges.get(1)));
-				
-				fixIntersectingEndEdges(vertices);
-			}
 			
 			return vertices;
 		}
 		
-		// Returns a point far past the end point of a given line.
-		private static Point2D calcDistantPoint(Line2D edge) {
-			final double DIST = 100000;
-			Vector2D normedDir = edge.direction().normalize();
-			return edge.startPoint().offset(normedDir.scale(DIST));
+		// Checks if a given open path with rays with given directions at its ends
+		// is ccw. The path turns the same way at each vertex, so checking the turn
+		// at the first vertex is enough.
+		private static boolean isCcw(List<Point2D> vertices, Vector2D firstRay,
+				Vector2D lastRay) {
+			Vector2D in = firstRay.scale(-1);
+			Vector2D out = (vertices.size() > 1) ?
+					new Vector2D(vertices.get(0), vertices.get(1)) : lastRay;
+			return Predicates2D.orient(in, out) > 0;
 		}
 		
 		// Finds the edge that connects to a given previous edge.
@@ -248,40 +259,35 @@ public class VoronoiTesselation {
 			}
 			return -1;
 		}
-		
-		// Make sures end edges do not intersect before they end at their distant
-		// end points. The polygon would not be convex in that case, creating
-		// problems when intersecting it with the border.
-		private static void fixIntersectingEndEdges(List<Point2D> vertices) {
-			LineIntersection2D.Result isect = LineIntersection2D.intersect(
-					new LineSegment2D(vertices.get(1), vertices.get(0)),
-					new LineSegment2D(vertices.get(vertices.size() - 2),
-							vertices.get(vertices.size() - 1)));
-			if (isect.type == LineIntersection2D.IntersectionType.POINT) {
-				Point2D isectPt = (Point2D) isect.intersection;
-				
-				// It's ok if the intersection is at the start points.
-				if (!isectPt.equals(vertices.get(1)) &&
-						!isectPt.equals(vertices.get(vertices.size() - 2))) {
-					vertices.set(0, isectPt);
-					vertices.set(vertices.size() - 1, isectPt.copy());
-				}
-			}
-		}
 	}
 	
 	///////////////
 	
-	// List of points to generate the Voronoi tesselation for.
-	private final List<Point2D> samples;
+	// Number of tiles that are constructed together in one task when running in
+	// parallel.
+	private static final int TILE_BATCH_SIZE = 1024;
+	
+	// Points to generate the Voronoi tesselation for.
+	private final PointSet samples;
 	// Border around the sample points. Used to terminate Voronoi edges that
 	// would extend to infinity.
 	private final Rect2D border;
+	// Algorithm used to perform the Delauney triangulation.
+	private final TriangulationAlgorithm triangulationAlgo;
+	// Pool to run the triangulation in or null to run it sequentially.
+	private final ForkJoinPool triangulationPool;
+	// Pool to construct the tiles in or null to construct them sequentially.
+	private final ForkJoinPool tilePool;
 	// List of tiles generated by the the tesselation.
 	private List<VoronoiTile> tiles = new ArrayList<VoronoiTile>();
 	// Triangles of the Delauney triangulation. A by-product of the tesselation
 	// that can be useful, e.g. for debugging.
 	private List<Triangle2D> triangulation;
+	// Sweep-hull triangulation that was used for the tesselation or null if
+	// another algorithm was used.
+	private SweepHullTriangulation sweepHull;
+	// Control of the task that runs the tesselation.
+	private TaskControl control = TaskControl.NONE;
 
 	
 	// Construct from points with the bounding box of the points as border.
@@ -300,12 +306,55 @@ public class VoronoiTesselation {
 	// Construct from points with a given border.
 	// Caller is responsible to make sure the sample points are unique.
 	public VoronoiTesselation(List<Point2D> uniqueSamples, Rect2D border) {
+		this(uniqueSamples, border, TriangulationAlgorithm.BowyerWatson);
+	}
+
+	// Construct from points with a given border and a given algorithm to
+	// perform the Delauney triangulation with.
+	// Caller is responsible to make sure the sample points are unique.
+	public VoronoiTesselation(List<Point2D> uniqueSamples, Rect2D border,
+			TriangulationAlgorithm triangulationAlgo) {
+		this(PointSet.fromPoints(uniqueSamples), border, triangulationAlgo);
+	}
+
+	// Construct from a point set with a given border and a given algorithm to
+	// perform the Delauney triangulation with. The sweep-hull algorithms work on
+	// the point set's coordinates directly.
+	// Caller is responsible to make sure the sample points are unique.
+	public VoronoiTesselation(PointSet uniqueSamples, Rect2D border,
+			TriangulationAlgorithm triangulationAlgo) {
+		this(uniqueSamples, border, triangulationAlgo, false);
+	}
+
+	// Construct from a point set with a given border and a given algorithm to
+	// perform the Delauney triangulation with. The tiles are constructed in
+	// parallel if requested, which is independent of whether the triangulation
+	// runs in parallel. Only triangulations that provide the adjacency of their
+	// triangles allow to construct the tiles in parallel.
+	// Caller is responsible to make sure the sample points are unique.
+	public VoronoiTesselation(PointSet uniqueSamples, Rect2D border,
+			TriangulationAlgorithm triangulationAlgo, boolean isParallel) {
+		this(uniqueSamples, border, triangulationAlgo, isParallel,
+				ForkJoinPool.commonPool());
+	}
+
+	// Overload that runs the parallel triangulation and the construction of the
+	// tiles in a given pool.
+	public VoronoiTesselation(PointSet uniqueSamples, Rect2D border,
+			TriangulationAlgorithm triangulationAlgo, boolean isParallel,
+			ForkJoinPool pool) {
 		this.samples = uniqueSamples;
 		this.border = border;
+		this.triangulationAlgo = triangulationAlgo;
+		this.triangulationPool =
+				(triangulationAlgo == TriangulationAlgorithm.ParallelSweepHull) ?
+						pool : null;
+		this.tilePool = isParallel ? pool : null;
 	}
 	
 	// Starts the Voronoi tesselation.
 	public List<VoronoiTile> tesselate() {
+		control = TaskControl.current();
 		// Handle some degenerate cases.
 		if (samples.size() == 0)
 			return tiles;
@@ -313,6 +362,10 @@ public class VoronoiTesselation {
 			return tesselateIntoSingleTile();
 		if (samples.size() == 2)
 			return tesselateIntoTwoTiles();
+		// Triangulations that provide the adjacency of their triangles allow to
+		// build the tiles directly.
+		if (triangulationAlgo != TriangulationAlgorithm.BowyerWatson)
+			return tesselateFromTriangleAdjacency();
 		
 		// General case for more than three sample points.
 		// - Each sample point is the seed of a Voronoi tile.
@@ -328,23 +381,28 @@ public class VoronoiTesselation {
 		//   outline of the Voronoi tile for the processed sample point.
 		
 		// Run triangulation.
+		control.beginStage("Triangulating");
 		final List<DelauneyTriangle> delauneyTriangles =
 				delauneyTriangulation();
+		control.beginStage("Tesselating");
 		
 		// Associates each vertex of all Delauney triangles with the edges
 		// that connect to it.
-		Map<Point2D, DelauneyEdgeCollection> edgeMap =
+		PointIndex<DelauneyEdgeCollection> edgeMap =
 				collectDelauneyEdges(delauneyTriangles);
 		
 		// Calculate the Voronoi tile for each sample point. (The Delauney
 		// vertices might actually be slightly off the original sample points
 		// because of floating point calculation inaccuracies). 
-		for (var mapEntry : edgeMap.entrySet()) {
-			Point2D sample = mapEntry.getKey();
-			DelauneyEdgeCollection delauneyEdges = edgeMap.get(sample);
+		ConvexPolygonRectClip2D clipper = new ConvexPolygonRectClip2D(border);
+		for (int i = 0; i < edgeMap.size(); ++i) {
+			if (i % TILE_BATCH_SIZE == 0)
+				control.setProgress(i, edgeMap.size());
+			Point2D sample = edgeMap.key(i);
+			DelauneyEdgeCollection delauneyEdges = edgeMap.value(i);
 			List<Line2D> voronoiEdges = delauneyEdges.makeVoronoiEdges();
 			
-			Polygon2D voronoiPoly = makePolygon(voronoiEdges, border);
+			Polygon2D voronoiPoly = makePolygon(voronoiEdges, clipper);
 			if (voronoiPoly.countVertices() > 0)
 				tiles.add(new VoronoiTile(sample, voronoiPoly));
 		}
@@ -357,6 +415,13 @@ public class VoronoiTesselation {
 		return triangulation;
 	}
 	
+	// Returns the sweep-hull triangulation that was used to perform the
+	// tesselation or null if it was performed with another algorithm. Allows
+	// to access the triangles by sample index.
+	public SweepHullTriangulation getSweepHullTriangulation() {
+		return sweepHull;
+	}
+	
 	// Calculates bounding box at a given offset around a given list of points.
 	private static Rect2D calcBorder(List<Point2D> points, double offset) {
 		Rect2D border = GeometryUtil.calcBoundingBox(points);
@@ -366,7 +431,7 @@ public class VoronoiTesselation {
 	
 	// Degenerate tesselation into a single tile.
 	private List<VoronoiTile> tesselateIntoSingleTile() {
-		Point2D sample = samples.get(0);
+		Point2D sample = samples.point(0);
 		
 		Polygon2D outline = null;
 		if (border.isDegenerate()) {
@@ -378,14 +443,14 @@ public class VoronoiTesselation {
 			outline = makePolygon(border);
 		}
 		
-		tiles.add(new VoronoiTile(samples.get(0), outline));
+		tiles.add(new VoronoiTile(sample, outline));
 		return tiles;
 	}
 	
 	// Degenerate tesselation into two tiles.
 	private List<VoronoiTile> tesselateIntoTwoTiles() {
-		Point2D pa = samples.get(0);
-		Point2D pb = samples.get(1);
+		Point2D pa = samples.point(0);
+		Point2D pb = samples.point(1);
 		
 		// Split area into two tiles along the bisection of
 		// the edge between the two sample points.
@@ -408,32 +473,108 @@ public class VoronoiTesselation {
 		return tiles;
 	}
 	
-	// Performs a Delauney triangulation for the configured sample points.
+	// Tesselation for triangulations that provide the adjacency of their
+	// triangles. The Voronoi tile of each sample point is found by walking
+	// through the triangles around the point, which gives the circumcenters
+	// of the tile already ordered.
+	private List<VoronoiTile> tesselateFromTriangleAdjacency() {
+		control.beginStage("Triangulating");
+		VoronoiDualGraph dualGraph = new VoronoiDualGraph(sweepHullTriangulation());
+		control.beginStage("Tesselating");
+		
+		// The tiles are independent of each other. Store them by sample index, so
+		// that their order does not depend on how they were constructed.
+		final int numSites = dualGraph.countSites();
+		VoronoiTile[] siteTiles = new VoronoiTile[numSites];
+		
+		if (tilePool != null) {
+			List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+			for (int first = 0; first < numSites; first += TILE_BATCH_SIZE) {
+				final int begin = first;
+				final int end = Math.min(first + TILE_BATCH_SIZE, numSites);
+				tasks.add(tilePool.submit(
+						() -> makeTiles(dualGraph, begin, end, siteTiles)));
+			}
+			for (int i = 0; i < tasks.size(); ++i) {
+				tasks.get(i).join();
+				control.setProgress(i + 1, tasks.size());
+			}
+		} else {
+			for (int first = 0; first < numSites; first += TILE_BATCH_SIZE) {
+				control.setProgress(first, numSites);
+				makeTiles(dualGraph, first,
+						Math.min(first + TILE_BATCH_SIZE, numSites), siteTiles);
+			}
+		}
+		
+		for (VoronoiTile tile : siteTiles)
+			if (tile != null)
+				tiles.add(tile);
+		return tiles;
+	}
+	
+	// Makes the tiles for a given range of sample points and stores them at the
+	// sample indices of a given array.
+	private void makeTiles(VoronoiDualGraph dualGraph, int begin, int end,
+			VoronoiTile[] siteTiles) {
+		control.checkCancelled();
+		VoronoiDualGraph.Cell cell = new VoronoiDualGraph.Cell();
+		// Tiles that are inside the border are not clipped at all. Unbounded
+		// tiles are clipped along their rays.
+		ConvexPolygonRectClip2D clipper = new ConvexPolygonRectClip2D(border);
+		for (int site = begin; site < end; ++site) {
+			if (!dualGraph.findCell(site, cell))
+				continue;
+			
+			clipper.clear();
+			for (int i = 0; i < cell.numTriangles; ++i) {
+				int t = cell.triangles[i];
+				clipper.addVertex(dualGraph.vertexX(t), dualGraph.vertexY(t));
+			}
+			Polygon2D voronoiPoly = cell.isOpen ?
+					clipper.clipUnboundedPolygon(cell.firstRayX, cell.firstRayY,
+							cell.lastRayX, cell.lastRayY) :
+					clipper.clipPolygon();
+			if (voronoiPoly.countVertices() > 0)
+				siteTiles[site] = new VoronoiTile(samples.point(site), voronoiPoly);
+		}
+	}
+	
+	// Performs a Bowyer-Watson Delauney triangulation for the configured sample
+	// points.
 	private List<DelauneyTriangle> delauneyTriangulation() {
 		DelauneyTriangulation delauney = new DelauneyTriangulation(samples);
 		triangulation = delauney.triangulate();
 		return delauney.delauneyTriangles();
 	}
 	
+	// Performs a sweep-hull Delauney triangulation for the configured sample
+	// points. The triangles are only made into objects when they are accessed.
+	private SweepHullTriangulation sweepHullTriangulation() {
+		sweepHull = new SweepHullTriangulation(samples, triangulationPool);
+		sweepHull.triangulateIndexed();
+		triangulation = sweepHull.triangleView();
+		return sweepHull;
+	}
+	
 	// Collects all edges of Delauney triangles that share a given sample
 	// point.
-	private Map<Point2D, DelauneyEdgeCollection> collectDelauneyEdges(
+	private PointIndex<DelauneyEdgeCollection> collectDelauneyEdges(
 			List<DelauneyTriangle> delauneyTriangles) {
-		var edgeMap = new TreeMap<Point2D, DelauneyEdgeCollection>(
-				Point2D.makeXYComparator());
+		var edgeMap = new PointIndex<DelauneyEdgeCollection>(samples.size());
 		
 		for (var dt : delauneyTriangles) {
 			for (int i = 0; i < 3; ++i) {
 				Point2D v = dt.vertex(i);
 				DelauneyEdgeCollection edges = edgeMap.get(v);
-				if (edges == null)
+				if (edges == null) {
 					edges = new DelauneyEdgeCollection();
+					edgeMap.put(v, edges);
+				}
 				
 				// Keep edges ordered.
 				edges.addEdge(new LineSegment2D(dt.vertex(i == 0 ? 2 : i - 1), v), dt);
 				edges.addEdge(new LineSegment2D(v, dt.vertex(i == 2 ? 0 : i + 1)), dt);
-				
-				edgeMap.put(v, edges);
 			}
 		}
 		
@@ -441,8 +582,9 @@ public class VoronoiTesselation {
 	}
 	
 	// Creates a polygon from given unordered edges.
-	private static Polygon2D makePolygon(List<Line2D> edges, Rect2D borderBounds) {
-		PolygonBuilder builder = new PolygonBuilder(edges, borderBounds);
+	private static Polygon2D makePolygon(List<Line2D> edges,
+			ConvexPolygonRectClip2D clipper) {
+		PolygonBuilder builder = new PolygonBuilder(edges, clipper);
 		return builder.build();
 	}
 
@@ -457,20 +599,23 @@ public class VoronoiTesselation {
 	}
 	
 	// Checks if a given point and polygon are on the same side of a given line.
+	// Polygon vertices that were created by cutting along the line are only
+	// approximately on it, so the polygon's side is decided by the vertex that is
+	// farthest from the line.
 	private static boolean areOnSameSideOf(Point2D pt, Polygon2D poly,
 			InfiniteLine2D line) {
 		Vector2D lineDir = line.direction();
-		boolean isLeft = lineDir.isCcw(new Vector2D(line.anchorPoint(), pt));
+		double ptSide = Predicates2D.orient(lineDir,
+				new Vector2D(line.anchorPoint(), pt));
 		
+		double polySide = 0;
 		for (int i = 0; i < poly.countVertices(); ++i) {
-			Point2D polyPt = poly.vertex(i);
-			boolean isPolyPtOnLine = line.isPointOnLine(polyPt).isOnLine;
-			boolean isPolyPtLeft = lineDir.isCcw(
-					new Vector2D(line.anchorPoint(), polyPt));
-			if (!isPolyPtOnLine && isPolyPtLeft != isLeft)
-				return false;
+			double polyPtSide = Predicates2D.orient(lineDir,
+					new Vector2D(line.anchorPoint(), poly.vertex(i)));
+			if (Math.abs(polyPtSide) > Math.abs(polySide))
+				polySide = polyPtSide;
 		}
 		
-		return true;
+		return (ptSide > 0) == (polySide > 0);
 	}
 }
@@ -0,0 +1,91 @@
+package geometry;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import types.TaskControl;
+
+
+// Generates evenly distributed points by covering the domain with precomputed
+// Poisson disc tiles. See WangTileSet.
+// The colors of the tile edges, the placement of the tile grid, and small
+// offsets of the individual samples are chosen randomly. The samples of the
+// tiles are spread out far enough that the random offsets cannot move samples
+// closer to each other than the min distance.
+// Picks the spacing of the tile samples so that the samples have about the
+// same density as the ones generated by PoissonDiscSampling.
+// - Time: O(n) without any searching for sample positions
+public class WangTileSampling {
+
+	// Spacing of the tile samples in multiples of the min distance.
+	private static final double PATTERN_SPACING = 1.35;
+	// Max offset of individual samples along each axis in multiples of the min
+	// distance. Samples are moved at most sqrt(2) * MAX_JITTER, so the samples
+	// keep at least PATTERN_SPACING - 2 * sqrt(2) * MAX_JITTER min distances
+	// from each other.
+	private static final double MAX_JITTER = 0.1;
+	private final Rect2D domain;
+	private final WangTileSet tiles;
+	// Scale from pattern units to domain units.
+	private final double scale;
+	private final double maxJitter;
+	private final Random rand;
+
+	public WangTileSampling(Rect2D domain, double minDist, WangTileSet tiles,
+			Random rand) {
+		this.domain = domain;
+		this.tiles = tiles;
+		this.scale = PATTERN_SPACING * minDist;
+		this.maxJitter = MAX_JITTER * minDist;
+		this.rand = rand;
+	}
+
+	// Generates samples. The samples are ordered by the tiles they come from.
+	public PointSet generate() {
+		TaskControl control = TaskControl.current();
+		final double tileSize = tiles.tileSize() * scale;
+		// Randomly shift the tile grid so that the tile edges are at different
+		// places for each generation.
+		final double originX = domain.left() - rand.nextDouble() * tileSize;
+		final double originY = domain.top() - rand.nextDouble() * tileSize;
+		final int numCols = (int) Math.ceil((domain.right() - originX) / tileSize);
+		final int numRows = (int) Math.ceil((domain.bottom() - originY) / tileSize);
+
+		// Colors of the horizontal edges, numRows + 1 rows of numCols edges, and
+		// of the vertical edges, numRows rows of numCols + 1 edges.
+		int[] hColors = new int[(numRows + 1) * numCols];
+		int[] vColors = new int[numRows * (numCols + 1)];
+		for (int i = 0; i < hColors.length; ++i)
+			hColors[i] = rand.nextInt(WangTileSet.NUM_COLORS);
+		for (int i = 0; i < vColors.length; ++i)
+			vColors[i] = rand.nextInt(WangTileSet.NUM_COLORS);
+
+		SplittableRandom jitterRand = new SplittableRandom(rand.nextLong());
+		PointSet samples = new PointSet(
+				numRows * numCols * tiles.tile(0, 0, 0, 0).size());
+
+		for (int r = 0; r < numRows; ++r) {
+			control.setProgress(r, numRows);
+			final double tileTop = originY + r * tileSize;
+			for (int c = 0; c < numCols; ++c) {
+				final double tileLeft = originX + c * tileSize;
+				PointSet tile = tiles.tile(hColors[r * numCols + c],
+						vColors[r * (numCols + 1) + c + 1],
+						hColors[(r + 1) * numCols + c],
+						vColors[r * (numCols + 1) + c]);
+
+				for (int i = 0; i < tile.size(); ++i) {
+					final double x = tileLeft + tile.x(i) * scale +
+							(2 * jitterRand.nextDouble() - 1) * maxJitter;
+					final double y = tileTop + tile.y(i) * scale +
+							(2 * jitterRand.nextDouble() - 1) * maxJitter;
+					if (x >= domain.left() && x < domain.right() &&
+							y >= domain.top() && y < domain.bottom())
+						samples.add(x, y);
+				}
+			}
+		}
+
+		return samples;
+	}
+}
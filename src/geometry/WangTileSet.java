@@ -0,0 +1,370 @@
+package geometry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+
+// Set of square tiles with precomputed Poisson disc samples that can be placed
+// next to each other without violating the min distance between samples.
+// The tiles are Wang tiles. Each tile edge has one of two colors and tiles can
+// only be placed next to each other if their shared edge has the same color.
+// The set contains a tile for each combination of edge colors, so that any
+// random assignment of colors to the edges of a grid of tiles can be filled.
+// Samples are generated in pattern units, i.e. for a min distance of one. The
+// tiles are made compatible by generating the samples in the following order:
+// - A single corner pattern for a square around the tile corners. All tile
+//   corners use it.
+// - An edge pattern for each color of horizontal and vertical edges. The
+//   edge patterns cover a band around the edge between the corner squares and
+//   are generated around the corner pattern.
+// - The interior of each tile, which is generated around the parts of its
+//   corner and edge patterns that lie within the tile.
+// Samples of different tiles that are closer than the band width to their
+// shared edge all come from the same corner or edge pattern, which keeps them
+// apart.
+// Sources:
+// Cohen, Shade, Hiller, Deussen, Wang Tiles for Image and Texture Generation.
+// Lagae, Dutre, A Procedural Object Distribution Function.
+public class WangTileSet {
+
+	///////////////
+
+	// Generates Poisson disc samples in pattern units within a region around
+	// given fixed samples.
+	private static class PatternSampler {
+
+		// Describes whether a point is within the region to generate samples in.
+		@FunctionalInterface
+		public interface Region {
+			boolean contains(double x, double y);
+		}
+
+		private static final int EMPTY_CELL = -1;
+		private static final double CELL_SIZE = 1 / 1.414213562373;
+		private final Rect2D bounds;
+		private final Random rand;
+		private final int numCandidates;
+		private final int numRows;
+		private final int numCols;
+		private final int[] grid;
+		private final PointSet samples = new PointSet();
+		private int[] active = new int[64];
+		private int numActive = 0;
+
+		// Constructs a sampler for regions within given bounds.
+		public PatternSampler(Rect2D bounds, int numCandidates, Random rand) {
+			this.bounds = bounds;
+			this.rand = rand;
+			this.numCandidates = numCandidates;
+			this.numRows = (int) Math.ceil(bounds.height() / CELL_SIZE);
+			this.numCols = (int) Math.ceil(bounds.width() / CELL_SIZE);
+			this.grid = new int[numRows * numCols];
+			Arrays.fill(grid, EMPTY_CELL);
+		}
+
+		// Adds samples that the generated samples have to keep their distance
+		// from. Samples outside of the bounds are ignored.
+		public void addFixed(PointSet fixed, double offsetX, double offsetY) {
+			for (int i = 0; i < fixed.size(); ++i) {
+				double x = fixed.x(i) + offsetX;
+				double y = fixed.y(i) + offsetY;
+				if (x >= bounds.left() && x < bounds.right() && y >= bounds.top() &&
+						y < bounds.bottom())
+					store(x, y);
+			}
+		}
+
+		// Generates samples in a given region. Returns all samples that are
+		// within a given area, including fixed samples.
+		public PointSet generate(Region region, double fromX, double fromY,
+				double toX, double toY) {
+			// Start from the fixed samples and from a random point in the region.
+			for (int i = 0; i < samples.size(); ++i)
+				activate(i);
+			double x = fromX + rand.nextDouble() * (toX - fromX);
+			double y = fromY + rand.nextDouble() * (toY - fromY);
+			if (region.contains(x, y) && !haveSampleWithinMinDistance(x, y))
+				activate(store(x, y));
+
+			while (numActive > 0) {
+				int activeIdx = rand.nextInt(numActive);
+				if (!findNewSample(active[activeIdx], region))
+					active[activeIdx] = active[--numActive];
+			}
+
+			PointSet result = new PointSet();
+			for (int i = 0; i < samples.size(); ++i) {
+				if (samples.x(i) >= fromX && samples.x(i) < toX &&
+						samples.y(i) >= fromY && samples.y(i) < toY)
+					result.add(samples.x(i), samples.y(i));
+			}
+			return result;
+		}
+
+		private boolean findNewSample(int seedIdx, Region region) {
+			for (int i = 0; i < numCandidates; ++i) {
+				final double angle = rand.nextDouble() * 2 * Math.PI;
+				final double dist = Math.sqrt(1 + rand.nextDouble() * 3);
+				final double x = samples.x(seedIdx) + dist * Math.cos(angle);
+				final double y = samples.y(seedIdx) + dist * Math.sin(angle);
+
+				if (region.contains(x, y) && !haveSampleWithinMinDistance(x, y)) {
+					activate(store(x, y));
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private int store(double x, double y) {
+			int idx = samples.add(x, y);
+			grid[calcRow(y) * numCols + calcCol(x)] = idx;
+			return idx;
+		}
+
+		private void activate(int idx) {
+			if (numActive == active.length)
+				active = Arrays.copyOf(active, 2 * numActive);
+			active[numActive++] = idx;
+		}
+
+		private boolean haveSampleWithinMinDistance(double x, double y) {
+			final int row = calcRow(y);
+			final int col = calcCol(x);
+			for (int r = Math.max(row - 2, 0); r <= Math.min(row + 2, numRows - 1); ++r) {
+				for (int c = Math.max(col - 2, 0); c <= Math.min(col + 2, numCols - 1);
+						++c) {
+					final int idx = grid[r * numCols + c];
+					if (idx == EMPTY_CELL)
+						continue;
+					final double dx = samples.x(idx) - x;
+					final double dy = samples.y(idx) - y;
+					if (dx * dx + dy * dy < 1)
+						return true;
+				}
+			}
+			return false;
+		}
+
+		private int calcRow(double y) {
+			return (int) ((y - bounds.top()) / CELL_SIZE);
+		}
+
+		private int calcCol(double x) {
+			return (int) ((x - bounds.left()) / CELL_SIZE);
+		}
+	}
+
+	///////////////
+
+	// Number of colors per edge.
+	public static final int NUM_COLORS = 2;
+	// Number of tiles, one for each combination of edge colors.
+	public static final int NUM_TILES = NUM_COLORS * NUM_COLORS * NUM_COLORS *
+			NUM_COLORS;
+	// Default size of the tiles in pattern units.
+	public static final double DEFAULT_TILE_SIZE = 12;
+	private static final int FILE_MAGIC = 0x57414E47;
+	private static final int FILE_VERSION = 1;
+	// Half of the width of the bands around the edges in pattern units. Has to
+	// be at least the min distance.
+	private static final double BAND = 1;
+	// Half of the size of the squares around the corners in pattern units.
+	// Has to be large enough to keep the horizontal and vertical edge bands
+	// the min distance apart.
+	private static final double CORNER = 2 * BAND;
+	private static final int NUM_CANDIDATES = 30;
+	private final double tileSize;
+	// Samples of each tile in pattern units relative to the tile's top-left
+	// corner. Indexed by tileIndex().
+	private final PointSet[] tiles;
+
+	private WangTileSet(double tileSize, PointSet[] tiles) {
+		this.tileSize = tileSize;
+		this.tiles = tiles;
+	}
+
+	// Generates a tile set with a given tile size in pattern units from a given
+	// random generator.
+	public static WangTileSet build(double tileSize, Random rand) {
+		if (tileSize < 2 * CORNER + 1)
+			throw new IllegalArgumentException("Tile size too small.");
+
+		PointSet corner = buildCornerPattern(rand);
+		PointSet[] hEdges = new PointSet[NUM_COLORS];
+		PointSet[] vEdges = new PointSet[NUM_COLORS];
+		for (int color = 0; color < NUM_COLORS; ++color) {
+			hEdges[color] = buildEdgePattern(tileSize, corner, true, rand);
+			vEdges[color] = buildEdgePattern(tileSize, corner, false, rand);
+		}
+
+		PointSet[] tiles = new PointSet[NUM_TILES];
+		for (int n = 0; n < NUM_COLORS; ++n)
+			for (int e = 0; e < NUM_COLORS; ++e)
+				for (int s = 0; s < NUM_COLORS; ++s)
+					for (int w = 0; w < NUM_COLORS; ++w)
+						tiles[tileIndex(n, e, s, w)] = buildTile(tileSize, corner,
+								hEdges[n], vEdges[e], hEdges[s], vEdges[w], rand);
+
+		return new WangTileSet(tileSize, tiles);
+	}
+
+	// Loads the tile set from a given cache file. If that fails, builds the
+	// tile set and tries to write it to the cache file.
+	public static WangTileSet loadOrBuild(Path cacheFile, double tileSize,
+			Random rand) {
+		try {
+			WangTileSet cached = load(cacheFile);
+			if (cached.tileSize == tileSize)
+				return cached;
+		} catch (IOException e) {
+			// Build the tile set below.
+		}
+
+		WangTileSet built = build(tileSize, rand);
+		try {
+			built.save(cacheFile);
+		} catch (IOException e) {
+			// The cache is optional.
+		}
+		return built;
+	}
+
+	// Reads a tile set from a given file.
+	public static WangTileSet load(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION)
+				throw new IOException("Not a Wang tile file: " + file);
+			double tileSize = in.readDouble();
+			int numTiles = in.readInt();
+			if (numTiles != NUM_TILES)
+				throw new IOException("Unexpected number of Wang tiles: " + file);
+
+			PointSet[] tiles = new PointSet[numTiles];
+			for (int t = 0; t < numTiles; ++t) {
+				int numSamples = in.readInt();
+				if (numSamples < 0)
+					throw new IOException("Corrupt Wang tile file: " + file);
+				tiles[t] = new PointSet(numSamples);
+				for (int i = 0; i < numSamples; ++i)
+					tiles[t].add(in.readDouble(), in.readDouble());
+			}
+			return new WangTileSet(tileSize, tiles);
+		}
+	}
+
+	// Writes the tile set to a given file. Writes to a temporary file first, so
+	// that readers never see a partially written file.
+	public void save(Path file) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path tmpFile = Files.createTempFile(parent, file.getFileName().toString(),
+				".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(FILE_VERSION);
+				out.writeDouble(tileSize);
+				out.writeInt(tiles.length);
+				for (PointSet tile : tiles) {
+					out.writeInt(tile.size());
+					for (int i = 0; i < tile.size(); ++i) {
+						out.writeDouble(tile.x(i));
+						out.writeDouble(tile.y(i));
+					}
+				}
+			}
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmpFile);
+		}
+	}
+
+	// Returns the size of the tiles in pattern units.
+	public double tileSize() {
+		return tileSize;
+	}
+
+	// Returns the samples of the tile with given edge colors in pattern units
+	// relative to the tile's top-left corner.
+	public PointSet tile(int north, int east, int south, int west) {
+		return tiles[tileIndex(north, east, south, west)];
+	}
+
+	private static int tileIndex(int north, int east, int south, int west) {
+		return ((north * NUM_COLORS + east) * NUM_COLORS + south) * NUM_COLORS +
+				west;
+	}
+
+	// Generates the samples around a corner. The corner is at the origin.
+	private static PointSet buildCornerPattern(Random rand) {
+		PatternSampler sampler = new PatternSampler(
+				new Rect2D(-CORNER, -CORNER, CORNER, CORNER), NUM_CANDIDATES, rand);
+		return sampler.generate((x, y) -> Math.abs(x) < CORNER &&
+				Math.abs(y) < CORNER, -CORNER, -CORNER, CORNER, CORNER);
+	}
+
+	// Generates the samples around a horizontal or vertical edge. The edge
+	// starts at the origin. Only the samples in the band around the edge are
+	// returned, not the fixed corner samples.
+	private static PointSet buildEdgePattern(double tileSize, PointSet corner,
+			boolean isHorizontal, Random rand) {
+		final double from = CORNER;
+		final double to = tileSize - CORNER;
+		if (isHorizontal) {
+			PatternSampler sampler = new PatternSampler(new Rect2D(-CORNER,
+					-CORNER, tileSize + CORNER, CORNER), NUM_CANDIDATES, rand);
+			sampler.addFixed(corner, 0, 0);
+			sampler.addFixed(corner, tileSize, 0);
+			return sampler.generate((x, y) -> x >= from && x < to &&
+					Math.abs(y) < BAND, from, -BAND, to, BAND);
+		}
+
+		PatternSampler sampler = new PatternSampler(new Rect2D(-CORNER, -CORNER,
+				CORNER, tileSize + CORNER), NUM_CANDIDATES, rand);
+		sampler.addFixed(corner, 0, 0);
+		sampler.addFixed(corner, 0, tileSize);
+		return sampler.generate((x, y) -> y >= from && y < to &&
+				Math.abs(x) < BAND, -BAND, from, BAND, to);
+	}
+
+	// Generates the samples of a tile with given edge patterns. The tile's
+	// top-left corner is at the origin.
+	private static PointSet buildTile(double tileSize, PointSet corner,
+			PointSet north, PointSet east, PointSet south, PointSet west,
+			Random rand) {
+		PatternSampler sampler = new PatternSampler(
+				new Rect2D(0, 0, tileSize, tileSize), NUM_CANDIDATES, rand);
+		sampler.addFixed(corner, 0, 0);
+		sampler.addFixed(corner, tileSize, 0);
+		sampler.addFixed(corner, 0, tileSize);
+		sampler.addFixed(corner, tileSize, tileSize);
+		sampler.addFixed(north, 0, 0);
+		sampler.addFixed(south, 0, tileSize);
+		sampler.addFixed(west, 0, 0);
+		sampler.addFixed(east, tileSize, 0);
+
+		final double innerMin = BAND;
+		final double innerMax = tileSize - BAND;
+		return sampler.generate((x, y) -> x >= innerMin && x < innerMax &&
+				y >= innerMin && y < innerMax && !isInCornerSquare(x, y, tileSize),
+				0, 0, tileSize, tileSize);
+	}
+
+	private static boolean isInCornerSquare(double x, double y, double tileSize) {
+		boolean nearX = x < CORNER || x >= tileSize - CORNER;
+		boolean nearY = y < CORNER || y >= tileSize - CORNER;
+		return nearX && nearY;
+	}
+}
@@ -30,22 +30,24 @@ public class ExtremeElevationFinder {
 			double elev = node.elevation();
 			if (elev > max) {
 				max = elev;
-				maxPos = node.pos;
+				maxPos = node.pos();
 			}
 			if (elev < min) {
 				min = elev;
-				minPos = node.pos;
+				minPos = node.pos();
 			}
 			
 			// Calc bounds in same loop.
-			if (node.pos.x < boundsLeft)
-				boundsLeft = node.pos.x;
-			if (node.pos.x > boundsRight)
-				boundsRight = node.pos.x;
-			if (node.pos.y < boundsTop)
-				boundsTop = node.pos.y;
-			if (node.pos.y > boundsBottom)
-				boundsBottom = node.pos.y;
+			final double x = node.x();
+			final double y = node.y();
+			if (x < boundsLeft)
+				boundsLeft = x;
+			if (x > boundsRight)
+				boundsRight = x;
+			if (y < boundsTop)
+				boundsTop = y;
+			if (y > boundsBottom)
+				boundsBottom = y;
 		}
 
 		if (max > 1)
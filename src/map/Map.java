@@ -3,13 +3,20 @@ package map;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
 
 import geometry.Point2D;
+import geometry.PointSet;
+import geometry.PoissonDiscThinning;
 import geometry.Polygon2D;
+import geometry.Rect2D;
 import geometry.Triangle2D;
+import math.SnapshotRandom;
 
-public class Map {
+public class Map implements AutoCloseable {
 
 	public static class Spec {
 		public final MapGeometryGenerator.Spec geom;
@@ -25,16 +32,10 @@ public class Map {
 	
 	// Data structures that hold the map data.
 	// Kept in separate class to allow generator objects to work with it more esily.
-	public static class Representation {
-		// Master collection of tiles that map is made from.
-		private List<MapTile> tiles;
-		// Lookup of tiles by their seed location.
-		private java.util.Map<Point2D, MapTile> tileLookup;
-		// Master collection of unique nodes defining the shape of all tiles. A node shared
-		// between tiles is only listed once.
-		private List<MapNode> nodes;
-		// Lookup of nodes by their locations.
-		private java.util.Map<Point2D, MapNode> nodeLookup;
+	public static class Representation implements AutoCloseable {
+		// Nodes and tiles that the map is made from. A node shared between
+		// tiles is only stored once.
+		private MapStorage storage;
 		// Triangulation that map was generated with.
 		private List<Triangle2D> triangulation;
 		// Max and min elevations of the map.
@@ -42,49 +43,50 @@ public class Map {
 		private double maxElev = -Double.MAX_VALUE;
 		
 		public Representation() {
-			tiles = new ArrayList<MapTile>();
-			tileLookup = new TreeMap<Point2D, MapTile>(Point2D.makeXYComparator());
-			nodes = new ArrayList<MapNode>();
-			nodeLookup = new TreeMap<Point2D, MapNode>(Point2D.makeXYComparator());
-			triangulation = new ArrayList<>();
+			this(new MapStorage.Builder().build(), new ArrayList<>());
 		}
 		
-		// Adds a given tile.
-		public void addTile(MapTile tile) {
-			tiles.add(tile);
-			tileLookup.put(tile.seed, tile);
+		public Representation(MapStorage storage, List<Triangle2D> triang) {
+			this.storage = storage;
+			this.triangulation = triang;
+		}
+		
+		public MapStorage storage() {
+			return storage;
+		}
+		
+		// Frees the storage. The triangulation stays on the heap.
+		@Override
+		public void close() {
+			storage.close();
 		}
 		
 		public int countTiles() {
-			return tiles.size();
+			return storage.countTiles();
 		}
 		
 		public MapTile tile(int idx) {
-			return tiles.get(idx);
+			return new MapTile(storage, idx);
 		}
 		
 		// Returns the tile whose seed is located at a given position.
 		public MapTile findTileAt(Point2D pos) {
-			return  tileLookup.get(pos);
-		}
-
-		// Adds a given node.
-		public void addNode(MapNode node) {
-			nodes.add(node);
-			nodeLookup.put(node.pos, node);
+			int idx = storage.findTile(pos.x, pos.y);
+			return (idx != -1) ? tile(idx) : null;
 		}
 		
 		public int countNodes() {
-			return nodes.size();
+			return storage.countNodes();
 		}
 		
 		public MapNode node(int idx) {
-			return nodes.get(idx);
+			return new MapNode(storage, idx);
 		}
 		
 		// Returns the node that is located at a given position.
 		public MapNode findNodeAt(Point2D pos) {
-			return nodeLookup.get(pos);
+			int idx = storage.findNode(pos.x, pos.y);
+			return (idx != -1) ? node(idx) : null;
 		}
 		
 		public void setTriangulation(List<Triangle2D> triang) {
@@ -115,26 +117,166 @@ public class Map {
 			minElev = min;
 			maxElev = max;
 		}
+		
+		// Returns a representation with the same nodes, tiles and triangulation
+		// but without elevations. Only the elevations are copied, the rest
+		// cannot be changed and is shared.
+		public Representation copyGeometry() {
+			return new Representation(storage.copyWithoutElevations(),
+					triangulation);
+		}
+		
+		// Returns the elevations of all nodes followed by the elevations of all
+		// tiles and the min and max elevations.
+		private double[] collectElevations() {
+			final int numNodes = storage.countNodes();
+			final int numTiles = storage.countTiles();
+			double[] elevs = new double[numNodes + numTiles + 2];
+			for (int i = 0; i < numNodes; ++i)
+				elevs[i] = storage.nodeElevation(i);
+			for (int i = 0; i < numTiles; ++i)
+				elevs[numNodes + i] = storage.tileElevation(i);
+			elevs[numNodes + numTiles] = minElev;
+			elevs[numNodes + numTiles + 1] = maxElev;
+			return elevs;
+		}
+		
+		// Sets the elevations from values returned by collectElevations().
+		private void applyElevations(double[] elevs) {
+			final int numNodes = storage.countNodes();
+			final int numTiles = storage.countTiles();
+			for (int i = 0; i < numNodes; ++i)
+				storage.setNodeElevation(i, elevs[i]);
+			for (int i = 0; i < numTiles; ++i)
+				storage.setTileElevation(i, elevs[numNodes + i]);
+			setElevationLimits(elevs[numNodes + numTiles],
+					elevs[numNodes + numTiles + 1]);
+		}
+		
+		// Returns the approx number of bytes that the geometry takes up.
+		private long estimateGeometryBytes() {
+			return storage.byteSize() + TRIANGLE_BYTES * countTriangles();
+		}
 	}
 	
 	///////////////
 	
-	private final Spec spec;
+	// Approx number of bytes of a triangle including its vertices. Used to
+	// weigh the geometry in the stage cache.
+	private static final long TRIANGLE_BYTES = 64;
+	private Spec spec;
 	private final Random rand;
+	// Cache for the results of the generation stages or null.
+	private final StageCache cache;
 	private Representation rep;
+	// Generator of the current elevations. Kept to regenerate them.
+	private PerlinTopography topography;
+	// State of the random generator that the topography was generated with
+	// or null if the generator's state is not known. Allows to make the
+	// topography again for maps that were loaded.
+	private Long topographyRngState = null;
 
 	public Map(Spec spec, Random rand) {
+		this(spec, rand, null);
+	}
+
+	// Constructs a map that looks up the results of its generation stages in a
+	// given cache. The cache is only used when the random generator is a
+	// SnapshotRandom because the state of the generator is one of the inputs
+	// of each stage.
+	public Map(Spec spec, Random rand, StageCache cache) {
 		this.spec = spec;
 		this.rand = rand;
+		this.cache = cache;
 		this.rep = new Representation();
 	}
 
+	// Constructs a map from existing data, e.g. a loaded snapshot. Takes the
+	// state of the random generator before the topography was generated or
+	// null.
+	Map(Spec spec, Random rand, Representation rep, Long topographyRngState) {
+		this.spec = spec;
+		this.rand = rand;
+		this.cache = null;
+		this.rep = rep;
+		this.topographyRngState = topographyRngState;
+	}
+
+	// Frees the memory off the heap and the files that the map's storage
+	// takes up. The map must not be used afterwards. See MapStorage.close().
+	@Override
+	public void close() {
+		rep.close();
+	}
+
 	// Generates the map tiles.
 	public void generate() {
-		generateGeometry();
+		generate(new double[0], null);
+	}
+
+	// Generates the map tiles like generate() but passes coarser versions of
+	// the map to a given consumer while generating. A coarse map's min sample
+	// distance is larger by a given factor, coarsest first. Its tile seeds are
+	// a subset of the map's seeds and its elevations come from the same noise,
+	// so it looks like the map with fewer details. Coarse maps are made once
+	// the seeds are sampled and only if the random generator is a
+	// SnapshotRandom. The map itself does not change.
+	public void generate(double[] coarseDistFactors, Consumer<Map> onCoarseMap) {
+		if (cache != null && rand instanceof SnapshotRandom) {
+			generateStages((SnapshotRandom) rand, coarseDistFactors, onCoarseMap);
+			return;
+		}
+		
+		generateGeometry(coarseDistFactors, onCoarseMap);
 		generateTopography();
 	}
 
+	// Regenerates the elevations with a given topography spec and random
+	// generator. Keeps the geometry, i.e. the tiles, nodes, their neighbors and
+	// the triangulation. The spec and the topography are only replaced once
+	// the elevations are generated, so that a cancelled call keeps them.
+	public void retopograph(PerlinTopography.Spec topoSpec, Random topoRand) {
+		final Long rngState = stateOf(topoRand);
+		PerlinTopography topo = new PerlinTopography(topoSpec, topoRand);
+		topo.generate(rep);
+		spec = new Spec(spec.geom, topoSpec);
+		topographyRngState = rngState;
+		topography = topo;
+	}
+	
+	// Regenerates the elevations with the same noise but a given number of
+	// octaves and persistence. Keeps the geometry. Reuses cached octaves if the
+	// topography spec enables caching them.
+	public void retopograph(int numOctaves, double persistence) {
+		PerlinTopography.Spec topo = spec.topo;
+		if (topography == null)
+			topography = restoreTopography(topo);
+		topography.generate(rep, numOctaves, persistence);
+		spec = new Spec(spec.geom, new PerlinTopography.Spec(topo.bounds,
+				numOctaves, persistence, topo.gradients, topo.isParallel,
+				topo.isCachingOctaves, topo.pool));
+	}
+	
+	public Spec spec() {
+		return spec;
+	}
+	
+	Representation representation() {
+		return rep;
+	}
+	
+	// Replaces the map's geometry with a given representation, e.g. one with
+	// edited tiles, and frees the previous one.
+	void replaceRepresentation(Representation edited) {
+		Representation prev = rep;
+		rep = edited;
+		prev.close();
+	}
+	
+	Long topographyRngState() {
+		return topographyRngState;
+	}
+	
 	public double width() {
 		return spec.geom.bounds.width();
 	}
@@ -144,7 +286,7 @@ public class Map {
 	}
 	
 	public int countTiles() {
-		return rep.tiles.size();
+		return rep.countTiles();
 	}
 
 	public MapTile tile(int idx) {
@@ -156,7 +298,7 @@ public class Map {
 	}
 	
 	public int countTriangles() {
-		return rep.triangulation.size();
+		return rep.countTriangles();
 	}
 	
 	public Triangle2D triangle(int idx) {
@@ -175,24 +317,195 @@ public class Map {
 		rep.setElevationLimits(min, max);
 	}
 	
+	// Returns the approx number of bytes that the map's tiles, nodes and
+	// triangulation take up.
+	public long estimateBytes() {
+		return rep.estimateGeometryBytes();
+	}
+	
 	// Returns the shapes of all tiles.
 	public List<Polygon2D> tileShapes() {
-		List<Polygon2D> shapes = new ArrayList<Polygon2D>(rep.tiles.size());
-		for (var tile : rep.tiles)
-			shapes.add(tile.shape);
+		List<Polygon2D> shapes = new ArrayList<Polygon2D>(rep.countTiles());
+		for (int i = 0; i < rep.countTiles(); ++i)
+			shapes.add(rep.tile(i).shape());
 		return shapes;
 	}
 	
 	// Generates the tile layout of the map.
-	private void generateGeometry() {
+	private void generateGeometry(double[] coarseDistFactors,
+			Consumer<Map> onCoarseMap) {
 		MapGeometryGenerator gen = new MapGeometryGenerator(this, spec.geom);
-		rep = gen.generate(rand);
+		PointSet seeds = gen.generateSeeds(rand);
+		makeCoarseMaps(seeds, coarseDistFactors, onCoarseMap);
+		rep = gen.generate(seeds);
+	}
+	
+	// Makes the coarse versions of the map from its tile seeds. The random
+	// generator has to be in the state after sampling the seeds, which is
+	// also the state that the elevations are generated with because
+	// generating the geometry from the seeds takes no random numbers.
+	private void makeCoarseMaps(PointSet seeds, double[] coarseDistFactors,
+			Consumer<Map> onCoarseMap) {
+		if (onCoarseMap == null || !(rand instanceof SnapshotRandom))
+			return;
+		
+		final long topoRngState = ((SnapshotRandom) rand).state();
+		for (double factor : coarseDistFactors) {
+			// Coarse maps are small and short-lived, so they stay on the heap.
+			MapGeometryGenerator.Spec coarseGeom = new MapGeometryGenerator.Spec(
+					spec.geom.bounds, factor * spec.geom.minSampleDistance,
+					spec.geom.numSampleCandidates, spec.geom.triangulation,
+					spec.geom.sampling, MapStorageMode.Heap,
+					spec.geom.isTesselationParallel, spec.geom.pool);
+			PointSet coarseSeeds = new PoissonDiscThinning(coarseGeom.bounds,
+					coarseGeom.minSampleDistance).thin(seeds);
+			SnapshotRandom coarseRand = new SnapshotRandom();
+			coarseRand.restore(topoRngState);
+			Map coarse = new Map(new Spec(coarseGeom, spec.topo), coarseRand);
+			coarse.rep = new MapGeometryGenerator(coarse, coarseGeom)
+					.generate(coarseSeeds);
+			coarse.generateTopography();
+			onCoarseMap.accept(coarse);
+		}
 	}
 	
 	// Generates the node elevations.
 	private void generateTopography() {
-		PerlinTopography gen = new PerlinTopography(spec.topo, rand);
+		topographyRngState = stateOf(rand);
+		topography = new PerlinTopography(spec.topo, rand);
 //		ContinentBasedTopography gen = new ContinentBasedTopography(spec.topo, rand);
-		gen.generate(rep);
+		topography.generate(rep);
+	}
+	
+	// Makes the generator of the map's elevations from the state of the random
+	// generator that they were generated with.
+	private PerlinTopography restoreTopography(PerlinTopography.Spec topo) {
+		if (topographyRngState == null)
+			throw new IllegalStateException(
+					"The map's topography cannot be made again.");
+		SnapshotRandom topoRand = new SnapshotRandom();
+		topoRand.restore(topographyRngState);
+		return new PerlinTopography(topo, topoRand);
+	}
+	
+	// Returns the state of a given random generator or null if its state
+	// cannot be read.
+	private static Long stateOf(Random rand) {
+		if (rand instanceof SnapshotRandom)
+			return ((SnapshotRandom) rand).state();
+		return null;
+	}
+	
+	// Generates the map in stages whose results are reused from the cache when
+	// their inputs did not change. The stages are the tile seeds, the geometry,
+	// i.e. triangulation, tesselation and the neighbors of tiles and nodes, and
+	// the topography. Produces the same map and leaves the random generator in
+	// the same state as generating without cache. Coarse maps are made from
+	// the seeds, see generate().
+	private void generateStages(SnapshotRandom snapRand,
+			double[] coarseDistFactors, Consumer<Map> onCoarseMap) {
+		MapGeometryGenerator geomGen = new MapGeometryGenerator(this, spec.geom);
+		
+		StageCache.Key seedsKey = makeSeedsKey(spec.geom, snapRand.state());
+		double[] seedCoords = runStage(seedsKey, snapRand,
+				() -> geomGen.generateSeeds(snapRand).coords(),
+				coords -> 8L * coords.length);
+		// The seeds are only read, so the cached coordinates are used without
+		// copying them.
+		PointSet seeds = PointSet.wrap(seedCoords, seedCoords.length / 2);
+		if (onCoarseMap != null)
+			makeCoarseMaps(seeds, coarseDistFactors, onCoarseMap);
+		
+		StageCache.Key geomKey = makeGeometryKey(spec.geom, seedsKey);
+		// The cache keeps its own copy of the geometry that stays without
+		// elevations and that it closes when it drops the geometry.
+		rep = runStage(geomKey, snapRand, () -> geomGen.generate(seeds),
+				Representation::estimateGeometryBytes,
+				Representation::copyGeometry);
+		
+		// The topography keeps its generator to regenerate the elevations. When
+		// the elevations are cached the generator gets a copy of the random
+		// generator, so that it would generate the same noise.
+		StageCache.Key topoKey = makeTopographyKey(spec.topo, geomKey,
+				snapRand.state());
+		StageCache.Entry topoEntry = cache.get(topoKey);
+		if (topoEntry != null) {
+			topographyRngState = snapRand.state();
+			topography = new PerlinTopography(spec.topo, snapRand.copy());
+			rep.applyElevations((double[]) topoEntry.value);
+			snapRand.restore(topoEntry.rngStateAfter);
+		} else {
+			generateTopography();
+			double[] elevs = rep.collectElevations();
+			cache.put(topoKey, elevs, snapRand.state(), 8L * elevs.length);
+		}
+	}
+	
+	// Returns the cached result of a stage or runs the stage and caches its
+	// result. Continues the random generator after the stage in both cases.
+	// The result is shared with the cache, so it must not be changed.
+	private <T> T runStage(StageCache.Key key, SnapshotRandom snapRand,
+			Supplier<T> stage, ToLongFunction<T> weigh) {
+		return runStage(key, snapRand, stage, weigh, result -> result);
+	}
+	
+	// Overload for results that are changed or closed by the map. The cache
+	// stores a copy of the result made by a given function and the map gets
+	// another copy when the result is cached.
+	@SuppressWarnings("unchecked")
+	private <T> T runStage(StageCache.Key key, SnapshotRandom snapRand,
+			Supplier<T> stage, ToLongFunction<T> weigh, UnaryOperator<T> copy) {
+		StageCache.Entry entry = cache.get(key, value -> copy.apply((T) value));
+		if (entry != null) {
+			snapRand.restore(entry.rngStateAfter);
+			return (T) entry.value;
+		}
+		
+		T result = stage.get();
+		cache.put(key, copy.apply(result), snapRand.state(),
+				weigh.applyAsLong(result));
+		return result;
+	}
+	
+	private static StageCache.Key makeSeedsKey(MapGeometryGenerator.Spec geom,
+			long rngState) {
+		StageCache.KeyBuilder key = new StageCache.KeyBuilder("seeds");
+		addBounds(key, geom.bounds);
+		return key.add(geom.minSampleDistance)
+				.add(geom.numSampleCandidates)
+				.add(geom.sampling)
+				.add(rngState)
+				.build();
+	}
+	
+	private static StageCache.Key makeGeometryKey(MapGeometryGenerator.Spec geom,
+			StageCache.Key seedsKey) {
+		StageCache.KeyBuilder key = new StageCache.KeyBuilder("geometry");
+		addBounds(key, geom.bounds);
+		return key.add(geom.triangulation)
+				.add(geom.storage)
+				.add(seedsKey)
+				.build();
+	}
+	
+	// Whether the elevations are calculated in parallel or with cached octaves
+	// does not change them, so these spec values are not part of the key.
+	private static StageCache.Key makeTopographyKey(PerlinTopography.Spec topo,
+			StageCache.Key geomKey, long rngState) {
+		StageCache.KeyBuilder key = new StageCache.KeyBuilder("topography");
+		addBounds(key, topo.bounds);
+		return key.add(topo.numOctaves)
+				.add(topo.persistence)
+				.add(topo.gradients)
+				.add(geomKey)
+				.add(rngState)
+				.build();
+	}
+	
+	private static void addBounds(StageCache.KeyBuilder key, Rect2D bounds) {
+		key.add(bounds.left())
+			.add(bounds.top())
+			.add(bounds.right())
+			.add(bounds.bottom());
 	}
 }
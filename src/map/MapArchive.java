@@ -0,0 +1,558 @@
+package map;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import geometry.Point2D;
+import geometry.Triangle2D;
+import math.FpUtil;
+
+
+// Compact format for storing large numbers of maps.
+// Encodes the representation of a map, i.e. its nodes, tiles, relations,
+// triangulation and elevation limits, but not its spec. Unlike snapshots, see
+// MapSnapshot, archives are small but have to be decoded:
+// - Coordinates are quantized to the floating point threshold, i.e.
+//   positions within the threshold of each other are considered equal
+//   anyway, and stored as differences to the previous coordinate.
+// - Indices in rows of relations are stored as differences to the previous
+//   index in the row, starting at the index that the row belongs to.
+// - Elevations are quantized to 16 bits between the min and max elevations.
+// - All differences are zig-zag encoded, so that small negative values are
+//   small too, and written as variable length integers that take up one byte
+//   for each 7 bits.
+// Nodes and tiles are kept in the order of the map's storage. Tiles are
+// stored in the order their seeds were generated and nodes in the order they
+// were first used by tiles, which places consecutive entries close to each
+// other. The differences are small and the decoded map has the same indices
+// as the original.
+// The data is split into blocks of a given number of entries that can be
+// compressed individually. Decoding reads one block at a time and writes it
+// into the buffers of the storage that it creates, so that archives of any
+// size are decoded without holding the whole archive in memory.
+public class MapArchive {
+
+	public static class Spec {
+		// Whether blocks are compressed.
+		public final boolean isCompressed;
+		// Number of entries, e.g. nodes or tiles, per block.
+		public final int entriesPerBlock;
+
+		public Spec(boolean isCompressed) {
+			this(isCompressed, 4096);
+		}
+
+		public Spec(boolean isCompressed, int entriesPerBlock) {
+			this.isCompressed = isCompressed;
+			this.entriesPerBlock = entriesPerBlock;
+		}
+	}
+
+	///////////////
+
+	// Growable buffer that a block is encoded into.
+	private static class BlockWriter {
+		private byte[] bytes = new byte[1024];
+		private int size = 0;
+
+		public void clear() {
+			size = 0;
+		}
+
+		// Writes an unsigned value with 7 bits per byte. The high bit of each
+		// byte marks whether more bytes follow.
+		public void putVarint(long val) {
+			reserve(10);
+			while ((val & ~0x7FL) != 0) {
+				bytes[size++] = (byte) ((val & 0x7F) | 0x80);
+				val >>>= 7;
+			}
+			bytes[size++] = (byte) val;
+		}
+
+		// Writes a signed value as varint. Maps values of small magnitude to
+		// small unsigned values, i.e. 0, -1, 1, -2, ... to 0, 1, 2, 3, ...
+		public void putZigZag(long val) {
+			putVarint(zigZag(val));
+		}
+
+		public void putShort(int val) {
+			reserve(2);
+			bytes[size++] = (byte) (val >>> 8);
+			bytes[size++] = (byte) val;
+		}
+
+		private void reserve(int numBytes) {
+			if (size + numBytes > bytes.length)
+				bytes = Arrays.copyOf(bytes, 2 * bytes.length + numBytes);
+		}
+	}
+
+	///////////////
+
+	// Reads values written by BlockWriter.
+	private static class BlockReader {
+		private byte[] bytes = new byte[1024];
+		private int size = 0;
+		private int pos = 0;
+
+		// Makes room for a block of a given size. Returns the buffer to read
+		// the block into.
+		public byte[] reset(int numBytes) {
+			if (numBytes > bytes.length)
+				bytes = new byte[numBytes];
+			size = numBytes;
+			pos = 0;
+			return bytes;
+		}
+
+		public boolean isAtEnd() {
+			return pos == size;
+		}
+
+		public long getVarint() throws IOException {
+			long val = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				final byte b = get();
+				val |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return val;
+			}
+			throw new IOException("Corrupt map archive.");
+		}
+
+		public long getZigZag() throws IOException {
+			final long val = getVarint();
+			return (val >>> 1) ^ -(val & 1);
+		}
+
+		// Returns a varint that has to fit into an int.
+		public int getCount() throws IOException {
+			final long val = getVarint();
+			if (val > Integer.MAX_VALUE)
+				throw new IOException("Corrupt map archive.");
+			return (int) val;
+		}
+
+		public int getShort() throws IOException {
+			return ((get() & 0xFF) << 8) | (get() & 0xFF);
+		}
+
+		private byte get() throws IOException {
+			if (pos == size)
+				throw new IOException("Corrupt map archive.");
+			return bytes[pos++];
+		}
+	}
+
+	///////////////
+
+	private static final int FILE_MAGIC = 0x4D415041;
+	private static final int FILE_VERSION = 1;
+	private static final int FLAG_COMPRESSED = 1;
+	// Max value of quantized elevations.
+	private static final int ELEVATION_STEPS = 0xFFFF;
+	// Marks references to triangle vertices that are not tile seeds.
+	private static final long FREE_VERTEX = 1;
+	private final Spec spec;
+	private final BlockWriter block = new BlockWriter();
+	private byte[] deflated = new byte[1024];
+	// Stream and compressor of the map that is written.
+	private DataOutputStream out;
+	private Deflater deflater;
+
+	public MapArchive(Spec spec) {
+		this.spec = spec;
+	}
+
+	// Writes a given map to a stream. Can be called repeatedly to store
+	// multiple maps in one stream.
+	public void write(OutputStream out, Map map) throws IOException {
+		write(out, map.representation());
+	}
+
+	// Writes a given map representation to a stream. The compressor's memory
+	// is freed before returning.
+	public void write(OutputStream out, Map.Representation rep)
+			throws IOException {
+		this.out = new DataOutputStream(out);
+		this.deflater = spec.isCompressed ? new Deflater() : null;
+		try {
+			writeRepresentation(rep);
+		} finally {
+			if (deflater != null)
+				deflater.end();
+			this.deflater = null;
+			this.out = null;
+			block.clear();
+		}
+	}
+
+	// Reads a map representation from a stream and keeps its data in a given
+	// place. Reads exactly the bytes of one map, so that multiple maps can be
+	// read from one stream. Nothing is kept if the stream is not a valid
+	// archive.
+	public static Map.Representation read(InputStream in, MapStorageMode mode)
+			throws IOException {
+		return new Decoder(new DataInputStream(in)).decode(mode);
+	}
+
+	// Reads a map from a stream. The map has a given spec, which is not stored
+	// in archives, and uses a given random generator.
+	public static Map read(InputStream in, Map.Spec spec, Random rand)
+			throws IOException {
+		return new Map(spec, rand, read(in, spec.geom.storage), null);
+	}
+
+	private void writeRepresentation(Map.Representation rep)
+			throws IOException {
+		MapStorage storage = rep.storage();
+		final int numNodes = storage.countNodes();
+		final int numTiles = storage.countTiles();
+		final double quantum = FpUtil.globalFpThreshold();
+		final double minElev = rep.minElevation();
+		final double maxElev = rep.maxElevation();
+		IntBuffer[] rows = storage.intBuffers();
+
+		this.out.writeInt(FILE_MAGIC);
+		this.out.writeInt(FILE_VERSION);
+		this.out.writeInt(spec.isCompressed ? FLAG_COMPRESSED : 0);
+		this.out.writeInt(spec.entriesPerBlock);
+		this.out.writeDouble(quantum);
+		this.out.writeDouble(minElev);
+		this.out.writeDouble(maxElev);
+		this.out.writeInt(numNodes);
+		this.out.writeInt(numTiles);
+		this.out.writeInt(rows[1].capacity());
+		this.out.writeInt(rows[3].capacity());
+		this.out.writeInt(rows[5].capacity());
+		this.out.writeInt(rep.countTriangles());
+
+		DoubleBuffer[] doubles = storage.doubleBuffers();
+		writePoints(doubles[0], doubles[1], doubles[2], numNodes, quantum,
+				minElev, maxElev);
+		writeRows(rows[0], rows[1], numNodes, true);
+		writePoints(doubles[3], doubles[4], doubles[5], numTiles, quantum,
+				minElev, maxElev);
+		writeRows(rows[2], rows[3], numTiles, true);
+		writeRows(rows[4], rows[5], numTiles, false);
+
+		// Triangulation. Vertices are tile seeds, which are stored as tile
+		// indices. Other vertices are stored with their coordinates.
+		final int numTriangles = rep.countTriangles();
+		for (int begin = 0; begin < numTriangles;
+				begin += spec.entriesPerBlock) {
+			final int end = Math.min(begin + spec.entriesPerBlock, numTriangles);
+			long prevTile = 0;
+			for (int i = begin; i < end; ++i) {
+				Triangle2D triangle = rep.triangle(i);
+				for (int v = 0; v < 3; ++v) {
+					Point2D vertex = triangle.vertex(v);
+					final int tile = storage.findTile(vertex.x, vertex.y);
+					if (tile != -1) {
+						block.putVarint(zigZag(tile - prevTile) << 1);
+						prevTile = tile;
+					} else {
+						block.putVarint(FREE_VERTEX);
+						block.putZigZag(quantize(vertex.x, quantum));
+						block.putZigZag(quantize(vertex.y, quantum));
+					}
+				}
+			}
+			flushBlock();
+		}
+		this.out.flush();
+	}
+
+	// Writes positions and elevations of nodes or tiles.
+	private void writePoints(DoubleBuffer xs, DoubleBuffer ys,
+			DoubleBuffer elevs, int numPoints, double quantum, double minElev,
+			double maxElev) throws IOException {
+		for (int begin = 0; begin < numPoints; begin += spec.entriesPerBlock) {
+			final int end = Math.min(begin + spec.entriesPerBlock, numPoints);
+			long prevX = 0;
+			long prevY = 0;
+			for (int i = begin; i < end; ++i) {
+				final long x = quantize(xs.get(i), quantum);
+				final long y = quantize(ys.get(i), quantum);
+				block.putZigZag(x - prevX);
+				block.putZigZag(y - prevY);
+				block.putShort(quantizeElevation(elevs.get(i), minElev, maxElev));
+				prevX = x;
+				prevY = y;
+			}
+			flushBlock();
+		}
+	}
+
+	// Writes the rows of a relation. Each row is stored as its length followed
+	// by the differences between consecutive indices. The first index of rows
+	// of indices that are related to their own row's index is stored relative
+	// to the row's index, otherwise relative to the last index of the previous
+	// row.
+	private void writeRows(IntBuffer offsets, IntBuffer values, int numRows,
+			boolean isRelatedToRow) throws IOException {
+		for (int begin = 0; begin < numRows; begin += spec.entriesPerBlock) {
+			final int end = Math.min(begin + spec.entriesPerBlock, numRows);
+			long prev = 0;
+			for (int r = begin; r < end; ++r) {
+				final int rowBegin = offsets.get(r);
+				final int rowEnd = offsets.get(r + 1);
+				block.putVarint(rowEnd - rowBegin);
+				if (isRelatedToRow)
+					prev = r;
+				for (int i = rowBegin; i < rowEnd; ++i) {
+					block.putZigZag(values.get(i) - prev);
+					prev = values.get(i);
+				}
+			}
+			flushBlock();
+		}
+	}
+
+	// Writes the encoded block as its length, the length that it is stored
+	// with, and the stored bytes. Stores blocks that do not get smaller when
+	// compressed as they are.
+	private void flushBlock() throws IOException {
+		byte[] stored = block.bytes;
+		int storedSize = block.size;
+		if (deflater != null) {
+			deflater.reset();
+			deflater.setInput(block.bytes, 0, block.size);
+			deflater.finish();
+			int numDeflated = 0;
+			while (!deflater.finished() && numDeflated < block.size) {
+				if (numDeflated == deflated.length)
+					deflated = Arrays.copyOf(deflated, 2 * deflated.length);
+				numDeflated += deflater.deflate(deflated, numDeflated,
+						deflated.length - numDeflated);
+			}
+			if (deflater.finished() && numDeflated < block.size) {
+				stored = deflated;
+				storedSize = numDeflated;
+			}
+		}
+
+		out.writeInt(block.size);
+		out.writeInt(storedSize);
+		out.write(stored, 0, storedSize);
+		block.clear();
+	}
+
+	private static long quantize(double val, double quantum) {
+		return Math.round(val / quantum);
+	}
+
+	private static int quantizeElevation(double elev, double minElev,
+			double maxElev) {
+		if (!(maxElev > minElev))
+			return 0;
+		final double normed = (elev - minElev) / (maxElev - minElev);
+		return (int) Math.round(Math.min(Math.max(normed, 0), 1) *
+				ELEVATION_STEPS);
+	}
+
+	private static long zigZag(long val) {
+		return (val << 1) ^ (val >> 63);
+	}
+
+	///////////////
+
+	// Reads the blocks of one map.
+	private static class Decoder {
+		private final DataInputStream in;
+		private final BlockReader block = new BlockReader();
+		private Inflater inflater = null;
+		private byte[] stored = new byte[1024];
+		private int entriesPerBlock;
+		private double quantum;
+		private double minElev;
+		private double maxElev;
+
+		public Decoder(DataInputStream in) {
+			this.in = in;
+		}
+
+		public Map.Representation decode(MapStorageMode mode)
+				throws IOException {
+			if (in.readInt() != FILE_MAGIC)
+				throw new IOException("Not a map archive.");
+			if (in.readInt() != FILE_VERSION)
+				throw new IOException("Unsupported map archive version.");
+			if ((in.readInt() & FLAG_COMPRESSED) != 0)
+				inflater = new Inflater();
+			entriesPerBlock = in.readInt();
+			quantum = in.readDouble();
+			minElev = in.readDouble();
+			maxElev = in.readDouble();
+			final int numNodes = in.readInt();
+			final int numTiles = in.readInt();
+			final int numNodeNeighbors = in.readInt();
+			final int numTileNeighbors = in.readInt();
+			final int numTileNodes = in.readInt();
+			final int numTriangles = in.readInt();
+			if (entriesPerBlock <= 0 || numNodes < 0 || numTiles < 0 ||
+					numNodeNeighbors < 0 || numTileNeighbors < 0 ||
+					numTileNodes < 0 || numTriangles < 0)
+				throw new IOException("Corrupt map archive.");
+
+			// The storage is closed unless the whole map is decoded, so that a
+			// corrupt archive does not keep memory or files until the storage
+			// is collected.
+			MapStorage storage = null;
+			boolean isDecoded = false;
+			try {
+				storage = MapStorage.allocate(numNodes, numTiles,
+						numNodeNeighbors, numTileNeighbors, numTileNodes, mode);
+				DoubleBuffer[] doubles = storage.doubleBuffers();
+				IntBuffer[] rows = storage.intBuffers();
+				readPoints(doubles[0], doubles[1], doubles[2], numNodes);
+				readRows(rows[0], rows[1], numNodes, numNodes, true);
+				readPoints(doubles[3], doubles[4], doubles[5], numTiles);
+				readRows(rows[2], rows[3], numTiles, numTiles, true);
+				readRows(rows[4], rows[5], numTiles, numNodes, false);
+
+				// The triangles are freed together with the storage.
+				DoubleBuffer triangleCoords = storage.topologyAllocator()
+						.doubles(6 * numTriangles);
+				readTriangles(triangleCoords, doubles[3], doubles[4],
+						numTriangles);
+				TriangleList triangles = new TriangleList(triangleCoords);
+
+				Map.Representation rep = new Map.Representation(storage,
+						triangles);
+				rep.setElevationLimits(minElev, maxElev);
+				isDecoded = true;
+				return rep;
+			} catch (IndexOutOfBoundsException | BufferOverflowException |
+					IllegalArgumentException e) {
+				// Indices or sizes that do not fit the buffers.
+				throw new IOException("Corrupt map archive.");
+			} finally {
+				if (!isDecoded && storage != null)
+					storage.close();
+				if (inflater != null)
+					inflater.end();
+			}
+		}
+
+		// Reads positions and elevations of nodes or tiles.
+		private void readPoints(DoubleBuffer xs, DoubleBuffer ys,
+				DoubleBuffer elevs, int numPoints) throws IOException {
+			final double elevStep = (maxElev > minElev) ?
+					(maxElev - minElev) / ELEVATION_STEPS : 0;
+			for (int begin = 0; begin < numPoints; begin += entriesPerBlock) {
+				final int end = Math.min(begin + entriesPerBlock, numPoints);
+				readBlock();
+				long x = 0;
+				long y = 0;
+				for (int i = begin; i < end; ++i) {
+					x += block.getZigZag();
+					y += block.getZigZag();
+					xs.put(i, x * quantum);
+					ys.put(i, y * quantum);
+					elevs.put(i, minElev + block.getShort() * elevStep);
+				}
+				finishBlock();
+			}
+		}
+
+		// Reads rows written by writeRows(). Verifies that the indices are
+		// less than a given number of entries that they refer to.
+		private void readRows(IntBuffer offsets, IntBuffer values, int numRows,
+				int numEntries, boolean isRelatedToRow) throws IOException {
+			int numValues = 0;
+			for (int begin = 0; begin < numRows; begin += entriesPerBlock) {
+				final int end = Math.min(begin + entriesPerBlock, numRows);
+				readBlock();
+				long prev = 0;
+				for (int r = begin; r < end; ++r) {
+					final int rowSize = block.getCount();
+					offsets.put(r, numValues);
+					if (isRelatedToRow)
+						prev = r;
+					for (int i = 0; i < rowSize; ++i) {
+						prev += block.getZigZag();
+						if (prev < 0 || prev >= numEntries)
+							throw new IOException("Corrupt map archive.");
+						values.put(numValues++, (int) prev);
+					}
+				}
+				finishBlock();
+			}
+			offsets.put(numRows, numValues);
+			if (numValues != values.capacity())
+				throw new IOException("Corrupt map archive.");
+		}
+
+		// Reads the triangulation as coordinates. Vertices that are tile seeds
+		// are looked up from the tile positions.
+		private void readTriangles(DoubleBuffer coords, DoubleBuffer tileXs,
+				DoubleBuffer tileYs, int numTriangles) throws IOException {
+			for (int begin = 0; begin < numTriangles; begin += entriesPerBlock) {
+				final int end = Math.min(begin + entriesPerBlock, numTriangles);
+				readBlock();
+				long prevTile = 0;
+				for (int i = 6 * begin; i < 6 * end; i += 2) {
+					final long ref = block.getVarint();
+					if ((ref & 1) != 0) {
+						if (ref != FREE_VERTEX)
+							throw new IOException("Corrupt map archive.");
+						coords.put(i, block.getZigZag() * quantum);
+						coords.put(i + 1, block.getZigZag() * quantum);
+					} else {
+						final long delta = ref >>> 1;
+						prevTile += (delta >>> 1) ^ -(delta & 1);
+						coords.put(i, tileXs.get((int) prevTile));
+						coords.put(i + 1, tileYs.get((int) prevTile));
+					}
+				}
+				finishBlock();
+			}
+		}
+
+		// Reads the next block and decompresses it if needed.
+		private void readBlock() throws IOException {
+			final int size = in.readInt();
+			final int storedSize = in.readInt();
+			if (size < 0 || storedSize < 0 || storedSize > size)
+				throw new IOException("Corrupt map archive.");
+
+			byte[] bytes = block.reset(size);
+			if (storedSize == size) {
+				in.readFully(bytes, 0, size);
+				return;
+			}
+			if (inflater == null)
+				throw new IOException("Corrupt map archive.");
+			if (storedSize > stored.length)
+				stored = new byte[storedSize];
+			in.readFully(stored, 0, storedSize);
+			inflater.reset();
+			inflater.setInput(stored, 0, storedSize);
+			try {
+				if (inflater.inflate(bytes, 0, size) != size ||
+						!inflater.finished())
+					throw new IOException("Corrupt map archive.");
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt map archive.");
+			}
+		}
+
+		private void finishBlock() throws IOException {
+			if (!block.isAtEnd())
+				throw new IOException("Corrupt map archive.");
+		}
+	}
+}
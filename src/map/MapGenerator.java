@@ -1,24 +1,158 @@
 package map;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Random;
+import java.util.function.Consumer;
 
+import math.SnapshotRandom;
+import types.TaskControl;
+
+// Generates a map. Generating consists of the stages load(), generate() and
+// save(), which can be run one after the other by run() or separately, e.g.
+// on different threads. Stages check the current task control, see
+// TaskControl, and stop when it is cancelled.
 public class MapGenerator implements Runnable {
 
 	private final Map.Spec spec;
 	private final Random rand;
+	// Cache for the results of the generation stages or null.
+	private final StageCache cache;
+	// Directory of map snapshots or null. Maps are loaded from their snapshot
+	// if one exists and saved as snapshot otherwise. See MapSnapshot.
+	private final Path snapshotDir;
+	// Seed of the random generator. Identifies the map's snapshot.
+	private final long seed;
 	private Map map;
+	// Whether the map was loaded from a snapshot.
+	private boolean isLoaded = false;
+	// State of the random generator after generating or null if it cannot be
+	// read.
+	private Long rngStateAfter = null;
+	// Whether only the topography of an existing map is regenerated.
+	private final boolean isKeepingGeometry;
+	// Factors of the min sample distance of coarse maps that are generated
+	// before the map, coarsest first, and the consumer that they are passed
+	// to or null. See Map.generate().
+	private double[] coarseDistFactors = new double[0];
+	private Consumer<Map> onCoarseMap = null;
 	
 	public MapGenerator(Map.Spec spec, Random rand) {
+		this(spec, rand, null);
+	}
+	
+	// Constructs a generator that reuses results of generation stages from a
+	// given cache. See Map.
+	public MapGenerator(Map.Spec spec, Random rand, StageCache cache) {
+		this(spec, rand, cache, null, 0);
+	}
+	
+	// Constructs a generator that loads the map from a snapshot in a given
+	// directory if one exists for the spec and the seed that the random
+	// generator was created with. Otherwise generates the map and saves a
+	// snapshot of it.
+	public MapGenerator(Map.Spec spec, Random rand, StageCache cache,
+			Path snapshotDir, long seed) {
 		this.spec = spec;
 		this.rand = rand;
+		this.cache = cache;
+		this.snapshotDir = snapshotDir;
+		this.seed = seed;
+		this.map = null;
+		this.isKeepingGeometry = false;
+	}
+	
+	// Constructs a generator that keeps the geometry of a given map and only
+	// regenerates its topography with a given spec and random generator.
+	public MapGenerator(Map map, PerlinTopography.Spec topoSpec, Random rand) {
+		this.spec = new Map.Spec(map.spec().geom, topoSpec);
+		this.rand = rand;
+		this.cache = null;
+		this.snapshotDir = null;
+		this.seed = 0;
+		this.map = map;
+		this.isKeepingGeometry = true;
 	}
 	
 	public void run() {
-		map = new map.Map(spec, rand);
-		map.generate();
+		load();
+		generate();
+		save();
 	}
 	
 	public Map map() {
 		return map;
 	}
+	
+	// Makes generating progressive. While the map is generated, coarser
+	// versions of it are passed to a given consumer, e.g. to show them until
+	// the map is done. Each coarse map's min sample distance is larger by a
+	// given factor. Loaded maps and regenerated topographies are not
+	// progressive.
+	public void setProgressive(double[] coarseDistFactors,
+			Consumer<Map> onCoarseMap) {
+		this.coarseDistFactors = coarseDistFactors;
+		this.onCoarseMap = onCoarseMap;
+	}
+	
+	// Loads the map from its snapshot, if snapshots are used and one exists, and
+	// continues the random generator as if the map had been generated. Returns
+	// the loaded map or null.
+	public Map load() {
+		if (snapshotDir == null || isKeepingGeometry)
+			return null;
+		
+		TaskControl.current().beginStage("Loading map");
+		try {
+			MapSnapshot snapshot = MapSnapshot.load(
+					MapSnapshot.fileFor(snapshotDir, spec, seed), spec, seed);
+			if (snapshot.rngStateAfter != null && rand instanceof SnapshotRandom)
+				((SnapshotRandom) rand).restore(snapshot.rngStateAfter);
+			map = snapshot.map;
+			isLoaded = true;
+			return map;
+		} catch (IOException e) {
+			// Missing or unusable snapshots are replaced by generating the map.
+			return null;
+		}
+	}
+	
+	// Generates the map unless it was loaded. Returns the map.
+	public Map generate() {
+		if (isLoaded)
+			return map;
+		
+		if (isKeepingGeometry) {
+			map.retopograph(spec.topo, rand);
+			return map;
+		}
+		
+		Map generated = new map.Map(spec, rand, cache);
+		try {
+			generated.generate(coarseDistFactors, onCoarseMap);
+		} catch (RuntimeException e) {
+			// Frees the storage of a cancelled or failed map right away.
+			generated.close();
+			throw e;
+		}
+		if (rand instanceof SnapshotRandom)
+			rngStateAfter = ((SnapshotRandom) rand).state();
+		map = generated;
+		return map;
+	}
+	
+	// Saves a snapshot of the generated map, if snapshots are used. A
+	// cancelled save leaves no file behind.
+	public void save() {
+		if (snapshotDir == null || isLoaded || isKeepingGeometry || map == null)
+			return;
+		
+		TaskControl.current().beginStage("Saving map");
+		try {
+			MapSnapshot.save(MapSnapshot.fileFor(snapshotDir, spec, seed), map,
+					seed, rngStateAfter);
+		} catch (IOException e) {
+			// Snapshots are optional. The map is generated again next time.
+		}
+	}
 }
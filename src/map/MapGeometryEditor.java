@@ -0,0 +1,207 @@
+package map;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import geometry.DynamicDelauneyTriangulation;
+import geometry.Point2D;
+import geometry.Polygon2D;
+import geometry.Rect2D;
+import math.MathUtil;
+
+// Changes the tiles of a generated map by inserting and removing tile seeds.
+// Keeps a dynamic Delauney triangulation of the seeds. Each change of the
+// triangulation reports the seeds whose tiles and neighbors might have
+// changed, and only their tiles are made again. The other tiles keep their
+// outlines, neighbors and elevations. Storages cannot be changed, so each
+// edit builds a new storage in the map's storage mode and replaces the map's
+// geometry with it.
+// Tiles and nodes that are new get elevations that are interpolated from
+// their neighbors, so that the map stays complete. Regenerating the
+// topography replaces them.
+// An edited map is no longer what its spec and seed generate, so it must not
+// be saved as their snapshot. The editor has to be made again when the map is
+// generated again.
+public class MapGeometryEditor {
+
+	private final Map map;
+	// Border that the tiles are clipped by.
+	private final Rect2D bounds;
+	// Triangulation of the seeds of the map's tiles.
+	private final DynamicDelauneyTriangulation triangulation;
+
+	// Constructs an editor for a given generated map.
+	public MapGeometryEditor(Map map) {
+		MapStorage storage = map.representation().storage();
+		List<Point2D> seeds = new ArrayList<Point2D>(storage.countTiles());
+		for (int i = 0; i < storage.countTiles(); ++i)
+			seeds.add(new Point2D(storage.tileX(i), storage.tileY(i)));
+		this.map = map;
+		this.bounds = map.spec().geom.bounds;
+		this.triangulation = new DynamicDelauneyTriangulation(seeds);
+	}
+
+	// Adds a tile with a given seed to the map. The tiles around it shrink.
+	// Returns false if a tile with the seed exists already.
+	public boolean insertTile(Point2D seed) {
+		DynamicDelauneyTriangulation.Change change = triangulation.insert(seed);
+		if (change.isEmpty())
+			return false;
+		apply(change);
+		return true;
+	}
+
+	// Removes the tile with a given seed from the map. The tiles around it
+	// take over its area. Returns false if no tile with the seed exists.
+	public boolean removeTile(Point2D seed) {
+		DynamicDelauneyTriangulation.Change change = triangulation.remove(seed);
+		if (change == null || change.isEmpty())
+			return false;
+		apply(change);
+		return true;
+	}
+
+	// Applies a change that was made to the triangulation to the map's tiles,
+	// nodes and their neighbors.
+	private void apply(DynamicDelauneyTriangulation.Change change) {
+		Map.Representation prevRep = map.representation();
+		MapStorage prev = prevRep.storage();
+		boolean[] isAffected = new boolean[triangulation.countSamples()];
+		for (int sample : change.affectedSamples)
+			isAffected[sample] = true;
+
+		MapStorage next = buildGeometry(prev, isAffected,
+				change.affectedSamples);
+		try {
+			copyElevations(prev, next);
+			Map.Representation rep = new Map.Representation(next,
+					triangulation.triangles());
+			rep.setElevationLimits(prevRep.minElevation(),
+					prevRep.maxElevation());
+			map.replaceRepresentation(rep);
+		} catch (RuntimeException e) {
+			next.close();
+			throw e;
+		}
+	}
+
+	// Builds a storage with the tiles of a given storage whose samples are not
+	// affected and new tiles for the given affected samples.
+	private MapStorage buildGeometry(MapStorage prev, boolean[] isAffected,
+			int[] affectedSamples) {
+		final int numPrevTiles = prev.countTiles();
+		try (MapStorage.Builder builder = new MapStorage.Builder(
+				numPrevTiles + 1, prev.mode())) {
+			// Keep the tiles whose triangles did not change. Their outlines are
+			// the same. So are their neighbors among each other because an edge
+			// between two samples can only change together with a triangle at
+			// both of them.
+			int[] keptTiles = new int[numPrevTiles];
+			for (int i = 0; i < numPrevTiles; ++i) {
+				MapTile tile = new MapTile(prev, i);
+				final int sample = triangulation.findSample(tile.seed());
+				keptTiles[i] = (sample != -1 && !isAffected[sample]) ?
+						addTile(builder, tile.seed(), tile.shape()) : -1;
+			}
+			for (int i = 0; i < numPrevTiles; ++i) {
+				if (keptTiles[i] == -1)
+					continue;
+				for (int j = 0; j < prev.countTileNeighbors(i); ++j) {
+					final int neighbor = keptTiles[prev.tileNeighbor(i, j)];
+					if (neighbor != -1)
+						builder.connectTiles(keptTiles[i], neighbor);
+				}
+			}
+
+			// Make the tiles of the affected samples again and connect them to
+			// their neighbors in the triangulation.
+			for (int sample : affectedSamples) {
+				Polygon2D outline = triangulation.voronoiTile(sample, bounds);
+				if (outline.countVertices() > 0)
+					addTile(builder, triangulation.sample(sample), outline);
+			}
+			for (int sample : affectedSamples) {
+				final int tile = builder.findTile(triangulation.sampleX(sample),
+						triangulation.sampleY(sample));
+				if (tile == -1)
+					continue;
+				for (int neighborSample : triangulation.sampleNeighbors(sample)) {
+					final int neighbor = builder.findTile(
+							triangulation.sampleX(neighborSample),
+							triangulation.sampleY(neighborSample));
+					if (neighbor != -1)
+						builder.connectTiles(tile, neighbor);
+				}
+			}
+			return builder.build();
+		}
+	}
+
+	// Adds a tile with a given seed and outline and connects the nodes along
+	// its outline. Returns the index of the tile.
+	private static int addTile(MapStorage.Builder builder, Point2D seed,
+			Polygon2D outline) {
+		final int tile = builder.addTile(seed, outline);
+		final int numVertices = outline.countVertices();
+		for (int i = 0; i < numVertices; ++i) {
+			builder.connectNodes(builder.findNode(outline.vertex(i)),
+					builder.findNode(outline.vertex(
+							MathUtil.cyclicNext(i, numVertices))));
+		}
+		return tile;
+	}
+
+	// Copies the elevations of the tiles and nodes that exist in both given
+	// storages. Interpolates the elevations of new tiles from their neighbors
+	// and those of new nodes from their tiles.
+	private static void copyElevations(MapStorage prev, MapStorage next) {
+		final int numTiles = next.countTiles();
+		boolean[] isTileSet = new boolean[numTiles];
+		for (int i = 0; i < numTiles; ++i) {
+			final int prevTile = prev.findTile(next.tileX(i), next.tileY(i));
+			if (prevTile != -1) {
+				next.setTileElevation(i, prev.tileElevation(prevTile));
+				isTileSet[i] = true;
+			}
+		}
+		for (int i = 0; i < numTiles; ++i) {
+			if (isTileSet[i])
+				continue;
+			double sum = 0;
+			int count = 0;
+			for (int j = 0; j < next.countTileNeighbors(i); ++j) {
+				final int neighbor = next.tileNeighbor(i, j);
+				if (isTileSet[neighbor]) {
+					sum += next.tileElevation(neighbor);
+					++count;
+				}
+			}
+			if (count > 0)
+				next.setTileElevation(i, sum / count);
+		}
+
+		final int numNodes = next.countNodes();
+		boolean[] isNodeSet = new boolean[numNodes];
+		for (int i = 0; i < numNodes; ++i) {
+			final int prevNode = prev.findNode(next.nodeX(i), next.nodeY(i));
+			if (prevNode != -1) {
+				next.setNodeElevation(i, prev.nodeElevation(prevNode));
+				isNodeSet[i] = true;
+			}
+		}
+		double[] sums = new double[numNodes];
+		int[] counts = new int[numNodes];
+		for (int i = 0; i < numTiles; ++i) {
+			for (int j = 0; j < next.countTileNodes(i); ++j) {
+				final int node = next.tileNode(i, j);
+				if (!isNodeSet[node]) {
+					sums[node] += next.tileElevation(i);
+					++counts[node];
+				}
+			}
+		}
+		for (int i = 0; i < numNodes; ++i)
+			if (counts[i] > 0)
+				next.setNodeElevation(i, sums[i] / counts[i]);
+	}
+}
@@ -1,17 +1,28 @@
 package map;
 
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
+import geometry.FastPoissonDiscSampling;
+import geometry.ParallelPoissonDiscSampling;
 import geometry.Point2D;
+import geometry.PointSet;
 import geometry.PoissonDiscSampling;
-import geometry.Polygon2D;
 import geometry.Rect2D;
+import geometry.SamplingAlgorithm;
+import geometry.SweepHullTriangulation;
 import geometry.Triangle2D;
+import geometry.TriangulationAlgorithm;
 import geometry.VoronoiTesselation;
 import geometry.VoronoiTile;
+import geometry.WangTileSampling;
+import geometry.WangTileSet;
 import math.MathUtil;
+import types.TaskControl;
 
 
 // Generates the layout of tiles for a map.
@@ -25,18 +36,109 @@ public class MapGeometryGenerator {
 		// Number of tested candidates for generated sample points.
 		// Larger number => more evenly spaced sample points but slower.
 		public final int numSampleCandidates;
+		// Algorithm used to triangulate the tile seeds.
+		public final TriangulationAlgorithm triangulation;
+		// Algorithm used to generate the tile seeds.
+		public final SamplingAlgorithm sampling;
+		// Where the nodes and tiles are stored. Does not change the geometry.
+		public final MapStorageMode storage;
+		// Construct the tiles of the tesselation on multiple threads. Does not
+		// change the geometry. Independent of whether the triangulation runs in
+		// parallel.
+		public final boolean isTesselationParallel;
+		// Pool that the parallel sampling, triangulation and tesselation run
+		// in. Does not change the geometry.
+		public final ForkJoinPool pool;
 		
 		public Spec(Rect2D bounds, double minSampleDist, int numCandidates) {
+			this(bounds, minSampleDist, numCandidates,
+					TriangulationAlgorithm.BowyerWatson);
+		}
+		
+		public Spec(Rect2D bounds, double minSampleDist, int numCandidates,
+				TriangulationAlgorithm triangulation) {
+			this(bounds, minSampleDist, numCandidates, triangulation,
+					SamplingAlgorithm.Bridson);
+		}
+		
+		public Spec(Rect2D bounds, double minSampleDist, int numCandidates,
+				TriangulationAlgorithm triangulation, SamplingAlgorithm sampling) {
+			this(bounds, minSampleDist, numCandidates, triangulation, sampling,
+					MapStorageMode.Heap);
+		}
+		
+		public Spec(Rect2D bounds, double minSampleDist, int numCandidates,
+				TriangulationAlgorithm triangulation, SamplingAlgorithm sampling,
+				MapStorageMode storage) {
+			this(bounds, minSampleDist, numCandidates, triangulation, sampling,
+					storage, false);
+		}
+		
+		public Spec(Rect2D bounds, double minSampleDist, int numCandidates,
+				TriangulationAlgorithm triangulation, SamplingAlgorithm sampling,
+				MapStorageMode storage, boolean isTesselationParallel) {
+			this(bounds, minSampleDist, numCandidates, triangulation, sampling,
+					storage, isTesselationParallel, ForkJoinPool.commonPool());
+		}
+		
+		public Spec(Rect2D bounds, double minSampleDist, int numCandidates,
+				TriangulationAlgorithm triangulation, SamplingAlgorithm sampling,
+				MapStorageMode storage, boolean isTesselationParallel,
+				ForkJoinPool pool) {
 			this.bounds = bounds;
 			this.minSampleDistance = minSampleDist;
 			this.numSampleCandidates = numCandidates;
+			this.triangulation = triangulation;
+			this.sampling = sampling;
+			this.storage = storage;
+			this.isTesselationParallel = isTesselationParallel;
+			this.pool = pool;
+		}
+		
+		// Specs are equal if they generate the same geometry from the same random
+		// generator state.
+		@Override
+		public boolean equals(Object other) {
+			if (this == other)
+				return true;
+			if (other == null)
+				return false;
+			if (getClass() != other.getClass())
+				return false;
+			Spec otherSpec = (Spec) other;
+			return bounds.equals(otherSpec.bounds) &&
+					minSampleDistance == otherSpec.minSampleDistance &&
+					numSampleCandidates == otherSpec.numSampleCandidates &&
+					triangulation == otherSpec.triangulation &&
+					sampling == otherSpec.sampling;
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(bounds, minSampleDistance, numSampleCandidates,
+					triangulation, sampling);
 		}
 	}
 
 	///////////////
 	
+	// File that the tiles for Wang tile sampling are cached in.
+	private static final Path WANG_TILE_CACHE_FILE = Paths.get(
+			System.getProperty("java.io.tmpdir"), "map-app", "wang-tiles.bin");
+	// Seed for building the Wang tiles. Fixed so that the tiles, and therefore
+	// the generated maps, do not depend on whether the tiles were cached.
+	private static final long WANG_TILE_SEED = 0x5EEDL;
+	// Number of steps of building the geometry after which progress is reported.
+	private static final int PROGRESS_INTERVAL = 4096;
+	// Wang tiles once they are loaded or built.
+	private static WangTileSet wangTiles = null;
 	private Map.Representation rep;
 	private final Spec spec;
+	// Collects the nodes and tiles while the geometry is constructed.
+	private MapStorage.Builder builder = null;
+	// Steps taken while building the map's geometry and their total number.
+	private long numStepsDone = 0;
+	private long numSteps = 0;
 
 	public MapGeometryGenerator(Map map, Spec spec) {
 		this.rep = new Map.Representation();
@@ -45,68 +147,99 @@ public class MapGeometryGenerator {
 
 	// Uses random sample points to generate the geometry.
 	public Map.Representation generate(Random rand) {
-		List<Point2D> seeds = generateTileSeeds(spec.bounds, spec.minSampleDistance,
-				spec.numSampleCandidates, rand);
-		makeMapGeometry(new VoronoiTesselation(seeds, spec.bounds));
+		return generate(generateSeeds(rand));
+	}
+	
+	// Generates the random sample points that the tiles are made from.
+	public PointSet generateSeeds(Random rand) {
+		TaskControl.current().beginStage("Sampling tile seeds");
+		return generateTileSeeds(spec.bounds, spec.minSampleDistance,
+				spec.numSampleCandidates, spec.sampling, rand, spec.pool);
+	}
+	
+	// Uses given sample points, e.g. from generateSeeds(), to generate the
+	// geometry.
+	public Map.Representation generate(PointSet seeds) {
+		makeMapGeometry(new VoronoiTesselation(seeds, spec.bounds,
+				spec.triangulation, spec.isTesselationParallel, spec.pool));
 		return rep;
 	}
 	
 	// Uses given sample points to generate the geometry.
 	public Map.Representation generate(List<Point2D> samplePoints) {
-		makeMapGeometry(new VoronoiTesselation(samplePoints, spec.bounds));
+		makeMapGeometry(new VoronoiTesselation(PointSet.fromPoints(samplePoints),
+				spec.bounds, spec.triangulation, spec.isTesselationParallel,
+				spec.pool));
 		return rep;
 	}
 	
-	// Generates tile seeds within given bounds.
-	private static List<Point2D> generateTileSeeds(Rect2D bounds, double minSampleDist,
-			int numCandidates, Random rand) {
+	// Generates tile seeds within given bounds. Parallel sampling runs in a
+	// given pool.
+	private static PointSet generateTileSeeds(Rect2D bounds, double minSampleDist,
+			int numCandidates, SamplingAlgorithm algorithm, Random rand,
+			ForkJoinPool pool) {
+		if (algorithm == SamplingAlgorithm.ParallelBridson) {
+			ParallelPoissonDiscSampling sampler = new ParallelPoissonDiscSampling(
+					bounds, minSampleDist, numCandidates, rand, pool);
+			return sampler.generate();
+		}
+		if (algorithm == SamplingAlgorithm.WangTiles) {
+			WangTileSampling sampler = new WangTileSampling(bounds, minSampleDist,
+					getWangTiles(), rand);
+			return sampler.generate();
+		}
+		if (algorithm == SamplingAlgorithm.FastBridson) {
+			FastPoissonDiscSampling sampler = new FastPoissonDiscSampling(bounds,
+					minSampleDist, numCandidates, rand);
+			return sampler.generatePointSet();
+		}
+		
 		PoissonDiscSampling sampler =
 				new PoissonDiscSampling(bounds, minSampleDist, numCandidates, rand);
-		return sampler.generate();
+		return sampler.generatePointSet();
+	}
+	
+	// Returns the Wang tiles. Loads them from the cache file or builds and
+	// caches them when they are used for the first time.
+	private static synchronized WangTileSet getWangTiles() {
+		if (wangTiles == null)
+			wangTiles = WangTileSet.loadOrBuild(WANG_TILE_CACHE_FILE,
+					WangTileSet.DEFAULT_TILE_SIZE, new Random(WANG_TILE_SEED));
+		return wangTiles;
 	}
 	
 	// Constructs the map's geometry for a given tesselation of the mapped area.  
 	private void makeMapGeometry(VoronoiTesselation tess) {
 		List<VoronoiTile> tessTiles = tess.tesselate();
-		makeMapTiles(tessTiles);
-		populateTileNeighbors(tess.getTriangulation());
-		populateNodeNeighbors(tessTiles);
-		populateTriangulation(tess.getTriangulation());
+		TaskControl.current().beginStage("Building map tiles");
+		numStepsDone = 0;
+		numSteps = 2L * tessTiles.size() + tess.getTriangulation().size();
+		builder = new MapStorage.Builder(tessTiles.size(), spec.storage);
+		try {
+			makeMapTiles(tessTiles);
+			if (tess.getSweepHullTriangulation() != null)
+				populateTileNeighbors(tess.getSweepHullTriangulation());
+			else
+				populateTileNeighbors(tess.getTriangulation());
+			populateNodeNeighbors(tessTiles);
+			rep = new Map.Representation(builder.build(),
+					tess.getTriangulation());
+		} finally {
+			// Frees the builder's buffers if building was cancelled.
+			builder.close();
+			builder = null;
+		}
 	}
 	
 	// Constructs the tiles that the map is segmented into from given tiles of
-	// a tesselation.
+	// a tesselation. Also constructs the map nodes that define map properties
+	// at each vertex of a tile's shape. Nodes that are shared between tiles
+	// are only constructed once.
 	private void makeMapTiles(List<VoronoiTile> tessTiles) {
-		for (var tessTile : tessTiles)
-			makeMapTile(tessTile);
-	}
-	
-	// Constructs a map tile from a tesselation tile.
-	private void makeMapTile(VoronoiTile tessTile) {
-		MapTile tile = new MapTile(tessTile.seed, tessTile.outline);
-		tile.setNodes(makeTileNodes(tessTile.outline));
-		rep.addTile(tile);
-	}
-	
-	// Contructs the map nodes that define map properties at each vertex of a
-	// tile's shape.
-	private List<MapNode> makeTileNodes(Polygon2D shape) {
-		List<MapNode> tileNodes = new ArrayList<MapNode>();
-		
-		for (int i = 0; i < shape.countVertices(); ++i) {
-			Point2D pt = shape.vertex(i);
-			
-			// Check if a map node exists already at this point.
-			MapNode node = rep.findNodeAt(pt);
-			if (node == null) {
-				node = new MapNode(pt);
-				rep.addNode(node);
-			}
-			
-			tileNodes.add(node);
+		for (var tessTile : tessTiles) {
+			takeStep();
+			builder.addTile(tessTile.seed, tessTile.outline);
 		}
-		
-		return tileNodes;
 	}
 	
 	// Populates the data structure that holds information about which tiles neighbor
@@ -116,20 +249,44 @@ public class MapGeometryGenerator {
 		// connect neighboring tiles. Mark the tiles of all triangle vertices as
 		// connected to each other.
 		for (var triangle : triangulation) {
+			takeStep();
 			connectTilesAt(triangle.vertex(0), triangle.vertex(1));
 			connectTilesAt(triangle.vertex(1), triangle.vertex(2));
 			connectTilesAt(triangle.vertex(2), triangle.vertex(0));
 		}
 	}
 	
+	// Overload for sweep-hull triangulations. Works on the sample indices of
+	// the triangles without making triangle objects.
+	private void populateTileNeighbors(SweepHullTriangulation triangulation) {
+		final double[] coords = triangulation.coords();
+		final int[] triangles = triangulation.triangles();
+		final int numTriangles = triangulation.countTriangles();
+		// Tiles of the samples. Samples without tile are marked with -1.
+		int[] sampleTiles = new int[coords.length / 2];
+		for (int i = 0; i < sampleTiles.length; ++i)
+			sampleTiles[i] = builder.findTile(coords[2 * i], coords[2 * i + 1]);
+		
+		for (int t = 0; t < numTriangles; ++t) {
+			takeStep();
+			final int a = sampleTiles[triangles[3 * t]];
+			final int b = sampleTiles[triangles[3 * t + 1]];
+			final int c = sampleTiles[triangles[3 * t + 2]];
+			connectTiles(a, b);
+			connectTiles(b, c);
+			connectTiles(c, a);
+		}
+	}
+	
+	// Marks two map tiles with given indices as neighbors if both exist.
+	private void connectTiles(int tileA, int tileB) {
+		if (tileA != -1 && tileB != -1)
+			builder.connectTiles(tileA, tileB);
+	}
+	
 	// Marks two map tiles at given locations as neighbors.
 	private void connectTilesAt(Point2D a, Point2D b) {
-		MapTile tileA = rep.findTileAt(a);
-		MapTile tileB = rep.findTileAt(b);
-		if (tileA != null && tileB != null) {
-			tileA.addNeighbor(tileB);
-			tileB.addNeighbor(tileA);
-		}
+		connectTiles(builder.findTile(a), builder.findTile(b));
 	}
 	
 	// Populates the data structure that holds information about which nodes neighbor
@@ -139,6 +296,7 @@ public class MapGeometryGenerator {
 		// border edges connect neighboring nodes. Mark the nodes of neighboring
 		// vertices as connected to each other.
 		for (var tessTile : tessTiles) {
+			takeStep();
 			int numVertices = tessTile.outline.countVertices();
 			for (int i = 0; i < numVertices; ++i) {
 				Point2D vertex = tessTile.outline.vertex(i);
@@ -151,16 +309,16 @@ public class MapGeometryGenerator {
 	
 	// Marks two map nodes at given locations as neighbors.
 	private void connectNodesAt(Point2D a, Point2D b) {
-		MapNode nodeA = rep.findNodeAt(a);
-		MapNode nodeB = rep.findNodeAt(b);
-		if (nodeA != null && nodeB != null) {
-			nodeA.addNeighbor(nodeB);
-			nodeB.addNeighbor(nodeA);
-		}
+		int nodeA = builder.findNode(a);
+		int nodeB = builder.findNode(b);
+		if (nodeA != -1 && nodeB != -1)
+			builder.connectNodes(nodeA, nodeB);
 	}
 	
-	// Populates the data structure holding the triangulation information.
-	private void populateTriangulation(List<Triangle2D> triangulation) {
-		rep.setTriangulation(triangulation);
+	// Counts a step of building the map's geometry. Regularly reports the
+	// progress, which is also a point to stop at if generating was cancelled.
+	private void takeStep() {
+		if (numStepsDone++ % PROGRESS_INTERVAL == 0)
+			TaskControl.current().setProgress(numStepsDone, numSteps);
 	}
 }
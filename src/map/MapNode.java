@@ -1,20 +1,20 @@
 package map;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import geometry.Point2D;
 
 // Holds map properties for a location on the map.
+// View of a node in a MapStorage. Views are created when nodes are accessed,
+// so multiple view objects can exist for the same node. They compare equal.
+// Positions are read from the storage when they are accessed.
 public class MapNode extends Object {
 
-	public final Point2D pos;
-	private double elevation = -1;
-	// Array neighboring nodes.
-	private List<MapNode> neighbors = new ArrayList<MapNode>();
+	private final MapStorage storage;
+	// Index of the node in the storage.
+	private final int idx;
 	
-	public MapNode(Point2D pos) {
-		this.pos = pos;
+	MapNode(MapStorage storage, int idx) {
+		this.storage = storage;
+		this.idx = idx;
 	}
 	
 	@Override
@@ -26,29 +26,46 @@ public class MapNode extends Object {
 		if (getClass() != other.getClass())
 			return false;
 		MapNode otherNode = (MapNode) other;
-		return pos.equals(otherNode.pos);
+		return storage == otherNode.storage && idx == otherNode.idx;
 	}
 	
-	// Adds a given node as a neighboring node.
-	public void addNeighbor(MapNode node) {
-		if (!neighbors.contains(node))
-			neighbors.add(node);
+	@Override
+	public int hashCode() {
+		return idx;
 	}
-
+	
+	// Returns the index of the node in the map's storage.
+	public int index() {
+		return idx;
+	}
+	
+	public double x() {
+		return storage.nodeX(idx);
+	}
+	
+	public double y() {
+		return storage.nodeY(idx);
+	}
+	
+	// Returns the node's position. Allocates a new point on each call.
+	public Point2D pos() {
+		return new Point2D(x(), y());
+	}
+	
 	public int countNeighbors() {
-		return neighbors.size();
+		return storage.countNodeNeighbors(idx);
 	}
 
 	// Returns a neighboring node given by its index.
 	public MapNode neighbor(int idx) {
-		return neighbors.get(idx);
+		return new MapNode(storage, storage.nodeNeighbor(this.idx, idx));
 	}
 	
 	public double elevation() {
-		return elevation;
+		return storage.nodeElevation(idx);
 	}
 	
 	public void setElevation(double elevation) {
-		this.elevation = elevation;
+		storage.setNodeElevation(idx, elevation);
 	}
 }
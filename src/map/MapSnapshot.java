@@ -0,0 +1,564 @@
+package map;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import geometry.Rect2D;
+import geometry.SamplingAlgorithm;
+import geometry.Triangle2D;
+import geometry.TriangulationAlgorithm;
+import math.PerlinGradients;
+import math.SnapshotRandom;
+import types.TaskControl;
+
+
+// Binary snapshot of a generated map that loads without parsing.
+// A snapshot holds the map's spec, the seed it was generated from, the
+// positions and elevations of its nodes and tiles, the nodes of each tile,
+// the neighbors of nodes and tiles, the triangulation and the elevation
+// limits.
+// The file starts with a header that holds the spec, the seed and a table of
+// the sections that follow. Each section is one array of the map's storage,
+// see MapStorage, stored in little endian byte order and aligned to 8 bytes.
+// Loading reads the header and maps the sections into memory, so the
+// operating system only reads the parts of the file that are accessed. The
+// elevations are mapped privately, i.e. changing them does not change the
+// file.
+// The header stores a checksum of the spec values that determine the map and
+// the seed, a checksum of itself and a checksum of the sections. The first two
+// are verified when loading. Verifying the sections reads the whole file, so
+// it has to be requested separately, see verifyData().
+public class MapSnapshot {
+
+	// Extension of snapshot files.
+	public static final String FILE_EXT = ".map";
+	private static final int FILE_MAGIC = 0x4D415053;
+	private static final int FILE_VERSION = 2;
+	// Number of sections of doubles and ints that hold the map's storage, see
+	// MapStorage.doubleBuffers() and MapStorage.intBuffers(), and the section
+	// that holds the triangulation as six coordinates per triangle.
+	private static final int NUM_DOUBLE_SECTIONS = 6;
+	private static final int NUM_INT_SECTIONS = 6;
+	private static final int NUM_SECTIONS =
+			NUM_DOUBLE_SECTIONS + NUM_INT_SECTIONS + 1;
+	// Sections with the node and tile elevations.
+	private static final int NODE_ELEVATION_SECTION = 2;
+	private static final int TILE_ELEVATION_SECTION = 5;
+	private static final int TRIANGLE_SECTION = NUM_SECTIONS - 1;
+	// Size of the buffer that sections are written through.
+	private static final int WRITE_CHUNK_SIZE = 1 << 16;
+	public final Map map;
+	// Seed of the random generator that the map was generated with.
+	public final long seed;
+	// State of the random generator after the map was generated or null if it
+	// is not known. Allows to continue with the same random values as if the
+	// map had been generated.
+	public final Long rngStateAfter;
+
+	private MapSnapshot(Map map, long seed, Long rngStateAfter) {
+		this.map = map;
+		this.seed = seed;
+		this.rngStateAfter = rngStateAfter;
+	}
+
+	///////////////
+
+	// Returns the file in a given directory that the snapshot of the map with
+	// a given spec and seed is stored in. The file name is a hash of the spec
+	// values that determine the map and the seed.
+	public static Path fileFor(Path dir, Map.Spec spec, long seed) {
+		StageCache.KeyBuilder key = new StageCache.KeyBuilder("snapshot");
+		key.add(FILE_VERSION);
+		key.add(specChecksum(spec, seed));
+		return dir.resolve(key.build().toString() + FILE_EXT);
+	}
+
+	// Writes a snapshot of a given map that was generated with a given seed.
+	public static void save(Path file, Map map, long seed) throws IOException {
+		save(file, map, seed, null);
+	}
+
+	// Writes a snapshot of a given map that was generated with a given seed
+	// and the state of the random generator after the map was generated or
+	// null if it is not known.
+	// Writes to a temporary file first, so that readers never see a partially
+	// written file. Stops when the current task is cancelled, see
+	// TaskControl, and deletes the temporary file.
+	public static void save(Path file, Map map, long seed, Long rngStateAfter)
+			throws IOException {
+		Map.Representation rep = map.representation();
+		MapStorage storage = rep.storage();
+		DoubleBuffer[] doubles = storage.doubleBuffers();
+		IntBuffer[] ints = storage.intBuffers();
+		DoubleBuffer triangles = collectTriangles(rep);
+
+		// Lay out the sections behind the header.
+		long[] sectionOffsets = new long[NUM_SECTIONS];
+		int[] sectionLengths = new int[NUM_SECTIONS];
+		for (int s = 0; s < NUM_DOUBLE_SECTIONS; ++s)
+			sectionLengths[s] = doubles[s].capacity();
+		for (int s = 0; s < NUM_INT_SECTIONS; ++s)
+			sectionLengths[NUM_DOUBLE_SECTIONS + s] = ints[s].capacity();
+		sectionLengths[TRIANGLE_SECTION] = triangles.capacity();
+		ByteBuffer header = writeHeader(map, seed, rngStateAfter,
+				sectionOffsets, sectionLengths, 0);
+		long offset = header.capacity();
+		for (int s = 0; s < NUM_SECTIONS; ++s) {
+			sectionOffsets[s] = offset;
+			offset = align(offset + sectionBytes(s, sectionLengths[s]));
+		}
+
+		Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path tmpFile = Files.createTempFile(parent, file.getFileName().toString(),
+				".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tmpFile,
+					StandardOpenOption.WRITE)) {
+				CRC32C dataCrc = new CRC32C();
+				ByteBuffer chunk = ByteBuffer.allocate(WRITE_CHUNK_SIZE)
+						.order(ByteOrder.LITTLE_ENDIAN);
+				for (int s = 0; s < NUM_DOUBLE_SECTIONS; ++s)
+					writeDoubles(channel, sectionOffsets[s], doubles[s], chunk,
+							dataCrc);
+				for (int s = 0; s < NUM_INT_SECTIONS; ++s)
+					writeInts(channel, sectionOffsets[NUM_DOUBLE_SECTIONS + s],
+							ints[s], chunk, dataCrc);
+				writeDoubles(channel, sectionOffsets[TRIANGLE_SECTION], triangles,
+						chunk, dataCrc);
+
+				header = writeHeader(map, seed, rngStateAfter, sectionOffsets,
+						sectionLengths, dataCrc.getValue());
+				writeFully(channel, 0, header);
+			}
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmpFile);
+		}
+	}
+
+	// Loads a snapshot from a given file.
+	public static MapSnapshot load(Path file) throws IOException {
+		try (FileChannel channel = openForLoading(file)) {
+			Header header = readHeader(channel, file);
+			return new MapSnapshot(mapSections(channel, header, file),
+					header.seed, header.rngStateAfter);
+		}
+	}
+
+	// Loads a snapshot from a given file and verifies that it holds the map for
+	// a given spec and seed.
+	public static MapSnapshot load(Path file, Map.Spec spec, long seed)
+			throws IOException {
+		try (FileChannel channel = openForLoading(file)) {
+			Header header = readHeader(channel, file);
+			if (header.specChecksum != specChecksum(spec, seed))
+				throw new IOException("Map snapshot is for a different spec or " +
+						"seed: " + file);
+			return new MapSnapshot(mapSections(channel, header, file),
+					header.seed, header.rngStateAfter);
+		}
+	}
+
+	// Verifies the checksum of the sections of a given snapshot file. Reads
+	// the whole file.
+	public static void verifyData(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.READ)) {
+			Header header = readHeader(channel, file);
+			CRC32C dataCrc = new CRC32C();
+			ByteBuffer chunk = ByteBuffer.allocate(WRITE_CHUNK_SIZE);
+			for (int s = 0; s < NUM_SECTIONS; ++s) {
+				long pos = header.sectionOffsets[s];
+				long end = pos + sectionBytes(s, header.sectionLengths[s]);
+				while (pos < end) {
+					chunk.clear();
+					chunk.limit((int) Math.min(chunk.capacity(), end - pos));
+					int numRead = channel.read(chunk, pos);
+					if (numRead < 0)
+						throw new IOException("Truncated map snapshot: " + file);
+					chunk.flip();
+					dataCrc.update(chunk);
+					pos += numRead;
+				}
+			}
+			if (dataCrc.getValue() != header.dataChecksum)
+				throw new IOException("Corrupt map snapshot: " + file);
+		}
+	}
+
+	///////////////
+
+	// Values of a snapshot's header.
+	private static class Header {
+		public long seed;
+		public Long topographyRngState;
+		public Long rngStateAfter;
+		public Map.Spec spec;
+		public double minElev;
+		public double maxElev;
+		public long specChecksum;
+		public long dataChecksum;
+		public final long[] sectionOffsets = new long[NUM_SECTIONS];
+		public final int[] sectionLengths = new int[NUM_SECTIONS];
+	}
+
+	///////////////
+
+	// Returns a header for a given map. Writes a given data checksum, so the
+	// header can be made before the data is written to know its size and
+	// made again once the checksum is known.
+	private static ByteBuffer writeHeader(Map map, long seed,
+			Long rngStateAfter, long[] sectionOffsets, int[] sectionLengths, long dataChecksum) {
+		Map.Spec spec = map.spec();
+		Long topoRngState = map.topographyRngState();
+		byte[] specBytes = serializeSpec(spec, seed);
+		String storage = spec.geom.storage.name();
+		byte[] storageBytes = storage.getBytes(StandardCharsets.UTF_8);
+
+		int size = 12 + 4 + specBytes.length + 4 + storageBytes.length + 3 +
+				18 + 16 + NUM_SECTIONS * 12 + 16 + 4;
+		size = (int) align(size);
+		ByteBuffer header = ByteBuffer.allocate(size)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(FILE_MAGIC);
+		header.putInt(FILE_VERSION);
+		header.putInt(size);
+		header.putInt(specBytes.length);
+		header.put(specBytes);
+		// Spec values that do not change the map.
+		header.putInt(storageBytes.length);
+		header.put(storageBytes);
+		header.put((byte) (spec.geom.isTesselationParallel ? 1 : 0));
+		header.put((byte) (spec.topo.isParallel ? 1 : 0));
+		header.put((byte) (spec.topo.isCachingOctaves ? 1 : 0));
+		header.put((byte) (topoRngState != null ? 1 : 0));
+		header.putLong(topoRngState != null ? topoRngState : 0);
+		header.put((byte) (rngStateAfter != null ? 1 : 0));
+		header.putLong(rngStateAfter != null ? rngStateAfter : 0);
+		header.putDouble(map.minElevation());
+		header.putDouble(map.maxElevation());
+		for (int s = 0; s < NUM_SECTIONS; ++s) {
+			header.putLong(sectionOffsets[s]);
+			header.putInt(sectionLengths[s]);
+		}
+		header.putLong(crc(specBytes));
+		header.putLong(dataChecksum);
+		CRC32C headerCrc = new CRC32C();
+		headerCrc.update(header.array(), 0, header.position());
+		header.putInt((int) headerCrc.getValue());
+		header.clear();
+		return header;
+	}
+
+	// Reads and verifies the header of a snapshot.
+	private static Header readHeader(FileChannel channel, Path file)
+			throws IOException {
+		ByteBuffer prefix = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, 0, prefix, file);
+		if (prefix.getInt(0) != FILE_MAGIC || prefix.getInt(4) != FILE_VERSION)
+			throw new IOException("Not a map snapshot: " + file);
+		final int size = prefix.getInt(8);
+		if (size < 12 || size > channel.size())
+			throw new IOException("Corrupt map snapshot: " + file);
+
+		ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, 0, buf, file);
+		Header header = new Header();
+		try {
+			buf.position(12);
+			byte[] specBytes = new byte[buf.getInt()];
+			buf.get(specBytes);
+			byte[] storageBytes = new byte[buf.getInt()];
+			buf.get(storageBytes);
+			final boolean isTesselationParallel = buf.get() != 0;
+			final boolean isParallel = buf.get() != 0;
+			final boolean isCachingOctaves = buf.get() != 0;
+			final boolean hasTopoRngState = buf.get() != 0;
+			final long topoRngState = buf.getLong();
+			header.topographyRngState = hasTopoRngState ? topoRngState : null;
+			final boolean hasRngStateAfter = buf.get() != 0;
+			final long rngStateAfter = buf.getLong();
+			header.rngStateAfter = hasRngStateAfter ? rngStateAfter : null;
+			header.minElev = buf.getDouble();
+			header.maxElev = buf.getDouble();
+			for (int s = 0; s < NUM_SECTIONS; ++s) {
+				header.sectionOffsets[s] = buf.getLong();
+				header.sectionLengths[s] = buf.getInt();
+			}
+			header.specChecksum = buf.getLong();
+			header.dataChecksum = buf.getLong();
+			CRC32C headerCrc = new CRC32C();
+			headerCrc.update(buf.array(), 0, buf.position());
+			if (buf.getInt() != (int) headerCrc.getValue())
+				throw new IOException("Corrupt map snapshot: " + file);
+
+			// The spec checksum is verified by deserializing the spec and
+			// serializing it again.
+			ByteBuffer specBuf = ByteBuffer.wrap(specBytes)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			header.spec = deserializeSpec(specBuf,
+					MapStorageMode.valueOf(new String(storageBytes,
+							StandardCharsets.UTF_8)),
+					isTesselationParallel, isParallel, isCachingOctaves);
+			header.seed = specBuf.getLong();
+			if (crc(serializeSpec(header.spec, header.seed)) != header.specChecksum)
+				throw new IOException("Corrupt map snapshot: " + file);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Corrupt map snapshot: " + file);
+		}
+
+		for (int s = 0; s < NUM_SECTIONS; ++s) {
+			if (header.sectionLengths[s] < 0 || header.sectionOffsets[s] < size ||
+					header.sectionOffsets[s] +
+					sectionBytes(s, header.sectionLengths[s]) > channel.size())
+				throw new IOException("Truncated map snapshot: " + file);
+		}
+		return header;
+	}
+
+	// Opens a snapshot file for loading. Mapping the elevations privately
+	// needs write access, even though nothing is written.
+	private static FileChannel openForLoading(Path file) throws IOException {
+		try {
+			return FileChannel.open(file, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+		} catch (AccessDeniedException e) {
+			return FileChannel.open(file, StandardOpenOption.READ);
+		}
+	}
+
+	// Maps the sections of a snapshot into memory and makes a map from them.
+	// The sections belong to one scope that the map's storage closes.
+	private static Map mapSections(FileChannel channel, Header header, Path file)
+			throws IOException {
+		ResourceScope scope = MapStorage.newScope();
+		try {
+			DoubleBuffer[] doubles = new DoubleBuffer[NUM_DOUBLE_SECTIONS];
+			for (int s = 0; s < NUM_DOUBLE_SECTIONS; ++s) {
+				boolean isElevation =
+						s == NODE_ELEVATION_SECTION || s == TILE_ELEVATION_SECTION;
+				doubles[s] = mapSection(channel, header, s, isElevation, file,
+						scope).asDoubleBuffer();
+			}
+			IntBuffer[] ints = new IntBuffer[NUM_INT_SECTIONS];
+			for (int s = 0; s < NUM_INT_SECTIONS; ++s)
+				ints[s] = mapSection(channel, header, NUM_DOUBLE_SECTIONS + s,
+						false, file, scope).asIntBuffer();
+			DoubleBuffer triangles = mapSection(channel, header,
+					TRIANGLE_SECTION, false, file, scope).asDoubleBuffer();
+
+			MapStorage storage = MapStorage.fromBuffers(doubles, ints,
+					MapStorageMode.FileMapped, scope);
+			if (storage.countNodes() > 0 && storage.countTiles() == 0)
+				throw new IOException("Corrupt map snapshot: " + file);
+			Map.Representation rep = new Map.Representation(storage,
+					new TriangleList(triangles));
+			rep.setElevationLimits(header.minElev, header.maxElev);
+			return new Map(header.spec, new SnapshotRandom(header.seed), rep,
+					header.topographyRngState);
+		} catch (IOException | RuntimeException e) {
+			scope.close();
+			throw e;
+		}
+	}
+
+	// Maps a section of a snapshot into a given scope. Sections that are
+	// writable are mapped privately or, if the file cannot be written, copied
+	// into memory.
+	private static ByteBuffer mapSection(FileChannel channel, Header header,
+			int section, boolean isWritable, Path file, ResourceScope scope)
+			throws IOException {
+		final long offset = header.sectionOffsets[section];
+		final long numBytes = sectionBytes(section, header.sectionLengths[section]);
+		MapStorage.checkBufferSize(numBytes);
+		// Native memory cannot be empty.
+		if (numBytes == 0)
+			return ByteBuffer.allocate(0);
+		ByteBuffer buf;
+		if (!isWritable) {
+			buf = MemorySegment.mapFile(file, offset, numBytes,
+					FileChannel.MapMode.READ_ONLY, scope).asByteBuffer();
+		} else {
+			try {
+				buf = MemorySegment.mapFile(file, offset, numBytes,
+						FileChannel.MapMode.PRIVATE, scope).asByteBuffer();
+			} catch (AccessDeniedException e) {
+				buf = MemorySegment.allocateNative(numBytes, Double.BYTES, scope)
+						.asByteBuffer();
+				readFully(channel, offset, buf, file);
+				buf.clear();
+			}
+		}
+		return buf.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// Returns the serialized spec values that determine the map followed by
+	// the seed. Spec values that do not change the map, like the storage mode,
+	// are not included, so that maps can be loaded with different settings.
+	private static byte[] serializeSpec(Map.Spec spec, long seed) {
+		ByteBuffer buf = ByteBuffer.allocate(512).order(ByteOrder.LITTLE_ENDIAN);
+		putRect(buf, spec.geom.bounds);
+		buf.putDouble(spec.geom.minSampleDistance);
+		buf.putInt(spec.geom.numSampleCandidates);
+		putString(buf, spec.geom.triangulation.name());
+		putString(buf, spec.geom.sampling.name());
+		putRect(buf, spec.topo.bounds);
+		buf.putInt(spec.topo.numOctaves);
+		buf.putDouble(spec.topo.persistence);
+		putString(buf, spec.topo.gradients.name());
+		buf.putLong(seed);
+		byte[] bytes = new byte[buf.position()];
+		buf.flip();
+		buf.get(bytes);
+		return bytes;
+	}
+
+	// Reads the spec from values written by serializeSpec() and given values
+	// that do not change the map. Leaves the seed in the buffer.
+	private static Map.Spec deserializeSpec(ByteBuffer buf,
+			MapStorageMode storage, boolean isTesselationParallel,
+			boolean isParallel, boolean isCachingOctaves) {
+		Rect2D geomBounds = getRect(buf);
+		double minSampleDist = buf.getDouble();
+		int numCandidates = buf.getInt();
+		TriangulationAlgorithm triangulation =
+				TriangulationAlgorithm.valueOf(getString(buf));
+		SamplingAlgorithm sampling = SamplingAlgorithm.valueOf(getString(buf));
+		Rect2D topoBounds = getRect(buf);
+		int numOctaves = buf.getInt();
+		double persistence = buf.getDouble();
+		PerlinGradients gradients = PerlinGradients.valueOf(getString(buf));
+		return new Map.Spec(
+				new MapGeometryGenerator.Spec(geomBounds, minSampleDist,
+						numCandidates, triangulation, sampling, storage,
+						isTesselationParallel),
+				new PerlinTopography.Spec(topoBounds, numOctaves, persistence,
+						gradients, isParallel, isCachingOctaves));
+	}
+
+	// Returns the checksum of the spec values that determine the map and a
+	// given seed.
+	private static long specChecksum(Map.Spec spec, long seed) {
+		return crc(serializeSpec(spec, seed));
+	}
+
+	private static long crc(byte[] bytes) {
+		CRC32C crc = new CRC32C();
+		crc.update(bytes);
+		return crc.getValue();
+	}
+
+	private static void putRect(ByteBuffer buf, Rect2D rect) {
+		buf.putDouble(rect.left());
+		buf.putDouble(rect.top());
+		buf.putDouble(rect.right());
+		buf.putDouble(rect.bottom());
+	}
+
+	private static Rect2D getRect(ByteBuffer buf) {
+		return new Rect2D(buf.getDouble(), buf.getDouble(), buf.getDouble(),
+				buf.getDouble());
+	}
+
+	private static void putString(ByteBuffer buf, String str) {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		buf.putInt(bytes.length);
+		buf.put(bytes);
+	}
+
+	private static String getString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// Returns the coordinates of the triangles of a given representation, six
+	// per triangle.
+	private static DoubleBuffer collectTriangles(Map.Representation rep) {
+		final int numTriangles = rep.countTriangles();
+		double[] coords = new double[6 * numTriangles];
+		for (int i = 0; i < numTriangles; ++i) {
+			Triangle2D triangle = rep.triangle(i);
+			for (int v = 0; v < 3; ++v) {
+				coords[6 * i + 2 * v] = triangle.vertex(v).x;
+				coords[6 * i + 2 * v + 1] = triangle.vertex(v).y;
+			}
+		}
+		return DoubleBuffer.wrap(coords);
+	}
+
+	private static void writeDoubles(FileChannel channel, long offset,
+			DoubleBuffer values, ByteBuffer chunk, CRC32C crc)
+			throws IOException {
+		while (values.hasRemaining()) {
+			TaskControl.current().checkCancelled();
+			chunk.clear();
+			while (values.hasRemaining() && chunk.remaining() >= 8)
+				chunk.putDouble(values.get());
+			chunk.flip();
+			crc.update(chunk.duplicate());
+			offset += writeFully(channel, offset, chunk);
+		}
+	}
+
+	private static void writeInts(FileChannel channel, long offset,
+			IntBuffer values, ByteBuffer chunk, CRC32C crc) throws IOException {
+		while (values.hasRemaining()) {
+			TaskControl.current().checkCancelled();
+			chunk.clear();
+			while (values.hasRemaining() && chunk.remaining() >= 4)
+				chunk.putInt(values.get());
+			chunk.flip();
+			crc.update(chunk.duplicate());
+			offset += writeFully(channel, offset, chunk);
+		}
+	}
+
+	// Writes a given buffer at a given position. Returns the number of bytes
+	// written.
+	private static int writeFully(FileChannel channel, long pos, ByteBuffer buf)
+			throws IOException {
+		final int numBytes = buf.remaining();
+		while (buf.hasRemaining())
+			pos += channel.write(buf, pos);
+		return numBytes;
+	}
+
+	private static void readFully(FileChannel channel, long pos, ByteBuffer buf,
+			Path file) throws IOException {
+		while (buf.hasRemaining()) {
+			int numRead = channel.read(buf, pos);
+			if (numRead < 0)
+				throw new IOException("Truncated map snapshot: " + file);
+			pos += numRead;
+		}
+	}
+
+	// Returns the number of bytes of a section with a given number of values.
+	private static long sectionBytes(int section, int numValues) {
+		final boolean isIntSection = section >= NUM_DOUBLE_SECTIONS &&
+				section < NUM_DOUBLE_SECTIONS + NUM_INT_SECTIONS;
+		return (isIntSection ? 4L : 8L) * numValues;
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+}
@@ -0,0 +1,921 @@
+package map;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import geometry.Point2D;
+import geometry.Polygon2D;
+import math.FpUtil;
+
+
+// Compact storage of the nodes and tiles of a map.
+// Positions and elevations are kept in buffers that are indexed by node or
+// tile index. Relations, i.e. the neighbors of nodes, the neighbors of tiles and the
+// nodes of tiles, are kept as compressed sparse rows. The related indices of
+// all nodes or tiles are stored in one array, one row after the other, and a
+// second array holds the offset of each row. For example, the neighbors of
+// node i are nodeNeighbors[nodeNeighborOffsets[i]] up to, but not including,
+// nodeNeighbors[nodeNeighborOffsets[i + 1]].
+// Compared to node and tile objects that reference each other this takes a
+// fraction of the memory and lets loops over the map read memory sequentially.
+// MapNode and MapTile objects are views of an index in a storage.
+// The buffers can be kept on the heap, off the heap or in memory-mapped files.
+// See MapStorageMode. Closing the storage frees the memory off the heap and
+// deletes the files right away. Storages that are not closed free them once
+// they are not referenced anymore.
+// Positions and relations cannot be changed once the storage is built.
+// Elevations can.
+public class MapStorage implements AutoCloseable {
+
+	// Collects the nodes, tiles and their relations and builds the storage in
+	// one go. The positions, relations and lookups are written into buffers in
+	// the place given by the storage mode while they are collected, so that
+	// building a storage off the heap does not keep the map on the heap. The
+	// buffers grow as needed and are copied into buffers of the exact size
+	// when the storage is built. A builder cannot be used after building.
+	public static class Builder implements AutoCloseable {
+		private final MapStorageMode mode;
+		private final GrowableDoubles nodeXs;
+		private final GrowableDoubles nodeYs;
+		private final GrowableDoubles tileXs;
+		private final GrowableDoubles tileYs;
+		// Lookups of nodes by their position and tiles by their seed.
+		private final PositionLookup nodeLookup;
+		private final PositionLookup tileLookup;
+		// Nodes of each tile as rows. Tiles are added with their nodes, so
+		// the rows can be built as the tiles are added.
+		private final GrowableInts tileNodeOffsets;
+		private final GrowableInts tileNodes;
+		// Neighbor relations as pairs of the index that the neighbor is added
+		// to and the index of the neighbor, in the order they were added.
+		private final GrowableInts nodeLinks;
+		private final GrowableInts tileLinks;
+
+		public Builder() {
+			this(16);
+		}
+
+		// Constructs a builder that expects about a given number of tiles and
+		// builds a storage on the heap.
+		public Builder(int numTiles) {
+			this(numTiles, MapStorageMode.Heap);
+		}
+
+		// Constructs a builder that expects about a given number of tiles and
+		// builds a storage that keeps its data in a given place.
+		public Builder(int numTiles, MapStorageMode mode) {
+			final int cap = Math.max(numTiles, 1);
+			this.mode = mode;
+			this.nodeXs = new GrowableDoubles(mode, 2 * cap);
+			this.nodeYs = new GrowableDoubles(mode, 2 * cap);
+			this.tileXs = new GrowableDoubles(mode, cap);
+			this.tileYs = new GrowableDoubles(mode, cap);
+			this.nodeLookup = new PositionLookup(mode, 2 * cap);
+			this.tileLookup = new PositionLookup(mode, cap);
+			this.tileNodeOffsets = new GrowableInts(mode, cap + 1);
+			this.tileNodeOffsets.add(0);
+			this.tileNodes = new GrowableInts(mode, 6 * cap);
+			this.nodeLinks = new GrowableInts(mode, 12 * cap);
+			this.tileLinks = new GrowableInts(mode, 12 * cap);
+		}
+
+		// Adds a node at a given position unless a node at an equal position
+		// exists already. Returns the index of the node.
+		public int addNode(Point2D pos) {
+			int idx = findNode(pos);
+			if (idx == -1) {
+				idx = nodeXs.size();
+				nodeXs.add(pos.x);
+				nodeYs.add(pos.y);
+				nodeLookup.add(idx, nodeXs.buffer(), nodeYs.buffer());
+			}
+			return idx;
+		}
+
+		// Adds a tile with a given seed and outline. Adds a node for each vertex
+		// of the outline, unless a node at that position exists already.
+		// Returns the index of the tile.
+		public int addTile(Point2D seed, Polygon2D outline) {
+			final int idx = tileXs.size();
+			tileXs.add(seed.x);
+			tileYs.add(seed.y);
+			tileLookup.add(idx, tileXs.buffer(), tileYs.buffer());
+
+			final int numVertices = outline.countVertices();
+			for (int i = 0; i < numVertices; ++i)
+				tileNodes.add(addNode(outline.vertex(i)));
+			tileNodeOffsets.add(tileNodes.size());
+			return idx;
+		}
+
+		// Returns the index of the node at a position equal to a given point or
+		// -1.
+		public int findNode(Point2D pos) {
+			return nodeLookup.find(pos.x, pos.y, nodeXs.buffer(), nodeYs.buffer());
+		}
+
+		// Returns the index of the tile whose seed is equal to a given point or
+		// -1.
+		public int findTile(Point2D seed) {
+			return findTile(seed.x, seed.y);
+		}
+
+		// Returns the index of the tile whose seed is at given coordinates or
+		// -1.
+		public int findTile(double x, double y) {
+			return tileLookup.find(x, y, tileXs.buffer(), tileYs.buffer());
+		}
+
+		// Marks two nodes as neighbors. Connecting nodes multiple times is
+		// allowed.
+		public void connectNodes(int a, int b) {
+			addLink(nodeLinks, a, b);
+		}
+
+		// Marks two tiles as neighbors. Connecting tiles multiple times is
+		// allowed.
+		public void connectTiles(int a, int b) {
+			addLink(tileLinks, a, b);
+		}
+
+		// Builds the storage. The positions, relations, lookups and elevations
+		// are made by one allocator, so that off the heap they belong to one
+		// scope and, in FileMapped mode, one file. Frees the builder's buffers.
+		public MapStorage build() {
+			BufferAllocator alloc = new BufferAllocator(mode);
+			try {
+				final int numNodes = nodeXs.size();
+				final int numTiles = tileXs.size();
+				IntBuffer[] nodeRows = makeRows(nodeLinks, numNodes, alloc);
+				IntBuffer[] tileRows = makeRows(tileLinks, numTiles, alloc);
+				Topology topo = new Topology(nodeXs.copy(alloc),
+						nodeYs.copy(alloc), tileXs.copy(alloc), tileYs.copy(alloc),
+						nodeRows[0], nodeRows[1], tileRows[0], tileRows[1],
+						tileNodeOffsets.copy(alloc), tileNodes.copy(alloc), alloc);
+				topo.nodeLookup = PositionLookup.of(topo.nodeXs, topo.nodeYs,
+						alloc);
+				topo.tileLookup = PositionLookup.of(topo.tileXs, topo.tileYs,
+						alloc);
+				return new MapStorage(topo, alloc.doubles(numNodes, -1),
+						alloc.doubles(numTiles, -1), null);
+			} catch (RuntimeException e) {
+				alloc.close();
+				throw e;
+			} finally {
+				close();
+			}
+		}
+
+		// Frees the buffers that the builder collects the data in. Called when
+		// building is cancelled. Building frees them too.
+		@Override
+		public void close() {
+			nodeXs.free();
+			nodeYs.free();
+			tileXs.free();
+			tileYs.free();
+			nodeLookup.free();
+			tileLookup.free();
+			tileNodeOffsets.free();
+			tileNodes.free();
+			nodeLinks.free();
+			tileLinks.free();
+		}
+
+		// Stores a link in both directions.
+		private static void addLink(GrowableInts links, int a, int b) {
+			links.add(a);
+			links.add(b);
+			links.add(b);
+			links.add(a);
+		}
+
+		// Converts given links into rows, one for each index. Keeps the order
+		// in which the links were added and drops repeated links. Returns the
+		// row offsets and the row values in buffers made by a given allocator.
+		private static IntBuffer[] makeRows(GrowableInts links, int numRows,
+				BufferAllocator alloc) {
+			final int numLinks = links.size();
+			// Sort the links by the index they belong to. Counting the links of
+			// each index first keeps the order of the links within a row.
+			IntBuffer offsets = alloc.ints(numRows + 1);
+			for (int i = 0; i < numLinks; i += 2) {
+				final int row = links.get(i) + 1;
+				offsets.put(row, offsets.get(row) + 1);
+			}
+			for (int r = 0; r < numRows; ++r)
+				offsets.put(r + 1, offsets.get(r + 1) + offsets.get(r));
+
+			// The sorted links are only needed until the repeated links are
+			// dropped.
+			BufferAllocator sortAlloc = new BufferAllocator(alloc.mode());
+			try {
+				IntBuffer values = sortAlloc.ints(numLinks / 2);
+				IntBuffer fill = sortAlloc.ints(numRows);
+				fill.put(0, offsets, 0, numRows);
+				for (int i = 0; i < numLinks; i += 2) {
+					final int row = links.get(i);
+					final int pos = fill.get(row);
+					fill.put(row, pos + 1);
+					values.put(pos, links.get(i + 1));
+				}
+
+				// Drop repeated links. Rows are short, so searching the part of
+				// the row that is kept is fast.
+				int numKept = 0;
+				for (int r = 0; r < numRows; ++r) {
+					final int begin = offsets.get(r);
+					final int end = offsets.get(r + 1);
+					final int keptBegin = numKept;
+					for (int i = begin; i < end; ++i) {
+						final int value = values.get(i);
+						boolean isRepeated = false;
+						for (int j = keptBegin; j < numKept && !isRepeated; ++j)
+							isRepeated = values.get(j) == value;
+						if (!isRepeated)
+							values.put(numKept++, value);
+					}
+					offsets.put(r, keptBegin);
+				}
+				offsets.put(numRows, numKept);
+
+				IntBuffer kept = alloc.ints(numKept);
+				kept.put(0, values, 0, numKept);
+				return new IntBuffer[] { offsets, kept };
+			} finally {
+				sortAlloc.close();
+			}
+		}
+	}
+
+	///////////////
+
+	// Buffer of doubles that grows while a storage is built. Each capacity is
+	// made by its own allocator, so that off the heap the memory of the
+	// previous capacity is freed as soon as the buffer grows.
+	private static class GrowableDoubles {
+		private final MapStorageMode mode;
+		private BufferAllocator alloc;
+		private DoubleBuffer buf;
+		private int size = 0;
+
+		public GrowableDoubles(MapStorageMode mode, int capacity) {
+			this.mode = mode;
+			this.alloc = new BufferAllocator(mode);
+			this.buf = alloc.doubles(Math.max(capacity, 1));
+		}
+
+		public int size() {
+			return size;
+		}
+
+		// Returns the buffer that holds the values. It changes when the buffer
+		// grows.
+		public DoubleBuffer buffer() {
+			return buf;
+		}
+
+		public void add(double val) {
+			if (size == buf.capacity()) {
+				BufferAllocator grownAlloc = new BufferAllocator(mode);
+				DoubleBuffer grown = grownAlloc.doubles(2 * size);
+				grown.put(0, buf, 0, size);
+				alloc.close();
+				alloc = grownAlloc;
+				buf = grown;
+			}
+			buf.put(size++, val);
+		}
+
+		// Returns the values in a buffer of their exact size that is made by a
+		// given allocator.
+		public DoubleBuffer copy(BufferAllocator to) {
+			DoubleBuffer copy = to.doubles(size);
+			copy.put(0, buf, 0, size);
+			return copy;
+		}
+
+		public void free() {
+			alloc.close();
+		}
+	}
+
+	///////////////
+
+	// Buffer of ints that grows while a storage is built. See GrowableDoubles.
+	private static class GrowableInts {
+		private final MapStorageMode mode;
+		private BufferAllocator alloc;
+		private IntBuffer buf;
+		private int size = 0;
+
+		public GrowableInts(MapStorageMode mode, int capacity) {
+			this.mode = mode;
+			this.alloc = new BufferAllocator(mode);
+			this.buf = alloc.ints(Math.max(capacity, 1));
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int get(int idx) {
+			return buf.get(idx);
+		}
+
+		public void add(int val) {
+			if (size == buf.capacity()) {
+				BufferAllocator grownAlloc = new BufferAllocator(mode);
+				IntBuffer grown = grownAlloc.ints(2 * size);
+				grown.put(0, buf, 0, size);
+				alloc.close();
+				alloc = grownAlloc;
+				buf = grown;
+			}
+			buf.put(size++, val);
+		}
+
+		// Returns the values in a buffer of their exact size that is made by a
+		// given allocator.
+		public IntBuffer copy(BufferAllocator to) {
+			IntBuffer copy = to.ints(size);
+			copy.put(0, buf, 0, size);
+			return copy;
+		}
+
+		public void free() {
+			alloc.close();
+		}
+	}
+
+	///////////////
+
+	// Lookup of the indices of points by their position. The positions are
+	// kept in buffers outside of the lookup, e.g. the node positions of a
+	// storage, and the lookup only stores indices in an open-addressing hash
+	// table, so that the table can be kept in the same place as the positions.
+	// Finds points that are equal within the floating point threshold like
+	// PointIndex does. Each point is stored under the cell of the plane that
+	// contains it, with cells twice as large as the threshold, and a search
+	// checks the point's cell and the three cells towards its closest corner.
+	static class PositionLookup {
+		private static final int EMPTY_SLOT = -1;
+		private final MapStorageMode mode;
+		private final double thres;
+		private final double cellSize;
+		// Allocator of the table and whether the lookup made it itself.
+		private BufferAllocator alloc;
+		private final boolean ownsAllocator;
+		// Indices of the points. Uses linear probing.
+		private IntBuffer slots;
+		private int slotMask;
+		private int size = 0;
+
+		// Constructs an empty lookup that grows as points are added. The table
+		// is kept in the place given by a storage mode until the lookup is
+		// freed.
+		public PositionLookup(MapStorageMode mode, int capacity) {
+			this(new BufferAllocator(mode), true, capacity);
+		}
+
+		private PositionLookup(BufferAllocator alloc, boolean ownsAllocator,
+				int capacity) {
+			this.mode = alloc.mode();
+			this.thres = FpUtil.globalFpThreshold();
+			this.cellSize = 2 * thres;
+			this.alloc = alloc;
+			this.ownsAllocator = ownsAllocator;
+			allocateSlots(2 * capacity);
+		}
+
+		// Makes a lookup of all points in given buffers whose table is made by
+		// a given allocator. Nothing can be added to it.
+		public static PositionLookup of(DoubleBuffer xs, DoubleBuffer ys,
+				BufferAllocator alloc) {
+			final int numPoints = xs.capacity();
+			PositionLookup lookup = new PositionLookup(alloc, false, numPoints);
+			for (int i = 0; i < numPoints; ++i)
+				lookup.insert(i, xs.get(i), ys.get(i));
+			lookup.size = numPoints;
+			return lookup;
+		}
+
+		// Returns the index of the point at a location equal to given
+		// coordinates or -1. The positions of the points are read from given
+		// buffers.
+		public int find(double x, double y, DoubleBuffer xs, DoubleBuffer ys) {
+			final double qx = x / cellSize;
+			final double qy = y / cellSize;
+			final long cx = (long) Math.floor(qx);
+			final long cy = (long) Math.floor(qy);
+			// Neighboring cells towards the closest corner of the cell.
+			final long nx = (qx - cx < 0.5) ? cx - 1 : cx + 1;
+			final long ny = (qy - cy < 0.5) ? cy - 1 : cy + 1;
+
+			int idx = findInCell(cellKey(cx, cy), x, y, xs, ys);
+			if (idx == -1)
+				idx = findInCell(cellKey(nx, cy), x, y, xs, ys);
+			if (idx == -1)
+				idx = findInCell(cellKey(cx, ny), x, y, xs, ys);
+			if (idx == -1)
+				idx = findInCell(cellKey(nx, ny), x, y, xs, ys);
+			return idx;
+		}
+
+		// Adds the point with the next index whose position is stored in given
+		// buffers. Grows the table so that it stays at most half full.
+		public void add(int idx, DoubleBuffer xs, DoubleBuffer ys) {
+			if (2 * (size + 1) > slots.capacity()) {
+				BufferAllocator prevAlloc = alloc;
+				alloc = new BufferAllocator(mode);
+				allocateSlots(2 * slots.capacity());
+				for (int i = 0; i < size; ++i)
+					insert(i, xs.get(i), ys.get(i));
+				prevAlloc.close();
+			}
+			insert(idx, xs.get(idx), ys.get(idx));
+			++size;
+		}
+
+		public long byteSize() {
+			return 4L * slots.capacity();
+		}
+
+		// Frees the table of a lookup that made it itself.
+		public void free() {
+			if (ownsAllocator)
+				alloc.close();
+		}
+
+		private int findInCell(long key, double x, double y, DoubleBuffer xs,
+				DoubleBuffer ys) {
+			for (int s = slotOf(key); slots.get(s) != EMPTY_SLOT;
+					s = (s + 1) & slotMask) {
+				final int idx = slots.get(s);
+				if (FpUtil.fpEqual(xs.get(idx), x, thres) &&
+						FpUtil.fpEqual(ys.get(idx), y, thres))
+					return idx;
+			}
+			return -1;
+		}
+
+		private void insert(int idx, double x, double y) {
+			final long key = cellKey((long) Math.floor(x / cellSize),
+					(long) Math.floor(y / cellSize));
+			int s = slotOf(key);
+			while (slots.get(s) != EMPTY_SLOT)
+				s = (s + 1) & slotMask;
+			slots.put(s, idx);
+		}
+
+		// Combines given cell coordinates into a key. Different cells can have
+		// the same key, which only costs additional comparisons.
+		private static long cellKey(long cx, long cy) {
+			return cx * 0x9E3779B97F4A7C15L + cy;
+		}
+
+		private int slotOf(long key) {
+			long h = key ^ (key >>> 31);
+			h *= 0xBF58476D1CE4E5B9L;
+			h ^= h >>> 29;
+			return (int) h & slotMask;
+		}
+
+		// Allocates an empty table with at least a given number of slots.
+		private void allocateSlots(int minSlots) {
+			final int numSlots = Integer.highestOneBit(Math.max(minSlots, 2) - 1) << 1;
+			slots = alloc.ints(numSlots);
+			for (int s = 0; s < numSlots; ++s)
+				slots.put(s, EMPTY_SLOT);
+			slotMask = numSlots - 1;
+		}
+	}
+
+	///////////////
+
+	// Positions and relations of the nodes and tiles. Cannot be changed, so
+	// it can be shared by storages with different elevations. The buffers are
+	// freed when the last storage that uses them is closed.
+	private static class Topology {
+		private final DoubleBuffer nodeXs;
+		private final DoubleBuffer nodeYs;
+		private final DoubleBuffer tileXs;
+		private final DoubleBuffer tileYs;
+		private final IntBuffer nodeNeighborOffsets;
+		private final IntBuffer nodeNeighbors;
+		private final IntBuffer tileNeighborOffsets;
+		private final IntBuffer tileNeighbors;
+		private final IntBuffer tileNodeOffsets;
+		private final IntBuffer tileNodes;
+		private final MapStorageMode mode;
+		// Allocator that made the buffers. Makes the other buffers that belong
+		// to the topology too, so that they are in the same scope and file.
+		private final BufferAllocator alloc;
+		// Number of storages that use the topology and were not closed.
+		private int numUsers = 0;
+		// Lookups of nodes by their position and tiles by their seed or null
+		// if they were not needed yet.
+		private PositionLookup nodeLookup = null;
+		private PositionLookup tileLookup = null;
+
+		public Topology(DoubleBuffer nodeXs, DoubleBuffer nodeYs,
+				DoubleBuffer tileXs, DoubleBuffer tileYs,
+				IntBuffer nodeNeighborOffsets, IntBuffer nodeNeighbors,
+				IntBuffer tileNeighborOffsets, IntBuffer tileNeighbors,
+				IntBuffer tileNodeOffsets, IntBuffer tileNodes,
+				BufferAllocator alloc) {
+			this.nodeXs = nodeXs;
+			this.nodeYs = nodeYs;
+			this.tileXs = tileXs;
+			this.tileYs = tileYs;
+			this.nodeNeighborOffsets = nodeNeighborOffsets;
+			this.nodeNeighbors = nodeNeighbors;
+			this.tileNeighborOffsets = tileNeighborOffsets;
+			this.tileNeighbors = tileNeighbors;
+			this.tileNodeOffsets = tileNodeOffsets;
+			this.tileNodes = tileNodes;
+			this.mode = alloc.mode();
+			this.alloc = alloc;
+		}
+
+		public synchronized void retain() {
+			++numUsers;
+		}
+
+		// Frees the buffers once no storage uses them anymore.
+		public synchronized void release() {
+			if (--numUsers == 0)
+				alloc.close();
+		}
+
+		public synchronized PositionLookup nodeLookup() {
+			if (nodeLookup == null)
+				nodeLookup = PositionLookup.of(nodeXs, nodeYs, alloc);
+			return nodeLookup;
+		}
+
+		public synchronized PositionLookup tileLookup() {
+			if (tileLookup == null)
+				tileLookup = PositionLookup.of(tileXs, tileYs, alloc);
+			return tileLookup;
+		}
+	}
+
+	///////////////
+
+	// Allocates buffers in the place given by a storage mode.
+	// Heap buffers wrap arrays. Off-heap buffers are native memory and
+	// file-mapped buffers are regions of one temporary file per allocator.
+	// Both belong to a scope that frees the memory, unmaps the file and deletes
+	// it when it is closed, or once it is not referenced anymore, or, for the
+	// file, at the latest when the app exits. Each buffer holds at most 2 GB.
+	static class BufferAllocator {
+		private final MapStorageMode mode;
+		private final ResourceScope scope;
+		// File that the buffers are mapped from in FileMapped mode.
+		private Path file = null;
+		private long fileSize = 0;
+
+		public BufferAllocator(MapStorageMode mode) {
+			this(mode, (mode != MapStorageMode.Heap) ? newScope() : null);
+		}
+
+		// Constructs an allocator whose buffers belong to a given scope, so that
+		// they are freed together with the scope's other memory.
+		public BufferAllocator(MapStorageMode mode, ResourceScope scope) {
+			this.mode = mode;
+			this.scope = scope;
+		}
+
+		public MapStorageMode mode() {
+			return mode;
+		}
+
+		// Returns the scope that the buffers belong to or null if they are on
+		// the heap.
+		public ResourceScope scope() {
+			return scope;
+		}
+
+		// Frees all buffers of the allocator, unless they are on the heap.
+		// Closing again does nothing.
+		public void close() {
+			if (scope != null && scope.isAlive())
+				scope.close();
+		}
+
+		// Allocates a buffer of zeros.
+		public DoubleBuffer doubles(int size) {
+			if (mode == MapStorageMode.Heap)
+				return DoubleBuffer.wrap(new double[size]);
+			return allocate(8L * size).asDoubleBuffer();
+		}
+
+		public DoubleBuffer doubles(int size, double fill) {
+			DoubleBuffer buf = doubles(size);
+			for (int i = 0; i < size; ++i)
+				buf.put(i, fill);
+			return buf;
+		}
+
+		// Allocates a buffer of zeros.
+		public IntBuffer ints(int size) {
+			if (mode == MapStorageMode.Heap)
+				return IntBuffer.wrap(new int[size]);
+			return allocate(4L * size).asIntBuffer();
+		}
+
+		private synchronized ByteBuffer allocate(long numBytes) {
+			checkBufferSize(numBytes);
+			// Native memory cannot be empty.
+			if (numBytes == 0)
+				return ByteBuffer.allocate(0);
+			if (mode == MapStorageMode.OffHeap)
+				return MemorySegment.allocateNative(numBytes, Double.BYTES, scope)
+						.asByteBuffer().order(ByteOrder.nativeOrder());
+
+			try {
+				if (file == null) {
+					Files.createDirectories(MAPPED_FILE_DIR);
+					file = Files.createTempFile(MAPPED_FILE_DIR, "map-", ".bin");
+					file.toFile().deleteOnExit();
+					// Close actions run in reverse order, so the file is
+					// deleted after its regions are unmapped.
+					final Path ownedFile = file;
+					scope.addCloseAction(() -> deleteFile(ownedFile));
+				}
+				MemorySegment segment = MemorySegment.mapFile(file, fileSize,
+						numBytes, FileChannel.MapMode.READ_WRITE, scope);
+				fileSize += numBytes;
+				return segment.asByteBuffer().order(ByteOrder.nativeOrder());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		// Deletes a file. Systems that cannot delete files that are still
+		// mapped delete it when the app exits instead.
+		private static void deleteFile(Path file) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				file.toFile().deleteOnExit();
+			}
+		}
+	}
+
+	///////////////
+
+	// Directory for the files of FileMapped storages.
+	private static final Path MAPPED_FILE_DIR = Paths.get(
+			System.getProperty("java.io.tmpdir"), "map-app", "storage");
+	private static final Cleaner CLEANER = Cleaner.create();
+	private final Topology topo;
+	private final DoubleBuffer nodeElevs;
+	private final DoubleBuffer tileElevs;
+	// Scope that the elevations belong to or null if they are on the heap or
+	// belong to the topology's scope.
+	private final ResourceScope elevScope;
+	private boolean isClosed = false;
+
+	// Constructs a storage with a given topology and elevations of -1, which
+	// mark elevations that were not set yet. The elevations get their own
+	// scope and file, so that they are freed when the storage is closed
+	// while the other storages keep the topology.
+	private MapStorage(Topology topo) {
+		BufferAllocator alloc = new BufferAllocator(topo.mode);
+		this.topo = topo;
+		this.nodeElevs = alloc.doubles(topo.nodeXs.capacity(), -1);
+		this.tileElevs = alloc.doubles(topo.tileXs.capacity(), -1);
+		this.elevScope = alloc.scope();
+		topo.retain();
+	}
+
+	private MapStorage(Topology topo, DoubleBuffer nodeElevs,
+			DoubleBuffer tileElevs, ResourceScope elevScope) {
+		this.topo = topo;
+		this.nodeElevs = nodeElevs;
+		this.tileElevs = tileElevs;
+		this.elevScope = elevScope;
+		topo.retain();
+	}
+
+	// Constructs a storage from existing buffers, e.g. buffers that are mapped
+	// from a file. The buffers are given in the order of doubleBuffers() and
+	// intBuffers(). Only the elevation buffers have to be writable. The
+	// buffers belong to a given scope, which the storage closes when it is
+	// closed, or null if they are on the heap.
+	static MapStorage fromBuffers(DoubleBuffer[] doubles, IntBuffer[] ints,
+			MapStorageMode mode, ResourceScope scope) {
+		Topology topo = new Topology(doubles[0], doubles[1], doubles[3],
+				doubles[4], ints[0], ints[1], ints[2], ints[3], ints[4], ints[5],
+				new BufferAllocator(mode, scope));
+		return new MapStorage(topo, doubles[2], doubles[5], null);
+	}
+
+	// Constructs a storage with given numbers of nodes, tiles and relations
+	// whose buffers are filled in afterwards through doubleBuffers() and
+	// intBuffers(), e.g. while decoding a map. Positions, relations and
+	// elevations start out as zeros. The elevations belong to the same scope
+	// and file as the topology.
+	static MapStorage allocate(int numNodes, int numTiles,
+			int numNodeNeighbors, int numTileNeighbors, int numTileNodes,
+			MapStorageMode mode) {
+		BufferAllocator alloc = new BufferAllocator(mode);
+		try {
+			Topology topo = new Topology(alloc.doubles(numNodes),
+					alloc.doubles(numNodes), alloc.doubles(numTiles),
+					alloc.doubles(numTiles), alloc.ints(numNodes + 1),
+					alloc.ints(numNodeNeighbors), alloc.ints(numTiles + 1),
+					alloc.ints(numTileNeighbors), alloc.ints(numTiles + 1),
+					alloc.ints(numTileNodes), alloc);
+			return new MapStorage(topo, alloc.doubles(numNodes),
+					alloc.doubles(numTiles), null);
+		} catch (RuntimeException e) {
+			alloc.close();
+			throw e;
+		}
+	}
+
+	// Returns a scope for buffers off the heap that can be used from any
+	// thread. It is closed once it is not referenced anymore, unless it was
+	// closed before.
+	static ResourceScope newScope() {
+		return ResourceScope.newSharedScope(CLEANER);
+	}
+
+	// Throws an exception if a buffer of a given number of bytes cannot be
+	// allocated. Buffers are indexed by ints, so each holds at most 2 GB.
+	static void checkBufferSize(long numBytes) {
+		if (numBytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Map too large for storage " +
+					"buffers. A buffer holds at most 2 GB, " + numBytes +
+					" bytes were requested.");
+	}
+
+	// Returns the allocator of the positions and relations. Buffers that it
+	// makes are freed together with them, e.g. buffers of data that belongs
+	// to the same map and that is shared by its copies.
+	BufferAllocator topologyAllocator() {
+		return topo.alloc;
+	}
+
+	// Returns the buffers of doubles in the order node xs, node ys, node
+	// elevations, tile xs, tile ys and tile elevations.
+	DoubleBuffer[] doubleBuffers() {
+		return new DoubleBuffer[] { topo.nodeXs.duplicate().clear(),
+				topo.nodeYs.duplicate().clear(), nodeElevs.duplicate().clear(),
+				topo.tileXs.duplicate().clear(), topo.tileYs.duplicate().clear(),
+				tileElevs.duplicate().clear() };
+	}
+
+	// Returns the buffers of ints in the order node neighbor offsets, node
+	// neighbors, tile neighbor offsets, tile neighbors, tile node offsets and
+	// tile nodes.
+	IntBuffer[] intBuffers() {
+		return new IntBuffer[] { topo.nodeNeighborOffsets.duplicate().clear(),
+				topo.nodeNeighbors.duplicate().clear(),
+				topo.tileNeighborOffsets.duplicate().clear(),
+				topo.tileNeighbors.duplicate().clear(),
+				topo.tileNodeOffsets.duplicate().clear(),
+				topo.tileNodes.duplicate().clear() };
+	}
+
+	// Returns a storage with the same nodes, tiles and relations but without
+	// elevations. The unchangeable data is shared with this storage.
+	public MapStorage copyWithoutElevations() {
+		return new MapStorage(topo);
+	}
+
+	// Frees the memory off the heap and deletes the files that the storage
+	// takes up. The positions and relations are freed when the last storage
+	// that shares them is closed. The storage must not be used afterwards.
+	// Accessing it throws an IllegalStateException unless it is on the heap.
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (isClosed)
+				return;
+			isClosed = true;
+		}
+		if (elevScope != null)
+			elevScope.close();
+		topo.release();
+	}
+
+	public MapStorageMode mode() {
+		return topo.mode;
+	}
+
+	// Returns the approx number of bytes that the storage takes up. Includes
+	// the shared positions and relations.
+	public long byteSize() {
+		final long numNodes = topo.nodeXs.capacity();
+		final long numTiles = topo.tileXs.capacity();
+		long size = 24 * (numNodes + numTiles) +
+				4 * ((long) topo.nodeNeighbors.capacity() +
+						topo.tileNeighbors.capacity() + topo.tileNodes.capacity() +
+						numNodes + 2 * numTiles + 3);
+		synchronized (topo) {
+			if (topo.nodeLookup != null)
+				size += topo.nodeLookup.byteSize();
+			if (topo.tileLookup != null)
+				size += topo.tileLookup.byteSize();
+		}
+		return size;
+	}
+
+	public int countNodes() {
+		return topo.nodeXs.capacity();
+	}
+
+	public double nodeX(int node) {
+		return topo.nodeXs.get(node);
+	}
+
+	public double nodeY(int node) {
+		return topo.nodeYs.get(node);
+	}
+
+	public double nodeElevation(int node) {
+		return nodeElevs.get(node);
+	}
+
+	public void setNodeElevation(int node, double elev) {
+		nodeElevs.put(node, elev);
+	}
+
+	public int countNodeNeighbors(int node) {
+		return topo.nodeNeighborOffsets.get(node + 1) -
+				topo.nodeNeighborOffsets.get(node);
+	}
+
+	// Returns the index of a neighbor of a given node.
+	public int nodeNeighbor(int node, int idx) {
+		return topo.nodeNeighbors.get(topo.nodeNeighborOffsets.get(node) + idx);
+	}
+
+	// Returns the index of the node at a position equal to given coordinates
+	// or -1.
+	public int findNode(double x, double y) {
+		return topo.nodeLookup().find(x, y, topo.nodeXs, topo.nodeYs);
+	}
+
+	public int countTiles() {
+		return topo.tileXs.capacity();
+	}
+
+	public double tileX(int tile) {
+		return topo.tileXs.get(tile);
+	}
+
+	public double tileY(int tile) {
+		return topo.tileYs.get(tile);
+	}
+
+	public double tileElevation(int tile) {
+		return tileElevs.get(tile);
+	}
+
+	public void setTileElevation(int tile, double elev) {
+		tileElevs.put(tile, elev);
+	}
+
+	public int countTileNeighbors(int tile) {
+		return topo.tileNeighborOffsets.get(tile + 1) -
+				topo.tileNeighborOffsets.get(tile);
+	}
+
+	// Returns the index of a neighbor of a given tile.
+	public int tileNeighbor(int tile, int idx) {
+		return topo.tileNeighbors.get(topo.tileNeighborOffsets.get(tile) + idx);
+	}
+
+	public int countTileNodes(int tile) {
+		return topo.tileNodeOffsets.get(tile + 1) -
+				topo.tileNodeOffsets.get(tile);
+	}
+
+	// Returns the index of a node of a given tile. Nodes are ordered ccw.
+	public int tileNode(int tile, int idx) {
+		return topo.tileNodes.get(topo.tileNodeOffsets.get(tile) + idx);
+	}
+
+	// Returns the index of the tile whose seed is at a position equal to given
+	// coordinates or -1.
+	public int findTile(double x, double y) {
+		return topo.tileLookup().find(x, y, topo.tileXs, topo.tileYs);
+	}
+}
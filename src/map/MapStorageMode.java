@@ -0,0 +1,16 @@
+package map;
+
+
+// Places that the arrays of a MapStorage can be kept in.
+public enum MapStorageMode {
+	// Arrays on the Java heap.
+	Heap,
+	// Memory outside of the Java heap. The heap only holds a few buffer
+	// objects per map, so maps can be larger than the heap and the garbage
+	// collector does not have to trace their data.
+	OffHeap,
+	// Temporary files that are mapped into memory. Like OffHeap, but the
+	// operating system can page the data out to the file, so maps can be
+	// larger than the physical memory.
+	FileMapped
+}
@@ -8,21 +8,20 @@ import geometry.Polygon2D;
 import geometry.Rect2D;
 
 // Defines a tile on the map.
+// View of a tile in a MapStorage. Views are created when tiles are accessed,
+// so multiple view objects can exist for the same tile. They compare equal.
+// Views hold no geometry of their own. Positions are read from the storage
+// when they are accessed. seed() and shape() make new objects on each call,
+// bounds() reads the node positions from the storage.
 public class MapTile extends Object {
 
-	public final Point2D seed;
-	public final Polygon2D shape;
-	public final Rect2D bounds;
-	// Nodes for each point in the tile's shape. Ordered ccw.
-	private List<MapNode> nodes;
-	// Neighboring tiles.
-	private List<MapTile> neighbors = new ArrayList<MapTile>();
-	private double elevation = -1;
+	private final MapStorage storage;
+	// Index of the tile in the storage.
+	private final int idx;
 	
-	public MapTile(Point2D seed, Polygon2D shape) {
-		this.seed = seed;
-		this.shape = shape;
-		this.bounds = shape.bounds();
+	MapTile(MapStorage storage, int idx) {
+		this.storage = storage;
+		this.idx = idx;
 	}
 	
 	@Override
@@ -34,49 +33,97 @@ public class MapTile extends Object {
 		if (getClass() != other.getClass())
 			return false;
 		MapTile otherTile = (MapTile) other;
-		return seed.equals(otherTile.seed);
+		return storage == otherTile.storage && idx == otherTile.idx;
 	}
 	
-	// Sets the map nodes for each point of the tile's shape.
-	// Caller is responsible to make sure the node's locations correspond
-	// to points on the tile's shape.
-	public void setNodes(List<MapNode> nodes) {
-		this.nodes = nodes;
+	@Override
+	public int hashCode() {
+		return idx;
+	}
+	
+	// Returns the index of the tile in the map's storage.
+	public int index() {
+		return idx;
+	}
+	
+	public double seedX() {
+		return storage.tileX(idx);
+	}
+	
+	public double seedY() {
+		return storage.tileY(idx);
+	}
+	
+	// Returns the position of the tile's seed. Allocates a new point on each
+	// call.
+	public Point2D seed() {
+		return new Point2D(seedX(), seedY());
+	}
+	
+	// Returns the tile's shape. Its vertices are the positions of the tile's
+	// nodes. Allocates a new polygon on each call.
+	public Polygon2D shape() {
+		final int numNodes = countNodes();
+		List<Point2D> vertices = new ArrayList<Point2D>(numNodes);
+		for (int i = 0; i < numNodes; ++i) {
+			final int node = storage.tileNode(idx, i);
+			vertices.add(new Point2D(storage.nodeX(node), storage.nodeY(node)));
+		}
+		return new Polygon2D(vertices);
 	}
 
 	public int countNodes() {
-		return nodes.size();
+		return storage.countTileNodes(idx);
 	}
 
 	// Returns a node in the tile's outline.
 	public MapNode node(int idx) {
-		return nodes.get(idx);
+		return new MapNode(storage, storage.tileNode(this.idx, idx));
 	}
 	
-	// Adds a given tile as a neighboring tile.
-	public void addNeighbor(MapTile neighbor) {
-		if (!neighbors.contains(neighbor))
-			neighbors.add(neighbor);
-	}
-
 	public int countNeighbors() {
-		return neighbors.size();
+		return storage.countTileNeighbors(idx);
 	}
 
 	// Returns a neighboring tile.
 	public MapTile neighbor(int idx) {
-		return neighbors.get(idx);
+		return new MapTile(storage, storage.tileNeighbor(this.idx, idx));
 	}
 	
 	public double elevation() {
-		return elevation;
+		return storage.tileElevation(idx);
 	}
 	
 	public void setElevation(double val) {
-		elevation = val;
+		storage.setTileElevation(idx, val);
 	}
 	
+	// Returns the bounding box of the tile's nodes. Does not build the shape.
 	public Rect2D bounds() {
-		return bounds.copy();
+		final int numNodes = countNodes();
+		if (numNodes == 0)
+			return new Rect2D();
+		
+		int node = storage.tileNode(idx, 0);
+		double left = storage.nodeX(node);
+		double top = storage.nodeY(node);
+		double right = left;
+		double bottom = top;
+		
+		for (int i = 1; i < numNodes; ++i) {
+			node = storage.tileNode(idx, i);
+			final double x = storage.nodeX(node);
+			final double y = storage.nodeY(node);
+			if (x < left)
+				left = x;
+			if (y < top)
+				top = y;
+			if (x > right)
+				right = x;
+			if (y > bottom)
+				bottom = y;
+		}
+		
+		return new Rect2D(left, top, right, bottom);
 	}
 }
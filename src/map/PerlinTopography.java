@@ -1,9 +1,16 @@
 package map;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import geometry.Rect2D;
+import math.PerlinGradients;
 import math.PerlinNoise;
+import types.TaskControl;
 
 public class PerlinTopography implements TopographyGenerator {
 
@@ -19,22 +26,76 @@ public class PerlinTopography implements TopographyGenerator {
 		// Larger persistence => Larger and smoother features.
 		// Smaller persistence => Smaller and choppier features.
 		public final double persistence;
+		// How the gradients of the noise grid are provided.
+		public final PerlinGradients gradients;
+		// Whether the elevations are calculated on multiple threads. The
+		// elevations are the same either way.
+		public final boolean isParallel;
+		// Whether the noise of each octave is kept for all positions, so that
+		// generating again for the same representation with a different number
+		// of octaves or persistence only calculates octaves that were not
+		// calculated yet. Needs memory for one value per position and octave.
+		public final boolean isCachingOctaves;
+		// Pool that the elevations are calculated in when calculating them in
+		// parallel. The elevations are the same for any pool.
+		public final ForkJoinPool pool;
 		
 		public Spec(Rect2D bounds, int numOctaves, double persistence) {
+			this(bounds, numOctaves, persistence, PerlinGradients.Grid);
+		}
+		
+		public Spec(Rect2D bounds, int numOctaves, double persistence,
+				PerlinGradients gradients) {
+			this(bounds, numOctaves, persistence, gradients, false);
+		}
+		
+		public Spec(Rect2D bounds, int numOctaves, double persistence,
+				PerlinGradients gradients, boolean isParallel) {
+			this(bounds, numOctaves, persistence, gradients, isParallel, false);
+		}
+		
+		public Spec(Rect2D bounds, int numOctaves, double persistence,
+				PerlinGradients gradients, boolean isParallel,
+				boolean isCachingOctaves) {
+			this(bounds, numOctaves, persistence, gradients, isParallel,
+					isCachingOctaves, ForkJoinPool.commonPool());
+		}
+		
+		public Spec(Rect2D bounds, int numOctaves, double persistence,
+				PerlinGradients gradients, boolean isParallel,
+				boolean isCachingOctaves, ForkJoinPool pool) {
 			this.bounds = bounds;
 			this.numOctaves = numOctaves;
 			this.persistence = persistence;
+			this.gradients = gradients;
+			this.isParallel = isParallel;
+			this.isCachingOctaves = isCachingOctaves;
+			this.pool = pool;
 		}
 	}
 	
 	///////////////
 	
+	// Number of positions whose elevation is calculated by one task.
+	private static final int BATCH_SIZE = 4096;
 	private final Spec spec;
 	private final int left;
 	private final int top;
 	private final int width;
 	private final int height;
 	private final Random rand;
+	// Pool to calculate elevations in or null to calculate them sequentially.
+	private final ForkJoinPool pool;
+	// Noise generator. Kept, so that generating again uses the same gradients.
+	private PerlinNoise perlinGen = null;
+	// Positions of the nodes and tiles of the representation that is generated.
+	// Nodes come before tiles.
+	private double[] xs;
+	private double[] ys;
+	// Representation whose octaves are cached and the raw noise of each cached
+	// octave for all its positions.
+	private Map.Representation cachedRep = null;
+	private double[][] octaves = new double[0][];
 	private double minElev = Double.MAX_VALUE;
 	private double maxElev = -Double.MAX_VALUE;
 	
@@ -45,29 +106,151 @@ public class PerlinTopography implements TopographyGenerator {
 		this.width = (int) (spec.bounds.right() - left) + 1;
 		this.height = (int) (spec.bounds.bottom() - top) + 1;
 		this.rand = rand;
+		this.pool = spec.isParallel ? spec.pool : null;
 	}
 	
 	@Override
 	public void generate(Map.Representation rep) {
-		PerlinNoise perlinGen = new PerlinNoise(width, height, rand);
+		generate(rep, spec.numOctaves, spec.persistence);
+	}
+	
+	// Generates the elevations with a given number of octaves and persistence
+	// instead of the ones of the spec. Repeated calls use the same noise. When
+	// caching octaves, repeated calls for the same representation only
+	// calculate the octaves that are not cached yet and combine the rest from
+	// the cache.
+	public void generate(Map.Representation rep, int numOctaves,
+			double persistence) {
+		TaskControl control = TaskControl.current();
+		control.beginStage("Generating elevations");
+		if (!spec.isCachingOctaves || rep != cachedRep) {
+			if (perlinGen == null)
+				perlinGen = new PerlinNoise(width, height, rand, spec.gradients);
+			collectPositions(rep);
+			cachedRep = spec.isCachingOctaves ? rep : null;
+			octaves = new double[0][];
+		}
 		
-		for (int i = 0; i < rep.countNodes(); ++i) {
-			MapNode node = rep.node(i);
-			double noise = perlinGen.calcOctaveNoise(node.pos, spec.numOctaves,
-					spec.persistence);
-			node.setElevation(updateElevationLimits(noise));
+		// Make room for octaves that are not cached yet.
+		final int numCachedOctaves = octaves.length;
+		final int firstNewOctave = Math.min(numCachedOctaves, numOctaves);
+		if (spec.isCachingOctaves && numOctaves > numCachedOctaves) {
+			octaves = Arrays.copyOf(octaves, numOctaves);
+			for (int o = firstNewOctave; o < numOctaves; ++o)
+				octaves[o] = new double[xs.length];
 		}
 		
-		for (int i = 0; i < rep.countTiles(); ++i) {
-			MapTile tile = rep.tile(i);
-			double noise = perlinGen.calcOctaveNoise(tile.seed, spec.numOctaves,
-					spec.persistence);
-			tile.setElevation(updateElevationLimits(noise));
+		// The positions are independent of each other. Calculate them in batches
+		// and reduce the elevation limits of the batches afterwards. Taking the
+		// min and max is exact, so the result does not depend on the batches.
+		// Running sequentially also goes batch by batch, so that progress can
+		// be reported.
+		final int numPositions = xs.length;
+		final int numBatches = (numPositions + BATCH_SIZE - 1) / BATCH_SIZE;
+		final int batchSize = BATCH_SIZE;
+		double[] noise = new double[numPositions];
+		double[] batchMins = new double[numBatches];
+		double[] batchMaxs = new double[numBatches];
+		
+		// Octaves that are not finished must not count as cached when the
+		// calculation stops, e.g. because it was cancelled. Octaves that were
+		// cached before stay cached.
+		try {
+			if (pool != null) {
+				List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+				for (int b = 0; b < numBatches; ++b) {
+					final int batch = b;
+					tasks.add(pool.submit(() -> {
+						control.checkCancelled();
+						calcElevations(rep, numOctaves, persistence, firstNewOctave,
+								noise, batch, batchSize, batchMins, batchMaxs);
+					}));
+				}
+				for (int b = 0; b < numBatches; ++b) {
+					tasks.get(b).join();
+					control.setProgress(b + 1, numBatches);
+				}
+			} else {
+				for (int b = 0; b < numBatches; ++b) {
+					control.setProgress(b, numBatches);
+					calcElevations(rep, numOctaves, persistence, firstNewOctave,
+							noise, b, batchSize, batchMins, batchMaxs);
+				}
+			}
+		} catch (RuntimeException e) {
+			if (octaves.length > numCachedOctaves)
+				octaves = Arrays.copyOf(octaves, numCachedOctaves);
+			throw e;
 		}
 		
+		minElev = Double.MAX_VALUE;
+		maxElev = -Double.MAX_VALUE;
+		for (int b = 0; b < numBatches; ++b) {
+			updateElevationLimits(batchMins[b]);
+			updateElevationLimits(batchMaxs[b]);
+		}
 		rep.setElevationLimits(minElev, maxElev);
 	}
 	
+	// Returns the number of octaves whose noise is cached.
+	int countCachedOctaves() {
+		return octaves.length;
+	}
+	
+	// Collects the positions of all nodes and tiles of a given representation.
+	private void collectPositions(Map.Representation rep) {
+		MapStorage storage = rep.storage();
+		final int numNodes = storage.countNodes();
+		final int numTiles = storage.countTiles();
+		xs = new double[numNodes + numTiles];
+		ys = new double[numNodes + numTiles];
+		for (int i = 0; i < numNodes; ++i) {
+			xs[i] = storage.nodeX(i);
+			ys[i] = storage.nodeY(i);
+		}
+		for (int i = 0; i < numTiles; ++i) {
+			xs[numNodes + i] = storage.tileX(i);
+			ys[numNodes + i] = storage.tileY(i);
+		}
+	}
+	
+	// Calculates and sets the elevations of the nodes and tiles at the positions
+	// of a given batch. Stores the elevation limits of the batch at the batch's
+	// index.
+	private void calcElevations(Map.Representation rep, int numOctaves,
+			double persistence, int firstNewOctave, double[] noise, int batch,
+			int batchSize, double[] batchMins, double[] batchMaxs) {
+		MapStorage storage = rep.storage();
+		final int numNodes = storage.countNodes();
+		final int begin = batch * batchSize;
+		final int end = Math.min(begin + batchSize, xs.length);
+		if (spec.isCachingOctaves) {
+			for (int o = firstNewOctave; o < numOctaves; ++o)
+				perlinGen.calcOctave(xs, ys, octaves[o], begin, end, o);
+			PerlinNoise.combineOctaves(octaves, noise, begin, end, numOctaves,
+					persistence);
+		} else {
+			perlinGen.calcOctaveNoise(xs, ys, noise, begin, end, numOctaves,
+					persistence);
+		}
+		
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for (int i = begin; i < end; ++i) {
+			final double elev = noise[i];
+			if (i < numNodes)
+				storage.setNodeElevation(i, elev);
+			else
+				storage.setTileElevation(i - numNodes, elev);
+			if (elev < min)
+				min = elev;
+			if (elev > max)
+				max = elev;
+		}
+		batchMins[batch] = min;
+		batchMaxs[batch] = max;
+	}
+	
 	private double updateElevationLimits(double elev) {
 		if (elev < minElev)
 			minElev = elev;
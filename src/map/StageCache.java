@@ -0,0 +1,433 @@
+package map;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+
+// Memoizes the results of the stages of map generation.
+// Results are identified by a key that is a hash of everything that the
+// result depends on, i.e. the name of the stage, the spec values that are used
+// by the stage, the keys of the results of earlier stages that it consumes,
+// and the state of the random generator before the stage. Equal keys
+// therefore mean equal results, and results can be reused whenever the same
+// inputs come up again, no matter how the map that they were generated for
+// got there.
+// Together with each result the state of the random generator after the stage
+// is stored, so that later stages can continue with the same random values
+// as if the stage had been run.
+// Keeps results in memory up to a given total size and drops the least
+// recently used results when the size is exceeded. Optionally, dropped
+// results that are plain arrays of doubles are written to files in a
+// directory and read back when they are needed again. The files stay valid
+// across runs of the app because their names are the keys.
+// The cache owns the results that it stores. Results that are AutoCloseable
+// are closed when they are dropped, replaced or cleared, so callers store a
+// copy and use copies of them, see get(Key, UnaryOperator).
+public class StageCache {
+
+	public static class Spec {
+		// Max number of bytes that the results in memory may take up.
+		public final long maxMemoryBytes;
+		// Directory that dropped results are written to or null to discard
+		// dropped results.
+		public final Path spillDir;
+		// Max number of bytes that the files in the spill directory may take up.
+		public final long maxSpillBytes;
+
+		public Spec(long maxMemoryBytes) {
+			this(maxMemoryBytes, null, 0);
+		}
+
+		public Spec(long maxMemoryBytes, Path spillDir, long maxSpillBytes) {
+			this.maxMemoryBytes = maxMemoryBytes;
+			this.spillDir = spillDir;
+			this.maxSpillBytes = maxSpillBytes;
+		}
+	}
+
+	///////////////
+
+	// Identifies a stage result by the hash of its inputs.
+	public static final class Key {
+		private final byte[] hash;
+
+		private Key(byte[] hash) {
+			this.hash = hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other)
+				return true;
+			if (other == null)
+				return false;
+			if (getClass() != other.getClass())
+				return false;
+			return Arrays.equals(hash, ((Key) other).hash);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(hash);
+		}
+
+		// Returns the hash as hex string.
+		@Override
+		public String toString() {
+			StringBuilder str = new StringBuilder(2 * hash.length);
+			for (byte b : hash)
+				str.append(String.format("%02x", b));
+			return str.toString();
+		}
+	}
+
+	///////////////
+
+	// Builds a key from the inputs of a stage.
+	public static class KeyBuilder {
+		private final MessageDigest digest;
+
+		// Starts a key for a stage with a given name.
+		public KeyBuilder(String stage) {
+			try {
+				this.digest = MessageDigest.getInstance(KEY_ALGORITHM);
+			} catch (NoSuchAlgorithmException e) {
+				// Every Java platform has to support the algorithm.
+				throw new IllegalStateException(e);
+			}
+			add(KEY_VERSION);
+			add(stage);
+		}
+
+		public KeyBuilder add(long val) {
+			for (int shift = 56; shift >= 0; shift -= 8)
+				digest.update((byte) (val >>> shift));
+			return this;
+		}
+
+		public KeyBuilder add(int val) {
+			return add((long) val);
+		}
+
+		public KeyBuilder add(double val) {
+			return add(Double.doubleToLongBits(val));
+		}
+
+		public KeyBuilder add(boolean val) {
+			return add(val ? 1L : 0L);
+		}
+
+		// Strings are prefixed with their length, so that consecutive strings
+		// cannot be confused with each other.
+		public KeyBuilder add(String val) {
+			byte[] bytes = val.getBytes(StandardCharsets.UTF_8);
+			add(bytes.length);
+			digest.update(bytes);
+			return this;
+		}
+
+		public KeyBuilder add(Enum<?> val) {
+			return add(val.name());
+		}
+
+		// Adds the key of a result that the stage consumes.
+		public KeyBuilder add(Key key) {
+			digest.update(key.hash);
+			return this;
+		}
+
+		public Key build() {
+			return new Key(digest.digest());
+		}
+	}
+
+	///////////////
+
+	// Result of a stage.
+	public static class Entry {
+		public final Object value;
+		// State of the random generator after the stage.
+		public final long rngStateAfter;
+		// Approx number of bytes that the value takes up.
+		private final long weight;
+
+		private Entry(Object value, long rngStateAfter, long weight) {
+			this.value = value;
+			this.rngStateAfter = rngStateAfter;
+			this.weight = weight;
+		}
+	}
+
+	///////////////
+
+	private static final String KEY_ALGORITHM = "SHA-256";
+	// Changes whenever stages produce different results for the same inputs, so
+	// that spilled results of earlier versions are not used.
+	private static final int KEY_VERSION = 1;
+	private static final String SPILL_FILE_EXT = ".stage";
+	private static final int SPILL_FILE_MAGIC = 0x53544745;
+	// Bytes per entry in addition to the value. Approximates the key, the
+	// entry object and the map's node.
+	private static final long ENTRY_OVERHEAD = 160;
+	private final Spec spec;
+	// Results in memory. Iterates from least to most recently used.
+	private final LinkedHashMap<Key, Entry> entries =
+			new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	private long memoryBytes = 0;
+	// Sizes of the files in the spill directory. Iterates from least to most
+	// recently used.
+	private final LinkedHashMap<Key, Long> spilled =
+			new LinkedHashMap<Key, Long>(16, 0.75f, true);
+	private long spillBytes = 0;
+	private int numHits = 0;
+	private int numMisses = 0;
+
+	public StageCache(Spec spec) {
+		this.spec = spec;
+		if (spec.spillDir != null)
+			indexSpillDir();
+	}
+
+	// Returns the default directory for spilled results.
+	public static Path defaultSpillDir() {
+		return Paths.get(System.getProperty("java.io.tmpdir"), "map-app",
+				"stages");
+	}
+
+	// Returns the result for a given key or null if it is not cached.
+	public synchronized Entry get(Key key) {
+		Entry entry = entries.get(key);
+		if (entry == null && spilled.containsKey(key)) {
+			entry = readSpilled(key);
+			if (entry != null && entry.weight <= spec.maxMemoryBytes)
+				store(key, entry);
+		}
+
+		if (entry != null)
+			++numHits;
+		else
+			++numMisses;
+		return entry;
+	}
+
+	// Returns the result for a given key with a copy of the value made by a
+	// given function or null if it is not cached. The value is copied before
+	// other threads can drop and close it.
+	public synchronized Entry get(Key key, UnaryOperator<Object> copy) {
+		Entry entry = get(key);
+		if (entry == null)
+			return null;
+		return new Entry(copy.apply(entry.value), entry.rngStateAfter,
+				entry.weight);
+	}
+
+	// Stores the result of a stage that takes up approx a given number of
+	// bytes. Results that are larger than the memory limit are spilled right
+	// away if possible. The cache takes ownership of the value.
+	public synchronized void put(Key key, Object value, long rngStateAfter,
+			long weight) {
+		Entry entry = new Entry(value, rngStateAfter, weight + ENTRY_OVERHEAD);
+		if (entry.weight > spec.maxMemoryBytes) {
+			spill(key, entry);
+			release(entry);
+		} else {
+			store(key, entry);
+		}
+	}
+
+	public synchronized void clear() {
+		for (Entry entry : entries.values())
+			release(entry);
+		entries.clear();
+		memoryBytes = 0;
+	}
+
+	public synchronized int countHits() {
+		return numHits;
+	}
+
+	public synchronized int countMisses() {
+		return numMisses;
+	}
+
+	public synchronized long memoryBytes() {
+		return memoryBytes;
+	}
+
+	// Stores a given entry in memory and drops the least recently used entries
+	// until the memory limit is kept.
+	private void store(Key key, Entry entry) {
+		Entry prev = entries.put(key, entry);
+		if (prev != null) {
+			memoryBytes -= prev.weight;
+			if (prev.value != entry.value)
+				release(prev);
+		}
+		memoryBytes += entry.weight;
+
+		Iterator<java.util.Map.Entry<Key, Entry>> it =
+				entries.entrySet().iterator();
+		while (memoryBytes > spec.maxMemoryBytes && it.hasNext()) {
+			java.util.Map.Entry<Key, Entry> eldest = it.next();
+			if (eldest.getKey().equals(key))
+				continue;
+			it.remove();
+			memoryBytes -= eldest.getValue().weight;
+			spill(eldest.getKey(), eldest.getValue());
+			release(eldest.getValue());
+		}
+	}
+
+	// Closes the value of an entry that the cache drops if it holds resources.
+	private static void release(Entry entry) {
+		if (!(entry.value instanceof AutoCloseable))
+			return;
+		try {
+			((AutoCloseable) entry.value).close();
+		} catch (Exception e) {
+			// The resources are freed when the value is collected.
+		}
+	}
+
+	// Writes an entry that is dropped from memory to the spill directory, if
+	// spilling is enabled and the entry's value can be written.
+	private void spill(Key key, Entry entry) {
+		if (spec.spillDir == null || !(entry.value instanceof double[]) ||
+				spilled.containsKey(key))
+			return;
+
+		double[] values = (double[]) entry.value;
+		Path file = spillFile(key);
+		try {
+			Files.createDirectories(spec.spillDir);
+			Path tmpFile = Files.createTempFile(spec.spillDir,
+					file.getFileName().toString(), ".tmp");
+			try {
+				try (DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+					out.writeInt(SPILL_FILE_MAGIC);
+					out.writeLong(entry.rngStateAfter);
+					out.writeInt(values.length);
+					for (double val : values)
+						out.writeDouble(val);
+				}
+				Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(tmpFile);
+			}
+			addSpilled(key, Files.size(file));
+		} catch (IOException e) {
+			// Spilling is optional. The entry is simply dropped.
+		}
+	}
+
+	// Reads a spilled entry. Returns null and forgets the file if it cannot be
+	// read.
+	private Entry readSpilled(Key key) {
+		Path file = spillFile(key);
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != SPILL_FILE_MAGIC)
+				throw new IOException("Not a stage file: " + file);
+			long rngStateAfter = in.readLong();
+			int numValues = in.readInt();
+			if (numValues < 0)
+				throw new IOException("Corrupt stage file: " + file);
+			double[] values = new double[numValues];
+			for (int i = 0; i < numValues; ++i)
+				values[i] = in.readDouble();
+			return new Entry(values, rngStateAfter,
+					8L * numValues + ENTRY_OVERHEAD);
+		} catch (IOException e) {
+			removeSpilled(key);
+			return null;
+		}
+	}
+
+	// Registers a spilled file and deletes the least recently used files until
+	// the spill limit is kept.
+	private void addSpilled(Key key, long size) {
+		Long prev = spilled.put(key, size);
+		if (prev != null)
+			spillBytes -= prev;
+		spillBytes += size;
+
+		while (spillBytes > spec.maxSpillBytes && !spilled.isEmpty())
+			removeSpilled(spilled.keySet().iterator().next());
+	}
+
+	private void removeSpilled(Key key) {
+		Long size = spilled.remove(key);
+		if (size != null)
+			spillBytes -= size;
+		try {
+			Files.deleteIfExists(spillFile(key));
+		} catch (IOException e) {
+			// Leave the file behind.
+		}
+	}
+
+	// Registers the files that are in the spill directory from earlier runs.
+	// Older files count as less recently used.
+	private void indexSpillDir() {
+		if (!Files.isDirectory(spec.spillDir))
+			return;
+
+		List<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> dir =
+				Files.newDirectoryStream(spec.spillDir, "*" + SPILL_FILE_EXT)) {
+			for (Path file : dir)
+				files.add(file);
+			files.sort((a, b) -> Long.compare(a.toFile().lastModified(),
+					b.toFile().lastModified()));
+			for (Path file : files) {
+				Key key = parseKey(file);
+				if (key != null)
+					addSpilled(key, Files.size(file));
+			}
+		} catch (IOException e) {
+			// Start without the files that were not indexed.
+		}
+	}
+
+	private Path spillFile(Key key) {
+		return spec.spillDir.resolve(key.toString() + SPILL_FILE_EXT);
+	}
+
+	// Returns the key that a given spill file is named after or null if the
+	// name is not a key.
+	private static Key parseKey(Path file) {
+		String name = file.getFileName().toString();
+		String hex = name.substring(0, name.length() - SPILL_FILE_EXT.length());
+		if (hex.length() % 2 != 0)
+			return null;
+
+		byte[] hash = new byte[hex.length() / 2];
+		for (int i = 0; i < hash.length; ++i) {
+			int hi = Character.digit(hex.charAt(2 * i), 16);
+			int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (hi < 0 || lo < 0)
+				return null;
+			hash[i] = (byte) ((hi << 4) | lo);
+		}
+		return new Key(hash);
+	}
+}
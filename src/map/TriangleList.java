@@ -0,0 +1,32 @@
+package map;
+
+import java.nio.DoubleBuffer;
+import java.util.AbstractList;
+
+import geometry.Point2D;
+import geometry.Triangle2D;
+
+
+// Triangulation that is kept as the coordinates of its vertices in a buffer,
+// six per triangle. Triangles are made when they are accessed.
+class TriangleList extends AbstractList<Triangle2D> {
+	private final DoubleBuffer coords;
+
+	public TriangleList(DoubleBuffer coords) {
+		this.coords = coords;
+	}
+
+	@Override
+	public Triangle2D get(int idx) {
+		final int base = 6 * idx;
+		return new Triangle2D(
+				new Point2D(coords.get(base), coords.get(base + 1)),
+				new Point2D(coords.get(base + 2), coords.get(base + 3)),
+				new Point2D(coords.get(base + 4), coords.get(base + 5)));
+	}
+
+	@Override
+	public int size() {
+		return coords.capacity() / 6;
+	}
+}
@@ -0,0 +1,13 @@
+package math;
+
+
+// Ways to provide the gradients of the grid points for Perlin noise.
+public enum PerlinGradients {
+	// A random gradient is stored for each grid point. Memory grows with the
+	// size of the noise domain.
+	Grid,
+	// Grid points are hashed with a random permutation table into a small set
+	// of random gradients. Memory is constant. The noise repeats after
+	// PerlinNoise.PERMUTATION_SIZE grid cells.
+	Permutation
+}
@@ -1,9 +1,12 @@
 package math;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import geometry.Point2D;
 import geometry.Vector2D;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
 
 // Implementation of Perlin noise algorithm.
 // Sources:
@@ -11,28 +14,57 @@ import geometry.Vector2D;
 //   https://flafla2.github.io/2014/08/09/perlinnoise.html
 public class PerlinNoise {
 
-	// Data needs for a grid node during the calculation.
-	private static class GridNode {
-		public final Point2D pos;
-		public final Vector2D gradient;
-		
-		public GridNode(Point2D pos, Vector2D gradient) {
-			this.pos = pos;
-			this.gradient = gradient;
-		}
-	}
-	
-	///////////////
-	
+	// Number of entries in the permutation table and of gradients for
+	// permutation-based gradients. Has to be a power of two.
+	public static final int PERMUTATION_SIZE = 512;
+	private static final int PERMUTATION_MASK = PERMUTATION_SIZE - 1;
+	// Vector shape used to calculate the noise for multiple points at once.
+	private static final VectorSpecies<Double> SPECIES =
+			DoubleVector.SPECIES_PREFERRED;
+	// Whether batches of points are calculated in vector lanes. Otherwise, or
+	// for the points that don't fill all lanes, the scalar kernel is used.
+	// Enabled with the system property mapapp.vectorNoise=true. Looking up the
+	// gradients takes most of the time and cannot be done in lanes, so the
+	// vector kernel is not faster on all machines.
+	private static final boolean IS_VECTORIZED =
+			SPECIES.length() > 1 && Boolean.getBoolean("mapapp.vectorNoise");
+	// Number of points whose grid cells and gradients are looked up before
+	// their noise is calculated in lanes. A multiple of the number of lanes of
+	// all vector shapes.
+	private static final int VECTOR_BLOCK_SIZE = 256;
 	private final int width;
 	private final int height;
-	// Random gradients for each grid point.
-	private final Vector2D gradients[][];
+	// Random gradients with the x and y components in separate arrays. For grid
+	// gradients there is one for each grid point stored row by row. For
+	// permutation gradients the grid points are mapped to them by hashing.
+	private final int gradientStride;
+	private final double[] gradientXs;
+	private final double[] gradientYs;
+	// Random permutation of the gradient indices. Stored twice in a row, so
+	// that hashing does not need to wrap indices around.
+	private final int[] permutation;
 	
 	public PerlinNoise(int width, int height, Random rand) {
+		this(width, height, rand, PerlinGradients.Grid);
+	}
+	
+	public PerlinNoise(int width, int height, Random rand,
+			PerlinGradients gradientMode) {
 		this.width = width;
 		this.height = height;
-		this.gradients = makeGradients(width + 1, height + 1, rand);
+		if (gradientMode == PerlinGradients.Permutation) {
+			this.gradientStride = 0;
+			this.gradientXs = new double[PERMUTATION_SIZE];
+			this.gradientYs = new double[PERMUTATION_SIZE];
+			makeGradients(rand);
+			this.permutation = makePermutation(rand);
+		} else {
+			this.gradientStride = width + 1;
+			this.gradientXs = new double[(height + 1) * gradientStride];
+			this.gradientYs = new double[(height + 1) * gradientStride];
+			makeGradients(rand);
+			this.permutation = null;
+		}
 	}
 	
 	// Calculates Perlin noise in range [-1, 1) at a given point in 2D range
@@ -50,7 +82,7 @@ public class PerlinNoise {
 	    double maxValue = 0;
 	    
 	    for(int i = 0; i < numOctaves; ++i) {
-	        total += calcNoise(at.scale(frequency)) * amplitude;
+	        total += calcNoise(at.x * frequency, at.y * frequency) * amplitude;
 	        maxValue += amplitude;
 	        
 	        amplitude *= persistence;
@@ -60,50 +92,254 @@ public class PerlinNoise {
 	    return total / maxValue;
 	}
 	
+	// Calculates the octave noise for multiple points at once. The coordinates
+	// of the points are passed in separate arrays. The noise values are written
+	// into a given output array of at least the same length.
+	// Produces the same values as calculating the noise for each point
+	// separately but processes all points octave by octave, which keeps the
+	// gradients of the current octave in the cache and does not allocate.
+	public void calcOctaveNoise(double[] xs, double[] ys, double[] out,
+			int numOctaves, double persistence) {
+		calcOctaveNoise(xs, ys, out, 0, xs.length, numOctaves, persistence);
+	}
+	
+	// Overload for a range [begin, end) of the points. Only writes the output
+	// for that range, so that ranges can be calculated concurrently.
+	public void calcOctaveNoise(double[] xs, double[] ys, double[] out,
+			int begin, int end, int numOctaves, double persistence) {
+		Arrays.fill(out, begin, end, 0);
+		
+	    double frequency = 1;
+	    double amplitude = 1;
+	    double maxValue = 0;
+	    
+	    for(int i = 0; i < numOctaves; ++i) {
+	    	calcNoise(xs, ys, out, begin, end, frequency, amplitude, true,
+	    			IS_VECTORIZED);
+	        maxValue += amplitude;
+	        
+	        amplitude *= persistence;
+	        frequency /= 2;
+	    }
+	    
+	    for (int p = begin; p < end; ++p)
+	    	out[p] /= maxValue;
+	}
+	
+	// Calculates the raw noise of a single octave for a range [begin, end) of
+	// points. Octave i evaluates the noise at the point coordinates scaled by
+	// 1/2^i. See combineOctaves.
+	public void calcOctave(double[] xs, double[] ys, double[] out, int begin,
+			int end, int octave) {
+		calcOctave(xs, ys, out, begin, end, octave, IS_VECTORIZED);
+	}
+	
+	// Overload that selects whether the vector kernel is used. Both kernels
+	// give the same values.
+	void calcOctave(double[] xs, double[] ys, double[] out, int begin, int end,
+			int octave, boolean isVectorized) {
+		calcNoise(xs, ys, out, begin, end, Math.scalb(1.0, -octave), 1, false,
+				isVectorized);
+	}
+	
+	// Combines the raw noise of the first given number of octaves, calculated
+	// with calcOctave, for a range [begin, end) of points. Gives the same
+	// values as calcOctaveNoise.
+	public static void combineOctaves(double[][] octaves, double[] out,
+			int begin, int end, int numOctaves, double persistence) {
+		Arrays.fill(out, begin, end, 0);
+		
+	    double amplitude = 1;
+	    double maxValue = 0;
+	    
+	    for(int i = 0; i < numOctaves; ++i) {
+	    	final double[] octave = octaves[i];
+	    	for (int p = begin; p < end; ++p)
+	    		out[p] += octave[p] * amplitude;
+	        maxValue += amplitude;
+	        
+	        amplitude *= persistence;
+	    }
+	    
+	    for (int p = begin; p < end; ++p)
+	    	out[p] /= maxValue;
+	}
+	
 	// Calculates Perlin noise value in range [-1, 1) at a given point in 2D range
 	// ([0, width], [0, height]). Caller is responsible for keeping input point in
 	// legal range.
 	public double calcNoise(Point2D at) {
+		return calcNoise(at.x, at.y);
+	}
+	
+	// Overload for coordinates.
+	public double calcNoise(double x, double y) {
 		// Determine grid cell that point falls into.
-		int gridLeft = (int) (at.x % width); 
-		int gridRight = gridLeft + 1; 
-		int gridTop = (int) (at.y % height); 
-		int gridBottom = gridTop + 1;
-		
-		// Collect data for each grid node that is involved in calculation.
-		final int numGridNodes = 4;
-		GridNode gridNode[] = new GridNode[] {
-			new GridNode(new Point2D(gridLeft, gridTop),
-					gradients[gridTop][gridLeft]),
-			new GridNode(new Point2D(gridRight, gridTop),
-					gradients[gridTop][gridRight]),
-			new GridNode(new Point2D(gridLeft, gridBottom),
-					gradients[gridBottom][gridLeft]),
-			new GridNode(new Point2D(gridRight, gridBottom),
-					gradients[gridBottom][gridRight])
-		};
+		int gridLeft = (int) wrap(x, width);
+		int gridTop = (int) wrap(y, height);
 		
-		// Calculate the influence that each grid node has on the result.
-		double[] influence = new double[numGridNodes];
-		for (int i = 0; i < numGridNodes; ++i) {
-			GridNode corner = gridNode[i];
-			Vector2D influenceVec = new Vector2D(corner.pos, at);
-			influence[i] = corner.gradient.dot(influenceVec);
+		// Calculate the influence that each grid node has on the result as the
+		// dot product of its gradient and the vector from the node to the point.
+		final double dxLeft = x - gridLeft;
+		final double dxRight = x - (gridLeft + 1);
+		final double dyTop = y - gridTop;
+		final double dyBottom = y - (gridTop + 1);
+		int topLeft;
+		int topRight;
+		int bottomLeft;
+		int bottomRight;
+		if (permutation != null) {
+			topLeft = hashGridPoint(gridLeft, gridTop);
+			topRight = hashGridPoint(gridLeft + 1, gridTop);
+			bottomLeft = hashGridPoint(gridLeft, gridTop + 1);
+			bottomRight = hashGridPoint(gridLeft + 1, gridTop + 1);
+		} else {
+			topLeft = gridTop * gradientStride + gridLeft;
+			topRight = topLeft + 1;
+			bottomLeft = topLeft + gradientStride;
+			bottomRight = bottomLeft + 1;
 		}
 		
+		double influenceTopLeft = gradientXs[topLeft] * dxLeft +
+				gradientYs[topLeft] * dyTop;
+		double influenceTopRight = gradientXs[topRight] * dxRight +
+				gradientYs[topRight] * dyTop;
+		double influenceBottomLeft = gradientXs[bottomLeft] * dxLeft +
+				gradientYs[bottomLeft] * dyBottom;
+		double influenceBottomRight = gradientXs[bottomRight] * dxRight +
+				gradientYs[bottomRight] * dyBottom;
+		
 		// Average/interpolate the influences of each grid node.
 		// Use a fade function to smooth the interpolation.
 		// First average horizontally.
-		double weightX = fade(at.x - gridLeft);
-		double avgTop = linearInterpolate(influence[0], influence[1], weightX);
-		double avgBottom = linearInterpolate(influence[2], influence[3], weightX);
+		double weightX = fade(dxLeft);
+		double avgTop = linearInterpolate(influenceTopLeft, influenceTopRight,
+				weightX);
+		double avgBottom = linearInterpolate(influenceBottomLeft,
+				influenceBottomRight, weightX);
 		// Then average the horizontal averages vertically.
-		double weightY = fade(at.y - gridTop);
+		double weightY = fade(dyTop);
 		double avg = linearInterpolate(avgTop, avgBottom, weightY);
 		
 		return avg;
 	}
 	
+	// Calculates the noise at the point coordinates scaled by a given frequency
+	// for a range [begin, end) of points. Either adds the noise times a given
+	// amplitude to the output or stores the noise as is.
+	// The vector kernel calculates the same steps as calcNoise(x, y) for
+	// multiple points in lanes. Only finding the grid cells and gradients is
+	// done per point. The arithmetic is done in the same order without fused
+	// operations, so the results are identical to the scalar kernel.
+	private void calcNoise(double[] xs, double[] ys, double[] out, int begin,
+			int end, double frequency, double amplitude, boolean isAdded,
+			boolean isVectorized) {
+		int p = begin;
+		if (isVectorized) {
+			final int numLanes = SPECIES.length();
+			// Grid cells and gradients of a block of points. The gradients are
+			// stored as rows of x and y components of the top left, top right,
+			// bottom left and bottom right grid node. They are looked up for the
+			// whole block first, so that the lanes are loaded from memory that
+			// is not being written anymore.
+			double[] lefts = new double[VECTOR_BLOCK_SIZE];
+			double[] tops = new double[VECTOR_BLOCK_SIZE];
+			double[] grads = new double[8 * VECTOR_BLOCK_SIZE];
+			while (end - p >= numLanes) {
+				final int blockSize = Math.min(VECTOR_BLOCK_SIZE,
+						(end - p) / numLanes * numLanes);
+				for (int i = 0; i < blockSize; ++i) {
+					final int gridLeft = (int) wrap(xs[p + i] * frequency, width);
+					final int gridTop = (int) wrap(ys[p + i] * frequency, height);
+					lefts[i] = gridLeft;
+					tops[i] = gridTop;
+					loadGradient(grads, 0, i, gradientIndex(gridLeft, gridTop));
+					loadGradient(grads, 2, i, gradientIndex(gridLeft + 1, gridTop));
+					loadGradient(grads, 4, i, gradientIndex(gridLeft, gridTop + 1));
+					loadGradient(grads, 6, i,
+							gradientIndex(gridLeft + 1, gridTop + 1));
+				}
+				
+				for (int i = 0; i < blockSize; i += numLanes, p += numLanes) {
+					DoubleVector x = DoubleVector.fromArray(SPECIES, xs, p).mul(frequency);
+					DoubleVector y = DoubleVector.fromArray(SPECIES, ys, p).mul(frequency);
+					DoubleVector left = DoubleVector.fromArray(SPECIES, lefts, i);
+					DoubleVector top = DoubleVector.fromArray(SPECIES, tops, i);
+					DoubleVector dxLeft = x.sub(left);
+					DoubleVector dxRight = x.sub(left.add(1));
+					DoubleVector dyTop = y.sub(top);
+					DoubleVector dyBottom = y.sub(top.add(1));
+					
+					DoubleVector influenceTopLeft = influence(grads, 0, i, dxLeft, dyTop);
+					DoubleVector influenceTopRight =
+							influence(grads, 2, i, dxRight, dyTop);
+					DoubleVector influenceBottomLeft =
+							influence(grads, 4, i, dxLeft, dyBottom);
+					DoubleVector influenceBottomRight =
+							influence(grads, 6, i, dxRight, dyBottom);
+					
+					DoubleVector weightX = fade(dxLeft);
+					DoubleVector avgTop = linearInterpolate(influenceTopLeft,
+							influenceTopRight, weightX);
+					DoubleVector avgBottom = linearInterpolate(influenceBottomLeft,
+							influenceBottomRight, weightX);
+					DoubleVector avg = linearInterpolate(avgTop, avgBottom, fade(dyTop));
+					
+					if (isAdded)
+						avg = DoubleVector.fromArray(SPECIES, out, p).add(avg.mul(amplitude));
+					avg.intoArray(out, p);
+				}
+			}
+		}
+		
+		for (; p < end; ++p) {
+			final double noise = calcNoise(xs[p] * frequency, ys[p] * frequency);
+			if (isAdded)
+				out[p] += noise * amplitude;
+			else
+				out[p] = noise;
+		}
+	}
+	
+	// Stores the gradient at a given index for a given point of a block. The x
+	// and y components go into given rows of the block's gradients.
+	private void loadGradient(double[] grads, int row, int point, int idx) {
+		grads[row * VECTOR_BLOCK_SIZE + point] = gradientXs[idx];
+		grads[(row + 1) * VECTOR_BLOCK_SIZE + point] = gradientYs[idx];
+	}
+	
+	// Returns the influences of the gradients in given rows of a block's
+	// gradients for the points in the lanes starting at a given point.
+	private static DoubleVector influence(double[] grads, int row, int point,
+			DoubleVector dx, DoubleVector dy) {
+		DoubleVector gradX = DoubleVector.fromArray(SPECIES, grads,
+				row * VECTOR_BLOCK_SIZE + point);
+		DoubleVector gradY = DoubleVector.fromArray(SPECIES, grads,
+				(row + 1) * VECTOR_BLOCK_SIZE + point);
+		return gradX.mul(dx).add(gradY.mul(dy));
+	}
+	
+	// Returns the index of the gradient for a given grid point.
+	private int gradientIndex(int col, int row) {
+		if (permutation != null)
+			return hashGridPoint(col, row);
+		return row * gradientStride + col;
+	}
+	
+	// Returns the index of the gradient for a given grid point when using
+	// permutation gradients.
+	private int hashGridPoint(int col, int row) {
+		return permutation[permutation[col & PERMUTATION_MASK] +
+				(row & PERMUTATION_MASK)];
+	}
+	
+	// Returns the remainder of a given value divided by a given size. Avoids
+	// the costly remainder operation for values that are smaller than the
+	// size, for which the result is the value itself.
+	private static double wrap(double val, int size) {
+		return (Math.abs(val) < size) ? val : val % size;
+	}
+	
 	// S-shaped fade curve for weighted interpolation.
 	private static double fade(double t) {
 		// f(t) = 6t^5-15t^4+10t^3
@@ -112,18 +348,45 @@ public class PerlinNoise {
 //		return t * t * (3 - 2 * t);
 	}
 	
+	// Overload for vectors.
+	private static DoubleVector fade(DoubleVector t) {
+		return t.mul(t).mul(t).mul(t.mul(t.mul(6).sub(15)).add(10));
+	}
+	
 	// Linear interpolation between two values at a given ratio.
 	private static double linearInterpolate(double a, double b, double ratio) {
 		return a + ratio * (b - a);
 	}
 	
+	// Overload for vectors.
+	private static DoubleVector linearInterpolate(DoubleVector a, DoubleVector b,
+			DoubleVector ratio) {
+		return a.add(ratio.mul(b.sub(a)));
+	}
+	
 	// Generates random gradient vectors at each grid point.
-	private static Vector2D[][] makeGradients(int width, int height, Random rand) {
-		var grads = new Vector2D[height][width];
-		for (int r = 0; r < height; ++r)
-			for (int c = 0; c < width; ++c)
-				grads[r][c] = makeGradient(rand);
-		return grads;
+	private void makeGradients(Random rand) {
+		for (int i = 0; i < gradientXs.length; ++i) {
+			Vector2D grad = makeGradient(rand);
+			gradientXs[i] = grad.x;
+			gradientYs[i] = grad.y;
+		}
+	}
+	
+	// Generates a random permutation of the gradient indices and stores it
+	// twice in a row.
+	private static int[] makePermutation(Random rand) {
+		int[] perm = new int[2 * PERMUTATION_SIZE];
+		for (int i = 0; i < PERMUTATION_SIZE; ++i)
+			perm[i] = i;
+		for (int i = PERMUTATION_SIZE - 1; i > 0; --i) {
+			int j = rand.nextInt(i + 1);
+			int tmp = perm[i];
+			perm[i] = perm[j];
+			perm[j] = tmp;
+		}
+		System.arraycopy(perm, 0, perm, PERMUTATION_SIZE, PERMUTATION_SIZE);
+		return perm;
 	}
 	
 	// Generates a normalized non-zero gradient vector.
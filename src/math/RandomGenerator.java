@@ -5,15 +5,17 @@ import java.util.Random;
 public class RandomGenerator {
 
 	private long seed;
-	private Random rand;
+	// Generates the same values as java.util.Random but allows to cache
+	// results of calculations by the state of the generator.
+	private SnapshotRandom rand;
 	
 	public RandomGenerator(long seed) {
 		this.seed = seed;
-		this.rand = new Random(seed);
+		this.rand = new SnapshotRandom(seed);
 	}
 
 	public RandomGenerator() {
-		this(new Random().nextLong());
+		this(newSeed());
 	}
 	
 	public long seed() {
@@ -37,7 +39,12 @@ public class RandomGenerator {
 	}
 	
 	public void reset() {
-		seed = new Random().nextLong();
-		rand = new Random(seed);
+		seed = newSeed();
+		rand = new SnapshotRandom(seed);
+	}
+	
+	// Returns a fresh seed that does not depend on any generator's state.
+	public static long newSeed() {
+		return new Random().nextLong();
 	}
 }
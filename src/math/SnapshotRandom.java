@@ -0,0 +1,93 @@
+package math;
+
+import java.util.Random;
+
+
+// Random generator whose state can be read and restored.
+// Produces the same sequences as java.util.Random for the same seed, but
+// keeps the state of the linear congruential generator in a field that can be
+// accessed. This allows to identify the state of the generator before a step
+// of a calculation and to continue with the state after the step without
+// repeating it.
+// Not thread-safe, unlike java.util.Random.
+public class SnapshotRandom extends Random {
+
+	private static final long serialVersionUID = 1L;
+	// Parameters of the generator. Same as for java.util.Random.
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	private static final long ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+	// The state is set by setSeed(), which the base class constructor calls
+	// before the fields of this class would be initialized. Therefore it must
+	// not have an initializer.
+	private long state;
+	// Second value generated by the last call to nextGaussian().
+	private double nextGaussian;
+	private boolean haveNextGaussian;
+
+	public SnapshotRandom(long seed) {
+		super(seed);
+	}
+
+	public SnapshotRandom() {
+		this(new Random().nextLong());
+	}
+
+	// Returns a generator that continues with the same sequence as this one
+	// without affecting it.
+	public SnapshotRandom copy() {
+		SnapshotRandom other = new SnapshotRandom(0);
+		other.state = state;
+		other.nextGaussian = nextGaussian;
+		other.haveNextGaussian = haveNextGaussian;
+		return other;
+	}
+
+	// Returns the state of the generator. Does not include a value that is
+	// pending from a previous call to nextGaussian().
+	public long state() {
+		return state;
+	}
+
+	// Continues the sequence from a given state. Discards a value that is
+	// pending from a previous call to nextGaussian().
+	public void restore(long state) {
+		this.state = state & MASK;
+		this.haveNextGaussian = false;
+	}
+
+	@Override
+	public void setSeed(long seed) {
+		super.setSeed(seed);
+		state = (seed ^ MULTIPLIER) & MASK;
+		haveNextGaussian = false;
+	}
+
+	@Override
+	protected int next(int bits) {
+		state = (state * MULTIPLIER + ADDEND) & MASK;
+		return (int) (state >>> (48 - bits));
+	}
+
+	// Same algorithm as java.util.Random, so that the values are the same. Has
+	// to be overridden to be able to discard the pending value when restoring
+	// the state.
+	@Override
+	public double nextGaussian() {
+		if (haveNextGaussian) {
+			haveNextGaussian = false;
+			return nextGaussian;
+		}
+
+		double v1, v2, s;
+		do {
+			v1 = 2 * nextDouble() - 1;
+			v2 = 2 * nextDouble() - 1;
+			s = v1 * v1 + v2 * v2;
+		} while (s >= 1 || s == 0);
+		double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+		nextGaussian = v2 * multiplier;
+		haveNextGaussian = true;
+		return v1 * multiplier;
+	}
+}
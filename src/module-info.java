@@ -5,4 +5,6 @@ module mapapp {
 	requires org.lwjgl.stb;
 	requires org.joml;
 	requires java.desktop;
+	requires jdk.incubator.vector;
+	requires jdk.incubator.foreign;
 }
\ No newline at end of file
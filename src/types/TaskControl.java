@@ -0,0 +1,96 @@
+package types;
+
+import java.util.concurrent.CancellationException;
+import java.util.function.Supplier;
+
+// Lets a long running task be cancelled and report its progress.
+// The task checks at regular points whether it was cancelled and stops by
+// throwing a CancellationException. It reports which stage it is in and how
+// far the stage has progressed. Other threads cancel the task and read its
+// progress.
+// While a task runs, its control is the current control of the thread that
+// runs it. Calculations pick up the current control when they start, so that
+// it does not have to be passed through every constructor, and check it from
+// whichever threads they use, e.g. the threads of a ForkJoinPool.
+public class TaskControl {
+
+	// Control that is current when no task runs. Cannot be cancelled and
+	// ignores progress.
+	public static final TaskControl NONE = new TaskControl();
+	private static final ThreadLocal<TaskControl> current =
+			ThreadLocal.withInitial(() -> NONE);
+	private volatile boolean isCancelled = false;
+	private volatile String stage = "";
+	// Progress of the current stage from 0 to 1.
+	private volatile double progress = 0;
+
+	// Returns the control of the task that runs on the calling thread.
+	public static TaskControl current() {
+		return current.get();
+	}
+
+	// Runs a given task on the calling thread with this control as current
+	// control. Returns the task's result.
+	public <T> T run(Supplier<T> task) {
+		TaskControl prev = current.get();
+		current.set(this);
+		try {
+			return task.get();
+		} finally {
+			current.set(prev);
+		}
+	}
+
+	public void run(Runnable task) {
+		run(() -> {
+			task.run();
+			return null;
+		});
+	}
+
+	public void cancel() {
+		if (this != NONE)
+			isCancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return isCancelled;
+	}
+
+	// Stops the task by throwing a CancellationException if it was cancelled.
+	public void checkCancelled() {
+		if (isCancelled)
+			throw new CancellationException();
+	}
+
+	// Starts a new stage of the task. Also a point to stop at.
+	public void beginStage(String name) {
+		checkCancelled();
+		if (this == NONE)
+			return;
+		progress = 0;
+		stage = name;
+	}
+
+	// Sets the progress of the current stage from 0 to 1. Also a point to stop
+	// at.
+	public void setProgress(double fraction) {
+		checkCancelled();
+		if (this != NONE)
+			progress = fraction;
+	}
+
+	// Sets the progress of the current stage to a given number of finished
+	// steps out of a given total.
+	public void setProgress(long numDone, long numTotal) {
+		setProgress(numTotal > 0 ? (double) numDone / numTotal : 0);
+	}
+
+	public String stage() {
+		return stage;
+	}
+
+	public double progress() {
+		return progress;
+	}
+}
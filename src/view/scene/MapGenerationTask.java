@@ -1,37 +1,184 @@
 package view.scene;
 
+import java.nio.file.Path;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import map.Map;
 import map.MapGenerator;
+import map.PerlinTopography;
+import map.StageCache;
+import types.TaskControl;
 
+// Runs map generation in the background.
+// Generating is a pipeline of stages on a single background thread: loading
+// the map's snapshot, generating the map if it was not loaded and saving its
+// snapshot. The map is available as soon as it is generated, saving happens
+// afterwards. Starting a new generation cancels the running one, which stops
+// at its next check of the task control, see TaskControl. It also cancels
+// saving the previous map, so that the new generation does not wait for it.
+// A cancelled save deletes its partial file.
 public class MapGenerationTask {
 
-	private MapGenerator gen;
-	private Thread thread;
+	///////////////
+
+	// Coarse version of the map that is generated and the vertex data of its
+	// mesh.
+	public static class Preview {
+		public final Map map;
+		public final MapMeshBuilder.Data meshData;
+
+		public Preview(Map map, MapMeshBuilder.Data meshData) {
+			this.map = map;
+			this.meshData = meshData;
+		}
+	}
+
+	///////////////
+
+	// Runs the stages of all generations one after the other. Cancelled
+	// generations stop quickly, so a new generation does not wait long.
+	private static final ExecutorService executor =
+			Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "map-generation");
+				thread.setDaemon(true);
+				return thread;
+			});
+	private TaskControl control;
+	// Control of saving the latest generated map or null. Saving outlasts
+	// the generation, so it is controlled separately.
+	private TaskControl saveControl;
+	// Result of the running generation or null.
+	private CompletableFuture<Map> result;
+	// Latest preview of the running generation that was not taken yet. null
+	// if the generation makes no previews.
+	private AtomicReference<Preview> preview;
 
 	public void start(Map.Spec spec, Random rand) {
-		gen = new MapGenerator(spec, rand);
-		thread = new Thread(gen);
-		thread.start();
+		start(spec, rand, null);
+	}
+
+	// Starts generating a map that reuses results of generation stages from a
+	// given cache.
+	public void start(Map.Spec spec, Random rand, StageCache cache) {
+		start(spec, rand, cache, null, 0);
+	}
+
+	// Starts generating a map that is loaded from or saved to a snapshot in a
+	// given directory. See MapGenerator.
+	public void start(Map.Spec spec, Random rand, StageCache cache,
+			Path snapshotDir, long seed) {
+		start(spec, rand, cache, snapshotDir, seed, new double[0], null);
 	}
 	
+	// Starts generating a map progressively. While the map is generated,
+	// coarse versions of it with the min sample distance larger by given
+	// factors become available as previews, see takePreview(). The vertex
+	// data of their meshes is made by a given function on the background
+	// thread. See MapGenerator.setProgressive().
+	public void start(Map.Spec spec, Random rand, StageCache cache,
+			Path snapshotDir, long seed, double[] previewDistFactors,
+			Function<Map, MapMeshBuilder.Data> previewMesher) {
+		MapGenerator gen = new MapGenerator(spec, rand, cache, snapshotDir, seed);
+		AtomicReference<Preview> genPreview = null;
+		if (previewMesher != null && previewDistFactors.length > 0) {
+			final AtomicReference<Preview> latest = new AtomicReference<Preview>();
+			gen.setProgressive(previewDistFactors, coarse -> {
+				TaskControl.current().beginStage("Building preview");
+				latest.set(new Preview(coarse, previewMesher.apply(coarse)));
+			});
+			genPreview = latest;
+		}
+		startPipeline(gen);
+		preview = genPreview;
+	}
+
+	// Starts regenerating the topography of a given map while keeping its
+	// geometry.
+	public void startRetopograph(Map map, PerlinTopography.Spec topoSpec,
+			Random rand) {
+		startPipeline(new MapGenerator(map, topoSpec, rand));
+	}
+
 	public boolean hasStarted() {
-		return gen != null;
+		return result != null;
 	}
-	
+
 	public boolean hasFinished() {
 		if (!hasStarted())
 			return false;
-		return !thread.isAlive();
+		return result.isDone();
 	}
-	
+
+	// Returns the generated map or null if generating has not finished or
+	// failed.
 	public map.Map map() {
-		return (gen != null) ? gen.map() : null;
+		if (!hasFinished() || result.isCompletedExceptionally())
+			return null;
+		return result.join();
+	}
+
+	// Takes the latest preview of the running generation. Returns null if
+	// there is no new preview.
+	public Preview takePreview() {
+		return (preview != null) ? preview.getAndSet(null) : null;
 	}
 	
+	// Returns the stage that the running generation is in and its progress
+	// as text or an empty string.
+	public String statusText() {
+		if (control == null || control.stage().isEmpty())
+			return "";
+		return String.format("%s... %d%%", control.stage(),
+				Math.round(100 * control.progress()));
+	}
+
+	// Stops the running generation and saving the latest map. The
+	// generation's result is dropped.
+	public void cancel() {
+		if (control != null)
+			control.cancel();
+		if (saveControl != null)
+			saveControl.cancel();
+		saveControl = null;
+		clean();
+	}
+
 	public void clean() {
-		gen = null;
-		thread = null;
+		control = null;
+		result = null;
+		preview = null;
+	}
+
+	// Closes a given map once the stages that were started before are done,
+	// e.g. stages of a cancelled generation that still use the map. See
+	// Map.close().
+	public void closeWhenIdle(Map map) {
+		executor.execute(map::close);
+	}
+
+	private void startPipeline(MapGenerator gen) {
+		cancel();
+		TaskControl genControl = new TaskControl();
+		TaskControl genSaveControl = new TaskControl();
+		CompletableFuture<Map> loaded = CompletableFuture.supplyAsync(
+				() -> genControl.run(gen::load), executor);
+		CompletableFuture<Map> generated = loaded.thenApplyAsync(
+				map -> (map != null) ? map : genControl.run(gen::generate),
+				executor);
+		// Saving does not hold up the result.
+		generated.thenRunAsync(() -> genSaveControl.run(gen::save), executor);
+		generated.whenComplete((map, e) -> {
+			if (e != null && !(e.getCause() instanceof CancellationException))
+				e.printStackTrace();
+		});
+		control = genControl;
+		saveControl = genSaveControl;
+		result = generated;
 	}
 }
@@ -5,7 +5,6 @@ import java.util.List;
 
 import org.joml.Vector3f;
 
-import geometry.Point2D;
 import map.MapNode;
 import map.MapTile;
 import types.Triple;
@@ -34,6 +33,34 @@ public class MapMeshBuilder {
 	
 	///////////////
 	
+	// Vertex data of a mesh. Unlike the mesh itself, it can be built on any
+	// thread. Making the mesh from it has to happen on the OpenGL thread.
+	public static class Data {
+		public final float[] vertices;
+		public final float[] normals;
+		public final int[] indices;
+		public final float[] colors;
+		
+		public Data(float[] vertices, float[] normals, int[] indices,
+				float[] colors) {
+			this.vertices = vertices;
+			this.normals = normals;
+			this.indices = indices;
+			this.colors = colors;
+		}
+		
+		public Mesh makeMesh() {
+			return new Mesh(vertices, normals, indices, null, colors);
+		}
+		
+		public long byteSize() {
+			return 4L * (vertices.length + normals.length + indices.length +
+					colors.length);
+		}
+	}
+	
+	///////////////
+	
 	private final map.Map map;
 	private final Spec spec;
 	// Min value and range of the 3D x coordinates.
@@ -57,6 +84,11 @@ public class MapMeshBuilder {
 	}
 	
 	public Mesh build() {
+		return buildData().makeMesh();
+	}
+	
+	// Builds the vertex data of the mesh without making the mesh.
+	public Data buildData() {
 		// Coordinates of all 3D vertices in x, y, z order.
 		// The order of the vertices does not matter. The rendering is
 		// determined by the indices array.
@@ -79,14 +111,15 @@ public class MapMeshBuilder {
 			MapTile tile = map.tile(i);
 			
 			// Add tile seed to 3D vertices. 
-			int seedIdx = addVertexCoords(tile.seed, tile.elevation(), vertices);
+			int seedIdx = addVertexCoords(tile.seedX(), tile.seedY(),
+					tile.elevation(), vertices);
 			
 			// Add tile nodes to 3D vertices. 
 			int firstNodeIdx = nextVertexIndex(vertices);
 			int numNodes = tile.countNodes();
 			for (int j = 0; j < numNodes; ++j) {
 				MapNode node = tile.node(j);
-				addVertexCoords(node.pos, node.elevation(), vertices);
+				addVertexCoords(node.x(), node.y(), node.elevation(), vertices);
 			}
 			int lastNodeIdx = lastVertexIndex(vertices);
 			
@@ -107,22 +140,22 @@ public class MapMeshBuilder {
 			addTileColors(vertices, seedIdx, colors);
 		}
 		
-		return new Mesh(
+		return new Data(
 				ConversionUtil.toFloatArray(vertices),
 				ConversionUtil.toFloatArray(normals),
 				ConversionUtil.toIntArray(indices),
-				null,
 				ConversionUtil.toFloatArray(colors));
 	}
 	
 	// Adds the 3D coordinates of a given 2D map point to the vertex list. 
-	private int addVertexCoords(Point2D pt, double elev, List<Float> vertices) {
+	private int addVertexCoords(double x, double y, double elev,
+			List<Float> vertices) {
 		// 2D x -> 3D x
-		vertices.add(interpolateX(pt.x));
+		vertices.add(interpolateX(x));
 		// 2D elevation -> 3D y
 		vertices.add(interpolateY(elev));
 		// 2D y -> 3D z
-		vertices.add(interpolateZ(pt.y));
+		vertices.add(interpolateZ(y));
 		return lastVertexIndex(vertices);
 	}
 	
@@ -0,0 +1,207 @@
+package view.scene;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Function;
+
+import map.Map;
+import map.MapGenerator;
+import math.RandomGenerator;
+import types.TaskControl;
+
+// Generates maps ahead of time, so that a new map can be shown without waiting
+// for it to be generated. Keeps a number of maps with fresh seeds and the
+// vertex data of their meshes ready and generates new ones whenever a map is
+// taken. Generating runs on a low priority background thread and pauses while
+// the app generates a map itself. The parallel stages of generating run in a
+// pool of low priority threads if the map spec passes it, see pool().
+public class MapPregenerationQueue {
+
+	///////////////
+
+	public static class Spec {
+		public final Map.Spec mapSpec;
+		// Makes the spec of a map's mesh from the random generator that the
+		// map was generated with.
+		public final Function<Random, MapMeshBuilder.Spec> meshSpecMaker;
+		// Number of maps that are kept ready.
+		public final int numMaps;
+		// Approx number of bytes that the ready maps and the vertex data of
+		// their meshes may take up.
+		public final long maxBytes;
+		// Directory that maps are loaded from and saved to or null. See
+		// MapSnapshot.
+		public final Path snapshotDir;
+
+		public Spec(Map.Spec mapSpec,
+				Function<Random, MapMeshBuilder.Spec> meshSpecMaker, int numMaps,
+				long maxBytes) {
+			this(mapSpec, meshSpecMaker, numMaps, maxBytes, null);
+		}
+
+		public Spec(Map.Spec mapSpec,
+				Function<Random, MapMeshBuilder.Spec> meshSpecMaker, int numMaps,
+				long maxBytes, Path snapshotDir) {
+			this.mapSpec = mapSpec;
+			this.meshSpecMaker = meshSpecMaker;
+			this.numMaps = numMaps;
+			this.maxBytes = maxBytes;
+			this.snapshotDir = snapshotDir;
+		}
+	}
+
+	///////////////
+
+	// Map that is ready to be shown.
+	public static class Entry {
+		// Generator that the map was generated with. It is in the state after
+		// generating the map and making the spec of its mesh.
+		public final RandomGenerator randGen;
+		public final Map map;
+		public final MapMeshBuilder.Data meshData;
+		// Approx number of bytes that the map and the vertex data take up.
+		// Estimated once, so that the same size is added to and subtracted from
+		// the budget even if the map's estimate changes in between, e.g. when
+		// lookups of its storage are built.
+		private final long byteSize;
+
+		private Entry(RandomGenerator randGen, Map map,
+				MapMeshBuilder.Data meshData) {
+			this.randGen = randGen;
+			this.map = map;
+			this.meshData = meshData;
+			this.byteSize = map.estimateBytes() + meshData.byteSize();
+		}
+
+		public long byteSize() {
+			return byteSize;
+		}
+	}
+
+	///////////////
+
+	private static final ExecutorService executor =
+			Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "map-pregeneration");
+				thread.setPriority(Thread.MIN_PRIORITY);
+				thread.setDaemon(true);
+				return thread;
+			});
+	private static final ForkJoinPool pool = new ForkJoinPool(
+			ForkJoinPool.getCommonPoolParallelism(), forkJoinPool -> {
+				ForkJoinWorkerThread thread = ForkJoinPool
+						.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+				thread.setName("map-pregeneration-" + thread.getPoolIndex());
+				thread.setPriority(Thread.MIN_PRIORITY);
+				thread.setDaemon(true);
+				return thread;
+			}, null, false);
+	private final Spec spec;
+	private final Deque<Entry> ready = new ArrayDeque<Entry>();
+	private long readyBytes = 0;
+	// Size of the most recently generated entry. Estimates the size of the
+	// next one.
+	private long lastEntryBytes = 0;
+	private boolean isPaused = false;
+	// Control of the running generation or null.
+	private TaskControl control = null;
+
+	// Constructs an empty queue. Generating starts when the queue is resumed
+	// or a map is taken.
+	public MapPregenerationQueue(Spec spec) {
+		this.spec = spec;
+	}
+
+	// Returns the pool that the parallel stages of pregenerated maps should run
+	// in. Its threads have the lowest priority, so that they do not compete
+	// with the app, unlike the threads of the common pool.
+	public static ForkJoinPool pool() {
+		return pool;
+	}
+
+	// Takes the next ready map. Returns null if no map is ready.
+	public synchronized Entry poll() {
+		Entry entry = ready.poll();
+		if (entry != null)
+			readyBytes -= entry.byteSize();
+		refill();
+		return entry;
+	}
+
+	public synchronized int countReady() {
+		return ready.size();
+	}
+
+	// Stops generating maps until the queue is resumed. The running
+	// generation is cancelled. Ready maps are kept.
+	public synchronized void pause() {
+		isPaused = true;
+		if (control != null)
+			control.cancel();
+		control = null;
+	}
+
+	public synchronized void resume() {
+		isPaused = false;
+		refill();
+	}
+
+	// Starts generating another map unless enough maps are ready or the next
+	// map would likely exceed the memory budget.
+	private synchronized void refill() {
+		if (isPaused || control != null || ready.size() >= spec.numMaps ||
+				readyBytes + lastEntryBytes > spec.maxBytes)
+			return;
+
+		TaskControl genControl = new TaskControl();
+		control = genControl;
+		CompletableFuture.supplyAsync(
+				() -> genControl.run(this::generateEntry), executor)
+				.whenComplete((entry, e) -> finishEntry(genControl, entry, e));
+	}
+
+	private Entry generateEntry() {
+		long seed = RandomGenerator.newSeed();
+		RandomGenerator randGen = new RandomGenerator(seed);
+		MapGenerator gen = new MapGenerator(spec.mapSpec, randGen.rand(), null,
+				spec.snapshotDir, seed);
+		gen.run();
+
+		MapMeshBuilder.Spec meshSpec = spec.meshSpecMaker.apply(randGen.rand());
+		TaskControl.current().beginStage("Building map mesh");
+		MapMeshBuilder.Data meshData =
+				new MapMeshBuilder(gen.map(), meshSpec).buildData();
+		return new Entry(randGen, gen.map(), meshData);
+	}
+
+	// Adds a generated map to the ready maps if it fits into the memory budget
+	// and continues generating. Stops generating after a failure until the
+	// next map is taken or the queue is resumed.
+	private synchronized void finishEntry(TaskControl genControl, Entry entry,
+			Throwable e) {
+		if (control == genControl)
+			control = null;
+		if (e != null) {
+			if (!(e.getCause() instanceof CancellationException))
+				e.printStackTrace();
+			return;
+		}
+
+		lastEntryBytes = entry.byteSize();
+		if (readyBytes + lastEntryBytes <= spec.maxBytes) {
+			ready.add(entry);
+			readyBytes += lastEntryBytes;
+		} else {
+			entry.map.close();
+		}
+		refill();
+	}
+}
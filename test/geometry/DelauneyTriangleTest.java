@@ -0,0 +1,36 @@
+package geometry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class DelauneyTriangleTest {
+
+	@Test
+	void rejectsCollinearTriangle() {
+		Triangle2D line = new Triangle2D(new Point2D(0, 0), new Point2D(1, 1),
+				new Point2D(3, 3));
+		assertThrows(IllegalArgumentException.class, () -> new DelauneyTriangle(line));
+	}
+
+	@Test
+	void rejectsTriangleWithRepeatedVertex() {
+		Triangle2D line = new Triangle2D(new Point2D(0, 0), new Point2D(0, 0),
+				new Point2D(2, 1));
+		assertThrows(IllegalArgumentException.class, () -> new DelauneyTriangle(line));
+	}
+
+	@Test
+	void calculatesCircumcircle() {
+		DelauneyTriangle t = new DelauneyTriangle(new Triangle2D(new Point2D(0, 0),
+				new Point2D(2, 0), new Point2D(0, 2)));
+		assertEquals(1.0, t.circumcenter().x, 1e-12);
+		assertEquals(1.0, t.circumcenter().y, 1e-12);
+		assertEquals(Math.sqrt(2), t.circumcircleRadius(), 1e-12);
+		assertTrue(t.isPointInCircumcircle(new Point2D(2, 2)));
+		assertFalse(t.isPointInCircumcircle(new Point2D(2.5, 2)));
+	}
+}
@@ -0,0 +1,314 @@
+package geometry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class DynamicDelauneyTriangulationTest {
+
+	// Grid points are on common circles and on lines with the hull edges.
+	private static final int GRID_SIZE = 12;
+	private static final int INITIAL_GRID_SIZE = 5;
+	private static final int NUM_STEPS = 1500;
+	// Keeps enough samples that they are not all on a line.
+	private static final int MIN_LIVE_SAMPLES = 8;
+
+	@Test
+	void staysDelauneyWhenChangingGridPoints() {
+		Random rand = new Random(5);
+		DynamicDelauneyTriangulation triang =
+				new DynamicDelauneyTriangulation(makeGrid(INITIAL_GRID_SIZE));
+		assertValid(triang);
+
+		for (int step = 0; step < NUM_STEPS; ++step) {
+			Point2D pt = new Point2D(rand.nextInt(GRID_SIZE), rand.nextInt(GRID_SIZE));
+			if (triang.findSample(pt) == -1)
+				assertInsertion(triang, pt);
+			else if (countLiveSamples(triang) > MIN_LIVE_SAMPLES)
+				assertRemoval(triang, triang.findSample(pt));
+		}
+	}
+
+	@Test
+	void staysDelauneyWhenChangingRandomPoints() {
+		Random rand = new Random(6);
+		List<Point2D> samples = new ArrayList<Point2D>();
+		for (int i = 0; i < 20; ++i)
+			samples.add(new Point2D(rand.nextDouble() * 10, rand.nextDouble() * 10));
+		DynamicDelauneyTriangulation triang =
+				new DynamicDelauneyTriangulation(samples);
+		assertValid(triang);
+
+		for (int step = 0; step < NUM_STEPS; ++step) {
+			if (rand.nextBoolean() || countLiveSamples(triang) <= MIN_LIVE_SAMPLES) {
+				// Some points are inserted outside of the current hull.
+				assertInsertion(triang, new Point2D(rand.nextDouble() * 14 - 2,
+						rand.nextDouble() * 14 - 2));
+			} else {
+				assertRemoval(triang, pickLiveSample(triang, rand));
+			}
+		}
+	}
+
+	@Test
+	void insertsOutsideOfHull() {
+		DynamicDelauneyTriangulation triang =
+				new DynamicDelauneyTriangulation(makeGrid(3));
+		// Outside of a corner, outside of an edge and far away so that the
+		// whole hull is visible.
+		assertInsertion(triang, new Point2D(3, 3));
+		assertInsertion(triang, new Point2D(1, -2));
+		assertInsertion(triang, new Point2D(-50, 40));
+		assertEquals(12, countLiveSamples(triang));
+	}
+
+	@Test
+	void insertsCollinearWithHullEdges() {
+		DynamicDelauneyTriangulation triang =
+				new DynamicDelauneyTriangulation(makeGrid(3));
+		// On the extension of the bottom and left hull edges.
+		assertInsertion(triang, new Point2D(3, 0));
+		assertInsertion(triang, new Point2D(5, 0));
+		assertInsertion(triang, new Point2D(0, -1));
+		// On the extension of a diagonal hull edge that the previous points
+		// made.
+		assertInsertion(triang, new Point2D(-1, -2));
+		assertEquals(13, countLiveSamples(triang));
+	}
+
+	@Test
+	void removesHullSamples() {
+		final int size = 4;
+		DynamicDelauneyTriangulation triang =
+				new DynamicDelauneyTriangulation(makeGrid(size));
+		// Corners first, then the remaining samples on the hull edges.
+		int[] hullSamples = { 0, size - 1, size * size - 1, size * (size - 1), 1,
+				2 * size, size * size - 2, 2 * size - 1 };
+		for (int sample : hullSamples) {
+			assertRemoval(triang, sample);
+			assertTrue(triang.isSampleRemoved(sample));
+		}
+		assertEquals(size * size - hullSamples.length, countLiveSamples(triang));
+	}
+
+	@Test
+	void ignoresExistingAndMissingSamples() {
+		DynamicDelauneyTriangulation triang =
+				new DynamicDelauneyTriangulation(makeGrid(3));
+		DynamicDelauneyTriangulation.Change change =
+				triang.insert(new Point2D(1, 1));
+		assertEquals(4, change.sample);
+		assertTrue(change.isEmpty());
+		assertEquals(null, triang.remove(new Point2D(7, 7)));
+		assertValid(triang);
+	}
+
+	// Inserts a point and checks the change and the resulting triangulation.
+	private static void assertInsertion(DynamicDelauneyTriangulation triang,
+			Point2D pt) {
+		HashMap<List<Integer>, Integer> before = collectTriangles(triang);
+		DynamicDelauneyTriangulation.Change change = triang.insert(pt);
+		assertEquals(change.sample, triang.findSample(pt));
+		assertFalse(change.isEmpty());
+		assertChange(before, change, triang);
+		assertValid(triang);
+	}
+
+	// Removes a sample and checks the change and the resulting triangulation.
+	private static void assertRemoval(DynamicDelauneyTriangulation triang,
+			int sample) {
+		assertNotEquals(-1, sample);
+		HashMap<List<Integer>, Integer> before = collectTriangles(triang);
+		DynamicDelauneyTriangulation.Change change = triang.remove(sample);
+		assertEquals(sample, change.sample);
+		assertEquals(-1, triang.findSample(triang.sample(sample)));
+		assertChange(before, change, triang);
+		assertValid(triang);
+	}
+
+	// Checks that the triangles before a change without the removed triangles
+	// and with the added triangles are the triangles after the change, and
+	// that the vertices of all changed triangles are reported as affected.
+	private static void assertChange(HashMap<List<Integer>, Integer> before,
+			DynamicDelauneyTriangulation.Change change,
+			DynamicDelauneyTriangulation triang) {
+		List<Integer> affected = new ArrayList<Integer>();
+		for (int sample : change.affectedSamples)
+			affected.add(sample);
+
+		HashMap<List<Integer>, Integer> expected = new HashMap<>(before);
+		for (int i = 0; i < change.removedTriangles.length; i += 3) {
+			List<Integer> key = makeKey(change.removedTriangles[i],
+					change.removedTriangles[i + 1], change.removedTriangles[i + 2]);
+			assertNotNull(expected.get(key), "Removed triangle did not exist");
+			expected.merge(key, -1, Integer::sum);
+			expected.remove(key, 0);
+			for (int sample : key)
+				assertTrue(affected.contains(sample));
+		}
+		for (int t : change.addedTriangles) {
+			assertFalse(triang.isTriangleRemoved(t));
+			List<Integer> key = makeKey(triang.triangleVertex(t, 0),
+					triang.triangleVertex(t, 1), triang.triangleVertex(t, 2));
+			expected.merge(key, 1, Integer::sum);
+			for (int sample : key)
+				assertTrue(affected.contains(sample));
+		}
+		assertEquals(collectTriangles(triang), expected);
+	}
+
+	// Checks that the triangles are ccw, linked consistently, locally Delauney
+	// and cover the convex hull of the live samples exactly, and that each
+	// live sample and no removed sample is a vertex.
+	private static void assertValid(DynamicDelauneyTriangulation triang) {
+		boolean[] isVertex = new boolean[triang.countSamples()];
+		double area = 0;
+		for (int t = 0; t < triang.countTriangleEntries(); ++t) {
+			if (triang.isTriangleRemoved(t))
+				continue;
+			int[] v = { triang.triangleVertex(t, 0), triang.triangleVertex(t, 1),
+					triang.triangleVertex(t, 2) };
+			assertTrue(orient(triang, v[0], v[1], v[2]) > 0, "Triangle not ccw");
+			area += orient(triang, v[0], v[1], v[2]) / 2;
+
+			for (int i = 0; i < 3; ++i) {
+				isVertex[v[i]] = true;
+				final int neighbor = triang.adjacentTriangle(t, i);
+				if (neighbor == -1)
+					continue;
+				assertFalse(triang.isTriangleRemoved(neighbor));
+
+				// The neighbor shares the edge in the opposite direction.
+				final int start = v[i];
+				final int end = v[(i + 1) % 3];
+				int shared = -1;
+				for (int j = 0; j < 3; ++j)
+					if (triang.triangleVertex(neighbor, j) == end &&
+							triang.triangleVertex(neighbor, (j + 1) % 3) == start)
+						shared = j;
+				assertNotEquals(-1, shared, "Neighbor does not share edge");
+				assertEquals(t, triang.adjacentTriangle(neighbor, shared));
+
+				final int opposite = triang.triangleVertex(neighbor, (shared + 2) % 3);
+				assertTrue(inCircle(triang, v[0], v[1], v[2], opposite) >= 0,
+						"Edge is not locally Delauney");
+			}
+		}
+
+		for (int i = 0; i < triang.countSamples(); ++i)
+			assertEquals(!triang.isSampleRemoved(i), isVertex[i]);
+		assertEquals(calcHullArea(triang), area, 1e-9);
+	}
+
+	// Returns the number of times that each live triangle exists by its
+	// vertices.
+	private static HashMap<List<Integer>, Integer> collectTriangles(
+			DynamicDelauneyTriangulation triang) {
+		HashMap<List<Integer>, Integer> result = new HashMap<>();
+		for (int t = 0; t < triang.countTriangleEntries(); ++t) {
+			if (!triang.isTriangleRemoved(t))
+				result.merge(makeKey(triang.triangleVertex(t, 0),
+						triang.triangleVertex(t, 1), triang.triangleVertex(t, 2)),
+						1, Integer::sum);
+		}
+		return result;
+	}
+
+	// Makes a key for a triangle that does not depend on which vertex comes
+	// first.
+	private static List<Integer> makeKey(int a, int b, int c) {
+		if (b < a && b < c)
+			return Arrays.asList(b, c, a);
+		if (c < a && c < b)
+			return Arrays.asList(c, a, b);
+		return Arrays.asList(a, b, c);
+	}
+
+	// Calculates the area of the convex hull of the live samples.
+	private static double calcHullArea(DynamicDelauneyTriangulation triang) {
+		List<Point2D> points = new ArrayList<Point2D>();
+		for (int i = 0; i < triang.countSamples(); ++i)
+			if (!triang.isSampleRemoved(i))
+				points.add(triang.sample(i));
+		points.sort((a, b) -> (a.x != b.x) ? Double.compare(a.x, b.x) :
+				Double.compare(a.y, b.y));
+
+		// Monotone chain.
+		Point2D[] hull = new Point2D[2 * points.size()];
+		int n = 0;
+		for (int pass = 0; pass < 2; ++pass) {
+			final int lowerSize = n;
+			for (int i = 0; i < points.size(); ++i) {
+				Point2D pt = points.get((pass == 0) ? i : points.size() - 1 - i);
+				while (n >= lowerSize + 2 &&
+						cross(hull[n - 2], hull[n - 1], pt) <= 0)
+					--n;
+				hull[n++] = pt;
+			}
+			--n;
+		}
+
+		double area = 0;
+		for (int i = 0; i < n; ++i) {
+			Point2D a = hull[i];
+			Point2D b = hull[(i + 1) % n];
+			area += a.x * b.y - b.x * a.y;
+		}
+		return Math.abs(area) / 2;
+	}
+
+	private static double cross(Point2D a, Point2D b, Point2D c) {
+		return (b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x);
+	}
+
+	private static double orient(DynamicDelauneyTriangulation triang, int a,
+			int b, int c) {
+		return Predicates2D.orient(triang.sampleX(a), triang.sampleY(a),
+				triang.sampleX(b), triang.sampleY(b), triang.sampleX(c),
+				triang.sampleY(c));
+	}
+
+	private static double inCircle(DynamicDelauneyTriangulation triang, int a,
+			int b, int c, int p) {
+		return Predicates2D.inCircle(triang.sampleX(a), triang.sampleY(a),
+				triang.sampleX(b), triang.sampleY(b), triang.sampleX(c),
+				triang.sampleY(c), triang.sampleX(p), triang.sampleY(p));
+	}
+
+	private static int countLiveSamples(DynamicDelauneyTriangulation triang) {
+		int count = 0;
+		for (int i = 0; i < triang.countSamples(); ++i)
+			if (!triang.isSampleRemoved(i))
+				++count;
+		return count;
+	}
+
+	private static int pickLiveSample(DynamicDelauneyTriangulation triang,
+			Random rand) {
+		while (true) {
+			int sample = rand.nextInt(triang.countSamples());
+			if (!triang.isSampleRemoved(sample))
+				return sample;
+		}
+	}
+
+	// Makes a square grid of points with unit spacing. The point in row r and
+	// column c has index r * size + c.
+	private static List<Point2D> makeGrid(int size) {
+		List<Point2D> points = new ArrayList<Point2D>();
+		for (int row = 0; row < size; ++row)
+			for (int col = 0; col < size; ++col)
+				points.add(new Point2D(col, row));
+		return points;
+	}
+}
@@ -0,0 +1,67 @@
+package geometry;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// Measures the speedup of the parallel sweep-hull triangulation, see
+// StripTriangulation, over the sequential SweepHullTriangulation for each
+// number of threads from 1 to the number of cores. Also reports whether each
+// run gives the same triangles, half-edges and hull as the sequential one.
+// Arguments: number of points (default 1000000), number of repetitions
+// (default 3), max number of threads (default number of cores).
+public class StripTriangulationBenchmark {
+
+	public static void main(String[] args) {
+		final int numPoints = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		final int numRepetitions = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+		final int maxThreads = (args.length > 2) ? Integer.parseInt(args[2]) :
+				Runtime.getRuntime().availableProcessors();
+
+		Random rand = new Random(1);
+		PointSet points = new PointSet(numPoints);
+		for (int i = 0; i < numPoints; ++i)
+			points.add(rand.nextDouble() * 2000, rand.nextDouble() * 1000);
+
+		SweepHullTriangulation sequential = new SweepHullTriangulation(points, null);
+		final double sequentialMs = measure(sequential, numRepetitions);
+		System.out.printf("%d points, %d cores%n", numPoints,
+				Runtime.getRuntime().availableProcessors());
+		System.out.printf("sequential: %.1f ms%n", sequentialMs);
+
+		for (int numThreads = 1; numThreads <= maxThreads; ++numThreads) {
+			ForkJoinPool pool = new ForkJoinPool(numThreads);
+			SweepHullTriangulation parallel = new SweepHullTriangulation(points, pool);
+			final double parallelMs = measure(parallel, numRepetitions);
+			pool.shutdown();
+
+			System.out.printf("%d threads: %.1f ms, speedup %.2f, identical %b%n",
+					numThreads, parallelMs, sequentialMs / parallelMs,
+					isIdentical(sequential, parallel));
+		}
+	}
+
+	// Returns the fastest time of a number of runs of a given triangulation in
+	// milliseconds. Runs once more before to warm up. Only the indexed result
+	// is built, so that the times do not include making triangle objects.
+	private static double measure(SweepHullTriangulation triangulation,
+			int numRepetitions) {
+		triangulation.triangulateIndexed();
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < numRepetitions; ++i) {
+			final long start = System.nanoTime();
+			triangulation.triangulateIndexed();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / 1e6;
+	}
+
+	private static boolean isIdentical(SweepHullTriangulation a,
+			SweepHullTriangulation b) {
+		final int numEntries = 3 * a.countTriangles();
+		return a.countTriangles() == b.countTriangles() &&
+				Arrays.equals(a.triangles(), 0, numEntries, b.triangles(), 0, numEntries) &&
+				Arrays.equals(a.halfedges(), 0, numEntries, b.halfedges(), 0, numEntries) &&
+				Arrays.equals(a.hull(), b.hull());
+	}
+}
@@ -0,0 +1,80 @@
+package geometry;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+class StripTriangulationTest {
+
+	// Enough points for several strips and two levels of merges.
+	private static final int NUM_RANDOM_POINTS = 120000;
+	// Grid points lie on common circles and on the hull edges.
+	private static final int GRID_SIZE = 320;
+	// Points close to a circle make thin triangles with huge circumcircles
+	// along the hull.
+	private static final int NUM_DISC_POINTS = 60000;
+	private static final int NUM_RIM_POINTS = 2000;
+	private static final double DISC_RADIUS = 1000;
+
+	@Test
+	void matchesSequentialTriangulationOfRandomPoints() {
+		Random rand = new Random(1);
+		PointSet points = new PointSet(NUM_RANDOM_POINTS);
+		for (int i = 0; i < NUM_RANDOM_POINTS; ++i)
+			points.add(rand.nextDouble() * 2000, rand.nextDouble() * 1000);
+		assertMatchesSequential(points);
+	}
+
+	@Test
+	void matchesSequentialTriangulationOfGrid() {
+		PointSet points = new PointSet(GRID_SIZE * GRID_SIZE);
+		for (int row = 0; row < GRID_SIZE; ++row)
+			for (int col = 0; col < GRID_SIZE; ++col)
+				points.add(col, row);
+		assertMatchesSequential(points);
+	}
+
+	@Test
+	void matchesSequentialTriangulationOfDiscWithRim() {
+		Random rand = new Random(2);
+		PointSet points = new PointSet(NUM_DISC_POINTS);
+		for (int i = 0; i < NUM_RIM_POINTS; ++i) {
+			final double angle = 2 * Math.PI * i / NUM_RIM_POINTS;
+			final double r = DISC_RADIUS - 0.01 * rand.nextDouble();
+			points.add(r * Math.cos(angle), r * Math.sin(angle));
+		}
+		while (points.size() < NUM_DISC_POINTS) {
+			final double x = (2 * rand.nextDouble() - 1) * DISC_RADIUS;
+			final double y = (2 * rand.nextDouble() - 1) * DISC_RADIUS;
+			if (x * x + y * y < 0.98 * DISC_RADIUS * DISC_RADIUS)
+				points.add(x, y);
+		}
+		assertMatchesSequential(points);
+	}
+
+	private static void assertMatchesSequential(PointSet points) {
+		SweepHullTriangulation sequential = new SweepHullTriangulation(points, null);
+		sequential.triangulateIndexed();
+
+		// The result does not depend on the number of threads.
+		for (int numThreads : new int[] { 1, 4 }) {
+			ForkJoinPool pool = new ForkJoinPool(numThreads);
+			SweepHullTriangulation parallel = new SweepHullTriangulation(points, pool);
+			parallel.triangulateIndexed();
+			pool.shutdown();
+
+			final int numEntries = 3 * sequential.countTriangles();
+			assertEquals(sequential.countTriangles(), parallel.countTriangles());
+			assertArrayEquals(Arrays.copyOf(sequential.triangles(), numEntries),
+					Arrays.copyOf(parallel.triangles(), numEntries));
+			assertArrayEquals(Arrays.copyOf(sequential.halfedges(), numEntries),
+					Arrays.copyOf(parallel.halfedges(), numEntries));
+			assertArrayEquals(sequential.hull(), parallel.hull());
+		}
+	}
+}
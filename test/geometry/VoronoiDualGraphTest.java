@@ -0,0 +1,70 @@
+package geometry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class VoronoiDualGraphTest {
+
+	private static final int GRID_SIZE = 6;
+
+	// On a regular grid each square of points is split into two triangles with
+	// the same circumcenter. The cells have one vertex per square.
+	@Test
+	void mergesEqualCircumcentersOnGrid() {
+		VoronoiDualGraph graph = new VoronoiDualGraph(triangulateGrid());
+		VoronoiDualGraph.Cell cell = new VoronoiDualGraph.Cell();
+
+		for (int row = 0; row < GRID_SIZE; ++row) {
+			for (int col = 0; col < GRID_SIZE; ++col) {
+				assertTrue(graph.findCell(row * GRID_SIZE + col, cell));
+				boolean isInterior = row > 0 && row < GRID_SIZE - 1 && col > 0 &&
+						col < GRID_SIZE - 1;
+				boolean isCorner = (row == 0 || row == GRID_SIZE - 1) &&
+						(col == 0 || col == GRID_SIZE - 1);
+				int numSquares = isInterior ? 4 : (isCorner ? 1 : 2);
+				assertEquals(!isInterior, cell.isOpen);
+				assertEquals(numSquares, cell.numTriangles);
+
+				// The vertices are the centers of the squares around the point.
+				for (int i = 0; i < cell.numTriangles; ++i) {
+					int t = cell.triangles[i];
+					assertEquals(0.5, Math.abs(graph.vertexX(t) - col), 1e-9);
+					assertEquals(0.5, Math.abs(graph.vertexY(t) - row), 1e-9);
+				}
+			}
+		}
+	}
+
+	// The rays of unbounded cells are perpendicular to the hull, so they have
+	// to start at the vertices next to the hull edges.
+	@Test
+	void keepsRaysOfMergedHullCells() {
+		VoronoiDualGraph graph = new VoronoiDualGraph(triangulateGrid());
+		VoronoiDualGraph.Cell cell = new VoronoiDualGraph.Cell();
+
+		// Point on the top edge of the grid.
+		assertTrue(graph.findCell(2, cell));
+		assertTrue(cell.isOpen);
+		assertEquals(2, cell.numTriangles);
+		assertEquals(0.0, cell.firstRayX, 1e-9);
+		assertEquals(0.0, cell.lastRayX, 1e-9);
+		assertTrue(cell.firstRayY < 0 && cell.lastRayY < 0);
+		assertEquals(1.0, Math.abs(graph.vertexX(cell.triangles[0]) -
+				graph.vertexX(cell.triangles[1])), 1e-9);
+	}
+
+	private static SweepHullTriangulation triangulateGrid() {
+		double[] coords = new double[2 * GRID_SIZE * GRID_SIZE];
+		for (int row = 0; row < GRID_SIZE; ++row) {
+			for (int col = 0; col < GRID_SIZE; ++col) {
+				coords[2 * (row * GRID_SIZE + col)] = col;
+				coords[2 * (row * GRID_SIZE + col) + 1] = row;
+			}
+		}
+		SweepHullTriangulation triangulation = new SweepHullTriangulation(coords);
+		triangulation.run();
+		return triangulation;
+	}
+}
@@ -0,0 +1,232 @@
+package map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import geometry.Point2D;
+import geometry.Polygon2D;
+import geometry.Rect2D;
+import geometry.Triangle2D;
+import math.FpUtil;
+import math.SnapshotRandom;
+
+class MapArchiveTest {
+
+	private static final Path MAPPED_FILE_DIR = Paths.get(
+			System.getProperty("java.io.tmpdir"), "map-app", "storage");
+	private static final Rect2D BOUNDS = new Rect2D(0, 0, 100, 80);
+	// Small blocks, so that each section has several of them.
+	private static final int ENTRIES_PER_BLOCK = 100;
+	// Offset of the number of nodes in the header.
+	private static final int NUM_NODES_OFFSET = 40;
+
+	@Test
+	void roundTripsOnHeapAndOffHeap() throws IOException {
+		Map map = makeMap(1);
+		for (MapStorageMode mode : new MapStorageMode[] { MapStorageMode.Heap,
+				MapStorageMode.OffHeap }) {
+			for (boolean isCompressed : new boolean[] { false, true }) {
+				byte[] bytes = write(isCompressed, map.representation());
+				Map.Representation read = MapArchive.read(
+						new ByteArrayInputStream(bytes), mode);
+				assertEquals(mode, read.storage().mode());
+				assertDecoded(map.representation(), read);
+				read.close();
+			}
+		}
+		map.close();
+	}
+
+	@Test
+	void compressedArchivesAreSmaller() throws IOException {
+		Map map = makeMap(1);
+		assertEquals(true, write(true, map.representation()).length <
+				write(false, map.representation()).length);
+		map.close();
+	}
+
+	@Test
+	void readsMultipleMapsFromOneStream() throws IOException {
+		Map first = makeMap(1);
+		Map second = makeMap(2);
+		MapArchive archive = new MapArchive(
+				new MapArchive.Spec(true, ENTRIES_PER_BLOCK));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		archive.write(out, first);
+		archive.write(out, second);
+
+		InputStream in = new ByteArrayInputStream(out.toByteArray());
+		Map.Representation readFirst = MapArchive.read(in, MapStorageMode.Heap);
+		Map.Representation readSecond = MapArchive.read(in, MapStorageMode.Heap);
+		assertEquals(-1, in.read());
+		assertDecoded(first.representation(), readFirst);
+		assertDecoded(second.representation(), readSecond);
+		first.close();
+		second.close();
+	}
+
+	@Test
+	void keepsTriangleVerticesThatAreNotSeeds() throws IOException {
+		MapStorage.Builder builder = new MapStorage.Builder();
+		int a = builder.addTile(new Point2D(1, 1), new Polygon2D(Arrays.asList(
+				new Point2D(0, 0), new Point2D(3, 0), new Point2D(0, 3))));
+		int b = builder.addTile(new Point2D(2, 2), new Polygon2D(Arrays.asList(
+				new Point2D(3, 0), new Point2D(3, 3), new Point2D(0, 3))));
+		builder.connectTiles(a, b);
+		List<Triangle2D> triangles = Arrays.asList(
+				new Triangle2D(new Point2D(1, 1), new Point2D(2, 2),
+						new Point2D(-5.25, 7.5)),
+				new Triangle2D(new Point2D(-5.25, 7.5), new Point2D(40, -3),
+						new Point2D(2, 2)));
+		Map.Representation rep = new Map.Representation(
+				builder.build(), triangles);
+		rep.storage().setTileElevation(a, 0.5);
+		rep.setElevationLimits(-1, 1);
+
+		for (boolean isCompressed : new boolean[] { false, true }) {
+			Map.Representation read = MapArchive.read(new ByteArrayInputStream(
+					write(isCompressed, rep)), MapStorageMode.OffHeap);
+			assertDecoded(rep, read);
+			read.close();
+		}
+	}
+
+	@Test
+	void rejectsTruncatedArchives() throws IOException {
+		Map map = makeMap(1);
+		for (boolean isCompressed : new boolean[] { false, true }) {
+			byte[] bytes = write(isCompressed, map.representation());
+			for (int length : new int[] { 0, 20, NUM_NODES_OFFSET + 30,
+					bytes.length / 2, bytes.length - 1 })
+				assertRejected(Arrays.copyOf(bytes, length));
+		}
+		map.close();
+	}
+
+	@Test
+	void rejectsCorruptArchives() throws IOException {
+		Map map = makeMap(1);
+		for (boolean isCompressed : new boolean[] { false, true }) {
+			byte[] bytes = write(isCompressed, map.representation());
+
+			byte[] badMagic = bytes.clone();
+			badMagic[0] ^= 1;
+			assertRejected(badMagic);
+
+			// The blocks hold fewer nodes than the header.
+			byte[] badCount = bytes.clone();
+			ByteBuffer.wrap(badCount).putInt(NUM_NODES_OFFSET,
+					map.representation().countNodes() + 1);
+			assertRejected(badCount);
+
+			// The first block is larger than its stored bytes claim.
+			byte[] badBlock = bytes.clone();
+			final int headerSize = NUM_NODES_OFFSET + 6 * 4;
+			ByteBuffer.wrap(badBlock).putInt(headerSize + 4, Integer.MAX_VALUE);
+			assertRejected(badBlock);
+
+			// Garbage in each block's data.
+			byte[] garbage = bytes.clone();
+			for (int i = headerSize + 8; i < garbage.length; i += 97)
+				garbage[i] = (byte) 0xFF;
+			assertRejected(garbage);
+		}
+		map.close();
+	}
+
+	// Checks that a given archive cannot be read and that reading it leaves no
+	// files behind.
+	private static void assertRejected(byte[] bytes) throws IOException {
+		final long numFilesBefore = countMappedFiles();
+		assertThrows(IOException.class, () -> MapArchive.read(
+				new ByteArrayInputStream(bytes), MapStorageMode.FileMapped));
+		assertEquals(numFilesBefore, countMappedFiles());
+	}
+
+	// Checks that a read representation equals the written one up to the
+	// quantization of positions and elevations.
+	private static void assertDecoded(Map.Representation expected,
+			Map.Representation actual) {
+		final double posTolerance = FpUtil.globalFpThreshold();
+		final double elevTolerance = (expected.maxElevation() -
+				expected.minElevation()) / 0xFFFF;
+		MapStorage exp = expected.storage();
+		MapStorage act = actual.storage();
+		assertEquals(exp.countNodes(), act.countNodes());
+		assertEquals(exp.countTiles(), act.countTiles());
+		assertEquals(expected.minElevation(), actual.minElevation());
+		assertEquals(expected.maxElevation(), actual.maxElevation());
+
+		DoubleBuffer[] expDoubles = exp.doubleBuffers();
+		DoubleBuffer[] actDoubles = act.doubleBuffers();
+		for (int b = 0; b < expDoubles.length; ++b) {
+			final boolean isElevation = (b == 2 || b == 5);
+			assertEquals(expDoubles[b].capacity(), actDoubles[b].capacity());
+			for (int i = 0; i < expDoubles[b].capacity(); ++i)
+				assertEquals(expDoubles[b].get(i), actDoubles[b].get(i),
+						isElevation ? elevTolerance : posTolerance);
+		}
+
+		IntBuffer[] expInts = exp.intBuffers();
+		IntBuffer[] actInts = act.intBuffers();
+		for (int b = 0; b < expInts.length; ++b)
+			assertArrayEquals(toArray(expInts[b]), toArray(actInts[b]));
+
+		assertEquals(expected.countTriangles(), actual.countTriangles());
+		for (int t = 0; t < expected.countTriangles(); ++t) {
+			for (int v = 0; v < 3; ++v) {
+				Point2D expVertex = expected.triangle(t).vertex(v);
+				Point2D actVertex = actual.triangle(t).vertex(v);
+				assertEquals(expVertex.x, actVertex.x, posTolerance);
+				assertEquals(expVertex.y, actVertex.y, posTolerance);
+			}
+		}
+	}
+
+	private static byte[] write(boolean isCompressed, Map.Representation rep)
+			throws IOException {
+		MapArchive archive = new MapArchive(
+				new MapArchive.Spec(isCompressed, ENTRIES_PER_BLOCK));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		archive.write(out, rep);
+		return out.toByteArray();
+	}
+
+	private static Map makeMap(long seed) {
+		Map map = new Map(new Map.Spec(new MapGeometryGenerator.Spec(BOUNDS, 2, 20),
+				new PerlinTopography.Spec(BOUNDS, 4, 2)), new SnapshotRandom(seed));
+		map.generate();
+		return map;
+	}
+
+	private static int[] toArray(IntBuffer buf) {
+		int[] values = new int[buf.capacity()];
+		buf.get(0, values);
+		return values;
+	}
+
+	private static long countMappedFiles() throws IOException {
+		if (!Files.isDirectory(MAPPED_FILE_DIR))
+			return 0;
+		try (Stream<Path> files = Files.list(MAPPED_FILE_DIR)) {
+			return files.count();
+		}
+	}
+}
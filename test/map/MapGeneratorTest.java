@@ -0,0 +1,87 @@
+package map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import geometry.Rect2D;
+import math.SnapshotRandom;
+import types.TaskControl;
+
+class MapGeneratorTest {
+
+	private static final Rect2D BOUNDS = new Rect2D(0, 0, 100, 80);
+	private static final long SEED = 4;
+
+	@Test
+	void cancelledSaveLeavesNoFile() throws IOException {
+		Path dir = Files.createTempDirectory("map-generator-test");
+		MapGenerator gen = new MapGenerator(makeSpec(), new SnapshotRandom(SEED),
+				null, dir, SEED);
+		gen.generate();
+
+		assertThrows(CancellationException.class,
+				() -> makeCancellingControl().run(gen::save));
+		assertEquals(0, countFiles(dir));
+
+		gen.save();
+		assertEquals(1, countFiles(dir));
+		MapSnapshot snapshot = MapSnapshot.load(
+				MapSnapshot.fileFor(dir, makeSpec(), SEED), makeSpec(), SEED);
+		assertEquals(gen.map().countTiles(), snapshot.map.countTiles());
+
+		snapshot.map.close();
+		Files.delete(MapSnapshot.fileFor(dir, makeSpec(), SEED));
+		Files.delete(dir);
+	}
+
+	@Test
+	void cancelledRetopographKeepsSpec() {
+		Map map = new Map(makeSpec(), new SnapshotRandom(SEED));
+		map.generate();
+		PerlinTopography.Spec topoSpec = map.spec().topo;
+
+		PerlinTopography.Spec newTopoSpec = new PerlinTopography.Spec(BOUNDS, 6, 3);
+		assertThrows(CancellationException.class, () -> makeCancellingControl()
+				.run(() -> map.retopograph(newTopoSpec, new SnapshotRandom(SEED))));
+		assertSame(topoSpec, map.spec().topo);
+		assertThrows(CancellationException.class, () -> makeCancellingControl()
+				.run(() -> map.retopograph(6, 3)));
+		assertSame(topoSpec, map.spec().topo);
+
+		map.retopograph(newTopoSpec, new SnapshotRandom(SEED));
+		assertSame(newTopoSpec, map.spec().topo);
+		map.close();
+	}
+
+	private static Map.Spec makeSpec() {
+		return new Map.Spec(new MapGeometryGenerator.Spec(BOUNDS, 2, 20),
+				new PerlinTopography.Spec(BOUNDS, 4, 2));
+	}
+
+	// Returns a control that cancels the task as soon as saving started, so
+	// that it stops while writing the file.
+	private static TaskControl makeCancellingControl() {
+		return new TaskControl() {
+			@Override
+			public void beginStage(String name) {
+				super.beginStage(name);
+				cancel();
+			}
+		};
+	}
+
+	private static long countFiles(Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.count();
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import geometry.Point2D;
+import geometry.Rect2D;
+import geometry.SamplingAlgorithm;
+import geometry.TriangulationAlgorithm;
+import math.SnapshotRandom;
+
+class MapGeometryEditorTest {
+
+	private static final Rect2D BOUNDS = new Rect2D(0, 0, 100, 80);
+	private static final long SEED = 4;
+
+	@Test
+	void insertedTileMatchesRegeneratedMap() {
+		Map map = makeMap(MapStorageMode.OffHeap);
+		List<Point2D> seeds = collectSeeds(map.representation().storage());
+		double[] elevs = collectTileElevations(map.representation().storage());
+		MapGeometryEditor editor = new MapGeometryEditor(map);
+
+		Point2D seed = new Point2D(50.3, 40.7);
+		assertTrue(editor.insertTile(seed));
+		assertFalse(editor.insertTile(seed));
+		seeds.add(seed);
+		MapStorage storage = map.representation().storage();
+		assertEquals(MapStorageMode.OffHeap, storage.mode());
+		assertSameGeometry(regenerate(map, seeds), storage);
+
+		// Tiles that existed keep their elevations. The new tile's elevation is
+		// between those of its neighbors.
+		for (int i = 0; i < elevs.length; ++i) {
+			Point2D prevSeed = seeds.get(i);
+			assertEquals(elevs[i], storage.tileElevation(
+					storage.findTile(prevSeed.x, prevSeed.y)));
+		}
+		MapTile inserted = map.representation().findTileAt(seed);
+		double minNeighborElev = Double.MAX_VALUE;
+		double maxNeighborElev = -Double.MAX_VALUE;
+		for (int i = 0; i < inserted.countNeighbors(); ++i) {
+			minNeighborElev = Math.min(minNeighborElev,
+					inserted.neighbor(i).elevation());
+			maxNeighborElev = Math.max(maxNeighborElev,
+					inserted.neighbor(i).elevation());
+		}
+		assertTrue(inserted.elevation() >= minNeighborElev);
+		assertTrue(inserted.elevation() <= maxNeighborElev);
+		map.close();
+	}
+
+	@Test
+	void removedTilesMatchRegeneratedMap() {
+		Map map = makeMap(MapStorageMode.Heap);
+		MapStorage storage = map.representation().storage();
+		List<Point2D> seeds = collectSeeds(storage);
+		// Remove a tile inside the map and the tile at its left border.
+		Point2D inner = seeds.get(0);
+		for (Point2D seed : seeds)
+			if (Math.abs(seed.x - 50) + Math.abs(seed.y - 40) <
+					Math.abs(inner.x - 50) + Math.abs(inner.y - 40))
+				inner = seed;
+		Point2D outer = seeds.get(0);
+		for (Point2D seed : seeds)
+			if (seed.x < outer.x)
+				outer = seed;
+		MapGeometryEditor editor = new MapGeometryEditor(map);
+
+		assertTrue(editor.removeTile(inner));
+		assertTrue(editor.removeTile(outer));
+		assertFalse(editor.removeTile(inner));
+		seeds.remove(inner);
+		seeds.remove(outer);
+		assertSameGeometry(regenerate(map, seeds), map.representation().storage());
+		map.close();
+	}
+
+	@Test
+	void removingInsertedTileRestoresMap() {
+		Map map = makeMap(MapStorageMode.Heap);
+		List<Point2D> seeds = collectSeeds(map.representation().storage());
+		double[] elevs = collectTileElevations(map.representation().storage());
+		MapGeometryEditor editor = new MapGeometryEditor(map);
+
+		Point2D seed = new Point2D(20.1, 60.2);
+		assertTrue(editor.insertTile(seed));
+		assertNotEquals(seeds.size(), map.countTiles());
+		assertTrue(editor.removeTile(seed));
+		MapStorage storage = map.representation().storage();
+		assertSameGeometry(regenerate(map, seeds), storage);
+		for (int i = 0; i < elevs.length; ++i) {
+			Point2D prevSeed = seeds.get(i);
+			assertEquals(elevs[i], storage.tileElevation(
+					storage.findTile(prevSeed.x, prevSeed.y)));
+		}
+		map.close();
+	}
+
+	private static Map makeMap(MapStorageMode mode) {
+		MapGeometryGenerator.Spec geom = new MapGeometryGenerator.Spec(BOUNDS, 2,
+				20, TriangulationAlgorithm.SweepHull, SamplingAlgorithm.Bridson,
+				mode);
+		Map map = new Map(new Map.Spec(geom, new PerlinTopography.Spec(BOUNDS,
+				4, 2)), new SnapshotRandom(SEED));
+		map.generate();
+		return map;
+	}
+
+	// Generates the geometry of a given map from given seeds.
+	private static MapStorage regenerate(Map map, List<Point2D> seeds) {
+		return new MapGeometryGenerator(map, map.spec().geom).generate(seeds)
+				.storage();
+	}
+
+	private static List<Point2D> collectSeeds(MapStorage storage) {
+		List<Point2D> seeds = new ArrayList<Point2D>();
+		for (int i = 0; i < storage.countTiles(); ++i)
+			seeds.add(new Point2D(storage.tileX(i), storage.tileY(i)));
+		return seeds;
+	}
+
+	private static double[] collectTileElevations(MapStorage storage) {
+		double[] elevs = new double[storage.countTiles()];
+		for (int i = 0; i < elevs.length; ++i)
+			elevs[i] = storage.tileElevation(i);
+		return elevs;
+	}
+
+	// Checks that given storages have the same tiles, nodes and neighbors. The
+	// indices can differ.
+	private static void assertSameGeometry(MapStorage expected,
+			MapStorage actual) {
+		assertEquals(expected.countTiles(), actual.countTiles());
+		assertEquals(expected.countNodes(), actual.countNodes());
+		for (int i = 0; i < actual.countTiles(); ++i) {
+			final int tile = expected.findTile(actual.tileX(i), actual.tileY(i));
+			assertNotEquals(-1, tile);
+
+			Set<Integer> nodes = new HashSet<Integer>();
+			for (int j = 0; j < actual.countTileNodes(i); ++j) {
+				final int node = actual.tileNode(i, j);
+				nodes.add(expected.findNode(actual.nodeX(node),
+						actual.nodeY(node)));
+			}
+			Set<Integer> expectedNodes = new HashSet<Integer>();
+			for (int j = 0; j < expected.countTileNodes(tile); ++j)
+				expectedNodes.add(expected.tileNode(tile, j));
+			assertEquals(expectedNodes, nodes);
+
+			Set<Integer> neighbors = new HashSet<Integer>();
+			for (int j = 0; j < actual.countTileNeighbors(i); ++j) {
+				final int neighbor = actual.tileNeighbor(i, j);
+				neighbors.add(expected.findTile(actual.tileX(neighbor),
+						actual.tileY(neighbor)));
+			}
+			Set<Integer> expectedNeighbors = new HashSet<Integer>();
+			for (int j = 0; j < expected.countTileNeighbors(tile); ++j)
+				expectedNeighbors.add(expected.tileNeighbor(tile, j));
+			assertEquals(expectedNeighbors, neighbors);
+		}
+		for (int i = 0; i < actual.countNodes(); ++i) {
+			final int node = expected.findNode(actual.nodeX(i), actual.nodeY(i));
+			assertEquals(expected.countNodeNeighbors(node),
+					actual.countNodeNeighbors(i));
+		}
+	}
+}
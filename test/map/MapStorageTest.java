@@ -0,0 +1,139 @@
+package map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import geometry.Point2D;
+import geometry.Polygon2D;
+import geometry.Rect2D;
+
+class MapStorageTest {
+
+	private static final Path MAPPED_FILE_DIR = Paths.get(
+			System.getProperty("java.io.tmpdir"), "map-app", "storage");
+
+	@Test
+	void closingFreesOffHeapBuffers() {
+		MapStorage storage = makeStorage(MapStorageMode.OffHeap);
+		storage.setNodeElevation(0, 2.5);
+		assertEquals(2.5, storage.nodeElevation(0));
+
+		storage.close();
+		assertThrows(IllegalStateException.class, () -> storage.nodeX(0));
+		assertThrows(IllegalStateException.class, () -> storage.nodeElevation(0));
+		// Closing again does nothing.
+		storage.close();
+	}
+
+	@Test
+	void closingDeletesMappedFiles() throws IOException {
+		final long numFilesBefore = countMappedFiles();
+		MapStorage storage = makeStorage(MapStorageMode.FileMapped);
+		// The positions, relations and elevations share one file.
+		assertEquals(numFilesBefore + 1, countMappedFiles());
+
+		storage.close();
+		assertEquals(numFilesBefore, countMappedFiles());
+		assertThrows(IllegalStateException.class, () -> storage.tileX(0));
+	}
+
+	@Test
+	void sharedTopologyIsFreedByLastStorage() {
+		MapStorage storage = makeStorage(MapStorageMode.OffHeap);
+		MapStorage copy = storage.copyWithoutElevations();
+		final double x = storage.nodeX(1);
+
+		storage.close();
+		assertEquals(x, copy.nodeX(1));
+		assertEquals(-1, copy.nodeElevation(1));
+		assertEquals(3, copy.countTileNodes(0));
+
+		copy.close();
+		assertThrows(IllegalStateException.class, () -> copy.nodeX(1));
+	}
+
+	@Test
+	void tileBoundsMatchShape() {
+		MapStorage storage = makeStorage(MapStorageMode.Heap);
+		for (int i = 0; i < storage.countTiles(); ++i) {
+			MapTile tile = new MapTile(storage, i);
+			assertEquals(tile.shape().bounds(), tile.bounds());
+		}
+		assertEquals(new Rect2D(3, 0, 0, 3), new MapTile(storage, 1).bounds());
+		storage.close();
+	}
+
+	@Test
+	void builderGrowsPastExpectedNumberOfTiles() throws IOException {
+		final long numFilesBefore = countMappedFiles();
+		MapStorage.Builder builder =
+				new MapStorage.Builder(1, MapStorageMode.FileMapped);
+		final int size = 40;
+		for (int i = 0; i < size; ++i) {
+			for (int j = 0; j < size; ++j) {
+				builder.addTile(new Point2D(i + 0.5, j + 0.5),
+						new Polygon2D(Arrays.asList(new Point2D(i, j),
+								new Point2D(i + 1, j), new Point2D(i + 1, j + 1),
+								new Point2D(i, j + 1))));
+				if (i > 0)
+					builder.connectTiles(builder.findTile(i - 0.5, j + 0.5),
+							builder.findTile(i + 0.5, j + 0.5));
+			}
+		}
+		MapStorage storage = builder.build();
+		// The builder's buffers are freed.
+		assertEquals(numFilesBefore + 1, countMappedFiles());
+
+		assertEquals(size * size, storage.countTiles());
+		assertEquals((size + 1) * (size + 1), storage.countNodes());
+		for (int t = 0; t < storage.countTiles(); ++t) {
+			assertEquals(t, storage.findTile(storage.tileX(t), storage.tileY(t)));
+			assertEquals(4, storage.countTileNodes(t));
+		}
+		for (int n = 0; n < storage.countNodes(); ++n)
+			assertEquals(n, storage.findNode(storage.nodeX(n), storage.nodeY(n)));
+		final int corner = storage.findTile(0.5, 0.5);
+		assertEquals(1, storage.countTileNeighbors(corner));
+		assertEquals(storage.findTile(1.5, 0.5), storage.tileNeighbor(corner, 0));
+
+		storage.close();
+		assertEquals(numFilesBefore, countMappedFiles());
+	}
+
+	@Test
+	void rejectsBuffersOver2Gigabytes() {
+		MapStorage.BufferAllocator alloc =
+				new MapStorage.BufferAllocator(MapStorageMode.OffHeap);
+		assertThrows(IllegalArgumentException.class, () -> alloc.doubles(1 << 28));
+	}
+
+	// Makes a storage with two triangular tiles that share an edge.
+	private static MapStorage makeStorage(MapStorageMode mode) {
+		MapStorage.Builder builder = new MapStorage.Builder(2, mode);
+		int a = builder.addTile(new Point2D(1, 1), new Polygon2D(Arrays.asList(
+				new Point2D(0, 0), new Point2D(3, 0), new Point2D(0, 3))));
+		int b = builder.addTile(new Point2D(2, 2), new Polygon2D(Arrays.asList(
+				new Point2D(3, 0), new Point2D(3, 3), new Point2D(0, 3))));
+		builder.connectTiles(a, b);
+		builder.connectNodes(builder.findNode(new Point2D(3, 0)),
+				builder.findNode(new Point2D(0, 3)));
+		return builder.build();
+	}
+
+	private static long countMappedFiles() throws IOException {
+		if (!Files.isDirectory(MAPPED_FILE_DIR))
+			return 0;
+		try (Stream<Path> files = Files.list(MAPPED_FILE_DIR)) {
+			return files.count();
+		}
+	}
+}
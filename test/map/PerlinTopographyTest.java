@@ -0,0 +1,93 @@
+package map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import org.junit.jupiter.api.Test;
+
+import geometry.Rect2D;
+import geometry.SamplingAlgorithm;
+import geometry.TriangulationAlgorithm;
+import math.PerlinGradients;
+import types.TaskControl;
+
+class PerlinTopographyTest {
+
+	private static final Rect2D BOUNDS = new Rect2D(0, 0, 200, 150);
+
+	@Test
+	void cancellingFewerOctavesKeepsCache() {
+		Map.Representation rep = makeGeometry();
+		PerlinTopography topo = makeCachingTopography();
+		topo.generate(rep, 8, 2);
+		assertEquals(8, topo.countCachedOctaves());
+
+		assertThrows(CancellationException.class,
+				() -> makeCancellingControl().run(() -> topo.generate(rep, 4, 2)));
+		assertEquals(8, topo.countCachedOctaves());
+
+		topo.generate(rep, 8, 1.5);
+		double[] cached = elevations(rep);
+		assertArrayEquals(generateUncached(rep, 8, 1.5), cached);
+	}
+
+	@Test
+	void cancellingMoreOctavesDropsNewOctaves() {
+		Map.Representation rep = makeGeometry();
+		PerlinTopography topo = makeCachingTopography();
+		topo.generate(rep, 4, 2);
+
+		assertThrows(CancellationException.class,
+				() -> makeCancellingControl().run(() -> topo.generate(rep, 8, 2)));
+		assertEquals(4, topo.countCachedOctaves());
+
+		topo.generate(rep, 8, 2);
+		assertEquals(8, topo.countCachedOctaves());
+		double[] cached = elevations(rep);
+		assertArrayEquals(generateUncached(rep, 8, 2), cached);
+	}
+
+	private static Map.Representation makeGeometry() {
+		MapGeometryGenerator.Spec spec = new MapGeometryGenerator.Spec(BOUNDS, 2,
+				20, TriangulationAlgorithm.SweepHull, SamplingAlgorithm.Bridson);
+		return new MapGeometryGenerator(null, spec).generate(new Random(1));
+	}
+
+	private static PerlinTopography makeCachingTopography() {
+		return new PerlinTopography(new PerlinTopography.Spec(BOUNDS, 8, 2,
+				PerlinGradients.Grid, false, true), new Random(9));
+	}
+
+	// Returns a control that cancels the task as soon as the elevations are
+	// being generated, so that the generation stops after it started.
+	private static TaskControl makeCancellingControl() {
+		return new TaskControl() {
+			@Override
+			public void beginStage(String name) {
+				super.beginStage(name);
+				cancel();
+			}
+		};
+	}
+
+	private static double[] generateUncached(Map.Representation rep,
+			int numOctaves, double persistence) {
+		PerlinTopography topo = new PerlinTopography(new PerlinTopography.Spec(
+				BOUNDS, 8, 2, PerlinGradients.Grid, false, false), new Random(9));
+		topo.generate(rep, numOctaves, persistence);
+		return elevations(rep);
+	}
+
+	private static double[] elevations(Map.Representation rep) {
+		double[] result = new double[rep.countNodes() + rep.countTiles()];
+		for (int i = 0; i < rep.countNodes(); ++i)
+			result[i] = rep.node(i).elevation();
+		for (int i = 0; i < rep.countTiles(); ++i)
+			result[rep.countNodes() + i] = rep.tile(i).elevation();
+		return result;
+	}
+}
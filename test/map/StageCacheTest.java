@@ -0,0 +1,83 @@
+package map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import geometry.Rect2D;
+import geometry.SamplingAlgorithm;
+import geometry.TriangulationAlgorithm;
+import jdk.incubator.foreign.ResourceScope;
+import math.SnapshotRandom;
+
+class StageCacheTest {
+
+	private static final Rect2D BOUNDS = new Rect2D(0, 0, 100, 80);
+	private static final long SEED = 4;
+
+	@Test
+	void cachedGeometryIsFreedWithLastMapAndEntry() {
+		StageCache cache = new StageCache(new StageCache.Spec(1L << 30));
+		Map map = new Map(makeSpec(), new SnapshotRandom(SEED), cache);
+		map.generate();
+		ResourceScope scope =
+				map.representation().storage().topologyAllocator().scope();
+		// Made from the cached seeds, geometry and elevations.
+		Map other = new Map(makeSpec(), new SnapshotRandom(SEED), cache);
+		other.generate();
+		assertEquals(3, cache.countHits());
+
+		map.close();
+		other.close();
+		assertTrue(scope.isAlive());
+		cache.clear();
+		assertFalse(scope.isAlive());
+	}
+
+	@Test
+	void closesDroppedAndReplacedValues() {
+		StageCache cache = new StageCache(new StageCache.Spec(1000));
+		Resource a = new Resource();
+		Resource b = new Resource();
+		Resource c = new Resource();
+		cache.put(makeKey(1), a, 0, 100);
+		cache.put(makeKey(1), b, 0, 100);
+		assertTrue(a.isClosed);
+		assertFalse(b.isClosed);
+
+		// Too large for memory, so it is dropped right away.
+		cache.put(makeKey(2), c, 0, 2000);
+		assertTrue(c.isClosed);
+
+		// Drops the least recently used value.
+		Resource d = new Resource();
+		cache.put(makeKey(3), d, 0, 700);
+		assertTrue(b.isClosed);
+		assertFalse(d.isClosed);
+
+		cache.clear();
+		assertTrue(d.isClosed);
+	}
+
+	private static Map.Spec makeSpec() {
+		return new Map.Spec(new MapGeometryGenerator.Spec(BOUNDS, 2, 20,
+				TriangulationAlgorithm.SweepHull, SamplingAlgorithm.Bridson,
+				MapStorageMode.OffHeap),
+				new PerlinTopography.Spec(BOUNDS, 4, 2));
+	}
+
+	private static StageCache.Key makeKey(int id) {
+		return new StageCache.KeyBuilder("test").add(id).build();
+	}
+
+	private static class Resource implements AutoCloseable {
+		boolean isClosed = false;
+
+		@Override
+		public void close() {
+			isClosed = true;
+		}
+	}
+}
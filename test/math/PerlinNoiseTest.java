@@ -0,0 +1,75 @@
+package math;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import geometry.Point2D;
+
+class PerlinNoiseTest {
+
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+	private static final int NUM_OCTAVES = 6;
+	// Not a multiple of the number of vector lanes, so that the scalar kernel
+	// calculates the last points.
+	private static final int NUM_POINTS = 1001;
+
+	@Test
+	void vectorKernelMatchesScalarKernel() {
+		for (PerlinGradients mode : PerlinGradients.values()) {
+			PerlinNoise noise = new PerlinNoise(WIDTH, HEIGHT, new Random(3), mode);
+			double[] xs = new double[NUM_POINTS];
+			double[] ys = new double[NUM_POINTS];
+			makePoints(xs, ys);
+
+			for (int octave = 0; octave < NUM_OCTAVES; ++octave) {
+				double[] vectorNoise = new double[NUM_POINTS];
+				double[] scalarNoise = new double[NUM_POINTS];
+				noise.calcOctave(xs, ys, vectorNoise, 0, NUM_POINTS, octave, true);
+				noise.calcOctave(xs, ys, scalarNoise, 0, NUM_POINTS, octave, false);
+				assertArrayEquals(scalarNoise, vectorNoise);
+
+				// Ranges that start between lane boundaries.
+				double[] rangeNoise = new double[NUM_POINTS];
+				noise.calcOctave(xs, ys, rangeNoise, 0, 3, octave, true);
+				noise.calcOctave(xs, ys, rangeNoise, 3, NUM_POINTS, octave, true);
+				assertArrayEquals(scalarNoise, rangeNoise);
+			}
+		}
+	}
+
+	@Test
+	void batchMatchesSinglePoints() {
+		for (PerlinGradients mode : PerlinGradients.values()) {
+			PerlinNoise noise = new PerlinNoise(WIDTH, HEIGHT, new Random(5), mode);
+			double[] xs = new double[NUM_POINTS];
+			double[] ys = new double[NUM_POINTS];
+			makePoints(xs, ys);
+
+			double[] batch = new double[NUM_POINTS];
+			noise.calcOctaveNoise(xs, ys, batch, NUM_OCTAVES, 0.5);
+			for (int p = 0; p < NUM_POINTS; ++p) {
+				double single = noise.calcOctaveNoise(new Point2D(xs[p], ys[p]),
+						NUM_OCTAVES, 0.5);
+				assertEquals(single, batch[p]);
+			}
+		}
+	}
+
+	// Makes random points within the noise's range including its borders.
+	private static void makePoints(double[] xs, double[] ys) {
+		Random rand = new Random(7);
+		for (int p = 0; p < xs.length; ++p) {
+			xs[p] = rand.nextDouble() * WIDTH;
+			ys[p] = rand.nextDouble() * HEIGHT;
+		}
+		xs[0] = 0;
+		ys[0] = 0;
+		xs[1] = WIDTH;
+		ys[1] = HEIGHT;
+	}
+}